@@ -161,5 +161,6 @@ public interface CentralizedServiceMaster<I extends WritableComparable,
   void readLinePattern();
 
   ArrayList<RawQueryNode> getLinePattern();
+  ArrayList<ArrayList<RawQueryNode>> getLinePatterns();
   void setQueryPlan(QueryPlan qp);
 }
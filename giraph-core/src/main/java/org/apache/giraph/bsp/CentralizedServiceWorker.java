@@ -255,4 +255,10 @@ public interface CentralizedServiceWorker<I extends WritableComparable,
   boolean isLeftQuery(int qid);
   QueryNode getQueryByChild(int qid);
   int getPlanSize();
+  /**
+   * @param qid Query id
+   * @return Line patterns answered by the root query qid, null if the plan
+   *         does not know the patterns, empty without a query plan
+   */
+  ArrayList<Integer> getPatternsOfRoot(int qid);
 }
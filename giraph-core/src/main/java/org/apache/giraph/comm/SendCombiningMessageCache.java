@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm;
+
+import com.google.common.collect.Maps;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.apache.giraph.bsp.CentralizedServiceWorker;
+import org.apache.giraph.combiner.Combiner;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.partition.PartitionOwner;
+import org.apache.giraph.utils.ByteArrayVertexIdMessages;
+import org.apache.giraph.utils.ExtendedDataOutput;
+import org.apache.giraph.utils.PairList;
+import org.apache.giraph.worker.WorkerInfo;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * {@link SendMessageCache} which combines the messages of a destination
+ * vertex with the combiner of the job before they are sent, so a worker
+ * sends at most one message per destination vertex and flush instead of
+ * one per edge. The combined messages are serialized when the messages of
+ * a worker are removed. Not thread-safe.
+ *
+ * The size returned by {@link #addMessage} is the serialized size of the
+ * combined messages of the worker, counted when a destination is first
+ * seen. It is exact for messages of a fixed size.
+ *
+ * @param <I> Vertex id
+ * @param <M> Message data
+ */
+@SuppressWarnings("unchecked")
+public class SendCombiningMessageCache<I extends WritableComparable,
+    M extends Writable> extends SendMessageCache<I, M> {
+  /** Giraph configuration */
+  private final ImmutableClassesGiraphConfiguration<I, ?, ?, M> conf;
+  /** Combiner of the job */
+  private final Combiner<I, M> combiner;
+  /** Combined message of every destination vertex, by partition */
+  private final Map<I, M>[] combinedMessages;
+  /** Owner of every partition with combined messages */
+  private final WorkerInfo[] partitionWorkers;
+  /** Partitions with combined messages, by worker */
+  private final IntArrayList[] workerPartitions;
+  /** Serialized size of the combined messages, by worker */
+  private final int[] combinedSizes;
+  /** Buffer to copy the vertex ids and measure the messages */
+  private final ExtendedDataOutput scratch;
+
+  /**
+   * Constructor
+   *
+   * @param conf Giraph configuration
+   * @param serviceWorker Service worker
+   * @param combiner Combiner of the job
+   */
+  public SendCombiningMessageCache(
+      ImmutableClassesGiraphConfiguration<I, ?, ?, M> conf,
+      CentralizedServiceWorker<?, ?, ?, ?> serviceWorker,
+      Combiner<I, M> combiner) {
+    super(conf, serviceWorker);
+    this.conf = conf;
+    this.combiner = combiner;
+
+    int maxPartition = 0;
+    for (PartitionOwner partitionOwner : serviceWorker.getPartitionOwners()) {
+      maxPartition = Math.max(partitionOwner.getPartitionId(), maxPartition);
+    }
+    combinedMessages = new Map[maxPartition + 1];
+    partitionWorkers = new WorkerInfo[maxPartition + 1];
+
+    int maxWorker = 0;
+    for (WorkerInfo workerInfo : serviceWorker.getWorkerInfoList()) {
+      maxWorker = Math.max(maxWorker, workerInfo.getTaskId());
+    }
+    combinedSizes = new int[maxWorker + 1];
+    workerPartitions = new IntArrayList[maxWorker + 1];
+    scratch = conf.createExtendedDataOutput();
+  }
+
+  /**
+   * Combine a message into the message of its destination vertex.
+   *
+   * @param workerInfo the remote worker destination
+   * @param partitionId the remote Partition this message belongs to
+   * @param destVertexId vertex id that is ultimate destination
+   * @param message Message to send to remote worker
+   * @return Size of combined messages for the worker.
+   */
+  @Override
+  public int addMessage(WorkerInfo workerInfo,
+                        int partitionId, I destVertexId, M message) {
+    Map<I, M> partitionMessages = combinedMessages[partitionId];
+    if (partitionMessages == null) {
+      partitionMessages = Maps.newHashMap();
+      combinedMessages[partitionId] = partitionMessages;
+      partitionWorkers[partitionId] = workerInfo;
+      IntArrayList partitions = workerPartitions[workerInfo.getTaskId()];
+      if (partitions == null) {
+        partitions = new IntArrayList();
+        workerPartitions[workerInfo.getTaskId()] = partitions;
+      }
+      partitions.add(partitionId);
+    }
+    M combinedMessage = partitionMessages.get(destVertexId);
+    if (combinedMessage == null) {
+      combinedMessage = combiner.createInitialMessage();
+      partitionMessages.put(copyVertexId(workerInfo, destVertexId, message),
+          combinedMessage);
+    }
+    combiner.combine(destVertexId, combinedMessage, message);
+    return combinedSizes[workerInfo.getTaskId()];
+  }
+
+  /**
+   * Copy a new destination vertex id (the caller may reuse it) and count
+   * its message for the worker.
+   *
+   * @param workerInfo the remote worker destination
+   * @param destVertexId vertex id that is ultimate destination
+   * @param message First message to the vertex
+   * @return Copy of the vertex id
+   */
+  private I copyVertexId(WorkerInfo workerInfo, I destVertexId, M message) {
+    scratch.reset();
+    try {
+      destVertexId.write(scratch);
+      int idSize = scratch.getPos();
+      message.write(scratch);
+      combinedSizes[workerInfo.getTaskId()] += scratch.getPos();
+      I copy = conf.createVertexId();
+      copy.readFields(
+          conf.createExtendedDataInput(scratch.getByteArray(), 0, idSize));
+      return copy;
+    } catch (IOException e) {
+      throw new IllegalStateException(
+          "copyVertexId: IOException occurred", e);
+    }
+  }
+
+  /**
+   * Serialize the combined messages of a partition into the cache.
+   *
+   * @param partitionId Partition id
+   */
+  private void serializePartition(int partitionId) {
+    Map<I, M> partitionMessages = combinedMessages[partitionId];
+    if (partitionMessages == null || partitionMessages.isEmpty()) {
+      return;
+    }
+    for (Map.Entry<I, M> entry : partitionMessages.entrySet()) {
+      addData(partitionWorkers[partitionId], partitionId,
+          entry.getKey(), entry.getValue());
+    }
+    partitionMessages.clear();
+  }
+
+  @Override
+  public PairList<Integer, ByteArrayVertexIdMessages<I, M>>
+  removeWorkerMessages(WorkerInfo workerInfo) {
+    IntArrayList partitions = workerPartitions[workerInfo.getTaskId()];
+    if (partitions != null) {
+      for (int i = 0; i < partitions.size(); ++i) {
+        serializePartition(partitions.getInt(i));
+      }
+    }
+    combinedSizes[workerInfo.getTaskId()] = 0;
+    return super.removeWorkerMessages(workerInfo);
+  }
+
+  @Override
+  public PairList<WorkerInfo, PairList<
+      Integer, ByteArrayVertexIdMessages<I, M>>> removeAllMessages() {
+    for (int partitionId = 0; partitionId < partitionWorkers.length;
+         ++partitionId) {
+      serializePartition(partitionId);
+    }
+    Arrays.fill(combinedSizes, 0);
+    return super.removeAllMessages();
+  }
+}
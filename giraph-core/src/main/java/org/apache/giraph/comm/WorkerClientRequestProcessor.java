@@ -128,6 +128,13 @@ public interface WorkerClientRequestProcessor<I extends WritableComparable,
    */
   long resetMessageCount();
 
+  /**
+   * Get the messages sent during this superstep since the last reset.
+   *
+   * @return Number of messages sent
+   */
+  long getMessageCount();
+
 long getLocalRequestCost();
 
 long getRemoteMessage();
@@ -1,33 +1,63 @@
 package org.apache.giraph.comm.messages;
 
-import com.google.common.collect.Iterators;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntIterator;
 
 import org.apache.giraph.bsp.CentralizedServiceWorker;
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.plan.QueryPlan;
+import org.apache.giraph.subgraph.graphextraction.PartialAggregatedPath;
+import org.apache.giraph.subgraph.graphextraction.PathSemiring;
 import org.apache.giraph.utils.ByteArrayVertexIdMessages;
-import org.apache.giraph.utils.ExtendedDataOutput;
-import org.apache.giraph.utils.RepresentativeByteArrayIterable;
-import org.apache.giraph.utils.RepresentativeByteArrayIterator;
-import org.apache.giraph.utils.VertexIdIterator;
+import org.apache.giraph.utils.ExtendedDataInput;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
+
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ConcurrentMap;
 
 /**
  * The implementation is optimized for storing messages of
- * path evaluation.
+ * path evaluation (vertex id IntWritable, message PartialAggregatedPath),
+ * selected by "grapholap.path.evaluation.msg.store.compact".
+ *
+ * Every partition keeps its messages in primitive arrays, one cell per
+ * (vertex, qid, sid, tid). The requests are decoded straight from their
+ * bytes, without PartialAggregatedPath objects. The partial paths sent from
+ * the first query superstep on are merged on arrival with $oplus$ of the
+ * PathSemiring (aggregation-II), so a vertex gets one message per key
+ * however many copies were sent. The preprocessing messages carry the raw
+ * edge weights and are kept one per message.
+ *
+ * getVertexMessages() returns a representative PartialAggregatedPath that
+ * is only valid until the next message, as ByteArrayMessagesPerVertexStore.
  *
  * @param <I> Vertex id
  * @param <M> Message data
  */
 public class CompactMessagesPerVertexStore<I extends WritableComparable,
-    M extends Writable> extends SimpleMessageStore<I, M, VertexMessageStore> {
+    M extends Writable> implements MessageStoreByPartition<I, M> {
+  /** Service worker */
+  private final CentralizedServiceWorker<I, ?, ?, M> service;
+  /** Giraph configuration */
+  private final ImmutableClassesGiraphConfiguration<I, ?, ?, M> config;
+  /** Aggregation-II of the partial paths */
+  private final PathSemiring semiring;
+  /** First superstep sending partial paths */
+  private final int firstQuerySuperstep;
+  /** Map from partition id to its messages */
+  private final ConcurrentMap<Integer, PartitionTable> map;
+
   /**
    * Constructor
    *
@@ -37,7 +67,34 @@ public class CompactMessagesPerVertexStore<I extends WritableComparable,
   public CompactMessagesPerVertexStore(
       CentralizedServiceWorker<I, ?, ?, M> service,
       ImmutableClassesGiraphConfiguration<I, ?, ?, M> config) {
-    super(service, config);
+    if (!IntWritable.class.equals(config.getVertexIdClass()) ||
+        !PartialAggregatedPath.class.equals(config.getMessageValueClass())) {
+      throw new IllegalStateException("CompactMessagesPerVertexStore: " +
+          "only stores PartialAggregatedPath messages to IntWritable ids, got " +
+          config.getMessageValueClass() + " to " + config.getVertexIdClass());
+    }
+    this.service = service;
+    this.config = config;
+    this.semiring = PathSemiring.create(config);
+    this.firstQuerySuperstep = QueryPlan.getFirstQuerySuperstep(config);
+    map = new MapMaker().concurrencyLevel(
+        config.getNettyServerExecutionConcurrency()).makeMap();
+  }
+
+  /**
+   * Create new factory for this message store
+   *
+   * @param service Worker service
+   * @param config  Hadoop configuration
+   * @param <I>     Vertex id
+   * @param <M>     Message data
+   * @return Factory
+   */
+  public static <I extends WritableComparable, M extends Writable>
+  MessageStoreFactory<I, M, MessageStoreByPartition<I, M>> newFactory(
+      CentralizedServiceWorker<I, ?, ?, M> service,
+      ImmutableClassesGiraphConfiguration<I, ?, ?, M> config) {
+    return new Factory<I, M>(service, config);
   }
 
   /**
@@ -65,86 +122,457 @@ public class CompactMessagesPerVertexStore<I extends WritableComparable,
 
     @Override
     public MessageStoreByPartition<I, M> newStore() {
-      return new CompactMessagesPerVertexStore(service, config);
+      return new CompactMessagesPerVertexStore<I, M>(service, config);
+    }
+  }
+
+  /**
+   * Get id of partition which holds vertex with selected id
+   *
+   * @param vertexId Id of vertex
+   * @return Id of partiton
+   */
+  private int getPartitionId(I vertexId) {
+    return service.getVertexPartitionOwner(vertexId).getPartitionId();
+  }
+
+  /**
+   * Get the table of a partition, creating if necessary
+   *
+   * @param partitionId Id of partition
+   * @return Table of the partition
+   */
+  private PartitionTable getOrCreateTable(int partitionId) {
+    PartitionTable table = map.get(partitionId);
+    if (table == null) {
+      PartitionTable tmpTable = new PartitionTable();
+      table = map.putIfAbsent(partitionId, tmpTable);
+      if (table == null) {
+        table = tmpTable;
+      }
+    }
+    return table;
+  }
+
+  /**
+   * Are the messages received now partial paths, merged on arrival?
+   *
+   * @return Semiring to merge with, null to keep every message
+   */
+  private PathSemiring getAggregation() {
+    return (service.getSuperstep() >= firstQuerySuperstep) ? semiring : null;
+  }
+
+  @Override
+  public void addPartitionMessages(int partitionId,
+      ByteArrayVertexIdMessages<I, M> messages) throws IOException {
+    ExtendedDataInput in = config.createExtendedDataInput(
+        messages.getByteArray(), 0, messages.getSize());
+    PathSemiring aggregation = getAggregation();
+    PartitionTable table = getOrCreateTable(partitionId);
+    synchronized (table) {
+      while (in.available() > 0) {
+        /* vertex id and PartialAggregatedPath.write(), no message size */
+        int vid = in.readInt();
+        int sid = in.readInt();
+        int tid = in.readInt();
+        int qid = in.readInt();
+        long weight = in.readLong();
+        table.add(vid, qid, sid, tid, weight, aggregation);
+      }
+    }
+  }
+
+  @Override
+  public void addMessages(MessageStore<I, M> messageStore) throws IOException {
+    PathSemiring aggregation = getAggregation();
+    for (I vertexId : messageStore.getDestinationVertices()) {
+      int vid = ((IntWritable) vertexId).get();
+      PartitionTable table = getOrCreateTable(getPartitionId(vertexId));
+      synchronized (table) {
+        for (M message : messageStore.getVertexMessages(vertexId)) {
+          PartialAggregatedPath path = (PartialAggregatedPath) message;
+          table.add(vid, path.getQid(), path.getSid(), path.getTid(),
+              path.getWeight(), aggregation);
+        }
+      }
+    }
+  }
+
+  @Override
+  public Iterable<M> getVertexMessages(I vertexId) throws IOException {
+    VertexMessageStore messages = getVertexMessageStore(vertexId);
+    if (messages == null) {
+      return Collections.<M>emptyList();
+    }
+    // M is PartialAggregatedPath, checked by the constructor
+    @SuppressWarnings("unchecked")
+    Iterable<M> paths = (Iterable<M>) messages.asPaths();
+    return paths;
+  }
+
+  @Override
+  public VertexMessageStore getVertexMessageStore(I vertexId) {
+    PartitionTable table = map.get(getPartitionId(vertexId));
+    if (table == null) {
+      return null;
+    }
+    synchronized (table) {
+      return table.getVertex(((IntWritable) vertexId).get());
+    }
+  }
+
+  @Override
+  public void clearVertexMessages(I vertexId) throws IOException {
+    PartitionTable table = map.get(getPartitionId(vertexId));
+    if (table != null) {
+      synchronized (table) {
+        table.remove(((IntWritable) vertexId).get());
+      }
+    }
+  }
+
+  @Override
+  public void clearPartition(int partitionId) throws IOException {
+    map.remove(partitionId);
+  }
+
+  @Override
+  public void clearAll() throws IOException {
+    map.clear();
+  }
+
+  @Override
+  public int getNumberOfMessages() {
+    int numberOfMessages = 0;
+    for (PartitionTable table : map.values()) {
+      synchronized (table) {
+        numberOfMessages += table.size - table.removed;
+      }
+    }
+    return numberOfMessages;
+  }
+
+  @Override
+  public boolean hasMessagesForVertex(I vertexId) {
+    PartitionTable table = map.get(getPartitionId(vertexId));
+    if (table == null) {
+      return false;
+    }
+    synchronized (table) {
+      return table.heads.containsKey(((IntWritable) vertexId).get());
+    }
+  }
+
+  @Override
+  public Iterable<I> getPartitionDestinationVertices(int partitionId) {
+    PartitionTable table = map.get(partitionId);
+    if (table == null) {
+      return Collections.<I>emptyList();
+    }
+    List<I> vertices = Lists.newArrayList();
+    addVertexIds(table, vertices);
+    return vertices;
+  }
+
+  @Override
+  public Iterable<I> getDestinationVertices() {
+    List<I> vertices = Lists.newArrayList();
+    for (PartitionTable table : map.values()) {
+      addVertexIds(table, vertices);
+    }
+    return vertices;
+  }
+
+  /**
+   * Add the ids of the vertices with messages in a table
+   *
+   * @param table Partition table
+   * @param vertices Where the ids are added
+   */
+  private void addVertexIds(PartitionTable table, List<I> vertices) {
+    synchronized (table) {
+      IntIterator it = table.heads.keySet().iterator();
+      while (it.hasNext()) {
+        // I is IntWritable, checked by the constructor
+        @SuppressWarnings("unchecked")
+        I vertexId = (I) new IntWritable(it.nextInt());
+        vertices.add(vertexId);
+      }
+    }
+  }
+
+  @Override
+  public void writePartition(DataOutput out,
+      int partitionId) throws IOException {
+    PartitionTable table = map.get(partitionId);
+    out.writeBoolean(table != null);
+    if (table != null) {
+      synchronized (table) {
+        out.writeInt(table.heads.size());
+        for (Int2IntMap.Entry entry : table.heads.int2IntEntrySet()) {
+          out.writeInt(entry.getIntKey());
+          VertexMessageStore messages = table.getVertex(entry.getIntKey());
+          out.writeInt(messages.size());
+          for (int i = 0; i < messages.size(); ++i) {
+            out.writeInt(messages.getQid(i));
+            out.writeInt(messages.getSid(i));
+            out.writeInt(messages.getTid(i));
+            out.writeLong(messages.getWeight(i));
+          }
+        }
+      }
+    }
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    out.writeInt(map.size());
+    for (int partitionId : map.keySet()) {
+      out.writeInt(partitionId);
+      writePartition(out, partitionId);
+    }
+  }
+
+  @Override
+  public void readFieldsForPartition(DataInput in,
+      int partitionId) throws IOException {
+    if (in.readBoolean()) {
+      PartitionTable table = new PartitionTable();
+      int numVertices = in.readInt();
+      for (int v = 0; v < numVertices; v++) {
+        int vid = in.readInt();
+        int numMessages = in.readInt();
+        for (int m = 0; m < numMessages; m++) {
+          int qid = in.readInt();
+          int sid = in.readInt();
+          int tid = in.readInt();
+          /* merged before they were written */
+          table.add(vid, qid, sid, tid, in.readLong(), null);
+        }
+      }
+      map.put(partitionId, table);
     }
   }
 
   @Override
-  public VertexMessageStore getVertexMessageStore(I vid) {
-	ConcurrentMap<I, VertexMessageStore> partitionMap =  map.get(getPartitionId(vid));
-	if(partitionMap == null)
-		return null;
-	return partitionMap.get(vid);
-  }
-	
-	@Override
-	public void addPartitionMessages(int partitionId,
-			ByteArrayVertexIdMessages<I, M> messages) throws IOException {
-	    ConcurrentMap<I, VertexMessageStore> partitionMap =
-	            getOrCreatePartitionMap(partitionId);
-	    
-	        ByteArrayVertexIdMessages<I, M>.VertexIdMessageBytesIterator
-	            vertexIdMessageBytesIterator =
-	            messages.getVertexIdMessageBytesIterator();
-	        // Try to copy the message buffer over rather than
-	        // doing a deserialization of a message just to know its size.  This
-	        // should be more efficient for complex objects where serialization is
-	        // expensive.  If this type of iterator is not available, fall back to
-	        // deserializing/serializing the messages
-	        if (vertexIdMessageBytesIterator != null) {
-	          while (vertexIdMessageBytesIterator.hasNext()) {
-	            vertexIdMessageBytesIterator.next();
-	          }
-	        } else {
-	          ByteArrayVertexIdMessages<I, M>.VertexIdMessageIterator
-	              vertexIdMessageIterator = messages.getVertexIdMessageIterator();
-	          while (vertexIdMessageIterator.hasNext()) {
-	            vertexIdMessageIterator.next();
-	            I vid = vertexIdMessageIterator.getCurrentVertexId();
-	            VertexMessageStore vms = partitionMap.get(vid);
-	            if(vms == null) {
-	            	VertexMessageStore nvms = new VertexMessageStore();
-	            	vms = partitionMap.putIfAbsent(vid, new VertexMessageStore());
-	            	if(vms == null) {
-	            		vms = nvms;
-	            	}
-	            }
-	            vertexIdMessageIterator.getCurrentMessage();
-	            //vms.addMessage();
-	          }
-	        }
-	}
-	
-	@Override
-	public void addMessages(MessageStore<I, M> messageStore) throws IOException {
-		// TODO Auto-generated method stub
-		
-	}
-	
-	@Override
-	protected Iterable<M> getMessagesAsIterable(VertexMessageStore messages) {
-		// TODO Auto-generated method stub
-		return null;
-	}
-	
-	@Override
-	protected int getNumberOfMessagesIn(
-			ConcurrentMap<I, VertexMessageStore> partitionMap) {
-		// TODO Auto-generated method stub
-		return 0;
-	}
-	
-	@Override
-	protected void writeMessages(VertexMessageStore messages, DataOutput out)
-			throws IOException {
-		// TODO Auto-generated method stub
-		
-	}
-	
-	@Override
-	protected VertexMessageStore readFieldsForMessages(DataInput in)
-			throws IOException {
-		// TODO Auto-generated method stub
-		return null;
-	}
+  public void readFields(DataInput in) throws IOException {
+    int numPartitions = in.readInt();
+    for (int p = 0; p < numPartitions; p++) {
+      int partitionId = in.readInt();
+      readFieldsForPartition(in, partitionId);
+    }
+  }
+
+  /**
+   * The messages of one partition: cell i is (vids[i], qids[i], sids[i],
+   * tids[i], weights[i]), the cells of a vertex are chained by next[] from
+   * heads. The merged cells are also indexed by an open addressing table
+   * over the four keys. The cells of a cleared vertex are dropped from the
+   * index and marked {@link #REMOVED}, their space is only reclaimed with
+   * the table. Guarded by its own monitor.
+   */
+  private static class PartitionTable {
+    /** Initial number of cells */
+    private static final int INITIAL_CAPACITY = 256;
+    /** next[] of a removed cell */
+    private static final int REMOVED = -2;
+    /** Vertex of the cells */
+    private int[] vids = new int[INITIAL_CAPACITY];
+    /** Query of the cells */
+    private int[] qids = new int[INITIAL_CAPACITY];
+    /** Start vertex of the cells */
+    private int[] sids = new int[INITIAL_CAPACITY];
+    /** End vertex of the cells */
+    private int[] tids = new int[INITIAL_CAPACITY];
+    /** Aggregated weight of the cells */
+    private long[] weights = new long[INITIAL_CAPACITY];
+    /** Previous cell of the same vertex, -1 for none */
+    private int[] next = new int[INITIAL_CAPACITY];
+    /** Number of cells */
+    private int size = 0;
+    /** Number of removed cells */
+    private int removed = 0;
+    /** Vertex id to its last cell */
+    private final Int2IntOpenHashMap heads = new Int2IntOpenHashMap();
+    /** Merged cell + 1 by key hash, 0 if free; null before the first merge */
+    private int[] slots = null;
+
+    /** Constructor */
+    PartitionTable() {
+      heads.defaultReturnValue(-1);
+    }
+
+    /**
+     * Add a message, merged into the cell of its key if aggregating
+     *
+     * @param vid Destination vertex
+     * @param qid Query id
+     * @param sid Start vertex
+     * @param tid End vertex
+     * @param weight Weight
+     * @param aggregation Semiring to merge with, null to add a new cell
+     */
+    void add(int vid, int qid, int sid, int tid, long weight,
+        PathSemiring aggregation) {
+      if (aggregation == null) {
+        append(vid, qid, sid, tid, weight);
+        return;
+      }
+      if (slots == null || (size + 1) * 2 > slots.length) {
+        rehash();
+      }
+      int mask = slots.length - 1;
+      int slot = hash(vid, qid, sid, tid) & mask;
+      while (slots[slot] != 0) {
+        int cell = slots[slot] - 1;
+        if (vids[cell] == vid && qids[cell] == qid &&
+            sids[cell] == sid && tids[cell] == tid) {
+          weights[cell] = aggregation.plus(weights[cell], weight);
+          return;
+        }
+        slot = (slot + 1) & mask;
+      }
+      slots[slot] = append(vid, qid, sid, tid, weight) + 1;
+    }
+
+    /**
+     * Add a new cell
+     *
+     * @param vid Destination vertex
+     * @param qid Query id
+     * @param sid Start vertex
+     * @param tid End vertex
+     * @param weight Weight
+     * @return The cell
+     */
+    private int append(int vid, int qid, int sid, int tid, long weight) {
+      if (size == vids.length) {
+        int capacity = size * 2;
+        vids = Arrays.copyOf(vids, capacity);
+        qids = Arrays.copyOf(qids, capacity);
+        sids = Arrays.copyOf(sids, capacity);
+        tids = Arrays.copyOf(tids, capacity);
+        weights = Arrays.copyOf(weights, capacity);
+        next = Arrays.copyOf(next, capacity);
+      }
+      int cell = size++;
+      vids[cell] = vid;
+      qids[cell] = qid;
+      sids[cell] = sid;
+      tids[cell] = tid;
+      weights[cell] = weight;
+      next[cell] = heads.put(vid, cell);
+      return cell;
+    }
+
+    /**
+     * Grow the key index to four slots per cell and index all the cells
+     */
+    private void rehash() {
+      int capacity = Integer.highestOneBit(Math.max(INITIAL_CAPACITY,
+          (size + 1) * 4) - 1) << 1;
+      slots = new int[capacity];
+      int mask = capacity - 1;
+      for (int cell = 0; cell < size; ++cell) {
+        if (next[cell] == REMOVED) {
+          continue;
+        }
+        int slot = hash(vids[cell], qids[cell], sids[cell], tids[cell]) & mask;
+        while (slots[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        slots[slot] = cell + 1;
+      }
+    }
+
+    /**
+     * Remove the messages of a vertex
+     *
+     * @param vid Vertex id
+     */
+    void remove(int vid) {
+      int cell = heads.remove(vid);
+      while (cell != -1) {
+        if (slots != null) {
+          removeSlot(cell);
+        }
+        int previous = next[cell];
+        next[cell] = REMOVED;
+        removed++;
+        cell = previous;
+      }
+    }
+
+    /**
+     * Drop a cell from the key index, shifting back the cells probed
+     * after it so the linear probing chains stay unbroken.
+     *
+     * @param cell Indexed cell
+     */
+    private void removeSlot(int cell) {
+      int mask = slots.length - 1;
+      int slot = hash(vids[cell], qids[cell], sids[cell], tids[cell]) & mask;
+      while (slots[slot] != cell + 1) {
+        if (slots[slot] == 0) {
+          /* appended without merging, not indexed */
+          return;
+        }
+        slot = (slot + 1) & mask;
+      }
+      int last = slot;
+      slot = (slot + 1) & mask;
+      while (slots[slot] != 0) {
+        int c = slots[slot] - 1;
+        int home = hash(vids[c], qids[c], sids[c], tids[c]) & mask;
+        /* move the cell back unless its home is cyclically in (last, slot] */
+        if (last <= slot ? (last >= home || home > slot) :
+            (last >= home && home > slot)) {
+          slots[last] = slots[slot];
+          last = slot;
+        }
+        slot = (slot + 1) & mask;
+      }
+      slots[last] = 0;
+    }
+
+    /**
+     * Hash of a key
+     *
+     * @param vid Destination vertex
+     * @param qid Query id
+     * @param sid Start vertex
+     * @param tid End vertex
+     * @return Hash code
+     */
+    private static int hash(int vid, int qid, int sid, int tid) {
+      int h = vid * 0x9E3779B9;
+      h = (h ^ qid) * 0x85EBCA6B;
+      h = (h ^ sid) * 0xC2B2AE35;
+      h = (h ^ tid) * 0x27D4EB2F;
+      return h ^ (h >>> 16);
+    }
+
+    /**
+     * The messages of a vertex
+     *
+     * @param vid Vertex id
+     * @return Its messages, null if none
+     */
+    VertexMessageStore getVertex(int vid) {
+      int cell = heads.get(vid);
+      if (cell == -1) {
+        return null;
+      }
+      int count = 0;
+      for (int c = cell; c != -1; c = next[c]) {
+        count++;
+      }
+      int[] cells = new int[count];
+      for (int c = cell; c != -1; c = next[c]) {
+        cells[--count] = c;
+      }
+      return new VertexMessageStore(cells, qids, sids, tids, weights);
+    }
+  }
 }
@@ -17,10 +17,20 @@ import java.util.HashMap;
  * @author yxshao
  *
  */
-public class NaiveVertexMessageStore extends VertexMessageStore {
+public class NaiveVertexMessageStore {
+
+	protected HashMap<Integer, HashMap<Integer, Integer> > messages = new HashMap<Integer, HashMap<Integer, Integer>> ();
 
 	public NaiveVertexMessageStore() {}
 
+	public HashMap<Integer, Integer> getMessageByQuery(int qid) {
+		return messages.get(qid);
+	}
+
+	public boolean isEmpty() {
+		return messages.isEmpty();
+	}
+
 	/**
 	 * do aggregation here.
 	 * 
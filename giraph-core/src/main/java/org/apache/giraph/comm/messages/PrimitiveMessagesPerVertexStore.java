@@ -0,0 +1,759 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm.messages;
+
+import it.unimi.dsi.fastutil.ints.Int2LongMap;
+import it.unimi.dsi.fastutil.ints.Int2LongOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+
+import org.apache.giraph.bsp.CentralizedServiceWorker;
+import org.apache.giraph.combiner.Combiner;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.utils.ByteArrayVertexIdMessages;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Message store which keeps one combined message per vertex, like
+ * {@link OneMessagePerVertexStore}, for the jobs with a combiner whose
+ * vertex ids are IntWritable or LongWritable and whose messages are
+ * IntWritable, LongWritable, FloatWritable or DoubleWritable.
+ *
+ * Every partition keeps the combined message of each vertex in a fastutil
+ * open addressing map from the primitive id to the bits of the message
+ * (Int2LongOpenHashMap or Long2LongOpenHashMap), instead of a
+ * ConcurrentMap of Writable objects. The messages are still combined by
+ * the combiner of the job, on two Writables reused by the partition.
+ * Used instead of {@link OneMessagePerVertexStore} whenever
+ * {@link #isSupported} holds, unless
+ * {@link GiraphConstants#PRIMITIVE_MESSAGE_STORE} is turned off.
+ *
+ * @param <I> Vertex id
+ * @param <M> Message data
+ */
+@SuppressWarnings("unchecked")
+public class PrimitiveMessagesPerVertexStore<I extends WritableComparable,
+    M extends Writable> implements MessageStoreByPartition<I, M> {
+  /** Service worker */
+  private final CentralizedServiceWorker<I, ?, ?, M> service;
+  /** Giraph configuration */
+  private final ImmutableClassesGiraphConfiguration<I, ?, ?, M> config;
+  /** Combiner of the job */
+  private final Combiner<I, M> combiner;
+  /** Vertex ids as primitives */
+  private final IdType<I> idType;
+  /** Messages as bits */
+  private final MessageType<M> messageType;
+  /** Bits of the initial message of the combiner */
+  private final long initialBits;
+  /** Map from partition id to its messages */
+  private final ConcurrentMap<Integer, PartitionMessages> map;
+
+  /**
+   * Constructor
+   *
+   * @param service Service worker
+   * @param combiner Combiner of the job
+   * @param config Hadoop configuration
+   */
+  PrimitiveMessagesPerVertexStore(
+      CentralizedServiceWorker<I, ?, ?, M> service,
+      Combiner<I, M> combiner,
+      ImmutableClassesGiraphConfiguration<I, ?, ?, M> config) {
+    this.service = service;
+    this.config = config;
+    this.combiner = combiner;
+    idType = (IdType<I>) IdType.forClass(config.getVertexIdClass());
+    messageType =
+        (MessageType<M>) MessageType.forClass(config.getMessageValueClass());
+    if (idType == null || messageType == null) {
+      throw new IllegalStateException("PrimitiveMessagesPerVertexStore: " +
+          "Unsupported messages " + config.getMessageValueClass() + " to " +
+          config.getVertexIdClass());
+    }
+    initialBits = messageType.toBits(combiner.createInitialMessage());
+    map = new MapMaker().concurrencyLevel(
+        config.getNettyServerExecutionConcurrency()).makeMap();
+  }
+
+  /**
+   * Can the messages of the job be stored by this store?
+   *
+   * @param config Hadoop configuration
+   * @return True iff there is a combiner and the vertex id and message
+   *         classes are supported
+   */
+  public static boolean isSupported(
+      ImmutableClassesGiraphConfiguration<?, ?, ?, ?> config) {
+    return config.useCombiner() &&
+        IdType.forClass(config.getVertexIdClass()) != null &&
+        MessageType.forClass(config.getMessageValueClass()) != null;
+  }
+
+  /**
+   * Create new factory for this message store
+   *
+   * @param service Worker service
+   * @param config  Hadoop configuration
+   * @param <I>     Vertex id
+   * @param <M>     Message data
+   * @return Factory
+   */
+  public static <I extends WritableComparable, M extends Writable>
+  MessageStoreFactory<I, M, MessageStoreByPartition<I, M>> newFactory(
+      CentralizedServiceWorker<I, ?, ?, M> service,
+      ImmutableClassesGiraphConfiguration<I, ?, ?, M> config) {
+    return new Factory<I, M>(service, config);
+  }
+
+  /**
+   * Factory for {@link PrimitiveMessagesPerVertexStore}
+   *
+   * @param <I> Vertex id
+   * @param <M> Message data
+   */
+  private static class Factory<I extends WritableComparable, M extends Writable>
+      implements MessageStoreFactory<I, M, MessageStoreByPartition<I, M>> {
+    /** Service worker */
+    private final CentralizedServiceWorker<I, ?, ?, M> service;
+    /** Hadoop configuration */
+    private final ImmutableClassesGiraphConfiguration<I, ?, ?, M> config;
+    /** Combiner for messages */
+    private final Combiner<I, M> combiner;
+
+    /**
+     * @param service Worker service
+     * @param config  Hadoop configuration
+     */
+    public Factory(CentralizedServiceWorker<I, ?, ?, M> service,
+        ImmutableClassesGiraphConfiguration<I, ?, ?, M> config) {
+      this.service = service;
+      this.config = config;
+      combiner = config.createCombiner();
+    }
+
+    @Override
+    public MessageStoreByPartition<I, M> newStore() {
+      return new PrimitiveMessagesPerVertexStore<I, M>(service, combiner,
+          config);
+    }
+  }
+
+  /**
+   * Get id of partition which holds vertex with selected id
+   *
+   * @param vertexId Id of vertex
+   * @return Id of partiton
+   */
+  private int getPartitionId(I vertexId) {
+    return service.getVertexPartitionOwner(vertexId).getPartitionId();
+  }
+
+  /**
+   * Get the messages of a partition, creating if necessary
+   *
+   * @param partitionId Id of partition
+   * @return Messages of the partition
+   */
+  private PartitionMessages getOrCreatePartition(int partitionId) {
+    PartitionMessages partition = map.get(partitionId);
+    if (partition == null) {
+      PartitionMessages tmpPartition = new PartitionMessages();
+      partition = map.putIfAbsent(partitionId, tmpPartition);
+      if (partition == null) {
+        partition = tmpPartition;
+      }
+    }
+    return partition;
+  }
+
+  @Override
+  public void addPartitionMessages(int partitionId,
+      ByteArrayVertexIdMessages<I, M> messages) throws IOException {
+    PartitionMessages partition = getOrCreatePartition(partitionId);
+    ByteArrayVertexIdMessages<I, M>.VertexIdMessageIterator
+        vertexIdMessageIterator = messages.getVertexIdMessageIterator();
+    synchronized (partition) {
+      while (vertexIdMessageIterator.hasNext()) {
+        vertexIdMessageIterator.next();
+        partition.combine(vertexIdMessageIterator.getCurrentVertexId(),
+            vertexIdMessageIterator.getCurrentMessage());
+      }
+    }
+  }
+
+  @Override
+  public void addMessages(MessageStore<I, M> messageStore) throws IOException {
+    if (messageStore instanceof PrimitiveMessagesPerVertexStore) {
+      PrimitiveMessagesPerVertexStore<I, M> primitiveStore =
+          (PrimitiveMessagesPerVertexStore<I, M>) messageStore;
+      for (Integer partitionId : primitiveStore.map.keySet()) {
+        PartitionMessages source = primitiveStore.map.get(partitionId);
+        PartitionMessages partition = getOrCreatePartition(partitionId);
+        synchronized (source) {
+          synchronized (partition) {
+            partition.combineAll(source);
+          }
+        }
+      }
+    } else {
+      for (I vertexId : messageStore.getDestinationVertices()) {
+        PartitionMessages partition =
+            getOrCreatePartition(getPartitionId(vertexId));
+        synchronized (partition) {
+          for (M message : messageStore.getVertexMessages(vertexId)) {
+            partition.combine(vertexId, message);
+          }
+        }
+      }
+    }
+  }
+
+  @Override
+  public Iterable<M> getVertexMessages(I vertexId) throws IOException {
+    PartitionMessages partition = map.get(getPartitionId(vertexId));
+    if (partition == null) {
+      return Collections.emptyList();
+    }
+    long id = idType.toPrimitive(vertexId);
+    synchronized (partition) {
+      if (!partition.contains(id)) {
+        return Collections.emptyList();
+      }
+      M message = config.createMessageValue();
+      messageType.fromBits(partition.get(id), message);
+      return Collections.singleton(message);
+    }
+  }
+
+  @Override
+  public VertexMessageStore getVertexMessageStore(I vertexId) {
+    return null;
+  }
+
+  @Override
+  public void clearVertexMessages(I vertexId) throws IOException {
+    PartitionMessages partition = map.get(getPartitionId(vertexId));
+    if (partition != null) {
+      synchronized (partition) {
+        partition.remove(idType.toPrimitive(vertexId));
+      }
+    }
+  }
+
+  @Override
+  public void clearPartition(int partitionId) throws IOException {
+    map.remove(partitionId);
+  }
+
+  @Override
+  public void clearAll() throws IOException {
+    map.clear();
+  }
+
+  @Override
+  public int getNumberOfMessages() {
+    int numberOfMessages = 0;
+    for (PartitionMessages partition : map.values()) {
+      numberOfMessages += partition.size();
+    }
+    return numberOfMessages;
+  }
+
+  @Override
+  public boolean hasMessagesForVertex(I vertexId) {
+    PartitionMessages partition = map.get(getPartitionId(vertexId));
+    if (partition == null) {
+      return false;
+    }
+    synchronized (partition) {
+      return partition.contains(idType.toPrimitive(vertexId));
+    }
+  }
+
+  @Override
+  public Iterable<I> getPartitionDestinationVertices(int partitionId) {
+    PartitionMessages partition = map.get(partitionId);
+    if (partition == null) {
+      return Collections.emptyList();
+    }
+    List<I> vertices = Lists.newArrayListWithCapacity(partition.size());
+    partition.addVertexIds(vertices);
+    return vertices;
+  }
+
+  @Override
+  public Iterable<I> getDestinationVertices() {
+    List<I> vertices = Lists.newArrayList();
+    for (PartitionMessages partition : map.values()) {
+      partition.addVertexIds(vertices);
+    }
+    return vertices;
+  }
+
+  @Override
+  public void writePartition(DataOutput out,
+      int partitionId) throws IOException {
+    PartitionMessages partition = map.get(partitionId);
+    out.writeBoolean(partition != null);
+    if (partition != null) {
+      partition.write(out);
+    }
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    out.writeInt(map.size());
+    for (int partitionId : map.keySet()) {
+      out.writeInt(partitionId);
+      writePartition(out, partitionId);
+    }
+  }
+
+  @Override
+  public void readFieldsForPartition(DataInput in,
+      int partitionId) throws IOException {
+    if (in.readBoolean()) {
+      PartitionMessages partition = new PartitionMessages();
+      partition.readFields(in);
+      map.put(partitionId, partition);
+    }
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    int numPartitions = in.readInt();
+    for (int p = 0; p < numPartitions; p++) {
+      int partitionId = in.readInt();
+      readFieldsForPartition(in, partitionId);
+    }
+  }
+
+  /**
+   * The combined messages of one partition, by primitive vertex id.
+   * Guarded by its own monitor.
+   */
+  private class PartitionMessages {
+    /** Messages to IntWritable ids */
+    private final Int2LongOpenHashMap intMessages;
+    /** Messages to LongWritable ids */
+    private final Long2LongOpenHashMap longMessages;
+    /** Vertex id passed to the combiner */
+    private final I reusableId;
+    /** Combined message passed to the combiner */
+    private final M reusableMessage;
+
+    /** Constructor */
+    PartitionMessages() {
+      if (idType.isInt()) {
+        intMessages = new Int2LongOpenHashMap();
+        intMessages.defaultReturnValue(initialBits);
+        longMessages = null;
+      } else {
+        intMessages = null;
+        longMessages = new Long2LongOpenHashMap();
+        longMessages.defaultReturnValue(initialBits);
+      }
+      reusableId = config.createVertexId();
+      reusableMessage = config.createMessageValue();
+    }
+
+    /**
+     * Does a vertex have a message?
+     *
+     * @param id Vertex id
+     * @return True iff the vertex has a message
+     */
+    boolean contains(long id) {
+      return (intMessages != null) ? intMessages.containsKey((int) id) :
+          longMessages.containsKey(id);
+    }
+
+    /**
+     * Get the message of a vertex
+     *
+     * @param id Vertex id
+     * @return Bits of the message, of the initial message if none
+     */
+    long get(long id) {
+      return (intMessages != null) ? intMessages.get((int) id) :
+          longMessages.get(id);
+    }
+
+    /**
+     * Set the message of a vertex
+     *
+     * @param id Vertex id
+     * @param bits Bits of the message
+     */
+    void put(long id, long bits) {
+      if (intMessages != null) {
+        intMessages.put((int) id, bits);
+      } else {
+        longMessages.put(id, bits);
+      }
+    }
+
+    /**
+     * Remove the message of a vertex
+     *
+     * @param id Vertex id
+     */
+    void remove(long id) {
+      if (intMessages != null) {
+        intMessages.remove((int) id);
+      } else {
+        longMessages.remove(id);
+      }
+    }
+
+    /**
+     * Get the number of messages
+     *
+     * @return Number of vertices with a message
+     */
+    int size() {
+      return (intMessages != null) ? intMessages.size() : longMessages.size();
+    }
+
+    /**
+     * Combine a message into the message of its vertex
+     *
+     * @param vertexId Id of the vertex
+     * @param message Message to combine
+     */
+    void combine(I vertexId, M message) {
+      long id = idType.toPrimitive(vertexId);
+      messageType.fromBits(get(id), reusableMessage);
+      combiner.combine(vertexId, reusableMessage, message);
+      put(id, messageType.toBits(reusableMessage));
+    }
+
+    /**
+     * Combine a message given by its bits into the message of its vertex
+     *
+     * @param id Vertex id
+     * @param bits Bits of the message to combine
+     * @param message Message to decode the bits into
+     */
+    void combine(long id, long bits, M message) {
+      idType.fromPrimitive(id, reusableId);
+      messageType.fromBits(bits, message);
+      combine(reusableId, message);
+    }
+
+    /**
+     * Combine all the messages of another partition into this one
+     *
+     * @param source Messages to combine
+     */
+    void combineAll(PartitionMessages source) {
+      M message = config.createMessageValue();
+      if (intMessages != null) {
+        ObjectIterator<Int2LongMap.Entry> iterator =
+            source.intMessages.int2LongEntrySet().fastIterator();
+        while (iterator.hasNext()) {
+          Int2LongMap.Entry entry = iterator.next();
+          combine(entry.getIntKey(), entry.getLongValue(), message);
+        }
+      } else {
+        ObjectIterator<Long2LongMap.Entry> iterator =
+            source.longMessages.long2LongEntrySet().fastIterator();
+        while (iterator.hasNext()) {
+          Long2LongMap.Entry entry = iterator.next();
+          combine(entry.getLongKey(), entry.getLongValue(), message);
+        }
+      }
+    }
+
+    /**
+     * Add the ids of the vertices with a message
+     *
+     * @param vertices Where the ids are added
+     */
+    synchronized void addVertexIds(List<I> vertices) {
+      if (intMessages != null) {
+        IntIterator iterator = intMessages.keySet().iterator();
+        while (iterator.hasNext()) {
+          vertices.add(idType.newId(iterator.nextInt()));
+        }
+      } else {
+        LongIterator iterator = longMessages.keySet().iterator();
+        while (iterator.hasNext()) {
+          vertices.add(idType.newId(iterator.nextLong()));
+        }
+      }
+    }
+
+    /**
+     * Serialize the messages
+     *
+     * @param out Output
+     * @throws IOException
+     */
+    synchronized void write(DataOutput out) throws IOException {
+      out.writeInt(size());
+      if (intMessages != null) {
+        ObjectIterator<Int2LongMap.Entry> iterator =
+            intMessages.int2LongEntrySet().fastIterator();
+        while (iterator.hasNext()) {
+          Int2LongMap.Entry entry = iterator.next();
+          out.writeLong(entry.getIntKey());
+          out.writeLong(entry.getLongValue());
+        }
+      } else {
+        ObjectIterator<Long2LongMap.Entry> iterator =
+            longMessages.long2LongEntrySet().fastIterator();
+        while (iterator.hasNext()) {
+          Long2LongMap.Entry entry = iterator.next();
+          out.writeLong(entry.getLongKey());
+          out.writeLong(entry.getLongValue());
+        }
+      }
+    }
+
+    /**
+     * Deserialize the messages, written combined
+     *
+     * @param in Input
+     * @throws IOException
+     */
+    synchronized void readFields(DataInput in) throws IOException {
+      int numVertices = in.readInt();
+      for (int v = 0; v < numVertices; v++) {
+        long id = in.readLong();
+        put(id, in.readLong());
+      }
+    }
+  }
+
+  /**
+   * Vertex ids as primitives, IntWritable and LongWritable
+   *
+   * @param <I> Vertex id
+   */
+  private abstract static class IdType<I extends WritableComparable> {
+    /** IntWritable ids */
+    private static final IdType<IntWritable> INT = new IdType<IntWritable>() {
+      @Override
+      boolean isInt() {
+        return true;
+      }
+
+      @Override
+      long toPrimitive(IntWritable id) {
+        return id.get();
+      }
+
+      @Override
+      void fromPrimitive(long id, IntWritable reusableId) {
+        reusableId.set((int) id);
+      }
+
+      @Override
+      IntWritable newId(long id) {
+        return new IntWritable((int) id);
+      }
+    };
+    /** LongWritable ids */
+    private static final IdType<LongWritable> LONG =
+        new IdType<LongWritable>() {
+          @Override
+          boolean isInt() {
+            return false;
+          }
+
+          @Override
+          long toPrimitive(LongWritable id) {
+            return id.get();
+          }
+
+          @Override
+          void fromPrimitive(long id, LongWritable reusableId) {
+            reusableId.set(id);
+          }
+
+          @Override
+          LongWritable newId(long id) {
+            return new LongWritable(id);
+          }
+        };
+
+    /**
+     * Get the type of a vertex id class
+     *
+     * @param idClass Vertex id class
+     * @return Its type, null if not supported
+     */
+    static IdType<?> forClass(Class<?> idClass) {
+      if (IntWritable.class.equals(idClass)) {
+        return INT;
+      } else if (LongWritable.class.equals(idClass)) {
+        return LONG;
+      }
+      return null;
+    }
+
+    /**
+     * Are the ids ints?
+     *
+     * @return True for IntWritable ids
+     */
+    abstract boolean isInt();
+
+    /**
+     * Get the primitive of an id
+     *
+     * @param id Vertex id
+     * @return Its value
+     */
+    abstract long toPrimitive(I id);
+
+    /**
+     * Set an id to a primitive
+     *
+     * @param id Value
+     * @param reusableId Vertex id to set
+     */
+    abstract void fromPrimitive(long id, I reusableId);
+
+    /**
+     * Create an id
+     *
+     * @param id Value
+     * @return New vertex id
+     */
+    abstract I newId(long id);
+  }
+
+  /**
+   * Messages as the bits of a long: IntWritable, LongWritable,
+   * FloatWritable and DoubleWritable
+   *
+   * @param <M> Message data
+   */
+  private abstract static class MessageType<M extends Writable> {
+    /** IntWritable messages */
+    private static final MessageType<IntWritable> INT =
+        new MessageType<IntWritable>() {
+          @Override
+          long toBits(IntWritable message) {
+            return message.get();
+          }
+
+          @Override
+          void fromBits(long bits, IntWritable message) {
+            message.set((int) bits);
+          }
+        };
+    /** LongWritable messages */
+    private static final MessageType<LongWritable> LONG =
+        new MessageType<LongWritable>() {
+          @Override
+          long toBits(LongWritable message) {
+            return message.get();
+          }
+
+          @Override
+          void fromBits(long bits, LongWritable message) {
+            message.set(bits);
+          }
+        };
+    /** FloatWritable messages */
+    private static final MessageType<FloatWritable> FLOAT =
+        new MessageType<FloatWritable>() {
+          @Override
+          long toBits(FloatWritable message) {
+            return Float.floatToRawIntBits(message.get());
+          }
+
+          @Override
+          void fromBits(long bits, FloatWritable message) {
+            message.set(Float.intBitsToFloat((int) bits));
+          }
+        };
+    /** DoubleWritable messages */
+    private static final MessageType<DoubleWritable> DOUBLE =
+        new MessageType<DoubleWritable>() {
+          @Override
+          long toBits(DoubleWritable message) {
+            return Double.doubleToRawLongBits(message.get());
+          }
+
+          @Override
+          void fromBits(long bits, DoubleWritable message) {
+            message.set(Double.longBitsToDouble(bits));
+          }
+        };
+
+    /**
+     * Get the type of a message class
+     *
+     * @param messageClass Message class
+     * @return Its type, null if not supported
+     */
+    static MessageType<?> forClass(Class<?> messageClass) {
+      if (IntWritable.class.equals(messageClass)) {
+        return INT;
+      } else if (LongWritable.class.equals(messageClass)) {
+        return LONG;
+      } else if (FloatWritable.class.equals(messageClass)) {
+        return FLOAT;
+      } else if (DoubleWritable.class.equals(messageClass)) {
+        return DOUBLE;
+      }
+      return null;
+    }
+
+    /**
+     * Get the bits of a message
+     *
+     * @param message Message
+     * @return Its bits
+     */
+    abstract long toBits(M message);
+
+    /**
+     * Set a message to bits
+     *
+     * @param bits Bits
+     * @param message Message to set
+     */
+    abstract void fromBits(long bits, M message);
+  }
+}
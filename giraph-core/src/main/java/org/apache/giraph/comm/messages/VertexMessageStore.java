@@ -1,57 +1,96 @@
 package org.apache.giraph.comm.messages;
 
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.giraph.subgraph.graphextraction.PartialAggregatedPath;
 
 /**
- * a customized vertex message store for path evaluation.
- * it supports efficiently update and retrieve.
- * Update:
- * 		-- <tid, qid, sid, weight>
- * 		-- weight is aggregated.
+ * a customized vertex message store for path evaluation: the messages of one
+ * vertex in CompactMessagesPerVertexStore, read in place from its partition.
+ * 		-- message i is <qid, sid, tid, weight>
+ * 		-- weight is aggregated already (aggregation-II) in the query supersteps.
  * 
- * Retrieve: 
- * 		-- query id
- *  
- *  It is like an edge store.
+ * It is valid until the messages of the partition are cleared.
  *  
  * @author yxshao
  *
  */
 public class VertexMessageStore{
 
-	protected HashMap<Integer, HashMap<Integer, Integer> > messages = new HashMap<Integer, HashMap<Integer, Integer>> ();
+	private final int[] cells;
+	private final int[] qids;
+	private final int[] sids;
+	private final int[] tids;
+	private final long[] weights;
 	
-	public VertexMessageStore() {}
+	VertexMessageStore(int[] cells, int[] qids, int[] sids, int[] tids, long[] weights) {
+		this.cells = cells;
+		this.qids = qids;
+		this.sids = sids;
+		this.tids = tids;
+		this.weights = weights;
+	}
 	
-	public HashMap<Integer, Integer> getMessageByQuery(int qid) {
-		return messages.get(qid);
+	public int size() {
+		return cells.length;
 	}
 	
 	public boolean isEmpty() {
-		return messages.isEmpty();
+		return cells.length == 0;
 	}
 
-	/**
-	 * do aggregation here.
-	 * 
-	 * @param vid
-	 * @param elabel
-	 * @param weight
-	 */
-	public void addMessage(int sid, int qid, int weight) {
-		if(messages.get(qid) == null) {
-			messages.put(qid, new HashMap<Integer, Integer>());
-		}
-		HashMap<Integer, Integer> messagePerQuery = messages.get(qid);
-		if(messagePerQuery.get(sid) == null) {
-			messagePerQuery.put(sid, 0);
-		}
-		int result = messagePerQuery.get(sid);
-		messagePerQuery.put(sid, result + weight); //aggregation-II
+	public int getQid(int i) {
+		return qids[cells[i]];
+	}
+
+	public int getSid(int i) {
+		return sids[cells[i]];
 	}
 
-	public void clear() {
-		messages.clear();
+	public int getTid(int i) {
+		return tids[cells[i]];
 	}
 
+	public long getWeight(int i) {
+		return weights[cells[i]];
+	}
+
+	/**
+	 * the messages as one PartialAggregatedPath reused by every next().
+	 */
+	public Iterable<PartialAggregatedPath> asPaths() {
+		return new Iterable<PartialAggregatedPath>() {
+			@Override
+			public Iterator<PartialAggregatedPath> iterator() {
+				return new Iterator<PartialAggregatedPath>() {
+					private final PartialAggregatedPath path = new PartialAggregatedPath();
+					private int i = 0;
+
+					@Override
+					public boolean hasNext() {
+						return i < cells.length;
+					}
+
+					@Override
+					public PartialAggregatedPath next() {
+						if(i == cells.length) {
+							throw new NoSuchElementException();
+						}
+						path.setQid(getQid(i));
+						path.setSid(getSid(i));
+						path.setTid(getTid(i));
+						path.setWeight(getWeight(i));
+						i++;
+						return path;
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
 }
@@ -19,6 +19,7 @@ package org.apache.giraph.comm.netty;
 
 import org.apache.giraph.bsp.BspService;
 import org.apache.giraph.bsp.CentralizedServiceWorker;
+import org.apache.giraph.comm.SendCombiningMessageCache;
 import org.apache.giraph.comm.SendEdgeCache;
 import org.apache.giraph.comm.SendMessageCache;
 import org.apache.giraph.comm.SendMutationsCache;
@@ -62,6 +63,7 @@ import java.util.Map;
 import static org.apache.giraph.conf.GiraphConstants.MAX_EDGE_REQUEST_SIZE;
 import static org.apache.giraph.conf.GiraphConstants.MAX_MSG_REQUEST_SIZE;
 import static org.apache.giraph.conf.GiraphConstants.MAX_MUTATIONS_PER_REQUEST;
+import static org.apache.giraph.conf.GiraphConstants.SENDER_SIDE_COMBINER;
 
 /**
  * Aggregate requests and sends them to the thread-safe NettyClient.  This
@@ -133,7 +135,12 @@ public class NettyWorkerClientRequestProcessor<I extends WritableComparable,
     this.configuration = conf;
 
     sendPartitionCache = new SendPartitionCache<I, V, E, M>(context, conf);
-    sendMessageCache = new SendMessageCache<I, M>(conf, serviceWorker);
+    if (conf.useCombiner() && SENDER_SIDE_COMBINER.get(conf)) {
+      sendMessageCache = new SendCombiningMessageCache<I, M>(conf,
+          serviceWorker, conf.createCombiner());
+    } else {
+      sendMessageCache = new SendMessageCache<I, M>(conf, serviceWorker);
+    }
     sendEdgeCache = new SendEdgeCache<I, E>(conf, serviceWorker);
     maxMessagesSizePerWorker = MAX_MSG_REQUEST_SIZE.get(conf);
     maxEdgesSizePerWorker = MAX_EDGE_REQUEST_SIZE.get(conf);
@@ -482,6 +489,11 @@ public class NettyWorkerClientRequestProcessor<I extends WritableComparable,
     return messagesSentInSuperstep;
   }
 
+  @Override
+  public long getMessageCount() {
+    return totalMsgsSentInSuperstep;
+  }
+
   /**
    * When doing the request, short circuit if it is local
    *
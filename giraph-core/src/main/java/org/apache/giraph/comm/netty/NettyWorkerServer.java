@@ -23,14 +23,17 @@ import org.apache.giraph.comm.ServerData;
 import org.apache.giraph.comm.WorkerServer;
 import org.apache.giraph.comm.messages.BasicMessageStore;
 import org.apache.giraph.comm.messages.ByteArrayMessagesPerVertexStore;
+import org.apache.giraph.comm.messages.CompactMessagesPerVertexStore;
 import org.apache.giraph.comm.messages.DiskBackedMessageStore;
 import org.apache.giraph.comm.messages.DiskBackedMessageStoreByPartition;
 import org.apache.giraph.comm.messages.FlushableMessageStore;
 import org.apache.giraph.comm.messages.MessageStoreByPartition;
 import org.apache.giraph.comm.messages.MessageStoreFactory;
 import org.apache.giraph.comm.messages.OneMessagePerVertexStore;
+import org.apache.giraph.comm.messages.PrimitiveMessagesPerVertexStore;
 import org.apache.giraph.comm.messages.SequentialFileMessageStore;
 import org.apache.giraph.comm.netty.handler.WorkerRequestServerHandler;
+import org.apache.giraph.conf.GiraphConstants;
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.giraph.graph.GraphState;
 import org.apache.giraph.graph.Vertex;
@@ -50,6 +53,7 @@ import java.net.InetSocketAddress;
 import java.util.Collection;
 import java.util.Map.Entry;
 
+import static org.apache.giraph.conf.GiraphConstants.GRAPHOLAP_PATH_EVALUATION_MSG_STORE_COMPACT;
 import static org.apache.giraph.conf.GiraphConstants.MAX_MESSAGES_IN_MEMORY;
 import static org.apache.giraph.conf.GiraphConstants.USE_OUT_OF_CORE_MESSAGES;
 
@@ -111,7 +115,22 @@ public class NettyWorkerServer<I extends WritableComparable,
   createMessageStoreFactory() {
     boolean useOutOfCoreMessaging = USE_OUT_OF_CORE_MESSAGES.get(conf);
     if (!useOutOfCoreMessaging) {
-      if (conf.useCombiner()) {
+      if (GRAPHOLAP_PATH_EVALUATION_MSG_STORE_COMPACT.get(conf)) {
+        if (LOG.isInfoEnabled()) {
+          LOG.info("createMessageStoreFactory: " +
+              "Using CompactMessagesPerVertexStore for path messages");
+        }
+        return CompactMessagesPerVertexStore.newFactory(service, conf);
+      } else if (GiraphConstants.PRIMITIVE_MESSAGE_STORE.get(conf) &&
+          PrimitiveMessagesPerVertexStore.isSupported(conf)) {
+        if (LOG.isInfoEnabled()) {
+          LOG.info("createMessageStoreFactory: " +
+              "Using PrimitiveMessagesPerVertexStore since combiner enabled " +
+              "for " + conf.getMessageValueClass().getSimpleName() +
+              " messages to " + conf.getVertexIdClass().getSimpleName());
+        }
+        return PrimitiveMessagesPerVertexStore.newFactory(service, conf);
+      } else if (conf.useCombiner()) {
         if (LOG.isInfoEnabled()) {
           LOG.info("createMessageStoreFactory: " +
               "Using OneMessagePerVertexStore since combiner enabled");
@@ -71,6 +71,15 @@ public abstract class SendWorkerDataRequest<I extends WritableComparable, T,
    */
   public abstract B createByteArrayVertexIdData();
 
+  /**
+   * Get the data of the request, by partition.
+   *
+   * @return Map of partitions => ByteArrayVertexIdData
+   */
+  public PairList<Integer, B> getPartitionVertexData() {
+    return partitionVertexData;
+  }
+
   @Override
   public void readFieldsRequest(DataInput input) throws IOException {
     int numPartitions = input.readInt();
@@ -241,6 +241,24 @@ public interface GiraphConstants {
   BooleanConfOption METRICS_ENABLE =
       new BooleanConfOption("giraph.metrics.enable", false);
 
+  /**
+   * Profile one of every this many computed vertices (compute time and
+   * messages sent) into the superstep metrics, 0 to disable
+   */
+  IntConfOption VERTEX_PROFILE_SAMPLE =
+      new IntConfOption("giraph.vertexProfileSample", 0);
+
+  /** Threads executing the local requests of the "page" engine */
+  IntConfOption ASYNC_LOCAL_CONCURRENCY =
+      new IntConfOption("giraph.asynclocal.concurrency", 8);
+
+  /**
+   * Local requests queued per thread of the "page" engine before the
+   * compute threads block
+   */
+  IntConfOption ASYNC_LOCAL_QUEUE_CAPACITY =
+      new IntConfOption("giraph.asynclocal.queueCapacity", 64);
+
   /**
    *  ZooKeeper comma-separated list (if not set,
    *  will start up ZooKeeper locally)
@@ -405,6 +423,22 @@ public interface GiraphConstants {
   FloatConfOption ADDITIONAL_MSG_REQUEST_SIZE =
       new FloatConfOption("giraph.additionalMsgRequestSize", 0.2f);
 
+  /**
+   * Combine the outgoing messages per destination vertex before they are
+   * sent, with the combiner of the job (ignored without a combiner)
+   */
+  BooleanConfOption SENDER_SIDE_COMBINER =
+      new BooleanConfOption("giraph.senderSideCombiner", false);
+
+  /**
+   * Store the combined messages of int/long vertex ids and int, long,
+   * float or double messages in primitive maps, whenever the job has a
+   * combiner and such ids and messages (set to false to keep them in
+   * OneMessagePerVertexStore)
+   */
+  BooleanConfOption PRIMITIVE_MESSAGE_STORE =
+      new BooleanConfOption("giraph.primitiveMessageStore", true);
+
   /** Maximum size of edges (in bytes) per peer before flush */
   IntConfOption MAX_EDGE_REQUEST_SIZE =
       new IntConfOption("giraph.edgeRequestSize", 512 * ONE_KB);
@@ -681,5 +715,42 @@ public interface GiraphConstants {
   StrConfOption GRAPHOLAP_PATH_EVALUATION_PLAN = 
 		  new StrConfOption("grapholap.path.evaluation.plan", "tree");
 
+  /** aggregation of path weights: count, sumproduct, minplus or maxmin. */
+  StrConfOption GRAPHOLAP_PATH_EVALUATION_SEMIRING = 
+		  new StrConfOption("grapholap.path.evaluation.semiring", "count");
+
+  /**
+   * merge the partial paths with the same (qid, sid, tid) before sending.
+   * Each compute thread combines only the paths of its own partitions, so
+   * duplicates from the partitions of other threads are still sent; off by
+   * default, the receivers aggregate the paths either way.
+   */
+  BooleanConfOption GRAPHOLAP_PATH_EVALUATION_MSG_COMBINE = 
+		  new BooleanConfOption("grapholap.path.evaluation.msg.combine", false);
+
+  /** keep the path messages in CompactMessagesPerVertexStore, merged per (vertex, qid, sid, tid) on arrival. */
+  BooleanConfOption GRAPHOLAP_PATH_EVALUATION_MSG_STORE_COMPACT = 
+		  new BooleanConfOption("grapholap.path.evaluation.msg.store.compact", false);
+
+  /** save the preprocessed partitions (after superstep 2) to this directory, off if empty. */
+  StrConfOption GRAPHOLAP_PATH_EVALUATION_SNAPSHOT_SAVE = 
+		  new StrConfOption("grapholap.path.evaluation.snapshot.save", "");
+
+  /** load the preprocessed partitions from this directory and start the queries at superstep 0. */
+  StrConfOption GRAPHOLAP_PATH_EVALUATION_SNAPSHOT_LOAD = 
+		  new StrConfOption("grapholap.path.evaluation.snapshot.load", "");
+
+  /** max partial paths of a mid query kept in memory per compute thread before spilling, 0 keeps the tmp neighbors. */
+  IntConfOption GRAPHOLAP_PATH_EVALUATION_TMP_MAX_PATHS = 
+		  new IntConfOption("grapholap.path.evaluation.tmp.max.paths", 0);
+
+  /** threads of a worker running the two-hop exploration of a partition, 1 is the compute thread only. */
+  IntConfOption GRAPHOLAP_PATH_EVALUATION_EXPLORATION_THREADS = 
+		  new IntConfOption("grapholap.path.evaluation.exploration.threads", 1);
+
+  /** start vertices claimed at once by an exploration thread. */
+  IntConfOption GRAPHOLAP_PATH_EVALUATION_EXPLORATION_CHUNK = 
+		  new IntConfOption("grapholap.path.evaluation.exploration.chunk", 256);
+
 }
 // CHECKSTYLE: resume InterfaceIsTypeCheck
@@ -26,7 +26,6 @@ import org.apache.giraph.io.SimpleVertexWriter;
 import org.apache.giraph.metrics.GiraphMetrics;
 import org.apache.giraph.metrics.MetricNames;
 import org.apache.giraph.metrics.SuperstepMetricsRegistry;
-import org.apache.giraph.metrics.TimerDesc;
 import org.apache.giraph.partition.Partition;
 import org.apache.giraph.partition.PartitionContext;
 import org.apache.giraph.partition.PartitionStats;
@@ -37,7 +36,6 @@ import org.apache.giraph.utils.MemoryUtils;
 import org.apache.giraph.utils.TimedLogger;
 import org.apache.giraph.worker.WorkerContext;
 import org.apache.giraph.worker.WorkerThreadAggregatorUsage;
-import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
 import org.apache.hadoop.mapreduce.Mapper;
@@ -46,8 +44,6 @@ import org.apache.log4j.Logger;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.yammer.metrics.core.Counter;
-import com.yammer.metrics.core.Timer;
-import com.yammer.metrics.core.TimerContext;
 
 import java.io.IOException;
 import java.util.Collection;
@@ -100,15 +96,8 @@ public class ComputeCallable<I extends WritableComparable, V extends Writable,
   // Per-Superstep Metrics
   /** Messages sent */
   private final Counter messagesSentCounter;
-  /** Timer for single compute() call */
-  private final Timer computeOneTimer;
-  
-  private long msg = 0;
-  private long compMsg = 0;
-  private long maxMsg = 0;
-  private long maxMsg2 = 0;
-private long precost = 0;
-private long compcost = 0;
+  /** Sampled per-vertex profiling, null if disabled */
+  private final VertexComputeProfiler profiler;
 
   /**
    * Constructor
@@ -137,7 +126,7 @@ private long compcost = 0;
     SuperstepMetricsRegistry metrics = GiraphMetrics.get().perSuperstep();
     // Normally we would use ResetSuperstepMetricsObserver but this class is
     // not long-lived, so just instantiating in the constructor is good enough.
-    computeOneTimer = metrics.getTimer(TimerDesc.COMPUTE_ONE);
+    profiler = VertexComputeProfiler.create(configuration, metrics);
     messagesSentCounter = metrics.getCounter(MetricNames.MESSAGES_SENT);
   }
 
@@ -242,12 +231,7 @@ private long compcost = 0;
       graphState.setPartitionContext(partition.getPartitionContext());
 
       long startTime = System.currentTimeMillis();
-      long real_time = 0;
-//      long count_time = 0;
-//      long prune_time = 0;
-//      int vcount=0;
-//      long msg = 0;
-      
+
       for (Vertex<I, V, E, M> vertex : partition) {
         // Make sure every vertex has this thread's
         // graphState before computing
@@ -277,26 +261,12 @@ private long compcost = 0;
         
         if (!vertex.isHalted()) {
           context.progress();
-          TimerContext computeOneTimerContext = computeOneTimer.time();
-          try {
-        	  vertex.resetMsgCount();
-        	  vertex.resetCompMsgCount();
-        	  if(this.maxMsg2 < vertex.getMsgCount()) {
-        		  this.maxMsg2 = vertex.getMsgCount();
-        	  }
-        	  long ts = System.currentTimeMillis();
-        	  vertex.compute(messages);
-        	  long te = System.currentTimeMillis();
-        	  real_time += te - ts;
-        	  msg += vertex.getMsgCount();
-        	  compMsg += vertex.getCompMsgCount();
-        	  precost += vertex.getPreCost();
-        	  compcost += vertex.getCompCost();
-        	  if(this.maxMsg < vertex.getMsgCount()) {
-        		  this.maxMsg = vertex.getMsgCount();
-        	  }
-          } finally {
-            computeOneTimerContext.stop();
+          if (profiler != null && profiler.sample()) {
+            profiler.start(workerClientRequestProcessor.getMessageCount());
+            vertex.compute(messages);
+            profiler.stop(workerClientRequestProcessor.getMessageCount());
+          } else {
+            vertex.compute(messages);
           }
           // Need to unwrap the mutated edges (possibly)
           vertex.unwrapMutableEdges();
@@ -315,17 +285,10 @@ private long compcost = 0;
         partitionStats.incrVertexCount();
         partitionStats.addEdgeCount(vertex.getNumEdges());
       }
-      this.aggregate("ge.global.messages.count", new LongWritable(msg));
-      this.aggregate("ge.global.messages.comp.count", new LongWritable(compMsg));
-      System.out.println("Superstep"+graphState.getSuperstep() +"_msg="+msg);
-      System.out.println("Superstep"+graphState.getSuperstep() +"_compmsg="+compMsg);
-	  long endTime = System.currentTimeMillis();
-      if(graphState.getSuperstep() <= 3) {
-    	  System.out.println("precost="+precost+" compcost="+compcost);
+      if (LOG.isInfoEnabled()) {
+        LOG.info("computePartition: Partition " + partition.getId() +
+            " took " + (System.currentTimeMillis() - startTime) + " ms");
       }
-      System.out.println("total cost="+(-startTime+endTime) + " real_time="+real_time);
-//      System.out.println("Superstep"+graphState.getSuperstep() +"_maxMsg="+maxMsg);
-//      System.out.println("Superstep"+graphState.getSuperstep() +"_maxMsg2="+maxMsg2);
 
       messageStore.clearPartition(partition.getId());
 
@@ -133,6 +133,10 @@ E extends Writable, M extends Writable> {
   public ArrayList<RawQueryNode> getLinePattern() {
 	return this.graphTaskManager.getLinePattern();
   }
+
+  public ArrayList<ArrayList<RawQueryNode>> getLinePatterns() {
+	return this.graphTaskManager.getLinePatterns();
+  }
   
   public void setQueryPlan(QueryPlan qp) {
 	  this.graphTaskManager.setQueryPlan(qp);
@@ -38,6 +38,10 @@ import org.apache.giraph.partition.PartitionStats;
 import org.apache.giraph.plan.QueryNode;
 import org.apache.giraph.plan.QueryPlan;
 import org.apache.giraph.plan.RawQueryNode;
+import org.apache.giraph.subgraph.KTrussDecompositionSubgraph;
+import org.apache.giraph.subgraph.KTrussSubgraphImpr;
+import org.apache.giraph.subgraph.TopTKTrussSubgraph;
+import org.apache.giraph.subgraph.TriangleCountSubgraph;
 import org.apache.giraph.subgraph.graphextraction.GraphExtraction;
 import org.apache.giraph.subgraph.graphextraction.GraphExtractionWithArrayBasedStore;
 import org.apache.giraph.time.SystemTime;
@@ -730,6 +734,35 @@ public class GraphTaskManager<I extends WritableComparable, V extends Writable,
     }
   }
 
+  /**
+   * The callable of the k-truss program ("giraph.ktruss.subgraph.program"):
+   * "decomposition", "topt", "triangles" (TriangleCountSubgraph), or the k-truss
+   * of "giraph.ktruss.threshold" otherwise.
+   * @param context handle to the underlying cluster framework
+   * @param graphState the BSP graph state
+   * @param messageStore the messages to be processed in this superstep
+   * @param partitionIdQueue the partitions to process
+   * @return the callable
+   */
+  private Callable<Collection<PartitionStats>> newKTrussCallable(
+      Mapper<?, ?, ?, ?>.Context context, GraphState<I, V, E, M> graphState,
+      MessageStoreByPartition<I, M> messageStore,
+      BlockingQueue<Integer> partitionIdQueue) {
+    String program = conf.get("giraph.ktruss.subgraph.program", "");
+    if (program.equals("decomposition")) {
+      return new KTrussDecompositionSubgraph<I, V, E, M>(context, graphState,
+          messageStore, partitionIdQueue, conf, serviceWorker);
+    } else if (program.equals("topt")) {
+      return new TopTKTrussSubgraph<I, V, E, M>(context, graphState,
+          messageStore, partitionIdQueue, conf, serviceWorker);
+    } else if (program.equals("triangles")) {
+      return new TriangleCountSubgraph<I, V, E, M>(context, graphState,
+          messageStore, partitionIdQueue, conf, serviceWorker);
+    }
+    return new KTrussSubgraphImpr<I, V, E, M>(context, graphState,
+        messageStore, partitionIdQueue, conf, serviceWorker);
+  }
+
   /**
    * Process graph data partitions active in this superstep.
    * @param context handle to the underlying cluster framework
@@ -781,6 +814,10 @@ public class GraphTaskManager<I extends WritableComparable, V extends Writable,
     				);  
         		  
         	  }
+        	  else if(conf.getBoolean("giraph.ktruss.subgraph", false)) {
+        		return newKTrussCallable(context, graphState, messageStore,
+        				computePartitionIdQueue);
+        	  }
         	  else {
 	            return new ComputeCallable<I, V, E, M>(
 	                context,
@@ -982,9 +1019,17 @@ public class GraphTaskManager<I extends WritableComparable, V extends Writable,
 	return serviceWorker.getQueryByChild(qid);
   }
 
+  public ArrayList<Integer> getPatternsOfRoot(int qid) {
+	return serviceWorker.getPatternsOfRoot(qid);
+  }
+
   public ArrayList<RawQueryNode> getLinePattern() {
 	return serviceMaster.getLinePattern();
   }
+
+  public ArrayList<ArrayList<RawQueryNode>> getLinePatterns() {
+	return serviceMaster.getLinePatterns();
+  }
   
   public void setQueryPlan(QueryPlan qp) {
 	  this.serviceMaster.setQueryPlan(qp);
@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.graph;
+
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.metrics.MetricNames;
+import org.apache.giraph.metrics.SuperstepMetricsRegistry;
+import org.apache.giraph.metrics.TimerDesc;
+import org.apache.hadoop.conf.Configuration;
+
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.Timer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sampled per-vertex profiling of {@link ComputeCallable}: one of every
+ * {@link GiraphConstants#VERTEX_PROFILE_SAMPLE} computed vertices is timed
+ * with System.nanoTime() and its messages sent are counted, into the
+ * histograms of the superstep metrics (and the compute-one timer).
+ *
+ * The callable only creates a profiler when the sampling is enabled, so the
+ * vertices which are not sampled cost one countdown and the compute loop
+ * does no per-vertex bookkeeping at all when it is disabled. Not thread-safe,
+ * one profiler per ComputeCallable.
+ */
+public class VertexComputeProfiler {
+  /** Profile one of every sampleEvery vertices */
+  private final int sampleEvery;
+  /** Vertices left before the next sample */
+  private int untilSample;
+  /** Compute time of the sampled vertices */
+  private final Histogram computeNanos;
+  /** Messages sent by the sampled vertices */
+  private final Histogram messagesSent;
+  /** Timer for single compute() call, fed with the samples */
+  private final Timer computeOneTimer;
+  /** Start of the sampled compute() */
+  private long startNanos;
+  /** Messages of the callable before the sampled compute() */
+  private long startMessages;
+
+  /**
+   * Constructor
+   *
+   * @param sampleEvery Profile one of every sampleEvery vertices
+   * @param metrics Superstep metrics to export to
+   */
+  public VertexComputeProfiler(int sampleEvery,
+      SuperstepMetricsRegistry metrics) {
+    this.sampleEvery = sampleEvery;
+    this.untilSample = sampleEvery;
+    computeNanos =
+        metrics.getUniformHistogram(MetricNames.VERTEX_COMPUTE_NANOS);
+    messagesSent =
+        metrics.getUniformHistogram(MetricNames.VERTEX_MESSAGES_SENT);
+    computeOneTimer = metrics.getTimer(TimerDesc.COMPUTE_ONE);
+  }
+
+  /**
+   * Create the profiler of a ComputeCallable.
+   *
+   * @param conf Configuration
+   * @param metrics Superstep metrics to export to
+   * @return The profiler, null if the profiling is disabled
+   */
+  public static VertexComputeProfiler create(Configuration conf,
+      SuperstepMetricsRegistry metrics) {
+    int sampleEvery = GiraphConstants.VERTEX_PROFILE_SAMPLE.get(conf);
+    if (sampleEvery <= 0) {
+      return null;
+    }
+    return new VertexComputeProfiler(sampleEvery, metrics);
+  }
+
+  /**
+   * Is the next computed vertex profiled?
+   *
+   * @return True if the vertex is sampled, then start() and stop() have to
+   *         be called around its compute()
+   */
+  public boolean sample() {
+    if (--untilSample > 0) {
+      return false;
+    }
+    untilSample = sampleEvery;
+    return true;
+  }
+
+  /**
+   * Start the profiling of a sampled vertex.
+   *
+   * @param messageCount Messages sent by the callable so far
+   */
+  public void start(long messageCount) {
+    startMessages = messageCount;
+    startNanos = System.nanoTime();
+  }
+
+  /**
+   * Stop the profiling of a sampled vertex.
+   *
+   * @param messageCount Messages sent by the callable so far
+   */
+  public void stop(long messageCount) {
+    long nanos = System.nanoTime() - startNanos;
+    computeNanos.update(nanos);
+    computeOneTimer.update(nanos, TimeUnit.NANOSECONDS);
+    messagesSent.update(messageCount - startMessages);
+  }
+}
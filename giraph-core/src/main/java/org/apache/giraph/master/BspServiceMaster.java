@@ -46,6 +46,8 @@ import org.apache.giraph.partition.PartitionOwner;
 import org.apache.giraph.partition.PartitionStats;
 import org.apache.giraph.partition.PartitionUtils;
 import org.apache.giraph.plan.EdgeDirection;
+import org.apache.giraph.plan.LabelStatistics;
+import org.apache.giraph.plan.LabelStatisticsAggregator;
 import org.apache.giraph.plan.QueryPlan;
 import org.apache.giraph.plan.RawQueryNode;
 import org.apache.giraph.metrics.AggregatedMetrics;
@@ -195,6 +197,8 @@ public class BspServiceMaster<I extends WritableComparable,
   
   /** raw line plan */
   ArrayList<RawQueryNode> qnList;
+  /** all the raw line patterns, qnList is the first one */
+  ArrayList<ArrayList<RawQueryNode>> patterns;
   QueryPlan qp;
 
   /**
@@ -1590,6 +1594,12 @@ public class BspServiceMaster<I extends WritableComparable,
     if (superstep == INPUT_SUPERSTEP) {
       try {
         masterCompute.initialize();
+        if (GiraphConstants.GRAPHOLAP_PATH_EVALUATION.get(getConfiguration()) &&
+            QueryPlan.isCostPlan(getConfiguration())) {
+          masterCompute.registerAggregator(
+              QueryPlan.LABEL_STATISTICS_AGGREGATOR,
+              LabelStatisticsAggregator.class);
+        }
       } catch (InstantiationException e) {
         LOG.fatal("runMasterCompute: Failed in instantiation", e);
         throw new RuntimeException(
@@ -1604,8 +1614,11 @@ public class BspServiceMaster<I extends WritableComparable,
     
     masterCompute.compute();
     
-    /*save the plan for workers in superstep 1.*/
-    if(superstep + 1 == 1) { //see the note at the begining.
+    /*save the plan for workers in superstep 1 (2 for the cost plan).*/
+    if(superstep == QueryPlan.getPlanSuperstep(getConfiguration())) { //see the note at the begining.
+    	if(qp == null && QueryPlan.isCostPlan(getConfiguration())) {
+    		qp = createCostPlan(masterCompute);
+    	}
     	LOG.info("Saving plan in master node.");
     	this.savePlan();
     }
@@ -1891,13 +1904,18 @@ public class BspServiceMaster<I extends WritableComparable,
   
   /** query plan related interfaces. */
   public void readLinePattern() {
-	  qnList = readQueryFromHDFS();
+	  patterns = readQueriesFromHDFS();
+	  qnList = patterns.isEmpty() ? new ArrayList<RawQueryNode>() : patterns.get(0);
   }
   
   public ArrayList<RawQueryNode> getLinePattern() {
 	  return qnList;
   }
   
+  public ArrayList<ArrayList<RawQueryNode>> getLinePatterns() {
+	  return patterns;
+  }
+  
   public void setQueryPlan(QueryPlan qp) {
 	  this.qp = qp;
   }
@@ -1916,6 +1934,24 @@ public class BspServiceMaster<I extends WritableComparable,
 //	this.savePlan();
 //  }
   
+  /**
+   * Create the "cost" plan from the label statistics collected by the
+   * workers in superstep 1.
+   *
+   * @param masterCompute master compute holding the aggregated statistics
+   * @return the query plan
+   */
+  private QueryPlan createCostPlan(MasterCompute masterCompute) {
+	  LabelStatistics stats = masterCompute.getAggregatedValue(
+			  QueryPlan.LABEL_STATISTICS_AGGREGATOR);
+	  LOG.info("createCostPlan: " + stats);
+	  QueryPlan plan = new QueryPlan();
+	  plan.setConf(getConfiguration());
+	  plan.setLabelStatistics(stats);
+	  plan.createPlans(patterns, stats.getVertexLabelStat(), stats.getEdgeLabelStat());
+	  return plan;
+  }
+
   public void savePlan() {
 	  if(qp == null) {
 		  LOG.info("NULL plan impossible!!!");
@@ -2003,15 +2039,48 @@ public class BspServiceMaster<I extends WritableComparable,
 //	  
 //  }
 
+  /**
+   * Read the raw queries. If the raw query path is a directory, every file
+   * in it is a line pattern, in the order of the file names; the line
+   * patterns are evaluated in one job and pattern i is query i of the output.
+   *
+   * @return
+   */
+  private ArrayList<ArrayList<RawQueryNode>> readQueriesFromHDFS() {
+	ArrayList<ArrayList<RawQueryNode>> res = new ArrayList<ArrayList<RawQueryNode>>();
+	Path qPath = new Path(GiraphConstants.INPUT_RAW_QUERY_PATH.get(getConfiguration()));
+	try {
+	  FileSystem fs = qPath.getFileSystem(getConfiguration());
+	  if (fs.getFileStatus(qPath).isDir()) {
+		FileStatus[] files = fs.listStatus(qPath, new PathFilter() {
+		  @Override
+		  public boolean accept(Path path) {
+			return !path.getName().startsWith("_") && !path.getName().startsWith(".");
+		  }
+		});
+		Arrays.sort(files);
+		for (FileStatus file : files) {
+		  if (!file.isDir()) {
+			res.add(readQueryFromHDFS(file.getPath()));
+		  }
+		}
+		LOG.info("Read " + res.size() + " line patterns from " + qPath);
+	  } else {
+		res.add(readQueryFromHDFS(qPath));
+	  }
+	} catch (IOException e) {
+	  throw new IllegalStateException("readQueriesFromHDFS: failed to read the raw queries from " + qPath, e);
+	}
+	return res;
+  }
+
   /**
    * Assume the input raw query is organized in sequence.
    * 
    * @return
    */
-  private ArrayList<RawQueryNode> readQueryFromHDFS() {
+  private ArrayList<RawQueryNode> readQueryFromHDFS(Path qPath) throws IOException {
 	ArrayList<RawQueryNode> res = new ArrayList<RawQueryNode>();
-	String rawQueryPath = GiraphConstants.INPUT_RAW_QUERY_PATH.get(getConfiguration());
-	Path qPath = new Path(rawQueryPath);
 	
 	//read the partition file to build the vid2pid map.
 	FileSystem fs = null;
@@ -2049,8 +2118,6 @@ public class BspServiceMaster<I extends WritableComparable,
           }
           res.add(new RawQueryNode(vid, vlabel, nextVid, elabel, ed));
       }
-    }catch(IOException e) { 
-    	System.out.println("Read partition scheme failed!!");
     }
 	finally {
       Closeables.closeQuietly(fileIn);
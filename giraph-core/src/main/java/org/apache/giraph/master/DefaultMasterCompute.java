@@ -55,6 +55,13 @@ public class DefaultMasterCompute extends MasterCompute {
   public ArrayList<RawQueryNode> getLinePattern() {
 	  return this.getGraphState().getLinePattern();
   }
+
+  /**
+   * all the line patterns, more than one if the raw query path is a directory.
+   */
+  public ArrayList<ArrayList<RawQueryNode>> getLinePatterns() {
+	  return this.getGraphState().getLinePatterns();
+  }
   
   public void setQueryPlan(QueryPlan qp) {
 	  this.getGraphState().setQueryPlan(qp);
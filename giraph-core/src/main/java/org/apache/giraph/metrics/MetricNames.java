@@ -68,6 +68,21 @@ public interface MetricNames {
   /** Counter of messages sent in superstep */
   String MESSAGES_SENT = "messages-sent";
 
+  /** Counter of edges deleted by the k-truss pruning in superstep */
+  String KTRUSS_PRUNED_EDGES = "ktruss-pruned-edges";
+  /** Counter of triangles visited by the k-truss pruning in superstep */
+  String KTRUSS_VISITED_TRIANGLES = "ktruss-visited-triangles";
+
+  /** Histogram of the compute() nanoseconds of the profiled vertices */
+  String VERTEX_COMPUTE_NANOS = "vertex-compute-nanos";
+  /** Histogram of the messages sent by the profiled vertices */
+  String VERTEX_MESSAGES_SENT = "vertex-messages-sent";
+
+  /** Histogram of the local request queue depth seen by the producers */
+  String LOCAL_REQUEST_QUEUE_DEPTH = "local-request-queue-depth";
+  /** Timer of the producers blocked on a full local request queue */
+  String LOCAL_REQUEST_PRODUCER_BLOCKED = "local-request-producer-blocked";
+
   /** Histogram for vertices in mutations requests */
   String VERTICES_IN_MUTATION_REQUEST = "vertices-per-mutations-request";
 
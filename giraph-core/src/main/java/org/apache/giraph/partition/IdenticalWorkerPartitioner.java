@@ -19,23 +19,19 @@
 package org.apache.giraph.partition;
 
 import com.google.common.collect.Lists;
-import com.google.common.base.Charsets;
-import com.google.common.io.Closeables;
 
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.giraph.worker.WorkerInfo;
 import org.apache.giraph.conf.GiraphConstants;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
 
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.FSDataInputStream;
-import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.log4j.Logger;
 
-import java.io.InputStreamReader;
-import java.io.BufferedReader;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -44,7 +40,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.io.IOException;
-import java.util.regex.Pattern;
 
 /**
  * Implements loading partitioning schema from partitioned data
@@ -59,8 +54,6 @@ public class IdenticalWorkerPartitioner<I extends WritableComparable,
     V extends Writable, E extends Writable, M extends Writable>
     implements WorkerGraphPartitioner<I, V, E, M> {
 
-	private static final Pattern SEPARATOR = Pattern.compile("[\t ]");
-	
 	/** Class logger */
 	  private static final Logger LOG = Logger.getLogger(
 	      IdenticalWorkerPartitioner.class);
@@ -70,8 +63,8 @@ public class IdenticalWorkerPartitioner<I extends WritableComparable,
   protected List<PartitionOwner> partitionOwnerList =
       Lists.newArrayList();
 	  
-//  protected HashMap<Integer, Short> vid2pid;
-  protected short[] vid2pid = null;
+  /** Partition id of every vertex id */
+  protected PartitionMap partitionMap;
   
   /** partition metadata file path*/
   private String partitionMapPath;
@@ -84,33 +77,40 @@ public class IdenticalWorkerPartitioner<I extends WritableComparable,
 	this.initialization(conf);
   }
 
+  /**
+   * Load the partition map, text or binary (see {@link PartitionMap}).
+   *
+   * @param job Configuration
+   */
   public void initialization(Configuration job) {
-	Path path = new Path(partitionMapPath); //used to open file by filesystem
-	
-	//read the partition file to build the vid2pid map.
-	FileSystem fs = null;
-	FSDataInputStream fileIn = null;
-    BufferedReader reader = null;
     try {
-	  fs = path.getFileSystem(job);
-      fileIn = fs.open(path);
-      reader = new BufferedReader(new InputStreamReader(fileIn, Charsets.UTF_8));
-      String line;
-      line = reader.readLine();
-//      LOG.info("input line="+line);
-  	  LOG.info("The partition scheme vertex size="+Integer.valueOf(line));
-  	  vid2pid = new short[Integer.valueOf(line) + 1];
-      while ( (line=reader.readLine()) != null) {
-		  String[] tokens = SEPARATOR.split(line);
-		  vid2pid[Integer.valueOf(tokens[0])]=Short.valueOf(tokens[1]);
-      }
-    }catch(IOException e) { 
-    	System.out.println("Read partition scheme failed!!");
+      partitionMap = PartitionMap.load(job, new Path(partitionMapPath));
+    } catch (IOException e) {
+      throw new IllegalStateException("initialization: Failed to load " +
+          "the partition scheme " + partitionMapPath, e);
     }
-	finally {
-      Closeables.closeQuietly(fileIn);
-      Closeables.closeQuietly(reader);  
+    LOG.info("The partition scheme vertex size=" + partitionMap.size());
+  }
+
+  /**
+   * Get the int value of a vertex id without a string round trip for
+   * IntWritable and LongWritable ids.
+   *
+   * @param vertexId Vertex id
+   * @return Its int value
+   */
+  static int getIntId(WritableComparable vertexId) {
+    if (vertexId instanceof IntWritable) {
+      return ((IntWritable) vertexId).get();
+    } else if (vertexId instanceof LongWritable) {
+      long id = ((LongWritable) vertexId).get();
+      if (id < 0 || id > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("getIntId: Vertex id " + id +
+            " is out of the range of the partition map");
+      }
+      return (int) id;
     }
+    return Integer.parseInt(vertexId.toString());
   }
 
   @Override
@@ -120,8 +120,7 @@ public class IdenticalWorkerPartitioner<I extends WritableComparable,
 
   @Override
   public PartitionOwner getPartitionOwner(I vertexId) {
-	return partitionOwnerList.get(vid2pid[Integer.valueOf(vertexId.toString())]);
-//	return partitionOwnerList.get(vid2pid.get(Integer.valueOf(vertexId.toString())));
+    return partitionOwnerList.get(partitionMap.get(getIntId(vertexId)));
   }
 
   @Override
@@ -183,6 +182,6 @@ public class IdenticalWorkerPartitioner<I extends WritableComparable,
 
 @Override
 public boolean isSamePartition(int vid1, int vid2) {
-	return vid2pid[vid1] == vid2pid[vid2];
+	return partitionMap.get(vid1) == partitionMap.get(vid2);
 }
 }
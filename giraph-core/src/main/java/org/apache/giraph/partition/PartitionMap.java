@@ -0,0 +1,278 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.partition;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Closeables;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.regex.Pattern;
+
+/**
+ * Map of the int vertex ids to their partition ids, read by
+ * {@link IdenticalWorkerPartitioner} from "giraph.partitionscheme.path".
+ *
+ * Two formats are read, told apart by the first four bytes:
+ * <ul>
+ *   <li>text: the vertex count on the first line, then "vid pid" lines
+ *   (tab or space separated), parsed into a short[] by every worker.</li>
+ *   <li>binary: {@link #MAGIC}, the vertex count and a big-endian short
+ *   partition id per vertex id. The file is copied once per host to
+ *   "giraph.partitionscheme.localDir" (java.io.tmpdir by default) and
+ *   memory-mapped read-only, so the tasks of a host share its pages.</li>
+ * </ul>
+ * {@link PartitionMapConverter} converts the text form into the binary one.
+ * Lookups do not allocate.
+ */
+public class PartitionMap {
+  /** Magic number of the binary format, "GPM1" */
+  public static final int MAGIC = 0x47504d31;
+  /** Bytes before the partition ids: magic and vertex count */
+  private static final int HEADER_SIZE = 8;
+  /** Separator of the text format */
+  private static final Pattern SEPARATOR = Pattern.compile("[\t ]");
+  /** Class logger */
+  private static final Logger LOG = Logger.getLogger(PartitionMap.class);
+
+  /** Partition id of every vertex id */
+  private final ShortBuffer partitions;
+
+  /**
+   * Constructor
+   *
+   * @param partitions Partition id of every vertex id
+   */
+  public PartitionMap(ShortBuffer partitions) {
+    this.partitions = partitions;
+  }
+
+  /**
+   * Get the partition of a vertex
+   *
+   * @param vertexId Vertex id
+   * @return Partition id
+   */
+  public int get(int vertexId) {
+    return partitions.get(vertexId);
+  }
+
+  /**
+   * Get the number of vertex ids in the map
+   *
+   * @return Largest vertex id + 1
+   */
+  public int size() {
+    return partitions.limit();
+  }
+
+  /**
+   * Load a partition map in either format.
+   *
+   * @param conf Configuration
+   * @param path Path of the map
+   * @return The map
+   * @throws IOException
+   */
+  public static PartitionMap load(Configuration conf, Path path)
+    throws IOException {
+    FileSystem fs = path.getFileSystem(conf);
+    FSDataInputStream in = fs.open(path);
+    int magic = 0;
+    try {
+      magic = in.readInt();
+    } catch (EOFException e) {
+      // Shorter than the magic, can only be a (tiny) text map
+    } finally {
+      Closeables.closeQuietly(in);
+    }
+    if (magic == MAGIC) {
+      return map(conf, fs, path);
+    }
+    return new PartitionMap(ShortBuffer.wrap(readText(fs, path)));
+  }
+
+  /**
+   * Parse a map in the text format.
+   *
+   * @param fs File system
+   * @param path Path of the text map
+   * @return Partition id of every vertex id
+   * @throws IOException
+   */
+  private static short[] readText(FileSystem fs, Path path)
+    throws IOException {
+    BufferedReader reader = new BufferedReader(
+        new InputStreamReader(fs.open(path), Charsets.UTF_8));
+    try {
+      String line = reader.readLine();
+      if (line == null || line.trim().isEmpty()) {
+        throw new IOException("readText: " + path + " is empty, expected " +
+            "the vertex count on the first line");
+      }
+      short[] vid2pid = new short[Integer.parseInt(line.trim()) + 1];
+      while ((line = reader.readLine()) != null) {
+        if (line.isEmpty()) {
+          continue;
+        }
+        String[] tokens = SEPARATOR.split(line);
+        vid2pid[Integer.parseInt(tokens[0])] =
+            (short) Integer.parseInt(tokens[1]);
+      }
+      if (LOG.isInfoEnabled()) {
+        LOG.info("readText: Parsed " + vid2pid.length +
+            " vertex ids from " + path);
+      }
+      return vid2pid;
+    } finally {
+      Closeables.closeQuietly(reader);
+    }
+  }
+
+  /**
+   * Memory-map a map in the binary format, from a copy on the local disk
+   * unless it is local already.
+   *
+   * @param conf Configuration
+   * @param fs File system of the map
+   * @param path Path of the binary map
+   * @return The map
+   * @throws IOException
+   */
+  private static PartitionMap map(Configuration conf, FileSystem fs,
+      Path path) throws IOException {
+    File local;
+    if ("file".equals(fs.getUri().getScheme())) {
+      local = new File(path.toUri().getPath());
+    } else {
+      local = copyToLocal(conf, fs, path);
+    }
+    RandomAccessFile file = new RandomAccessFile(local, "r");
+    ByteBuffer buffer;
+    try {
+      buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+          file.length());
+    } finally {
+      // The mapping stays valid after the channel is closed
+      file.close();
+    }
+    if (buffer.remaining() < HEADER_SIZE) {
+      throw new IOException("map: " + local + " is not a binary partition " +
+          "map, it has " + buffer.remaining() + " bytes, less than the " +
+          HEADER_SIZE + " bytes of the header");
+    }
+    int count = buffer.getInt(4);
+    if (buffer.getInt(0) != MAGIC ||
+        buffer.capacity() != HEADER_SIZE + 2L * count) {
+      throw new IOException("map: " + local + " is not a binary partition " +
+          "map of " + count + " vertex ids");
+    }
+    buffer.position(HEADER_SIZE);
+    if (LOG.isInfoEnabled()) {
+      LOG.info("map: Mapped " + count + " vertex ids from " + local);
+    }
+    return new PartitionMap(buffer.slice().asShortBuffer());
+  }
+
+  /**
+   * Copy a binary map to the local directory of the host once. The copy
+   * is named after the path, length and modification time of the map and
+   * renamed into place, so concurrent tasks never map a partial copy.
+   *
+   * @param conf Configuration
+   * @param fs File system of the map
+   * @param path Path of the binary map
+   * @return The local copy
+   * @throws IOException
+   */
+  private static File copyToLocal(Configuration conf, FileSystem fs,
+      Path path) throws IOException {
+    FileStatus status = fs.getFileStatus(path);
+    File localDir = new File(conf.get("giraph.partitionscheme.localDir",
+        System.getProperty("java.io.tmpdir")));
+    String name = "giraph-partition-map-" +
+        Integer.toHexString(path.toString().hashCode()) + "-" +
+        status.getLen() + "-" + status.getModificationTime();
+    File local = new File(localDir, name);
+    if (local.exists() && local.length() == status.getLen()) {
+      return local;
+    }
+    if (!localDir.isDirectory() && !localDir.mkdirs() &&
+        !localDir.isDirectory()) {
+      throw new IOException("copyToLocal: Cannot create " + localDir);
+    }
+    File tmp = File.createTempFile(name, ".tmp", localDir);
+    try {
+      IOUtils.copyBytes(fs.open(path), new FileOutputStream(tmp), conf, true);
+      if (!tmp.renameTo(local) && !local.exists()) {
+        throw new IOException("copyToLocal: Cannot rename " + tmp + " to " +
+            local);
+      }
+    } finally {
+      tmp.delete();
+    }
+    if (LOG.isInfoEnabled()) {
+      LOG.info("copyToLocal: Copied " + path + " to " + local);
+    }
+    return local;
+  }
+
+  /**
+   * Convert a map in the text format into the binary format.
+   *
+   * @param conf Configuration
+   * @param textPath Path of the text map
+   * @param binaryPath Path of the binary map to write
+   * @throws IOException
+   */
+  public static void convert(Configuration conf, Path textPath,
+      Path binaryPath) throws IOException {
+    short[] vid2pid = readText(textPath.getFileSystem(conf), textPath);
+    FileSystem fs = binaryPath.getFileSystem(conf);
+    DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(fs.create(binaryPath, true)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(vid2pid.length);
+      for (short pid : vid2pid) {
+        out.writeShort(pid);
+      }
+    } finally {
+      out.close();
+    }
+  }
+}
@@ -91,6 +91,16 @@ public interface WorkerGraphPartitioner<I extends WritableComparable,
    * @return Collection of owners for every partition.
    */
   Collection<? extends PartitionOwner> getPartitionOwners();
-  
+
+  /**
+   * Whether two vertices are in the same partition. Called concurrently by
+   * the compute threads and the pruning threads of ParallelKTrussPruner, so
+   * it may only read state which does not change during a superstep (the
+   * partition owners or the loaded partition map).
+   *
+   * @param vid1 First vertex id
+   * @param vid2 Second vertex id
+   * @return True if both vertices are in the same partition
+   */
   boolean isSamePartition(int vid1, int vid2);
 }
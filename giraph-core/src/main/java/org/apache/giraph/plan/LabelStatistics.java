@@ -0,0 +1,212 @@
+package org.apache.giraph.plan;
+
+import it.unimi.dsi.fastutil.ints.Int2LongMap;
+import it.unimi.dsi.fastutil.ints.Int2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+
+import org.apache.hadoop.io.Writable;
+
+/**
+ * Statistics of the labeled graph used by the cost based ("cost") plan.
+ * 	-- number of vertices per vertex label.
+ * 	-- number of edges per (source label, edge label, target label).
+ * 	-- degree histograms per (vertex label, edge label, neighbor label, direction);
+ * 	   the degree is bucketed by log2, every bucket records the number of vertices
+ * 	   and the sum of their degrees. ANY_LABEL means the neighbor label is not known.
+ *
+ * Collected by the workers in superstep 1 and merged by LabelStatisticsAggregator.
+ * Labels must be in [-1, 2^20 - 3].
+ *
+ * @author simon0227
+ */
+public class LabelStatistics implements Writable {
+
+	public static final int ANY_LABEL = -2;
+	public static final int IN = 0;
+	public static final int OUT = 1;
+	public static final int BUCKETS = 32;
+
+	private static final int LABEL_BITS = 20;
+	private static final int MAX_LABEL = (1 << LABEL_BITS) - 3;
+
+	private Int2LongOpenHashMap vertexCount = new Int2LongOpenHashMap();
+	private Long2LongOpenHashMap edgeCount = new Long2LongOpenHashMap();
+	/* bucket b: [b] = vertex count, [BUCKETS + b] = degree sum */
+	private Long2ObjectOpenHashMap<long[]> degreeHistogram = new Long2ObjectOpenHashMap<long[]>();
+
+	public LabelStatistics() { }
+
+	private static long label(int label) {
+		if(label < ANY_LABEL || label > MAX_LABEL) {
+			throw new IllegalArgumentException("Label " + label + " is out of the range [-1, " + MAX_LABEL + "].");
+		}
+		return label + 2;
+	}
+
+	private static long key(int label1, int elabel, int label2, int direction) {
+		return (label(label1) << (2 * LABEL_BITS + 1)) | (label(elabel) << (LABEL_BITS + 1)) | (label(label2) << 1) | direction;
+	}
+
+	public static int bucket(long degree) {
+		return 63 - Long.numberOfLeadingZeros(degree);
+	}
+
+	public boolean isEmpty() {
+		return vertexCount.isEmpty() && edgeCount.isEmpty() && degreeHistogram.isEmpty();
+	}
+
+	public void clear() {
+		vertexCount.clear();
+		edgeCount.clear();
+		degreeHistogram.clear();
+	}
+
+	public void addVertex(int vlabel) {
+		vertexCount.addTo(vlabel, 1);
+	}
+
+	public void addEdges(int srcLabel, int elabel, int dstLabel, long count) {
+		edgeCount.addTo(key(srcLabel, elabel, dstLabel, 0), count);
+	}
+
+	/**
+	 * record a vertex with degree > 0 w.r.t. (elabel, nbrLabel, direction).
+	 */
+	public void addDegree(int vlabel, int elabel, int nbrLabel, int direction, long degree) {
+		long k = key(vlabel, elabel, nbrLabel, direction);
+		long[] hist = degreeHistogram.get(k);
+		if(hist == null) {
+			hist = new long[2 * BUCKETS];
+			degreeHistogram.put(k, hist);
+		}
+		int b = bucket(degree);
+		hist[b]++;
+		hist[BUCKETS + b] += degree;
+	}
+
+	public void merge(LabelStatistics other) {
+		for(Int2LongMap.Entry e : other.vertexCount.int2LongEntrySet()) {
+			vertexCount.addTo(e.getIntKey(), e.getLongValue());
+		}
+		for(Long2LongMap.Entry e : other.edgeCount.long2LongEntrySet()) {
+			edgeCount.addTo(e.getLongKey(), e.getLongValue());
+		}
+		for(Long2ObjectMap.Entry<long[]> e : other.degreeHistogram.long2ObjectEntrySet()) {
+			long[] hist = degreeHistogram.get(e.getLongKey());
+			if(hist == null) {
+				degreeHistogram.put(e.getLongKey(), e.getValue().clone());
+			}
+			else {
+				long[] add = e.getValue();
+				for(int i = 0; i < hist.length; ++i) {
+					hist[i] += add[i];
+				}
+			}
+		}
+	}
+
+	public long getVertexCount(int vlabel) {
+		return vertexCount.get(vlabel);
+	}
+
+	public long getEdgeCount(int srcLabel, int elabel, int dstLabel) {
+		return edgeCount.get(key(srcLabel, elabel, dstLabel, 0));
+	}
+
+	/**
+	 * @return null if no vertex has such an edge.
+	 */
+	public long[] getDegreeHistogram(int vlabel, int elabel, int nbrLabel, int direction) {
+		return degreeHistogram.get(key(vlabel, elabel, nbrLabel, direction));
+	}
+
+	/**
+	 * the vertex label statistics in the form used by the "dp", "dpa" and "bdp" plans.
+	 */
+	public HashMap<Integer, Long> getVertexLabelStat() {
+		HashMap<Integer, Long> res = new HashMap<Integer, Long>();
+		for(Int2LongMap.Entry e : vertexCount.int2LongEntrySet()) {
+			res.put(e.getIntKey(), e.getLongValue());
+		}
+		return res;
+	}
+
+	/**
+	 * the edge label statistics in the form used by the "dp", "dpa" and "bdp" plans.
+	 */
+	public HashMap<Integer, Long> getEdgeLabelStat() {
+		HashMap<Integer, Long> res = new HashMap<Integer, Long>();
+		for(Long2LongMap.Entry e : edgeCount.long2LongEntrySet()) {
+			int elabel = (int)((e.getLongKey() >>> (LABEL_BITS + 1)) & ((1 << LABEL_BITS) - 1)) - 2;
+			Long cur = res.get(elabel);
+			res.put(elabel, (cur == null ? 0 : cur) + e.getLongValue());
+		}
+		return res;
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(vertexCount.size());
+		for(Int2LongMap.Entry e : vertexCount.int2LongEntrySet()) {
+			out.writeInt(e.getIntKey());
+			out.writeLong(e.getLongValue());
+		}
+		out.writeInt(edgeCount.size());
+		for(Long2LongMap.Entry e : edgeCount.long2LongEntrySet()) {
+			out.writeLong(e.getLongKey());
+			out.writeLong(e.getLongValue());
+		}
+		out.writeInt(degreeHistogram.size());
+		for(Long2ObjectMap.Entry<long[]> e : degreeHistogram.long2ObjectEntrySet()) {
+			out.writeLong(e.getLongKey());
+			long[] hist = e.getValue();
+			int used = BUCKETS;
+			while(used > 0 && hist[used - 1] == 0) {
+				used--;
+			}
+			out.writeByte(used);
+			for(int b = 0; b < used; ++b) {
+				out.writeLong(hist[b]);
+				out.writeLong(hist[BUCKETS + b]);
+			}
+		}
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		clear();
+		int size = in.readInt();
+		for(int i = 0; i < size; ++i) {
+			vertexCount.put(in.readInt(), in.readLong());
+		}
+		size = in.readInt();
+		for(int i = 0; i < size; ++i) {
+			edgeCount.put(in.readLong(), in.readLong());
+		}
+		size = in.readInt();
+		for(int i = 0; i < size; ++i) {
+			long k = in.readLong();
+			long[] hist = new long[2 * BUCKETS];
+			int used = in.readByte();
+			for(int b = 0; b < used; ++b) {
+				hist[b] = in.readLong();
+				hist[BUCKETS + b] = in.readLong();
+			}
+			degreeHistogram.put(k, hist);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "LabelStatistics: vertexLabels=" + vertexCount.size() + " labelTriples=" + edgeCount.size()
+				+ " degreeHistograms=" + degreeHistogram.size();
+	}
+}
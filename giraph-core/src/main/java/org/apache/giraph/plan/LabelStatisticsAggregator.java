@@ -0,0 +1,21 @@
+package org.apache.giraph.plan;
+
+import org.apache.giraph.aggregators.BasicAggregator;
+
+/**
+ * Merge the label statistics collected by the workers.
+ * @author simon0227
+ *
+ */
+public class LabelStatisticsAggregator extends BasicAggregator<LabelStatistics> {
+
+	@Override
+	public void aggregate(LabelStatistics value) {
+		getAggregatedValue().merge(value);
+	}
+
+	@Override
+	public LabelStatistics createInitialValue() {
+		return new LabelStatistics();
+	}
+}
@@ -139,34 +139,59 @@ public class QueryNode {
 		nodeLabel = label;
 	}
 	
+	/**
+	 * see isSameQuery.
+	 */
 	public boolean equals(QueryNode qn) {
-		if(qn.isLeaf != isLeaf)
-			return false; /* has the same type of node. */
+		return isSameQuery(qn);
+	}
+
+	/**
+	 * true if both evaluate the same sub pattern, so that one of them can be shared: the same
+	 * kind of node and vertex label, and the same sides, compared left with right if one is a
+	 * left and the other a right query (the directions are seen from the node vertex in both).
+	 * The child queries are compared by id, so they have to be merged before.
+	 */
+	public boolean isSameQuery(QueryNode qn) {
+		if(qn.isLeaf != isLeaf || qn.nodeLabel != nodeLabel) {
+			return false;
+		}
 		if(qn.isLeft == isLeft) {
-			boolean partialRes = (qn.leftQueryId == leftQueryId && 
-				qn.rightQueryId == rightQueryId &&
-				qn.nodeLabel == nodeLabel);
-			if(isLeaf == false) {
-				return partialRes;
-			}
-			return (qn.leftEdgeDirection == leftEdgeDirection &&
-				qn.rightEdgeDirection == rightEdgeDirection &&
-				partialRes
-				);
+			return hasSameSide(true, qn, true) && hasSameSide(false, qn, false);
 		}
-		else {
-			/* comparing of right query and left query. */
-			boolean partialRes = (qn.leftQueryId == rightQueryId && 
-					qn.rightQueryId == leftQueryId &&
-					qn.nodeLabel == nodeLabel);
-				if(isLeaf == false) {
-					return partialRes;
-				}
-				return (qn.leftEdgeDirection == rightEdgeDirection &&
-					qn.rightEdgeDirection == leftEdgeDirection &&
-					partialRes
-					);
+		return hasSameSide(true, qn, false) && hasSameSide(false, qn, true);
+	}
+
+	/**
+	 * a side is a child query (its id), or a raw edge to the end vertex (edge label,
+	 * direction and vertex label), or nothing at the start or the end of the line.
+	 */
+	private boolean hasSameSide(boolean left, QueryNode qn, boolean qnLeft) {
+		boolean child = isChildQuery(left);
+		if(child != qn.isChildQuery(qnLeft) || getSideId(left) != qn.getSideId(qnLeft)) {
+			return false;
 		}
+		return child || (getSideEdgeDirection(left) == qn.getSideEdgeDirection(qnLeft)
+				&& getSideEdgeLabel(left) == qn.getSideEdgeLabel(qnLeft));
+	}
+
+	/**
+	 * the side holds the id of a child query, not the label of the end vertex.
+	 */
+	private boolean isChildQuery(boolean left) {
+		return !isLeaf && getSideEdgeDirection(left) == EdgeDirection.UNSET && getSideId(left) >= 0;
+	}
+
+	private int getSideId(boolean left) {
+		return left ? leftQueryId : rightQueryId;
+	}
+
+	private EdgeDirection getSideEdgeDirection(boolean left) {
+		return left ? leftEdgeDirection : rightEdgeDirection;
+	}
+
+	private int getSideEdgeLabel(boolean left) {
+		return left ? leftEdgeLabel : rightEdgeLabel;
 	}
 	
 	public boolean hasSameLabel(QueryNode qn) {
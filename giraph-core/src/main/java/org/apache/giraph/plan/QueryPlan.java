@@ -10,6 +10,8 @@ import java.util.HashMap;
 
 import org.apache.giraph.conf.GiraphConstants;
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.log4j.Logger;
 
 /**
  * High Level number is far from root.
@@ -19,6 +21,15 @@ import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 @SuppressWarnings("rawtypes")
 public class QueryPlan {
 	
+	private static final Logger LOG = Logger.getLogger(QueryPlan.class);
+	
+	/* plan mode which uses the label statistics collected in superstep 1. */
+	public static final String COST_PLAN = "cost";
+	/* name of the aggregator of LabelStatistics. */
+	public static final String LABEL_STATISTICS_AGGREGATOR = "grapholap.path.label.statistics";
+	/* weight of the work of a query node against its messages in the "cost" plan. */
+	private static final double WORK_FACTOR = 0.1;
+	
 	private ArrayList<QueryNode> queryNodes;
 	
 	/* auxiliary data structure. */
@@ -31,10 +42,21 @@ public class QueryPlan {
 	
 	private int [][] pivotVertex;
 	
+	private LabelStatistics labelStatistics;
+	
+	/* root query of every line pattern, in the order of the patterns. */
+	private ArrayList<Integer> rootIds;
+	/* root query ==> line patterns answered by it, several if the patterns are the same. */
+	private HashMap<Integer, ArrayList<Integer>> root2Patterns;
+	
 	public QueryPlan() { 
 		queryNodes = new ArrayList<QueryNode> ();
+		rootIds = new ArrayList<Integer> ();
 	}
 	
+	/**
+	 * the number of vertices of the longest line pattern of the plan.
+	 */
 	public int getSize() {
 		return size;
 	}
@@ -43,10 +65,53 @@ public class QueryPlan {
 		this.conf = conf;
 	}
 	
+	/**
+	 * required by the "cost" plan.
+	 */
+	public void setLabelStatistics(LabelStatistics labelStatistics) {
+		this.labelStatistics = labelStatistics;
+	}
+	
+	/**
+	 * the label statistics are collected in superstep 1, which is skipped with a loaded snapshot;
+	 * createPlan falls back to the "dpa" plan then.
+	 */
+	public static boolean isCostPlan(Configuration conf) {
+		return GiraphConstants.GRAPHOLAP_PATH_EVALUATION_PLAN.get(conf).equals(COST_PLAN) &&
+				isSnapshotLoaded(conf) == false;
+	}
+	
+	/**
+	 * the preprocessed graph is loaded from "grapholap.path.evaluation.snapshot.load".
+	 */
+	public static boolean isSnapshotLoaded(Configuration conf) {
+		return GiraphConstants.GRAPHOLAP_PATH_EVALUATION_SNAPSHOT_LOAD.get(conf).length() > 0;
+	}
+	
+	/**
+	 * the superstep evaluating the lowest level of the plan, after the preprocessing in supersteps 0 - 2.
+	 */
+	public static int getFirstQuerySuperstep(Configuration conf) {
+		return isSnapshotLoaded(conf) ? 0 : 2;
+	}
+	
+	/**
+	 * the superstep after which the master saves the plan; the workers read it in the next superstep.
+	 * The "cost" plan waits for the label statistics collected in superstep 1. The plan is first
+	 * evaluated in superstep 2 anyway, or in superstep 0 with a loaded snapshot.
+	 */
+	public static int getPlanSuperstep(Configuration conf) {
+		if(isSnapshotLoaded(conf)) {
+			return -1;
+		}
+		return isCostPlan(conf) ? 1 : 0;
+	}
+	
 	public void createPlan(ArrayList<RawQueryNode> qnList, 
 			HashMap<Integer, Long> vLabelStat, HashMap<Integer, Long> eLabelStat) {
 		String plan = GiraphConstants.GRAPHOLAP_PATH_EVALUATION_PLAN.get(conf); 
 		int qnSize = qnList.size();
+		size = Math.max(size, qnSize);
 		pivotVertex = new int[qnSize][qnSize];
 		
 		if(plan.equals("line")) {
@@ -64,6 +129,15 @@ public class QueryPlan {
 		else if(plan.equals("binary")) {
 			generateBinaryPlan(qnList, pivotVertex);
 		}
+		else if(plan.equals(COST_PLAN)) {
+			if(labelStatistics == null) {
+				LOG.warn("No label statistics for the cost plan, use the dpa plan instead.");
+				generatePlanByDPWithPA(qnList, vLabelStat, eLabelStat, pivotVertex);
+			}
+			else {
+				generatePlanByCost(qnList, labelStatistics, pivotVertex);
+			}
+		}
 		else {
 			System.out.println(plan+" Plan is not supportted yet!");
 		}
@@ -75,7 +149,20 @@ public class QueryPlan {
 //			System.out.println();
 //		}
 		
-		generatePlan(qnList, pivotVertex, 0, qnList.size() - 1, 0, false);
+		rootIds.add(generatePlan(qnList, pivotVertex, 0, qnList.size() - 1, 0, false));
+	}
+	
+	/**
+	 * plan of several line patterns evaluated in one job; pattern i is the query i of the output.
+	 * The roots of all the patterns are at level 0, so the results of all the patterns are ready
+	 * in the same superstep. Shared sub patterns are evaluated once if
+	 * "grapholap.path.evaluation.query.sharing" is on.
+	 */
+	public void createPlans(ArrayList<ArrayList<RawQueryNode>> patterns,
+			HashMap<Integer, Long> vLabelStat, HashMap<Integer, Long> eLabelStat) {
+		for(ArrayList<RawQueryNode> qnList : patterns) {
+			createPlan(qnList, vLabelStat, eLabelStat);
+		}
 	}
 	
 	/**
@@ -318,6 +405,157 @@ public class QueryPlan {
 		}
 	}
 
+	/**
+	 * generate query plan by dynamic programming over the estimated number of messages.
+	 * Different from "dp", the estimation uses
+	 * 	-- the edge counts per (vlabel, elabel, vlabel), so correlated labels are not treated as independent;
+	 * 	-- the degree histograms of the start vertices, to estimate how many paths are merged
+	 * 	   by the partial aggregation, i.e. the number of distinct (start, end) pairs.
+	 * The cost of a query node = its messages + WORK_FACTOR * the paths it enumerates.
+	 * @param qnList
+	 * @param stats
+	 * @param step
+	 */
+	private void generatePlanByCost(ArrayList<RawQueryNode> qnList, LabelStatistics stats, int[][] step) {
+		int n = qnList.size();
+		double [][] cost = new double[n][n];
+		double [][] pairs = new double[n][n];
+		
+		//initialization;
+		for(int i = 0; i < n; ++i) {
+			for(int j = 0; j < n; ++j) {
+				cost[i][j] = Double.MAX_VALUE;
+				step[i][j] = -1;
+			}
+		}
+		for(int i = 0; i < n; ++i) {
+			for(int j = i + 1; j < n; ++j) {
+				pairs[i][j] = estimateDistinctPairs(qnList, i, j, stats);
+			}
+		}
+		for(int j = 1; j < n; j++) {
+			cost[j-1][j] = 0.0;
+		}
+		
+		//dynamic programming
+		for(int l = 2; l < n; l++) {
+			for(int i = 0; i + l < n; i++) {
+				int j = i + l;
+				for(int k = i + 1; k < j; k++) {
+					double work;
+					if(l == 2) {
+						work = estimatePaths(qnList, i, j, stats); //leaf node: two-hop exploration.
+					}
+					else {
+						/* join the partial results of both sides at the pivot vertices. */
+						double vk = Math.max(1.0, stats.getVertexCount(qnList.get(k).getVlabel()));
+						work = pairs[i][k] * pairs[k][j] / vk;
+					}
+					double tmp = cost[i][k] + cost[k][j] + pairs[i][j] + WORK_FACTOR * work;
+					if(tmp < cost[i][j]) {
+						cost[i][j] = tmp;
+						step[i][j] = k;
+					}
+				}
+			}
+		}
+		
+		/* output the estimated cost. */
+		HashMap<Integer, Double> estimatedCost = new HashMap<Integer, Double>();
+		outputEstimatedCost(estimatedCost, cost, step, 0, n - 1, 0);
+		if(LOG.isDebugEnabled()) {
+			for(int i = 0; i < estimatedCost.size(); ++i) {
+				LOG.debug("COST Level "+i+" eCost= "+String.format("%.2f", estimatedCost.get(i)));
+			}
+		}
+	}
+	
+	/**
+	 * number of edges matching the k-th edge of the line pattern.
+	 */
+	private double matchedEdges(ArrayList<RawQueryNode> qnList, int k, LabelStatistics stats) {
+		RawQueryNode from = qnList.get(k);
+		int toLabel = qnList.get(k + 1).getVlabel();
+		double res = 0.0;
+		if(from.getEdgeDirection() != EdgeDirection.INCOMING) {
+			res += stats.getEdgeCount(from.getVlabel(), from.getElabel(), toLabel);
+		}
+		if(from.getEdgeDirection() != EdgeDirection.OUTGOING) {
+			res += stats.getEdgeCount(toLabel, from.getElabel(), from.getVlabel());
+		}
+		return res;
+	}
+	
+	/**
+	 * number of paths matching the sub line pattern [s, e].
+	 */
+	private double estimatePaths(ArrayList<RawQueryNode> qnList, int s, int e, LabelStatistics stats) {
+		double res = matchedEdges(qnList, s, stats);
+		for(int k = s + 1; k < e; k++) {
+			double vk = Math.max(1.0, stats.getVertexCount(qnList.get(k).getVlabel()));
+			res = res / vk * matchedEdges(qnList, k, stats);
+		}
+		return res;
+	}
+	
+	/**
+	 * number of distinct (start, end) pairs of the sub line pattern [s, e], i.e. the number
+	 * of partial paths left after the partial aggregation.
+	 * Every start vertex with degree d on the first edge reaches at most
+	 * min(d * fanout, |end vertices|) end vertices; the degrees come from the histograms.
+	 */
+	private double estimateDistinctPairs(ArrayList<RawQueryNode> qnList, int s, int e, LabelStatistics stats) {
+		double paths = estimatePaths(qnList, s, e, stats);
+		double firstEdges = matchedEdges(qnList, s, stats);
+		double endVertices = Math.max(1.0, stats.getVertexCount(qnList.get(e).getVlabel()));
+		if(firstEdges <= 0.0) {
+			return 0.0;
+		}
+		double fanout = paths / firstEdges;
+		
+		RawQueryNode start = qnList.get(s);
+		int nextLabel = qnList.get(s + 1).getVlabel();
+		double res = 0.0;
+		boolean hasHistogram = false;
+		if(start.getEdgeDirection() != EdgeDirection.INCOMING) {
+			/* out-degrees are collected per edge label only, scale them to the target label. */
+			long[] hist = stats.getDegreeHistogram(start.getVlabel(), start.getElabel(), LabelStatistics.ANY_LABEL, LabelStatistics.OUT);
+			if(hist != null) {
+				double all = 0.0;
+				for(int b = 0; b < LabelStatistics.BUCKETS; ++b) {
+					all += hist[LabelStatistics.BUCKETS + b];
+				}
+				double ratio = stats.getEdgeCount(start.getVlabel(), start.getElabel(), nextLabel) / Math.max(1.0, all);
+				res += distinctPairsByHistogram(hist, ratio * fanout, endVertices);
+				hasHistogram = true;
+			}
+		}
+		if(start.getEdgeDirection() != EdgeDirection.OUTGOING) {
+			long[] hist = stats.getDegreeHistogram(start.getVlabel(), start.getElabel(), nextLabel, LabelStatistics.IN);
+			if(hist != null) {
+				res += distinctPairsByHistogram(hist, fanout, endVertices);
+				hasHistogram = true;
+			}
+		}
+		if(hasHistogram == false) {
+			double startVertices = Math.max(1.0, stats.getVertexCount(start.getVlabel()));
+			res = startVertices * Math.min(paths / startVertices, endVertices);
+		}
+		return Math.min(res, paths);
+	}
+	
+	private double distinctPairsByHistogram(long[] hist, double pathsPerEdge, double endVertices) {
+		double res = 0.0;
+		for(int b = 0; b < LabelStatistics.BUCKETS; ++b) {
+			if(hist[b] == 0) {
+				continue;
+			}
+			double avgDegree = (double) hist[LabelStatistics.BUCKETS + b] / hist[b];
+			res += hist[b] * Math.min(avgDegree * pathsPerEdge, endVertices);
+		}
+		return res;
+	}
+
 	/**
 	 * pivotVertex only records the pivot vertices for the pattern whose length is larger than 1.
 	 * For the pattern of length 1, the pivot vertex is its end vertex. In other words, we treat
@@ -435,10 +673,25 @@ public class QueryPlan {
 			queryNodes = mergeSameQuery(queryNodes);
 		}
 		
+		root2Patterns = new HashMap<Integer, ArrayList<Integer>>();
+		for(int i = 0; i < rootIds.size(); ++i) {
+			ArrayList<Integer> patterns = root2Patterns.get(rootIds.get(i));
+			if(patterns == null) {
+				patterns = new ArrayList<Integer>();
+				root2Patterns.put(rootIds.get(i), patterns);
+			}
+			patterns.add(i);
+		}
+		
 		for(QueryNode qn : queryNodes) {
+			/* a side with the edge direction set holds the label of the end vertex, not a child query. */
 			if(qn.isLeafNode() == false) {
-				qid2Parent.put(qn.getLeftQueryId(), qn);
-				qid2Parent.put(qn.getRightQueryId(), qn);
+				if(qn.getLeftEdgeDirection() == EdgeDirection.UNSET && qn.getLeftQueryId() >= 0) {
+					qid2Parent.put(qn.getLeftQueryId(), qn);
+				}
+				if(qn.getRightEdgeDirection() == EdgeDirection.UNSET && qn.getRightQueryId() >= 0) {
+					qid2Parent.put(qn.getRightQueryId(), qn);
+				}
 			}
 			id2Query.put(qn.getNodeId(), qn);
 			maxLevel = (maxLevel > qn.getLevel() ? maxLevel : qn.getLevel());
@@ -452,6 +705,9 @@ public class QueryPlan {
 	
 	/**
 	 * using find and union data structure.
+	 * Only the query nodes at the same level are merged, so that the plan is still evaluated
+	 * level by level; the nodes of a level are merged after their children, which are at the
+	 * higher level. The root of every line pattern is mapped to the merged one.
 	 * @param queryNodes
 	 * @return
 	 */
@@ -464,62 +720,45 @@ public class QueryPlan {
 			}
 		});
 		
-		int leafLevel = queryNodes.get(0).getLevel();
-		int curLevel = queryNodes.get(0).getLevel();
-		boolean isNewLevel = false;
 		DisjointSets dsets = new DisjointSets(queryNodes.size());
+		int curLevel = -1;
 		int startIdx = 0;
-		for(int idx = 0; idx < queryNodes.size(); idx++) {
-			QueryNode curQN = queryNodes.get(idx);
-			isNewLevel = (curLevel != curQN.getLevel());
-			
-			if(curQN.getLevel() == leafLevel) {
-				/* leaf node processing */
-				QueryNode tmpQN = null;
-				for(QueryNode qn : res) {
-					if(qn.equals(curQN)) {
-						tmpQN = qn;
-						break;
-					}
+		for(QueryNode curQN : queryNodes) {
+			if(curQN.getLevel() != curLevel) {
+				startIdx = res.size();
+				curLevel = curQN.getLevel();
+			}
+			QueryNode newQn = new QueryNode();
+			newQn.copy(curQN);
+			if(curQN.isLeafNode() == false) {
+				/* the id of a child query, or the label of the end vertex if the edge direction is set. */
+				if(curQN.getLeftEdgeDirection() == EdgeDirection.UNSET && curQN.getLeftQueryId() >= 0) {
+					newQn.setLeftQueryId(dsets.find(curQN.getLeftQueryId()));
 				}
-				if(tmpQN == null) {
-					res.add(curQN);
+				if(curQN.getRightEdgeDirection() == EdgeDirection.UNSET && curQN.getRightQueryId() >= 0) {
+					newQn.setRightQueryId(dsets.find(curQN.getRightQueryId()));
 				}
-				else {
-					dsets.union(dsets.find(curQN.getNodeId()), dsets.find(tmpQN.getNodeId())); //merge the same query nodes;
-					tmpQN.setNodeId(dsets.find(tmpQN.getNodeId()));
+			}
+			
+			QueryNode tmpQN = null;
+			for(int idx = startIdx; idx < res.size(); idx++) {
+				if(res.get(idx).isSameQuery(newQn)) {
+					tmpQN = res.get(idx);
+					break;
 				}
 			}
+			if(tmpQN == null) {
+				res.add(newQn);
+			}
 			else {
-				QueryNode newQn = new QueryNode();
-				newQn.copy(curQN);
-				newQn.setLeftQueryId(dsets.find(curQN.getLeftQueryId()));
-				newQn.setRightQueryId(dsets.find(curQN.getRightQueryId()));
-				newQn.setNodeId(dsets.find(newQn.getNodeId()));
-				if(isNewLevel) {
-					startIdx = res.size();
-					res.add(newQn);
-					isNewLevel = false;
-					curLevel = curQN.getLevel();
-				}
-				else {
-					QueryNode tmpQN = null;
-					for(int idx1 = startIdx; idx1 < res.size(); idx1++) {
-						if(res.get(idx1).equals(newQn)) {
-							tmpQN = res.get(idx1);
-							break;
-						}
-					}
-					if(tmpQN == null) {
-						res.add(newQn);
-					}
-					else {
-						dsets.union(dsets.find(newQn.getNodeId()), dsets.find(tmpQN.getNodeId()));
-						tmpQN.setNodeId(dsets.find(tmpQN.getNodeId()));
-					}
-				}
+				dsets.union(dsets.find(newQn.getNodeId()), dsets.find(tmpQN.getNodeId())); //merge the same query nodes;
+				tmpQN.setNodeId(dsets.find(tmpQN.getNodeId()));
 			}
 		}
+		
+		for(int i = 0; i < rootIds.size(); ++i) {
+			rootIds.set(i, dsets.find(rootIds.get(i)));
+		}
 		return res;
 	}
 
@@ -534,6 +773,11 @@ public class QueryPlan {
 		for(QueryNode qn : queryNodes) {
 			qn.write(out);
 		}
+		out.writeInt(rootIds.size());
+		for(int rootId : rootIds) {
+			out.writeInt(rootId);
+		}
+		out.writeInt(this.size);
 	}
 	
 	public void readFields(DataInputStream in) throws IOException {
@@ -549,7 +793,13 @@ public class QueryPlan {
 			qn.readFields(in);
 			queryNodes.add(qn);
 		}
-		this.size = size + 2; // n vertices creates n-2 queryNodes.
+		int numPatterns = in.readInt();
+		rootIds.clear();
+		for(int i = 0; i < numPatterns; i++) {
+			rootIds.add(in.readInt());
+		}
+		/* the query nodes may be shared by several patterns, so the size is not derived from them. */
+		this.size = in.readInt();
 		this.initialize();
 	}
 	
@@ -582,6 +832,18 @@ public class QueryPlan {
 		return id2Query.get(qid).isLeftQuery();
 	}
 	
+	public int getNumPatterns() {
+		return rootIds.size();
+	}
+	
+	/**
+	 * @return the line patterns whose results are produced by the root query qid,
+	 * 	null if qid is not a root or the plan is not created by createPlan.
+	 */
+	public ArrayList<Integer> getPatternsOfRoot(int qid) {
+		return root2Patterns.get(qid);
+	}
+	
 }
 
 
@@ -17,6 +17,8 @@ public class BasicVertex {
 	
 	private int id;
 	private HashMap<Integer, BasicEdge> neighbors;
+	/* written as the vertex value, e.g. the truss number of the decomposition output */
+	private int value;
 	
 	public BasicVertex() { }
 	
@@ -36,6 +38,14 @@ public class BasicVertex {
 	public int getId(){
 		return id;
 	}
+
+	public int getValue(){
+		return value;
+	}
+
+	public void setValue(int value){
+		this.value = value;
+	}
 	
 	public Collection<BasicEdge> getNeighbors(){
 		return neighbors.values();
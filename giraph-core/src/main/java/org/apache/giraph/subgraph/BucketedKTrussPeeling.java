@@ -0,0 +1,132 @@
+package org.apache.giraph.subgraph;
+
+import it.unimi.dsi.fastutil.ints.IntArrayFIFOQueue;
+
+/**
+ * The bucketed peeling of a CompactTrussGraphStore, shared by KTrussDecompositionSubgraph
+ * ("giraph.ktruss.decomposition.bucketed") and TopTKTrussSubgraph.
+ *
+ * The master raises the threshold; the edges with a support below it are taken from the
+ * SupportBuckets and peeled, the internal and cross ones take the truss number
+ * threshold + 1 if it is at least lowestLevel (0 for the full decomposition). A peeled
+ * internal or cross edge tells the third vertex of each of its triangles which is in
+ * another partition, so that partition peels its copy (queueDeleted).
+ *
+ * The supports are kept in the store, the buckets and the truss numbers in its TrussState;
+ * this object is created for
+ * every superstep.
+ *
+ * @author simon0227
+ */
+public abstract class BucketedKTrussPeeling {
+
+	public int threshold;
+	public int lowestLevel;
+	/* highest truss number set by this object */
+	public int maxTruss;
+
+	private final IntArrayFIFOQueue queue = new IntArrayFIFOQueue();
+	private CompactTrussGraphStore compactStore;
+	private TrussState state;
+	private SupportBuckets buckets;
+	private int deletedSource;
+	private int deletedTarget;
+	private boolean deletedExternal;
+
+	protected abstract boolean isSamePartition(int vid1, int vid2);
+
+	protected abstract void sendTriple(int destination, int first, int second, int third);
+
+	/**
+	 * the triangles are added to the store: its support buckets are created and the
+	 * edges below the threshold are peeled.
+	 * @return true if an edge is deleted.
+	 */
+	public boolean start(CompactTrussGraphStore graphStore) {
+		TrussState state = TrussState.of(graphStore);
+		state.setSupportBuckets(new SupportBuckets(graphStore));
+		state.initTrussNumbers();
+		queueBelowThreshold(graphStore);
+		return prune(graphStore);
+	}
+
+	/**
+	 * queue the edges below the threshold, after the master raised it.
+	 */
+	public void queueBelowThreshold(CompactTrussGraphStore graphStore) {
+		TrussState.of(graphStore).getSupportBuckets().collectBelow(threshold, queue);
+	}
+
+	/**
+	 * queue the edge (second, third) peeled by another partition, see the triangle visitor.
+	 */
+	public void queueDeleted(CompactTrussGraphStore graphStore, TripleWritable tmsg) {
+		SupportBuckets buckets = TrussState.of(graphStore).getSupportBuckets();
+		int eid = graphStore.findEdge(tmsg.getSecond(), tmsg.getThird());
+		if(eid != -1 && !buckets.isQueued(eid)) {
+			buckets.setQueued(eid);
+			queue.enqueue(eid);
+		}
+	}
+
+	public int getQueueSize() {
+		return queue.size();
+	}
+
+	/**
+	 * peel the queued edges and the ones falling below the threshold.
+	 * @return true if an edge is deleted.
+	 */
+	public boolean prune(CompactTrussGraphStore graphStore) {
+		if(queue.isEmpty()) {
+			return false;
+		}
+		compactStore = graphStore;
+		state = TrussState.of(graphStore);
+		buckets = state.getSupportBuckets();
+		while(!queue.isEmpty()) {
+			int eid = queue.dequeueInt();
+			if(graphStore.isDeleted(eid)) {
+				continue;
+			}
+			graphStore.deleteEdge(eid);
+			if(!graphStore.isExternal(eid) && threshold + 1 >= lowestLevel) {
+				state.setTrussNumber(eid, threshold + 1);
+				maxTruss = Math.max(maxTruss, threshold + 1);
+			}
+			deletedSource = graphStore.getEdgeSource(eid);
+			deletedTarget = graphStore.getEdgeTarget(eid);
+			deletedExternal = graphStore.isExternal(eid);
+			graphStore.visitTriangles(eid, triangleVisitor);
+		}
+		return true;
+	}
+
+	private final CompactTrussGraphStore.TriangleVisitor triangleVisitor =
+			new CompactTrussGraphStore.TriangleVisitor() {
+		@Override
+		public void visit(int third, int firstEdge, int secondEdge) {
+			decrease(firstEdge);
+			decrease(secondEdge);
+			if(!deletedExternal
+					&& !compactStore.isLocal(third)
+					&& !isSamePartition(deletedSource, third)
+					&& !isSamePartition(deletedTarget, third)) {
+				sendTriple(third, deletedSource, deletedSource, deletedTarget);
+			}
+		}
+	};
+
+	private void decrease(int eid) {
+		if(compactStore.isExternal(eid) || buckets.isQueued(eid)) {
+			return;
+		}
+		if(compactStore.decAndGetSupport(eid) < threshold) {
+			buckets.setQueued(eid);
+			queue.enqueue(eid);
+		}
+		else {
+			buckets.decreased(eid);
+		}
+	}
+}
@@ -0,0 +1,851 @@
+package org.apache.giraph.subgraph;
+
+import it.unimi.dsi.fastutil.bytes.ByteArrayList;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+
+import org.apache.giraph.edge.Edge;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.partition.SimplePartition;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.util.Progressable;
+import org.apache.log4j.Logger;
+
+/**
+ * Compact local storage for the k-truss of KTrussSubgraphImpr.
+ * 	-- configured by "giraph.partitionClass" instead of SimpleGraphStore.
+ *
+ * Instead of a HashMap per vertex and two BasicEdge objects per edge:
+ * 	-- every undirected edge has a dense edge id; its end points (global ids), type and
+ * 	   support are kept in parallel primitive arrays, deletions in a BitSet.
+ * 	-- vertices have dense local ids (local vertices first), the adjacency is CSR:
+ * 	   adjStart[lid] .. adjStart[lid+1] is the slice of (neighbor local id, edge id) of vertex lid,
+ * 	   sorted by the neighbor local id. Deleted edges stay in the slices and are skipped.
+ * 	-- an edge is found by a binary search in the slice of its smaller end point, and the
+ * 	   triangles on an edge are a sorted-list intersection of the two slices.
+ *
+ * The external edges added in superstep 2 are staged (with a hash index for duplicates)
+ * and merged into the CSR arrays the first time the adjacency is used again.
+ *
+ * The edges are addressed by id (findEdge, getSupport, deleteEdge(int), visitTriangles);
+ * getEdge/getMainEdge return detached BasicEdge copies since the support lives in the arrays,
+ * so changing their count does not change the store. getVertex/getLocalVertex return detached
+ * BasicVertex copies, e.g. for the output.
+ *
+ * The state of the programs between the supersteps (vertex order, core bounds, truss
+ * numbers, support buckets, pruning queue, incremental maintenance) is kept in the
+ * TrussState of the store, not here.
+ *
+ * @author simon0227
+ */
+public class CompactTrussGraphStore
+extends SimplePartition<IntWritable, IntWritable, NullWritable, TripleWritable>
+implements BasicGraphStoreInterface
+{
+	private static final Logger LOG = Logger.getLogger(CompactTrussGraphStore.class);
+
+	/**
+	 * called for each triangle (u, v, third) on the edge (u, v).
+	 */
+	public interface TriangleVisitor {
+		/**
+		 * @param third global id of the third vertex.
+		 * @param firstEdge edge (u, third), where u is the source of the edge.
+		 * @param secondEdge edge (v, third).
+		 */
+		void visit(int third, int firstEdge, int secondEdge);
+	}
+
+	/* vertices */
+	private Int2IntOpenHashMap gid2lid;
+	private IntArrayList lid2gid;
+	private int localVertexCount;
+	private int[] localVertexIds;
+	/* alive degree per local id */
+	private int[] degree;
+	private long aliveLocalVertices;
+
+	/* edges, source < target */
+	private IntArrayList edgeSource;
+	private IntArrayList edgeTarget;
+	private ByteArrayList edgeType;
+	private int[] support;
+	private BitSet deleted;
+	/* deleted from the graph by an incremental batch, never alive again (subset of deleted) */
+	private BitSet removed;
+	private long aliveDegreeSum;
+	private long aliveLocalDegreeSum;
+
+	/* CSR adjacency over the sealed edges [0, sealedEdges) */
+	private int[] adjStart;
+	private int[] adjNbr;
+	private int[] adjEdge;
+	private int sealedEdges;
+	/* edges not sealed yet, constructEdgeId ==> edge id */
+	private Long2IntOpenHashMap stagedEdges;
+
+	public CompactTrussGraphStore() { }
+
+	public void initialize(int partitionId, Progressable progressable) {
+		super.initialize(partitionId, progressable);
+		resetStore();
+	}
+
+	private void resetStore() {
+		gid2lid = new Int2IntOpenHashMap();
+		gid2lid.defaultReturnValue(-1);
+		lid2gid = new IntArrayList();
+		edgeSource = new IntArrayList();
+		edgeTarget = new IntArrayList();
+		edgeType = new ByteArrayList();
+		support = new int[0];
+		deleted = new BitSet();
+		removed = new BitSet();
+		stagedEdges = new Long2IntOpenHashMap();
+		stagedEdges.defaultReturnValue(-1);
+		degree = new int[0];
+		adjStart = new int[1];
+		adjNbr = new int[0];
+		adjEdge = new int[0];
+		localVertexIds = new int[0];
+		localVertexCount = 0;
+		sealedEdges = 0;
+		aliveLocalVertices = 0;
+		aliveDegreeSum = 0;
+		aliveLocalDegreeSum = 0;
+	}
+
+	/**
+	 * Called after input superstep finished
+	 */
+	public void inititalGraphStore() {
+		for(Vertex<IntWritable, IntWritable, NullWritable, TripleWritable> vertex : this.getVertexs()){
+			addVertex(vertex.getId().get());
+		}
+		localVertexCount = lid2gid.size();
+		localVertexIds = lid2gid.toIntArray();
+		for(Vertex<IntWritable, IntWritable, NullWritable, TripleWritable> vertex : this.getVertexs()){
+			int vid = vertex.getId().get();
+			for(Edge<IntWritable, NullWritable> edge : vertex.getEdges()){
+				int targetId = edge.getTargetVertexId().get();
+				int tlid = gid2lid.get(targetId);
+				if(tlid != -1 && tlid < localVertexCount) {
+					/* <L, L> is in the lists of both end points, add it once. */
+					if(vid < targetId) {
+						appendEdge(vid, targetId, BasicEdge.BASICEDGE_INTERNAL);
+					}
+					continue;
+				}
+				if(tlid == -1) {
+					addVertex(targetId);
+				}
+				appendEdge(vid, targetId, BasicEdge.BASICEDGE_CROSS);
+			}
+		}
+		this.clear(); //clear the original vertex partition.
+		aliveLocalVertices = localVertexCount;
+		seal();
+		gid2lid.trim();
+		LOG.info("inititalGraphStore: " + localVertexCount + " local vertices, "
+				+ lid2gid.size() + " vertices, " + sealedEdges + " edges.");
+	}
+
+	private int addVertex(int gid) {
+		int lid = lid2gid.size();
+		gid2lid.put(gid, lid);
+		lid2gid.add(gid);
+		return lid;
+	}
+
+	private int appendEdge(int a, int b, byte type) {
+		int eid = edgeSource.size();
+		edgeSource.add(a < b ? a : b);
+		edgeTarget.add(a < b ? b : a);
+		edgeType.add(type);
+		return eid;
+	}
+
+	/**
+	 * merge the staged edges into the CSR arrays.
+	 */
+	private void seal() {
+		int n = lid2gid.size();
+		int m = edgeSource.size();
+		if(m == sealedEdges && degree.length == n) {
+			return;
+		}
+		support = Arrays.copyOf(support, m);
+		int[] oldDegree = degree;
+		degree = new int[n];
+		int[] count = new int[n + 1];
+		for(int e = 0; e < m; ++e) {
+			count[gid2lid.get(edgeSource.getInt(e))]++;
+			count[gid2lid.get(edgeTarget.getInt(e))]++;
+		}
+		adjStart = new int[n + 1];
+		for(int v = 0; v < n; ++v) {
+			adjStart[v + 1] = adjStart[v] + count[v];
+		}
+		/* (neighbor << 32 | edge), sorted per slice */
+		long[] entries = new long[adjStart[n]];
+		int[] pos = Arrays.copyOf(adjStart, n);
+		for(int e = 0; e < m; ++e) {
+			int a = gid2lid.get(edgeSource.getInt(e));
+			int b = gid2lid.get(edgeTarget.getInt(e));
+			entries[pos[a]++] = ((long) b << 32) | e;
+			entries[pos[b]++] = ((long) a << 32) | e;
+		}
+		adjNbr = new int[entries.length];
+		adjEdge = new int[entries.length];
+		for(int v = 0; v < n; ++v) {
+			Arrays.sort(entries, adjStart[v], adjStart[v + 1]);
+		}
+		for(int i = 0; i < entries.length; ++i) {
+			adjNbr[i] = (int) (entries[i] >>> 32);
+			adjEdge[i] = (int) entries[i];
+		}
+		/* the degrees of the sealed edges are kept, the new edges are alive. */
+		for(int v = 0; v < n; ++v) {
+			degree[v] = (v < oldDegree.length) ? oldDegree[v] : 0;
+		}
+		for(int e = sealedEdges; e < m; ++e) {
+			int a = gid2lid.get(edgeSource.getInt(e));
+			int b = gid2lid.get(edgeTarget.getInt(e));
+			degree[a]++;
+			degree[b]++;
+			aliveDegreeSum += 2;
+			aliveLocalDegreeSum += (a < localVertexCount ? 1 : 0) + (b < localVertexCount ? 1 : 0);
+		}
+		sealedEdges = m;
+		stagedEdges.clear();
+	}
+
+	/* ---------------- edge id access ---------------- */
+
+	/**
+	 * @return the id of the alive edge (a, b), or -1.
+	 */
+	public int findEdge(int a, int b) {
+		int eid = findAnyEdge(a, b);
+		return (eid == -1 || deleted.get(eid)) ? -1 : eid;
+	}
+
+	/**
+	 * @return the id of the edge (a, b) even if it is deleted, or -1.
+	 */
+	public int findAnyEdge(int a, int b) {
+		int la = gid2lid.get(a);
+		int lb = gid2lid.get(b);
+		if(la == -1 || lb == -1) {
+			return -1;
+		}
+		int eid = stagedEdges.get(BasicEdge.constructEdgeId(a, b));
+		if(eid == -1 && la < degree.length && lb < degree.length) {
+			/* search in the shorter slice. */
+			int from = la, to = lb;
+			if(adjStart[la + 1] - adjStart[la] > adjStart[lb + 1] - adjStart[lb]) {
+				from = lb;
+				to = la;
+			}
+			int end = adjStart[from + 1];
+			int p = lowerBound(adjStart[from], end, to);
+			if(p < end && adjNbr[p] == to) {
+				eid = adjEdge[p];
+			}
+		}
+		return eid;
+	}
+
+	private int lowerBound(int from, int to, int lid) {
+		while(from < to) {
+			int mid = (from + to) >>> 1;
+			if(adjNbr[mid] < lid) {
+				from = mid + 1;
+			}
+			else {
+				to = mid;
+			}
+		}
+		return from;
+	}
+
+	/**
+	 * number of edge ids, deleted ones included.
+	 */
+	public int getEdgeCapacity() {
+		return edgeSource.size();
+	}
+
+	public boolean isDeleted(int eid) {
+		return deleted.get(eid);
+	}
+
+	public boolean isRemoved(int eid) {
+		return removed.get(eid);
+	}
+
+	public byte getEdgeType(int eid) {
+		return edgeType.getByte(eid);
+	}
+
+	public boolean isExternal(int eid) {
+		return edgeType.getByte(eid) == BasicEdge.BASICEDGE_EXTERNAL;
+	}
+
+	/**
+	 * the smaller end point.
+	 */
+	public int getEdgeSource(int eid) {
+		return edgeSource.getInt(eid);
+	}
+
+	/**
+	 * the bigger end point.
+	 */
+	public int getEdgeTarget(int eid) {
+		return edgeTarget.getInt(eid);
+	}
+
+	public int getSupport(int eid) {
+		return support[eid];
+	}
+
+	public void setSupport(int eid, int value) {
+		support[eid] = value;
+	}
+
+	public void incSupport(int eid) {
+		support[eid]++;
+	}
+
+	public int decAndGetSupport(int eid) {
+		return --support[eid];
+	}
+
+	/**
+	 * a triangle on a local vertex: its edges which are not in the store yet are added
+	 * as external ones, then the support of each of the three is increased.
+	 */
+	public void addTriangle(int a, int b, int c) {
+		addEdge(a, b, BasicEdge.BASICEDGE_EXTERNAL);
+		addEdge(b, c, BasicEdge.BASICEDGE_EXTERNAL);
+		addEdge(a, c, BasicEdge.BASICEDGE_EXTERNAL);
+		incSupport(findEdge(a, b));
+		incSupport(findEdge(b, c));
+		incSupport(findEdge(a, c));
+	}
+
+	/**
+	 * delete the edge; a local vertex without alive edges is not counted any more.
+	 */
+	public void deleteEdge(int eid) {
+		if(deleted.get(eid)) {
+			return;
+		}
+		seal();
+		deleted.set(eid);
+		decDegree(gid2lid.get(edgeSource.getInt(eid)));
+		decDegree(gid2lid.get(edgeTarget.getInt(eid)));
+	}
+
+	/**
+	 * the edge is not in the graph any more (incremental batch): deleted and never revived.
+	 */
+	public void removeEdge(int eid) {
+		deleteEdge(eid);
+		removed.set(eid);
+	}
+
+	/**
+	 * undo the deletion of a pruned edge, its support is left as it is.
+	 */
+	public void reviveEdge(int eid) {
+		if(!deleted.get(eid) || removed.get(eid)) {
+			return;
+		}
+		seal();
+		deleted.clear(eid);
+		incDegree(gid2lid.get(edgeSource.getInt(eid)));
+		incDegree(gid2lid.get(edgeTarget.getInt(eid)));
+	}
+
+	private void incDegree(int lid) {
+		degree[lid]++;
+		aliveDegreeSum++;
+		if(lid < localVertexCount) {
+			aliveLocalDegreeSum++;
+			if(degree[lid] == 1) {
+				aliveLocalVertices++;
+			}
+		}
+	}
+
+	private void decDegree(int lid) {
+		degree[lid]--;
+		aliveDegreeSum--;
+		if(lid < localVertexCount) {
+			aliveLocalDegreeSum--;
+			if(degree[lid] == 0) {
+				aliveLocalVertices--;
+			}
+		}
+	}
+
+	/**
+	 * merge the staged edges now: afterwards visitTriangles, findEdge and the other
+	 * reads may run in several threads, as long as no edge is added or deleted meanwhile.
+	 */
+	public void sealEdges() {
+		seal();
+	}
+
+	/**
+	 * enumerate the triangles on the alive edge eid over alive edges, by intersecting
+	 * the sorted slices of the end points. If one slice is much shorter, its neighbors
+	 * are searched in the other one instead of merging.
+	 */
+	public void visitTriangles(int eid, TriangleVisitor visitor) {
+		visitTriangles(eid, visitor, deleted);
+	}
+
+	/**
+	 * the same over the edges which are alive or pruned, but not removed;
+	 * eid may be deleted itself.
+	 */
+	public void visitGraphTriangles(int eid, TriangleVisitor visitor) {
+		visitTriangles(eid, visitor, removed);
+	}
+
+	private void visitTriangles(int eid, TriangleVisitor visitor, BitSet skipped) {
+		seal();
+		int u = gid2lid.get(edgeSource.getInt(eid));
+		int v = gid2lid.get(edgeTarget.getInt(eid));
+		int i = adjStart[u], iEnd = adjStart[u + 1];
+		int j = adjStart[v], jEnd = adjStart[v + 1];
+		boolean swapped = false;
+		if(iEnd - i > jEnd - j) {
+			int t = i; i = j; j = t;
+			t = iEnd; iEnd = jEnd; jEnd = t;
+			swapped = true;
+		}
+		boolean search = (iEnd - i) * 16 < (jEnd - j);
+		while(i < iEnd && j < jEnd) {
+			int a = adjNbr[i];
+			if(search) {
+				j = lowerBound(j, jEnd, a);
+				if(j == jEnd) {
+					break;
+				}
+			}
+			int b = adjNbr[j];
+			if(a < b) {
+				i++;
+			}
+			else if(a > b) {
+				j++;
+			}
+			else {
+				int e1 = adjEdge[i];
+				int e2 = adjEdge[j];
+				if(e1 != eid && !skipped.get(e1) && !skipped.get(e2)) {
+					if(swapped) {
+						visitor.visit(lid2gid.getInt(a), e2, e1);
+					}
+					else {
+						visitor.visit(lid2gid.getInt(a), e1, e2);
+					}
+				}
+				i++;
+				j++;
+			}
+		}
+	}
+
+	/**
+	 * fill out with the global ids of the alive neighbors of the vertex, in local id order.
+	 */
+	public void getNeighbors(int id, IntArrayList out) {
+		getNeighbors(id, out, deleted);
+	}
+
+	/**
+	 * the same with the pruned neighbors, the removed ones are skipped.
+	 */
+	public void getGraphNeighbors(int id, IntArrayList out) {
+		getNeighbors(id, out, removed);
+	}
+
+	private void getNeighbors(int id, IntArrayList out, BitSet skipped) {
+		seal();
+		out.clear();
+		int lid = gid2lid.get(id);
+		if(lid == -1) {
+			return;
+		}
+		for(int i = adjStart[lid]; i < adjStart[lid + 1]; ++i) {
+			if(!skipped.get(adjEdge[i])) {
+				out.add(lid2gid.getInt(adjNbr[i]));
+			}
+		}
+	}
+
+	/* ---------------- vertices and snapshots ---------------- */
+
+	/**
+	 * make the vertices local, e.g. the new vertices of an incremental batch which the
+	 * partitioner assigns to this partition. The local ids are numbered again and
+	 * the adjacency is rebuilt.
+	 */
+	public void addLocalVertices(IntArrayList gids) {
+		if(gids.isEmpty()) {
+			return;
+		}
+		IntArrayList order = new IntArrayList(lid2gid.size() + gids.size());
+		order.addElements(0, lid2gid.elements(), 0, localVertexCount);
+		for(int i = 0; i < gids.size(); ++i) {
+			int lid = gid2lid.get(gids.getInt(i));
+			if(lid == -1 || lid >= localVertexCount) {
+				order.add(gids.getInt(i));
+			}
+		}
+		int newLocalCount = order.size();
+		IntOpenHashSet added = new IntOpenHashSet(gids);
+		for(int lid = localVertexCount; lid < lid2gid.size(); ++lid) {
+			int gid = lid2gid.getInt(lid);
+			if(!added.contains(gid)) {
+				order.add(gid);
+			}
+		}
+		aliveLocalVertices += newLocalCount - localVertexCount;
+		lid2gid = order;
+		gid2lid.clear();
+		for(int lid = 0; lid < lid2gid.size(); ++lid) {
+			gid2lid.put(lid2gid.getInt(lid), lid);
+		}
+		localVertexCount = newLocalCount;
+		localVertexIds = Arrays.copyOf(lid2gid.elements(), localVertexCount);
+		rebuild();
+	}
+
+	/**
+	 * rebuild the adjacency and the degrees of all the edges.
+	 */
+	private void rebuild() {
+		long vertices = aliveLocalVertices;
+		degree = new int[0];
+		sealedEdges = 0;
+		aliveDegreeSum = 0;
+		aliveLocalDegreeSum = 0;
+		seal();
+		for(int e = deleted.nextSetBit(0); e >= 0; e = deleted.nextSetBit(e + 1)) {
+			decDegree(gid2lid.get(edgeSource.getInt(e)));
+			decDegree(gid2lid.get(edgeTarget.getInt(e)));
+		}
+		/* decDegree counts the local vertices which lost their last edge, not the ones without edges */
+		aliveLocalVertices = vertices;
+	}
+
+	/**
+	 * the vertices, edges, supports and deletions, see KTrussSnapshot.
+	 */
+	public void writeSnapshot(DataOutput out) throws IOException {
+		seal();
+		out.writeInt(localVertexCount);
+		out.writeInt(lid2gid.size());
+		for(int lid = 0; lid < lid2gid.size(); ++lid) {
+			out.writeInt(lid2gid.getInt(lid));
+		}
+		out.writeLong(aliveLocalVertices);
+		out.writeInt(edgeSource.size());
+		for(int e = 0; e < edgeSource.size(); ++e) {
+			out.writeInt(edgeSource.getInt(e));
+			out.writeInt(edgeTarget.getInt(e));
+			out.writeByte(edgeType.getByte(e));
+			out.writeByte((deleted.get(e) ? 1 : 0) | (removed.get(e) ? 2 : 0));
+			out.writeInt(support[e]);
+		}
+	}
+
+	/**
+	 * replace the partition (e.g. the vertices of the input) by a snapshot.
+	 */
+	public void readSnapshot(DataInput in) throws IOException {
+		this.clear();
+		resetStore();
+		localVertexCount = in.readInt();
+		int n = in.readInt();
+		for(int lid = 0; lid < n; ++lid) {
+			addVertex(in.readInt());
+		}
+		localVertexIds = Arrays.copyOf(lid2gid.elements(), localVertexCount);
+		aliveLocalVertices = in.readLong();
+		int m = in.readInt();
+		support = new int[m];
+		for(int e = 0; e < m; ++e) {
+			appendEdge(in.readInt(), in.readInt(), in.readByte());
+			byte flags = in.readByte();
+			if((flags & 1) != 0) {
+				deleted.set(e);
+			}
+			if((flags & 2) != 0) {
+				removed.set(e);
+			}
+			support[e] = in.readInt();
+		}
+		rebuild();
+		gid2lid.trim();
+		LOG.info("readSnapshot: " + localVertexCount + " local vertices, "
+				+ lid2gid.size() + " vertices, " + sealedEdges + " edges.");
+	}
+
+	/**
+	 * global ids of the local vertices, fixed after the input superstep.
+	 */
+	public int[] getLocalVertexIds() {
+		return localVertexIds;
+	}
+
+	/* ---------------- local ids, for the helpers of the programs (see TrussState) ---------------- */
+
+	/**
+	 * @return the local id of the vertex, -1 if it is not in the store.
+	 */
+	int getLocalId(int id) {
+		return gid2lid.get(id);
+	}
+
+	int getGlobalId(int lid) {
+		return lid2gid.getInt(lid);
+	}
+
+	/**
+	 * number of local ids, the local vertices are [0, getLocalVertexCount()).
+	 */
+	int getVertexCapacity() {
+		return lid2gid.size();
+	}
+
+	int getLocalVertexCount() {
+		return localVertexCount;
+	}
+
+	/**
+	 * the slice reads below need sealEdges() after the last added edge.
+	 */
+	int getAliveDegree(int lid) {
+		return degree[lid];
+	}
+
+	/**
+	 * the slice of the vertex is [getSliceStart(lid), getSliceEnd(lid)), sorted by the
+	 * neighbor local id; deleted edges included.
+	 */
+	int getSliceStart(int lid) {
+		return adjStart[lid];
+	}
+
+	int getSliceEnd(int lid) {
+		return adjStart[lid + 1];
+	}
+
+	/**
+	 * @return the local id of the neighbor at the position of a slice.
+	 */
+	int getSliceNbr(int pos) {
+		return adjNbr[pos];
+	}
+
+	/**
+	 * @return the edge id at the position of a slice.
+	 */
+	int getSliceEdge(int pos) {
+		return adjEdge[pos];
+	}
+
+	/* ---------------- BasicGraphStoreInterface ---------------- */
+
+	/**
+	 * a copy of the alive edge (first, second) with its support, or null.
+	 * Every edge is kept once, so it is also the main edge.
+	 */
+	public BasicEdge getEdge(int first, int second) {
+		int eid = findEdge(first, second);
+		if(eid == -1) {
+			return null;
+		}
+		BasicEdge be = new BasicEdge(edgeSource.getInt(eid), edgeTarget.getInt(eid), edgeType.getByte(eid), !isExternal(eid));
+		be.setCount(support[eid]);
+		return be;
+	}
+
+	/**
+	 * see getEdge.
+	 */
+	public BasicEdge getMainEdge(int first, int second) {
+		return getEdge(first, second);
+	}
+
+	/**
+	 * copies of the alive edges which are not external.
+	 */
+	public Collection<BasicEdge> getEdges() {
+		Collection<BasicEdge> res = new ArrayList<BasicEdge>();
+		for(int e = 0; e < edgeSource.size(); ++e) {
+			if(!deleted.get(e) && !isExternal(e)) {
+				BasicEdge be = new BasicEdge(edgeSource.getInt(e), edgeTarget.getInt(e), edgeType.getByte(e), true);
+				be.setCount(support[e]);
+				res.add(be);
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * We only called for add the remote edges(EXTERNAL)
+	 */
+	public boolean addEdge(BasicEdge re) {
+		return addEdge(re.getSourceId(), re.getTargetId(), BasicEdge.BASICEDGE_EXTERNAL) != -1;
+	}
+
+	/**
+	 * add the edge (a, b) of the type, or revive it as a new edge of the type if it is deleted.
+	 * @return the edge id, -1 if the edge is alive already.
+	 */
+	public int addEdge(int a, int b, byte type) {
+		int old = findAnyEdge(a, b);
+		if(old != -1) {
+			if(!deleted.get(old)) {
+				return -1;
+			}
+			/* added again after its deletion, reuse the id to keep the slices unique. */
+			seal();
+			deleted.clear(old);
+			removed.clear(old);
+			edgeType.set(old, type);
+			support[old] = 0;
+			incDegree(gid2lid.get(a));
+			incDegree(gid2lid.get(b));
+			return old;
+		}
+		if(gid2lid.get(a) == -1) {
+			addVertex(a);
+		}
+		if(gid2lid.get(b) == -1) {
+			addVertex(b);
+		}
+		int eid = appendEdge(a, b, type);
+		stagedEdges.put(BasicEdge.constructEdgeId(a, b), eid);
+		if(support.length <= eid) {
+			support = Arrays.copyOf(support, Math.max(eid + 1, support.length * 2));
+		}
+		return eid;
+	}
+
+	public boolean deleteEdge(int first, int second) {
+		int eid = findEdge(first, second);
+		if(eid == -1) {
+			return false;
+		}
+		deleteEdge(eid);
+		return true;
+	}
+
+	public boolean edgeExist(int first, int second) {
+		return findEdge(first, second) != -1;
+	}
+
+	/**
+	 * a copy of the vertex with its alive neighbors, null if it has none.
+	 */
+	public BasicVertex getVertex(int id) {
+		seal();
+		int lid = gid2lid.get(id);
+		if(lid == -1 || degree[lid] == 0) {
+			return null;
+		}
+		BasicVertex bv = new BasicVertex();
+		bv.initialize(id);
+		boolean local = lid < localVertexCount;
+		for(int i = adjStart[lid]; i < adjStart[lid + 1]; ++i) {
+			int e = adjEdge[i];
+			if(!deleted.get(e)) {
+				int nb = lid2gid.getInt(adjNbr[i]);
+				byte type = edgeType.getByte(e);
+				/* main copies as in SimpleGraphStore */
+				boolean isMainCopy = (type == BasicEdge.BASICEDGE_INTERNAL) ? id < nb
+						: (type == BasicEdge.BASICEDGE_EXTERNAL || local);
+				BasicEdge be = new BasicEdge(id, nb, type, isMainCopy);
+				be.setCount(support[e]);
+				bv.addNeighbor(be);
+			}
+		}
+		return bv;
+	}
+
+	public int getDegree(int id) {
+		seal();
+		int lid = gid2lid.get(id);
+		return (lid == -1) ? 0 : degree[lid];
+	}
+
+	public boolean isLocal(int id) {
+		int lid = gid2lid.get(id);
+		return lid != -1 && lid < localVertexCount;
+	}
+
+	/**
+	 * copies of the local vertices with alive edges.
+	 */
+	public Collection<BasicVertex> getLocalVertex() {
+		Collection<BasicVertex> res = new ArrayList<BasicVertex>();
+		for(int gid : localVertexIds) {
+			BasicVertex bv = getVertex(gid);
+			if(bv != null) {
+				res.add(bv);
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Return the count of local vertex
+	 */
+	public long getVertexCount() {
+		return aliveLocalVertices;
+	}
+
+	/**
+	 * Return the count of cross edge and internal edge, as SimpleGraphStore
+	 * (the internal edges are counted at both end points).
+	 */
+	public long getEdgeCount() {
+		seal();
+		return aliveLocalDegreeSum;
+	}
+
+	public long getTotalEdgeCount() {
+		seal();
+		return aliveDegreeSum;
+	}
+
+	public void dump() {
+		LOG.info("");
+		LOG.info("Vertex Size="+ this.getVertexCount()+" Edge Size="+this.getEdgeCount());
+		for(int e = 0; e < edgeSource.size(); ++e) {
+			LOG.info("\tEdge "+e+": ("+edgeSource.getInt(e)+", "+edgeTarget.getInt(e)+") type="+edgeType.getByte(e)
+					+" support="+support[e]+" deleted="+deleted.get(e));
+		}
+		LOG.info("");
+	}
+}
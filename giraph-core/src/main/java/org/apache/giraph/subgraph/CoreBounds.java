@@ -0,0 +1,138 @@
+package org.apache.giraph.subgraph;
+
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+
+import java.util.Arrays;
+
+/**
+ * Upper bounds of the core numbers of the vertices of a CompactTrussGraphStore, for the
+ * top-t k-truss of TopTKTrussSubgraph.
+ * 	-- the local vertices start from their degree, the remote ones are unbounded until
+ * 	   their partition sends their bound.
+ * 	-- the truss number of an edge is at most min(core(u), core(v)) + 1, so the peeling
+ * 	   skips the levels above the largest bound of the alive edges.
+ *
+ * Kept in the TrussState of the store, by local id.
+ *
+ * @author simon0227
+ */
+public class CoreBounds {
+
+	private final CompactTrussGraphStore store;
+	/* upper bound of the core number per local id */
+	private final int[] coreBound;
+	/* alive internal and cross edges by bound (descending), see sortByEdgeBound */
+	private int[] boundOrder = new int[0];
+	private int boundPos;
+	/* counts of the h-index step, reused */
+	private int[] boundCount = new int[0];
+
+	public CoreBounds(CompactTrussGraphStore store) {
+		this.store = store;
+		store.sealEdges();
+		coreBound = new int[store.getVertexCapacity()];
+		Arrays.fill(coreBound, Integer.MAX_VALUE);
+		for(int lid = 0; lid < store.getLocalVertexCount(); ++lid) {
+			coreBound[lid] = store.getAliveDegree(lid);
+		}
+	}
+
+	public int getCoreBound(int id) {
+		return coreBound[store.getLocalId(id)];
+	}
+
+	/**
+	 * the bound of a remote vertex, as received from its partition.
+	 */
+	public void setCoreBound(int id, int bound) {
+		int lid = store.getLocalId(id);
+		if(lid != -1 && bound < coreBound[lid]) {
+			coreBound[lid] = bound;
+		}
+	}
+
+	/**
+	 * one h-index step: the bound of the local vertex drops to the largest h such that
+	 * h of its alive neighbors have a bound of at least h. Every step keeps an upper
+	 * bound of the core number and the steps converge to it.
+	 * @return true if the bound dropped.
+	 */
+	public boolean updateCoreBound(int id) {
+		store.sealEdges();
+		int lid = store.getLocalId(id);
+		int old = coreBound[lid];
+		if(boundCount.length < old + 1) {
+			boundCount = new int[old + 1];
+		}
+		Arrays.fill(boundCount, 0, old + 1, 0);
+		for(int i = store.getSliceStart(lid); i < store.getSliceEnd(lid); ++i) {
+			if(!store.isDeleted(store.getSliceEdge(i))) {
+				boundCount[Math.min(coreBound[store.getSliceNbr(i)], old)]++;
+			}
+		}
+		int h = old, atLeast = 0;
+		for(; h > 0; --h) {
+			atLeast += boundCount[h];
+			if(atLeast >= h) {
+				break;
+			}
+		}
+		coreBound[lid] = h;
+		return h < old;
+	}
+
+	/**
+	 * the truss number of the edge is at most min(core(u), core(v)) + 1.
+	 */
+	public int getEdgeBound(int eid) {
+		int bu = coreBound[store.getLocalId(store.getEdgeSource(eid))];
+		int bv = coreBound[store.getLocalId(store.getEdgeTarget(eid))];
+		return Math.min(bu, bv) + 1;
+	}
+
+	/**
+	 * the largest bound of the alive internal and cross edges, 0 if there is none.
+	 */
+	public int maxEdgeBound() {
+		int max = 0;
+		for(int eid = 0; eid < store.getEdgeCapacity(); ++eid) {
+			if(!store.isDeleted(eid) && !store.isExternal(eid)) {
+				max = Math.max(max, getEdgeBound(eid));
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * order the alive internal and cross edges by their bound, for maxAliveEdgeBound.
+	 */
+	public void sortByEdgeBound() {
+		IntArrayList order = new IntArrayList();
+		for(int eid = 0; eid < store.getEdgeCapacity(); ++eid) {
+			if(!store.isDeleted(eid) && !store.isExternal(eid)) {
+				order.add(eid);
+			}
+		}
+		boundOrder = order.toIntArray();
+		IntArrays.quickSort(boundOrder, new AbstractIntComparator() {
+			@Override
+			public int compare(int a, int b) {
+				return getEdgeBound(b) - getEdgeBound(a);
+			}
+		});
+		boundPos = 0;
+	}
+
+	/**
+	 * the same as maxEdgeBound over the edges of sortByEdgeBound, the deleted ones are
+	 * skipped once for all, so the peeling asks for it at every level.
+	 */
+	public int maxAliveEdgeBound() {
+		while(boundPos < boundOrder.length && store.isDeleted(boundOrder[boundPos])) {
+			boundPos++;
+		}
+		return boundPos < boundOrder.length ? getEdgeBound(boundOrder[boundPos]) : 0;
+	}
+}
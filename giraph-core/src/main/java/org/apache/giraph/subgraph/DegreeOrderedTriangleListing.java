@@ -0,0 +1,231 @@
+package org.apache.giraph.subgraph;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+
+import java.util.Arrays;
+
+/**
+ * Triangle listing of KTrussSubgraphImpr in the (degree, id) order of the vertices
+ * ("giraph.ktruss.degree.ordered"), on a CompactTrussGraphStore.
+ *
+ * Each edge is oriented from the lower to the higher vertex in the order, so every
+ * triangle u < v < w is found exactly once, as w in out(u) ^ out(v), at the partition
+ * of v. The out-neighbors are sorted by id, a received list is intersected
+ * with out(v) by merging. Hubs come last in the order, so their out lists are short.
+ * 	-- superstep 0: sendDegrees(), the degree of each local vertex goes to the other
+ * 	   partitions of its neighbors.
+ * 	-- superstep 1: setDegree() for the received degrees, then listLocal(): the out list
+ * 	   of each local u is intersected with its local out-neighbors and sent once to
+ * 	   every other partition holding one.
+ * 	-- superstep 2: receive() the lists and intersect them with the local vertices in them;
+ * 	   the triangles of superstep 1 arrive here too.
+ * A triangle found at the partition of v is added to the store (external edge and
+ * supports) and sent as a triple to the other partitions of u and w, so it arrives in
+ * superstep 2 or 3 and is added there as inducedSubgraphGeneration does.
+ *
+ * The object lives for one superstep, the out lists are built by listLocal() or the
+ * first receive(), once the degrees are known.
+ *
+ * @author simon0227
+ */
+public abstract class DegreeOrderedTriangleListing {
+
+	private final CompactTrussGraphStore graphStore;
+	/* the order is kept from superstep 0 to 2 */
+	private final TrussState state;
+	private Int2IntOpenHashMap index;
+	private int[] start;
+	private int[] out;
+	/* (u, v, w) of the triangles to add to the store, see applyTriangles */
+	private final IntArrayList triangles = new IntArrayList();
+	/* the list message is serialized when it is sent, so it is reused */
+	private final TripleWritable listMessage = new TripleWritable();
+	private final IntArrayList neighbors = new IntArrayList();
+	private final IntOpenHashSet sentTo = new IntOpenHashSet();
+
+	public DegreeOrderedTriangleListing(CompactTrussGraphStore graphStore) {
+		this.graphStore = graphStore;
+		this.state = TrussState.of(graphStore);
+	}
+
+	protected abstract int partitionOf(int vid);
+
+	protected abstract void sendTriple(int destination, int first, int second, int third);
+
+	/**
+	 * send the out list of a vertex (first, list) to a vertex of another partition.
+	 */
+	protected abstract void sendList(int destination, TripleWritable message);
+
+	/**
+	 * superstep 0: the degree of each local vertex, once to every other partition
+	 * holding a neighbor.
+	 * @return the messages sent.
+	 */
+	public long sendDegrees() {
+		state.initOrderDegrees();
+		long sent = 0;
+		for(int vid : graphStore.getLocalVertexIds()) {
+			graphStore.getNeighbors(vid, neighbors);
+			sentTo.clear();
+			for(int i = 0; i < neighbors.size(); i++) {
+				int nb = neighbors.getInt(i);
+				if(!graphStore.isLocal(nb) && sentTo.add(partitionOf(nb))) {
+					sendTriple(nb, vid, neighbors.size(), 0);
+					sent++;
+				}
+			}
+		}
+		return sent;
+	}
+
+	/**
+	 * superstep 1: a degree sent by sendDegrees().
+	 */
+	public void setDegree(TripleWritable tmsg) {
+		state.setOrderDegree(tmsg.getFirst(), tmsg.getSecond());
+	}
+
+	/**
+	 * superstep 1: intersect the out lists of the local vertices with their local
+	 * out-neighbors, send them to the other partitions, then add the triangles.
+	 * @return the messages sent.
+	 */
+	public long listLocal() {
+		buildOutLists();
+		long sent = 0;
+		for(int u : graphStore.getLocalVertexIds()) {
+			int from = getOutStart(u), to = getOutEnd(u);
+			sentTo.clear();
+			for(int i = from; i < to; i++) {
+				int v = out[i];
+				if(graphStore.isLocal(v)) {
+					sent += intersect(u, out, from, to, v);
+				}
+				else if(sentTo.add(partitionOf(v))) {
+					listMessage.initialize(u, 0, 0);
+					listMessage.setList(out, from, to);
+					sendList(v, listMessage);
+					sent++;
+				}
+			}
+		}
+		applyTriangles();
+		return sent;
+	}
+
+	/**
+	 * superstep 2: a message to the local vertex receiver, an out list to intersect
+	 * or a triangle of superstep 1 on the receiver. applyTriangles() after the messages.
+	 * @return the messages sent.
+	 */
+	public long receive(int receiver, TripleWritable tmsg) {
+		if(out == null) {
+			buildOutLists();
+		}
+		int size = tmsg.getListSize();
+		if(size == 0) {
+			triangles.add(tmsg.getFirst());
+			triangles.add(tmsg.getSecond());
+			triangles.add(tmsg.getThird());
+			return 0;
+		}
+		int[] list = tmsg.getList();
+		long sent = 0;
+		/* the list is in id order, out(v) keeps the w after v in the degree order. */
+		for(int i = 0; i < size; i++) {
+			if(graphStore.isLocal(list[i])) {
+				sent += intersect(tmsg.getFirst(), list, 0, size, list[i]);
+			}
+		}
+		return sent;
+	}
+
+	/**
+	 * add the triangles found or received in this superstep to the store. The new
+	 * edges are between remote vertices, so the out lists of the local vertices
+	 * do not change.
+	 */
+	public void applyTriangles() {
+		for(int i = 0; i < triangles.size(); i += 3) {
+			graphStore.addTriangle(triangles.getInt(i), triangles.getInt(i + 1), triangles.getInt(i + 2));
+		}
+		triangles.clear();
+	}
+
+	private void buildOutLists() {
+		int[] ids = graphStore.getLocalVertexIds();
+		index = new Int2IntOpenHashMap(ids.length);
+		index.defaultReturnValue(-1);
+		start = new int[ids.length + 1];
+		IntArrayList outList = new IntArrayList();
+		for(int i = 0; i < ids.length; i++) {
+			index.put(ids[i], i);
+			graphStore.getNeighbors(ids[i], neighbors);
+			for(int j = 0; j < neighbors.size(); j++) {
+				if(state.precedes(ids[i], neighbors.getInt(j))) {
+					outList.add(neighbors.getInt(j));
+				}
+			}
+			Arrays.sort(outList.elements(), start[i], outList.size());
+			start[i + 1] = outList.size();
+		}
+		out = outList.elements();
+	}
+
+	private int getOutStart(int id) {
+		return start[index.get(id)];
+	}
+
+	private int getOutEnd(int id) {
+		return start[index.get(id) + 1];
+	}
+
+	/**
+	 * the triangles (u, v, w) for every w in list[from, to) ^ out(v),
+	 * where list is (part of) out(u) sorted by id and v a local vertex.
+	 * @return the messages sent.
+	 */
+	private long intersect(int u, int[] list, int from, int to, int v) {
+		long sent = 0;
+		int i = from;
+		int j = getOutStart(v);
+		int jEnd = getOutEnd(v);
+		while(i < to && j < jEnd) {
+			if(list[i] < out[j]) {
+				i++;
+			}
+			else if(list[i] > out[j]) {
+				j++;
+			}
+			else {
+				sent += found(u, v, list[i]);
+				i++;
+				j++;
+			}
+		}
+		return sent;
+	}
+
+	/**
+	 * a triangle found in the partition of v: kept for this partition, and sent as
+	 * AnswerSuperstep does to the other partitions holding u or w.
+	 */
+	private long found(int u, int v, int w) {
+		triangles.add(u);
+		triangles.add(v);
+		triangles.add(w);
+		long sent = 0;
+		if(!graphStore.isLocal(u)) {
+			sendTriple(u, u, v, w);
+			sent++;
+		}
+		if(!graphStore.isLocal(w) && partitionOf(u) != partitionOf(w)) {
+			sendTriple(w, w, u, v);
+			sent++;
+		}
+		return sent;
+	}
+}
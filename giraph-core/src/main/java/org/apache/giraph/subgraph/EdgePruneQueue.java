@@ -0,0 +1,82 @@
+package org.apache.giraph.subgraph;
+
+import java.util.BitSet;
+
+/**
+ * Work queue of edge ids for the pruning of KTrussSubgraphImpr on a CompactTrussGraphStore:
+ * a growing ring buffer of ints and a bitmap of the edges queued since the last reset(),
+ * so an edge is queued at most once per superstep (by a message or by its support).
+ *
+ * It is kept in the TrussState of the store and reused by every superstep: reset() only clears the
+ * buffer positions and the bitmap words, nothing is allocated once the arrays are big enough.
+ * Not thread-safe: a partition is computed by one thread.
+ *
+ * @author simon0227
+ */
+public class EdgePruneQueue {
+
+	private int[] buffer = new int[1024];
+	/* buffer.length - 1, the length is a power of two */
+	private int mask = buffer.length - 1;
+	private int head = 0;
+	private int size = 0;
+	private final BitSet queued = new BitSet();
+
+	/**
+	 * queue the edge if it was not queued since the last reset().
+	 * @return false if it was.
+	 */
+	public boolean add(int eid) {
+		if(queued.get(eid)) {
+			return false;
+		}
+		queued.set(eid);
+		if(size == buffer.length) {
+			grow();
+		}
+		buffer[(head + size) & mask] = eid;
+		size++;
+		return true;
+	}
+
+	public int poll() {
+		int eid = buffer[head];
+		head = (head + 1) & mask;
+		size--;
+		return eid;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return true if the edge was queued since the last reset(), polled or not.
+	 */
+	public boolean isQueued(int eid) {
+		return queued.get(eid);
+	}
+
+	/**
+	 * empty the queue and forget the queued edges, for the next superstep.
+	 */
+	public void reset() {
+		head = 0;
+		size = 0;
+		queued.clear();
+	}
+
+	private void grow() {
+		int[] tmp = new int[buffer.length * 2];
+		for(int i = 0; i < size; i++) {
+			tmp[i] = buffer[(head + i) & mask];
+		}
+		buffer = tmp;
+		mask = buffer.length - 1;
+		head = 0;
+	}
+}
@@ -0,0 +1,445 @@
+package org.apache.giraph.subgraph;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayFIFOQueue;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.BitSet;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Closeables;
+
+/**
+ * Incremental k-truss of KTrussSubgraphImpr: a saved k-truss (KTrussSnapshot) is brought
+ * up to date with a batch of edge insertions and removals instead of a full run.
+ * 	-- "giraph.ktruss.snapshot.load": the saved result of the previous run.
+ * 	-- "giraph.ktruss.incremental.batch": the batch, one edge per line,
+ * 	   "+ a b" to insert and "- a b" to remove (the removals are applied first).
+ *
+ * Every worker reads the whole batch, so every partition updates its own copies of the edges.
+ * 	-- removals: the edge is removed; the alive triangles on it lose their support.
+ * 	-- insertions: the partitions of the end points add the edge; a partition holding a common
+ * 	   neighbor of the end points adds it as external edge. The new triangles whose closing
+ * 	   edge is not known to the partition are queried (superstep 0, answered in 1, added in 2).
+ * 	-- revival (supersteps 2, 3, ...): the new k-truss is in the old one plus the pruned edges
+ * 	   which are connected to a new edge by triangles, so these edges are revived, from the
+ * 	   new edges on, until no partition revives an edge any more (REVIVE_AGG).
+ * 	-- the supports of the revived edges and of the alive edges on their triangles are
+ * 	   counted again, and the edges changed by the batch are pruned as usual (oneIteration).
+ *
+ * Vertices which are not in the snapshot become local to the partition the partitioner
+ * assigns them to. This object is the state of a partition, kept in its store; the
+ * supersteps of KTrussSubgraphImpr hand it the messages of the partition, and it talks to
+ * the other partitions through Partitions.
+ *
+ * @author simon0227
+ */
+public class IncrementalKTruss {
+
+	private static final Logger LOG = Logger.getLogger(IncrementalKTruss.class);
+	private static final Pattern SEPARATOR = Pattern.compile("[\t ]+");
+
+	/* the batch of the worker, read once for all its partitions */
+	private static String batchPath;
+	private static long[] batchInsertions;
+	private static long[] batchRemovals;
+
+	/* new edges and revived edges */
+	private final BitSet revived = new BitSet();
+	/* revived edges, to announce */
+	private final BitSet announced = new BitSet();
+	/* edges whose support changed */
+	private final BitSet touched = new BitSet();
+	/* revived edges whose triangles are not visited yet */
+	private final IntArrayFIFOQueue reviveQueue = new IntArrayFIFOQueue();
+	/* pairs queried in superstep 0 */
+	private final LongOpenHashSet queried = new LongOpenHashSet();
+	/* the revival is over, the edges are pruned as in a full run */
+	private boolean pruning = false;
+
+	/**
+	 * the other partitions of the job, see KTrussSubgraphImpr.
+	 */
+	public interface Partitions {
+		int partitionOf(int vid);
+
+		void sendTriple(int destination, int first, int second, int third);
+	}
+
+	public static boolean isIncremental(Configuration conf) {
+		return conf.get("giraph.ktruss.incremental.batch", "").length() > 0;
+	}
+
+	/**
+	 * the edges to insert, as BasicEdge.constructEdgeId.
+	 */
+	public static long[] getInsertions(Configuration conf) throws IOException {
+		readBatch(conf);
+		return batchInsertions;
+	}
+
+	/**
+	 * the edges to remove, as BasicEdge.constructEdgeId.
+	 */
+	public static long[] getRemovals(Configuration conf) throws IOException {
+		readBatch(conf);
+		return batchRemovals;
+	}
+
+	public static int getSource(long edge) {
+		return (int) (edge >>> 32);
+	}
+
+	public static int getTarget(long edge) {
+		return (int) edge;
+	}
+
+	private static synchronized void readBatch(Configuration conf) throws IOException {
+		String path = conf.get("giraph.ktruss.incremental.batch");
+		if(path.equals(batchPath)) {
+			return;
+		}
+		LongArrayList insertions = new LongArrayList();
+		LongArrayList removals = new LongArrayList();
+		Path file = new Path(path);
+		FSDataInputStream fileIn = file.getFileSystem(conf).open(file);
+		BufferedReader reader = new BufferedReader(new InputStreamReader(fileIn, Charsets.UTF_8));
+		try {
+			String line;
+			while((line = reader.readLine()) != null) {
+				line = line.trim();
+				if(line.length() == 0 || line.startsWith("#")) {
+					continue;
+				}
+				String[] tokens = SEPARATOR.split(line);
+				if(tokens.length != 3 || !(tokens[0].equals("+") || tokens[0].equals("-"))) {
+					throw new IOException("readBatch: bad line \"" + line + "\" in " + path);
+				}
+				int a = Integer.parseInt(tokens[1]);
+				int b = Integer.parseInt(tokens[2]);
+				if(a == b) {
+					continue;
+				}
+				(tokens[0].equals("+") ? insertions : removals).add(BasicEdge.constructEdgeId(a, b));
+			}
+		} finally {
+			Closeables.closeQuietly(reader);
+			Closeables.closeQuietly(fileIn);
+		}
+		batchInsertions = insertions.toLongArray();
+		batchRemovals = removals.toLongArray();
+		batchPath = path;
+		LOG.info("readBatch: " + batchInsertions.length + " insertions and "
+				+ batchRemovals.length + " removals from " + path);
+	}
+
+	/**
+	 * @return true if the edge is in the graph, alive or pruned.
+	 */
+	public static boolean inGraph(CompactTrussGraphStore graphStore, int a, int b) {
+		int eid = graphStore.findAnyEdge(a, b);
+		return eid != -1 && !graphStore.isRemoved(eid);
+	}
+
+	/**
+	 * superstep 0: remove and insert the edges of the batch, then query the closing
+	 * edges of the new triangles which are unknown to this partition.
+	 * @return the number of queries sent.
+	 */
+	public long applyBatch(final CompactTrussGraphStore graphStore, long[] removals, long[] insertions,
+			Partitions partitions) {
+		/* the alive triangles on a removed edge are gone */
+		CompactTrussGraphStore.TriangleVisitor removalVisitor = new CompactTrussGraphStore.TriangleVisitor() {
+			@Override
+			public void visit(int third, int firstEdge, int secondEdge) {
+				if(!graphStore.isExternal(firstEdge)) {
+					graphStore.decAndGetSupport(firstEdge);
+					touch(firstEdge);
+				}
+				if(!graphStore.isExternal(secondEdge)) {
+					graphStore.decAndGetSupport(secondEdge);
+					touch(secondEdge);
+				}
+			}
+		};
+		for(long edge : removals) {
+			int eid = graphStore.findAnyEdge(getSource(edge), getTarget(edge));
+			if(eid == -1 || graphStore.isRemoved(eid)) {
+				continue;
+			}
+			if(!graphStore.isDeleted(eid)) {
+				graphStore.visitTriangles(eid, removalVisitor);
+			}
+			graphStore.removeEdge(eid);
+		}
+
+		/* the new vertices of this partition */
+		int partitionId = graphStore.getId();
+		IntOpenHashSet newLocal = new IntOpenHashSet();
+		for(long edge : insertions) {
+			for(int vid : new int[]{getSource(edge), getTarget(edge)}) {
+				if(!graphStore.isLocal(vid) && partitions.partitionOf(vid) == partitionId) {
+					newLocal.add(vid);
+				}
+			}
+		}
+		graphStore.addLocalVertices(new IntArrayList(newLocal));
+
+		/* the edges of the local vertices first, the external edges need them */
+		IntArrayList fresh = new IntArrayList();
+		for(long edge : insertions) {
+			int a = getSource(edge), b = getTarget(edge);
+			boolean localA = graphStore.isLocal(a), localB = graphStore.isLocal(b);
+			if((localA || localB) && !inGraph(graphStore, a, b)) {
+				int eid = graphStore.addEdge(a, b,
+						(localA && localB) ? BasicEdge.BASICEDGE_INTERNAL : BasicEdge.BASICEDGE_CROSS);
+				revive(eid, false);
+				fresh.add(eid);
+			}
+		}
+		IntArrayList neighbors = new IntArrayList();
+		for(long edge : insertions) {
+			int a = getSource(edge), b = getTarget(edge);
+			if(graphStore.isLocal(a) || graphStore.isLocal(b) || inGraph(graphStore, a, b)) {
+				continue;
+			}
+			/* external if the end points have a common local neighbor */
+			graphStore.getGraphNeighbors(a, neighbors);
+			for(int i = 0; i < neighbors.size(); i++) {
+				int c = neighbors.getInt(i);
+				if(graphStore.isLocal(c) && inGraph(graphStore, b, c)) {
+					revive(graphStore.addEdge(a, b, BasicEdge.BASICEDGE_EXTERNAL), false);
+					break;
+				}
+			}
+		}
+
+		/* new triangles (x, y, w) on a new edge (x, y), x local: query (y, w) if it is unknown */
+		long queries = 0;
+		for(int i = 0; i < fresh.size(); i++) {
+			int eid = fresh.getInt(i);
+			for(int k = 0; k < 2; k++) {
+				int x = (k == 0) ? graphStore.getEdgeSource(eid) : graphStore.getEdgeTarget(eid);
+				int y = (k == 0) ? graphStore.getEdgeTarget(eid) : graphStore.getEdgeSource(eid);
+				if(!graphStore.isLocal(x) || graphStore.isLocal(y)) {
+					continue;
+				}
+				graphStore.getGraphNeighbors(x, neighbors);
+				for(int j = 0; j < neighbors.size(); j++) {
+					int w = neighbors.getInt(j);
+					if(w == y || graphStore.isLocal(w) || inGraph(graphStore, y, w) || !query(y, w)) {
+						continue;
+					}
+					partitions.sendTriple(y, x, y, w);
+					queries++;
+				}
+			}
+		}
+		LOG.info("incremental: removed " + removals.length + " inserted " + fresh.size()
+				+ " queries " + queries);
+		return queries;
+	}
+
+	/**
+	 * superstep 1: a query (x, y, w) to the local vertex y is answered to x if the edge
+	 * (y, w) is in the graph, as (x, y, w) if it is alive and (y, y, w) if it is pruned.
+	 */
+	public void answer(CompactTrussGraphStore graphStore, int vid, TripleWritable tmsg, Partitions partitions) {
+		int eid = graphStore.findAnyEdge(vid, tmsg.getThird());
+		if(eid == -1 || graphStore.isRemoved(eid)) {
+			return;
+		}
+		int x = tmsg.getFirst();
+		partitions.sendTriple(x, graphStore.isDeleted(eid) ? vid : x, vid, tmsg.getThird());
+	}
+
+	/**
+	 * supersteps 2, 3, ...: a message to the local vertex vid adds an answered edge
+	 * (answers, superstep 2) or revives an announced edge.
+	 */
+	public void receive(CompactTrussGraphStore graphStore, int vid, TripleWritable tmsg, boolean answers) {
+		int eid = graphStore.findAnyEdge(tmsg.getSecond(), tmsg.getThird());
+		if(answers) {
+			if(eid == -1 || graphStore.isRemoved(eid)) {
+				eid = graphStore.addEdge(tmsg.getSecond(), tmsg.getThird(), BasicEdge.BASICEDGE_EXTERNAL);
+				if(tmsg.getFirst() != vid) {
+					graphStore.deleteEdge(eid);
+				}
+			}
+		}
+		else if(eid != -1 && graphStore.isDeleted(eid) && !graphStore.isRemoved(eid)) {
+			graphStore.reviveEdge(eid);
+			revive(eid, true);
+		}
+	}
+
+	/**
+	 * supersteps 2, 3, ...: visit the triangles of the revived edges and revive their
+	 * pruned edges. A revived edge is announced to the other partitions holding it.
+	 * @return false if no edge was revived since the last call.
+	 */
+	public boolean reviveConnected(final CompactTrussGraphStore graphStore, final Partitions partitions) {
+		/* other partition ==> a vertex of it on a triangle of the edge */
+		final Int2IntOpenHashMap targets = new Int2IntOpenHashMap();
+		final int partitionId = graphStore.getId();
+		CompactTrussGraphStore.TriangleVisitor reviveVisitor = new CompactTrussGraphStore.TriangleVisitor() {
+			@Override
+			public void visit(int third, int firstEdge, int secondEdge) {
+				for(int eid : new int[]{firstEdge, secondEdge}) {
+					if(graphStore.isDeleted(eid)) {
+						graphStore.reviveEdge(eid);
+						revive(eid, true);
+					}
+				}
+				addTarget(graphStore, partitions, targets, partitionId, third);
+			}
+		};
+		boolean revivedAny = !reviveQueue.isEmpty();
+		long announcements = 0;
+		while(!reviveQueue.isEmpty()) {
+			int eid = reviveQueue.dequeueInt();
+			int a = graphStore.getEdgeSource(eid), b = graphStore.getEdgeTarget(eid);
+			targets.clear();
+			graphStore.visitGraphTriangles(eid, reviveVisitor);
+			if(!isAnnounced(eid)) {
+				continue;
+			}
+			addTarget(graphStore, partitions, targets, partitionId, a);
+			addTarget(graphStore, partitions, targets, partitionId, b);
+			for(int w : targets.values()) {
+				partitions.sendTriple(w, a, a, b);
+				announcements++;
+			}
+		}
+		LOG.info("incremental: revived=" + revivedAny + " announced " + announcements);
+		return revivedAny;
+	}
+
+	private static void addTarget(CompactTrussGraphStore graphStore, Partitions partitions,
+			Int2IntOpenHashMap targets, int partitionId, int vid) {
+		if(!graphStore.isLocal(vid)) {
+			int pid = partitions.partitionOf(vid);
+			if(pid != partitionId && !targets.containsKey(pid)) {
+				targets.put(pid, vid);
+			}
+		}
+	}
+
+	/**
+	 * no edge is revived any more: the supports of the revived edges, of the alive edges
+	 * on their triangles and of the edges of removed triangles are counted again, the ones
+	 * below the threshold are queued, and the bookkeeping is dropped (startPruning).
+	 * @return the number of supports counted again.
+	 */
+	public int recount(CompactTrussGraphStore graphStore, int threshold, EdgePruneQueue queue) {
+		CompactTrussGraphStore.TriangleVisitor affectedVisitor = new CompactTrussGraphStore.TriangleVisitor() {
+			@Override
+			public void visit(int third, int firstEdge, int secondEdge) {
+				touched.set(firstEdge);
+				touched.set(secondEdge);
+			}
+		};
+		for(int eid = revived.nextSetBit(0); eid >= 0; eid = revived.nextSetBit(eid + 1)) {
+			if(!graphStore.isDeleted(eid)) {
+				graphStore.visitTriangles(eid, affectedVisitor);
+			}
+		}
+		final int[] count = new int[1];
+		CompactTrussGraphStore.TriangleVisitor countVisitor = new CompactTrussGraphStore.TriangleVisitor() {
+			@Override
+			public void visit(int third, int firstEdge, int secondEdge) {
+				count[0]++;
+			}
+		};
+		queue.reset();
+		int recounted = 0;
+		for(int eid = touched.nextSetBit(0); eid >= 0; eid = touched.nextSetBit(eid + 1)) {
+			if(graphStore.isDeleted(eid) || graphStore.isExternal(eid)) {
+				continue;
+			}
+			count[0] = 0;
+			graphStore.visitTriangles(eid, countVisitor);
+			graphStore.setSupport(eid, count[0]);
+			recounted++;
+			if(count[0] < threshold) {
+				queue.add(eid);
+			}
+		}
+		LOG.info("incremental: recounted " + recounted + " supports, queue size=" + queue.size());
+		startPruning();
+		return recounted;
+	}
+
+	/**
+	 * a new or revived edge, its triangles are visited later.
+	 * @param announce tell the other partitions holding the edge, a pruned edge is revived.
+	 */
+	public void revive(int eid, boolean announce) {
+		if(!revived.get(eid)) {
+			revived.set(eid);
+			touched.set(eid);
+			reviveQueue.enqueue(eid);
+			if(announce) {
+				announced.set(eid);
+			}
+		}
+	}
+
+	public boolean isAnnounced(int eid) {
+		return announced.get(eid);
+	}
+
+	public boolean isRevived(int eid) {
+		return revived.get(eid);
+	}
+
+	public BitSet getRevived() {
+		return revived;
+	}
+
+	public IntArrayFIFOQueue getReviveQueue() {
+		return reviveQueue;
+	}
+
+	public void touch(int eid) {
+		touched.set(eid);
+	}
+
+	public BitSet getTouched() {
+		return touched;
+	}
+
+	/**
+	 * @return false if the pair was queried already.
+	 */
+	public boolean query(int a, int b) {
+		return queried.add(BasicEdge.constructEdgeId(a, b));
+	}
+
+	public boolean isPruning() {
+		return pruning;
+	}
+
+	/**
+	 * the revival is over, the bookkeeping is dropped.
+	 */
+	public void startPruning() {
+		pruning = true;
+		revived.clear();
+		announced.clear();
+		touched.clear();
+		queried.clear();
+	}
+}
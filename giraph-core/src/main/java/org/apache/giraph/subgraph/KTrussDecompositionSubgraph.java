@@ -1,7 +1,6 @@
 package org.apache.giraph.subgraph;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -11,6 +10,7 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 
 import org.apache.giraph.aggregators.BooleanOrAggregator;
+import org.apache.giraph.aggregators.IntMinAggregator;
 import org.apache.giraph.aggregators.IntSumAggregator;
 import org.apache.giraph.bsp.CentralizedServiceWorker;
 import org.apache.giraph.comm.WorkerClientRequestProcessor;
@@ -76,6 +76,8 @@ implements Callable<Collection<PartitionStats>> {
 	  workerClientRequestProcessor;
 	  /** VertexWriter for this ComputeCallable */
 	  private SimpleVertexWriter<I, V, E> vertexWriter;
+	  /** batches the triples per destination (unique per Callable) */
+	  private TripleMessageBatcher batcher;
 	  
 	  /** Get the start time in nanos */
 	  private final long startNanos = TIME.getNanoseconds();
@@ -88,10 +90,16 @@ implements Callable<Collection<PartitionStats>> {
 
 	  private LocalKTrussAlgorithm lktruss = new LocalKTrussAlgorithm();
 	  Queue<BasicEdge> queue = new LinkedList<BasicEdge>();
+	  /**
+	   * peel from support buckets on a CompactTrussGraphStore, the threshold jumps
+	   * over the levels without edges (giraph.ktruss.decomposition.bucketed).
+	   */
+	  private final boolean bucketed;
 
 
 		private static final String CHANGE_AGG = "changeThreshold";
 		private static final String GLOBAL_THRESHOLD = "threshold";
+		private static final String MIN_SUPPORT_AGG = "minSupport";
 	  
 	  /**
 	   * Constructor
@@ -124,6 +132,7 @@ implements Callable<Collection<PartitionStats>> {
 	    messagesSentCounter = metrics.getCounter(MetricNames.MESSAGES_SENT);
 	    
 	    lktruss.threshold = configuration.getInt("giraph.ktruss.threshold", 2) - 2;
+	    bucketed = configuration.getBoolean("giraph.ktruss.decomposition.bucketed", false);
 		  
 	  }
 	  
@@ -142,6 +151,12 @@ implements Callable<Collection<PartitionStats>> {
 	        aggregatorUsage);
 
 	    vertexWriter = serviceWorker.getSuperstepOutput().getVertexWriter();
+	    batcher = new TripleMessageBatcher(configuration) {
+	    	@Override
+	    	protected void send(int destination, TripleWritable message) {
+	    		sendMessage((I) new IntWritable(destination), (M) message);
+	    	}
+	    };
 
 	    List<PartitionStats> partitionStatsList = Lists.newArrayList();
 	    while (!partitionIdQueue.isEmpty()) {
@@ -221,6 +236,7 @@ implements Callable<Collection<PartitionStats>> {
 	      }catch(Exception e){
 	    	  e.printStackTrace();
 	      }
+	      batcher.flush();
 
 	      /* END! */
 
@@ -270,7 +286,10 @@ implements Callable<Collection<PartitionStats>> {
 		  
 		  LOG.info("Local: Superstep="+graphState.getSuperstep()+": threshold="+lktruss.threshold);
 		  
-		  if(graphState.getSuperstep() > 2){
+		  if(bucketed && graphStore instanceof CompactTrussGraphStore){
+			  processBucketedSubgraph((CompactTrussGraphStore)graphStore, partitionStats);
+		  }
+		  else if(graphState.getSuperstep() > 2){
 			  execution(graphStore, partitionStats);
 		  }
 		  else if(graphState.getSuperstep() == 2){
@@ -314,9 +333,7 @@ implements Callable<Collection<PartitionStats>> {
 				  id.set(gv.getId());
 			      Iterable<M> messages = messageStore.getVertexMessages((I)id);
 			      if (!Iterables.isEmpty(messages)) {
-			    	  for(M msg : messages){
-			    		  
-			    		  TripleWritable tmsg = (TripleWritable)msg;
+			    	  for(TripleWritable tmsg : TripleWritable.triples(messages)){
 	//		    		  LOG.info("msg ="+msg.toString()+" exist="+graphStore.edgeExist(tmsg.getThird(), tmsg.getSecond()));
 			    		  long idx = BasicEdge.constructEdgeId(tmsg.getSecond(), tmsg.getThird());
 			    		  if(graphStore.edgeExist(tmsg.getSecond(), tmsg.getThird()) 
@@ -364,8 +381,7 @@ implements Callable<Collection<PartitionStats>> {
 			  id.set(gv.getId());
 		      Iterable<M> messages = messageStore.getVertexMessages((I)id);
 		      if (!Iterables.isEmpty(messages)) {
-		    	  for(M msg : messages){
-		    		  TripleWritable tmsg = (TripleWritable)msg;		    		  
+		    	  for(TripleWritable tmsg : TripleWritable.triples(messages)){
 		    		  /* add edge */
 		    		  processedMsg++;
 //		    		  LOG.info("msg: "+msg.toString());
@@ -420,35 +436,7 @@ implements Callable<Collection<PartitionStats>> {
 	   * @param partitionStats
 	   */
 	  private void AnswerSuperstep(BasicGraphStoreInterface graphStore, PartitionStats partitionStats) throws Exception{
-		  IntWritable id = new IntWritable();
-		  for(BasicVertex gv : graphStore.getLocalVertex()){
-			  id.set(gv.getId());
-		      Iterable<M> messages = messageStore.getVertexMessages((I)id);
-		      if (!Iterables.isEmpty(messages)) {
-		    	  for(M msg : messages){
-		 
-		    		  TripleWritable tmsg = (TripleWritable)msg;
-		    		  if(gv.containNeighbor(tmsg.getThird())){
-		    				  I tid = (I) new IntWritable(tmsg.getFirst());
-		    				  M nmsg = (M) new TripleWritable(tmsg.getFirst(), tmsg.getSecond(), tmsg.getThird());
-		    				  sendMessage(tid, nmsg);
-		    				  
-		    				  if(!isSamePartition(tmsg.getFirst(), tmsg.getSecond())){
-		    					  tid = (I) new IntWritable(tmsg.getSecond());
-		    					  nmsg = (M) new TripleWritable(tmsg.getSecond(), tmsg.getFirst(), tmsg.getThird());
-		    					  sendMessage(tid, nmsg);
-		    				  }
-		    				  
-		    				  if(!isSamePartition(tmsg.getFirst(), tmsg.getThird()) 
-		    						  && !isSamePartition(tmsg.getSecond(), tmsg.getThird())){
-		    					  tid = (I) new IntWritable(tmsg.getThird());
-		    					  nmsg = (M) new TripleWritable(tmsg.getThird(), tmsg.getFirst(), tmsg.getSecond());
-		    					  sendMessage(tid, nmsg);
-		    				  }
-		    			  }
-		    	  }
-		      }
-		  }
+		  answerWedges(graphStore, partitionStats.getPartitionId());
 			aggregate(CHANGE_AGG,  new BooleanWritable(true));
 		  /* collect data */
 		  partitionStats.addVertexCount(graphStore.getVertexCount());
@@ -464,21 +452,7 @@ implements Callable<Collection<PartitionStats>> {
 	   * @param partitionStats
 	   */
 	  private void QuerySuperstep(BasicGraphStoreInterface graphStore, PartitionStats partitionStats)  throws Exception{
-		  for(BasicVertex gv : graphStore.getLocalVertex()){
-			  for(BasicEdge nb1 : gv.getNeighbors()){
-				  if(gv.getId() >= nb1.getTargetId()) continue;
-				  for(BasicEdge nb2 : gv.getNeighbors()){
-					  if(gv.getId() < nb2.getTargetId()
-							  && nb1.getTargetId() < nb2.getTargetId()){
-						  /* send message */
-						  I id = (I)new IntWritable(nb1.getTargetId());
-						  M msg = (M)new TripleWritable(gv.getId(), nb1.getTargetId(), nb2.getTargetId());
-//						  LOG.info("superstep: 0 msg: "+msg.toString());
-						  sendMessage(id, msg);
-					  }
-				  }
-			  }
-		  }
+		  newListing(graphStore).queryWedges();
 			aggregate(CHANGE_AGG,  new BooleanWritable(true));
 		  /* collect data */
 		  partitionStats.addVertexCount(graphStore.getVertexCount());
@@ -487,6 +461,130 @@ implements Callable<Collection<PartitionStats>> {
 //		  graphStore.dump();
 	  }
 	  
+	  /**
+	   * The decomposition on a CompactTrussGraphStore with support buckets:
+	   * a new threshold only takes the edges of the buckets below it instead of scanning
+	   * all the edges, and every partition aggregates the smallest support left, so the
+	   * master skips the thresholds which would peel nothing.
+	   * The peeled edges keep their truss number (threshold + 1) for the output.
+	   * @param graphStore
+	   * @param partitionStats
+	   */
+	  private void processBucketedSubgraph(CompactTrussGraphStore graphStore, PartitionStats partitionStats)
+			  throws Exception{
+		  long superstep = graphState.getSuperstep();
+		  if(superstep > 2){
+			  bucketedExecution(graphStore);
+		  }
+		  else if(superstep == 2){
+			  bucketedInducedSubgraphGeneration(graphStore);
+		  }
+		  else if(superstep == 1){
+			  answerWedges(graphStore, partitionStats.getPartitionId());
+			  aggregate(CHANGE_AGG,  new BooleanWritable(true));
+		  }
+		  else if(superstep == 0){
+			  newListing(graphStore).queryWedges();
+			  aggregate(CHANGE_AGG,  new BooleanWritable(true));
+		  }
+		  if(superstep >= 2){
+			  aggregate(MIN_SUPPORT_AGG, new IntWritable(TrussState.of(graphStore).getSupportBuckets().minSupport()));
+		  }
+		  partitionStats.addVertexCount(graphStore.getVertexCount());
+		  partitionStats.addEdgeCount(graphStore.getEdgeCount());
+	  }
+
+	  /**
+	   * see execution
+	   */
+	  private void bucketedExecution(CompactTrussGraphStore graphStore) throws Exception{
+		  BucketedKTrussPeeling peeling = newPeeling();
+		  if(!((BooleanWritable)getAggregatedValue(CHANGE_AGG)).get()){
+			  peeling.queueBelowThreshold(graphStore);
+		  }
+		  else{
+			  IntWritable id = new IntWritable();
+			  for(int vid : graphStore.getLocalVertexIds()){
+				  id.set(vid);
+				  for(TripleWritable tmsg : TripleWritable.triples(messageStore.getVertexMessages((I)id))){
+					  peeling.queueDeleted(graphStore, tmsg);
+				  }
+			  }
+		  }
+		  LOG.info("Queue Size="+peeling.getQueueSize());
+		  aggregate(CHANGE_AGG,  new BooleanWritable(peeling.prune(graphStore)));
+	  }
+
+	  /**
+	   * see inducedSubgraphGeneration
+	   */
+	  private void bucketedInducedSubgraphGeneration(CompactTrussGraphStore graphStore) throws Exception{
+		  IntWritable id = new IntWritable();
+		  for(int vid : graphStore.getLocalVertexIds()){
+			  id.set(vid);
+			  for(TripleWritable tmsg : TripleWritable.triples(messageStore.getVertexMessages((I)id))){
+				  graphStore.addTriangle(tmsg.getFirst(), tmsg.getSecond(), tmsg.getThird());
+			  }
+		  }
+		  aggregate(CHANGE_AGG,  new BooleanWritable(newPeeling().start(graphStore)));
+	  }
+
+	  /**
+	   * the bucketed peeling of the partition at the current threshold.
+	   */
+	  private BucketedKTrussPeeling newPeeling(){
+		  BucketedKTrussPeeling peeling = new BucketedKTrussPeeling() {
+			  @Override
+			  protected boolean isSamePartition(int vid1, int vid2) {
+				  return KTrussDecompositionSubgraph.this.isSamePartition(vid1, vid2);
+			  }
+
+			  @Override
+			  protected void sendTriple(int destination, int first, int second, int third) {
+				  KTrussDecompositionSubgraph.this.sendTriple(destination, first, second, third);
+			  }
+		  };
+		  peeling.threshold = lktruss.threshold;
+		  return peeling;
+	  }
+
+	  /**
+	   * the triangle listing of the partition, see TriangleEngine.queryWedges.
+	   */
+	  private TriangleEngine newListing(BasicGraphStoreInterface graphStore){
+		  return new TriangleEngine(graphStore) {
+			  @Override
+			  protected boolean isSamePartition(int vid1, int vid2) {
+				  return KTrussDecompositionSubgraph.this.isSamePartition(vid1, vid2);
+			  }
+
+			  @Override
+			  protected void sendTriple(int destination, int first, int second, int third) {
+				  KTrussDecompositionSubgraph.this.sendTriple(destination, first, second, third);
+			  }
+		  };
+	  }
+
+	  /**
+	   * superstep 1: answer the wedges sent to the vertices of the partition.
+	   */
+	  private void answerWedges(BasicGraphStoreInterface graphStore, int partitionId) throws IOException{
+		  TriangleEngine listing = newListing(graphStore);
+		  for(I id : messageStore.getPartitionDestinationVertices(partitionId)){
+			  int vid = ((IntWritable)id).get();
+			  for(TripleWritable tmsg : TripleWritable.triples(messageStore.getVertexMessages(id))){
+				  listing.answerWedge(vid, tmsg);
+			  }
+		  }
+	  }
+
+	  /**
+	   * send the triple to the vertex, batched with the other triples to it.
+	   */
+	  private void sendTriple(int destination, int first, int second, int third) {
+		  batcher.add(destination, first, second, third);
+	  }
+
 	  private void sendMessage(I id, M message) {
 	    if (graphState.getWorkerClientRequestProcessor().
 	          sendMessageRequest(id, message)) {
@@ -512,6 +610,7 @@ implements Callable<Collection<PartitionStats>> {
 		public static class AggregatorsMasterCompute extends
 		DefaultMasterCompute {
 			private int currentThreshold;
+			private boolean bucketed;
 			@Override
 			public void compute() {
 				/**
@@ -519,6 +618,11 @@ implements Callable<Collection<PartitionStats>> {
 				 */
 				if(!((BooleanWritable)getAggregatedValue(CHANGE_AGG)).get()){
 					currentThreshold++;
+					int minSupport = ((IntWritable)getAggregatedValue(MIN_SUPPORT_AGG)).get();
+					if(bucketed && minSupport != Integer.MAX_VALUE){
+						/* the first threshold which peels the edges of the smallest support */
+						currentThreshold = Math.max(currentThreshold, minSupport + 3);
+					}
 					System.out.println("Superstep="+getSuperstep()+" aggreagatedVaule: ("+CHANGE_AGG+
 							" " + ((BooleanWritable)getAggregatedValue(CHANGE_AGG))+")"
 							+" threshold="+currentThreshold);
@@ -530,8 +634,10 @@ implements Callable<Collection<PartitionStats>> {
 			public void initialize() throws InstantiationException,
 	        IllegalAccessException {
 				this.currentThreshold = 2;
+				this.bucketed = getConf().getBoolean("giraph.ktruss.decomposition.bucketed", false);
 		        registerAggregator(GLOBAL_THRESHOLD, IntSumAggregator.class);
 				registerAggregator(CHANGE_AGG, BooleanOrAggregator.class);
+				registerAggregator(MIN_SUPPORT_AGG, IntMinAggregator.class);
 			}
 	  }
 	  
@@ -636,10 +742,7 @@ implements Callable<Collection<PartitionStats>> {
 								&& !graphStore.isLocal(nb.getTargetId())
 								&& !isSamePartition(pivot, nb.getTargetId())
 								&& !isSamePartition(first, nb.getTargetId())){
-							I id = (I) new IntWritable(nb.getTargetId());
-							M msg = (M)new TripleWritable(sourceId, sourceId, targetId);
-//							LOG.info("Send remove message: "+msg+" to"+vid);
-							sendMessage(id, msg);
+							sendTriple(nb.getTargetId(), sourceId, sourceId, targetId);
 						}
 					}
 				}
@@ -0,0 +1,109 @@
+package org.apache.giraph.subgraph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.log4j.Logger;
+
+/**
+ * Saved result of a k-truss job on CompactTrussGraphStore, the input of the
+ * incremental maintenance (see IncrementalKTruss).
+ * 	-- "giraph.ktruss.snapshot.save": directory to save to, when the vertices are saved.
+ * 	-- "giraph.ktruss.snapshot.load": directory to load from, in the INPUT superstep.
+ *
+ * One file per partition (partition-$id): MAGIC, FORMAT_VERSION, partition id,
+ * number of partitions, threshold, then the store (CompactTrussGraphStore.writeSnapshot):
+ * the induced subgraph with the supports, the pruned edges included.
+ * The job loading a snapshot must use the same threshold, number of partitions and partitioner.
+ *
+ * @author simon0227
+ */
+public class KTrussSnapshot {
+
+	private static final Logger LOG = Logger.getLogger(KTrussSnapshot.class);
+
+	public static final int MAGIC = 0x4B545353; //"KTSS"
+	public static final int FORMAT_VERSION = 1;
+
+	public static Path getPath(String dir, int partitionId) {
+		return new Path(dir, "partition-" + partitionId);
+	}
+
+	public static boolean isSaving(Configuration conf) {
+		return conf.get("giraph.ktruss.snapshot.save", "").length() > 0;
+	}
+
+	public static boolean isLoading(Configuration conf) {
+		return conf.get("giraph.ktruss.snapshot.load", "").length() > 0;
+	}
+
+	private static CompactTrussGraphStore asCompact(BasicGraphStoreInterface store) {
+		if(!(store instanceof CompactTrussGraphStore)) {
+			throw new IllegalStateException("k-truss snapshots are not supported by "
+					+ store.getClass().getName() + ", use CompactTrussGraphStore.");
+		}
+		return (CompactTrussGraphStore) store;
+	}
+
+	public static void save(Configuration conf, BasicGraphStoreInterface store,
+			int partitionId, int numPartitions) throws IOException {
+		CompactTrussGraphStore cstore = asCompact(store);
+		Path path = getPath(conf.get("giraph.ktruss.snapshot.save"), partitionId);
+		long startTime = System.currentTimeMillis();
+		FileSystem fs = path.getFileSystem(conf);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fs.create(path, true), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(partitionId);
+			out.writeInt(numPartitions);
+			out.writeInt(conf.getInt("giraph.ktruss.threshold", 2));
+			cstore.writeSnapshot(out);
+		} finally {
+			out.close();
+		}
+		LOG.info("save: partition " + partitionId + " to " + path + " in "
+				+ (System.currentTimeMillis() - startTime) + " ms");
+	}
+
+	public static void load(Configuration conf, BasicGraphStoreInterface store,
+			int partitionId, int numPartitions) throws IOException {
+		CompactTrussGraphStore cstore = asCompact(store);
+		Path path = getPath(conf.get("giraph.ktruss.snapshot.load"), partitionId);
+		long startTime = System.currentTimeMillis();
+		FileSystem fs = path.getFileSystem(conf);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(fs.open(path), 1 << 16));
+		try {
+			if(in.readInt() != MAGIC) {
+				throw new IOException("load: " + path + " is not a k-truss snapshot.");
+			}
+			int formatVersion = in.readInt();
+			if(formatVersion != FORMAT_VERSION) {
+				throw new IOException("load: " + path + " has version " + formatVersion
+						+ ", expected " + FORMAT_VERSION);
+			}
+			int savedPartition = in.readInt();
+			int savedPartitions = in.readInt();
+			if(savedPartition != partitionId || savedPartitions != numPartitions) {
+				throw new IOException("load: " + path + " is partition " + savedPartition + " of "
+						+ savedPartitions + ", expected " + partitionId + " of " + numPartitions);
+			}
+			int threshold = in.readInt();
+			if(threshold != conf.getInt("giraph.ktruss.threshold", 2)) {
+				throw new IOException("load: " + path + " is the " + threshold + "-truss, expected "
+						+ conf.getInt("giraph.ktruss.threshold", 2));
+			}
+			cstore.readSnapshot(in);
+		} finally {
+			in.close();
+		}
+		LOG.info("load: partition " + partitionId + " from " + path + " in "
+				+ (System.currentTimeMillis() - startTime) + " ms");
+	}
+}
@@ -1,15 +1,15 @@
 package org.apache.giraph.subgraph;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.ArrayDeque;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+
 import org.apache.giraph.aggregators.BooleanOrAggregator;
 import org.apache.giraph.aggregators.IntSumAggregator;
 import org.apache.giraph.aggregators.LongSumAggregator;
@@ -87,9 +87,44 @@ implements Callable<Collection<PartitionStats>> {
 	  private final Counter messagesSentCounter;
 	  /** Timer for single compute() call */
 	  private final Timer computeOneTimer;
+	  /** Edges deleted by the pruning */
+	  private final Counter prunedEdgesCounter;
+	  /** Triangles visited by the pruning */
+	  private final Counter visitedTrianglesCounter;
 
 	  private LocalKTrussAlgorithm lktruss = new LocalKTrussAlgorithm();
-	  Queue<BasicEdge> queue = new LinkedList<BasicEdge>();
+	  Queue<BasicEdge> queue = new ArrayDeque<BasicEdge>();
+	  /** edges queued in the current superstep, see execution */
+	  private final LongOpenHashSet isInQueue = new LongOpenHashSet();
+	  /** batches the triples per destination (unique per Callable) */
+	  private TripleMessageBatcher batcher;
+	  /**
+	   * list the triangles in the (degree, id) order with neighbor lists,
+	   * one more superstep than the wedge queries. CompactTrussGraphStore only.
+	   */
+	  private final boolean degreeOrdered;
+	  private final IntWritable partitionOfId = new IntWritable();
+	  /** the messages are serialized when they are sent, so the destination is reused */
+	  private final IntWritable destinationId = new IntWritable();
+	  /**
+	   * update a saved k-truss with a batch of edges instead of a full run,
+	   * see IncrementalKTruss. CompactTrussGraphStore only.
+	   */
+	  private final boolean incremental;
+	  /** the other partitions of the incremental mode */
+	  private final IncrementalKTruss.Partitions incrementalPartitions = new IncrementalKTruss.Partitions() {
+		  @Override
+		  public int partitionOf(int vid) {
+			  return KTrussSubgraphImpr.this.partitionOf(vid);
+		  }
+
+		  @Override
+		  public void sendTriple(int destination, int first, int second, int third) {
+			  KTrussSubgraphImpr.this.sendTriple(destination, first, second, third);
+		  }
+	  };
+
+	  private static final String REVIVE_AGG = "reviveEdge";
 	  
 //	  private static final String AGG_TOTALEDGE = "totalEdge";
 //	  private static final String AGG_EDGE = "validEdge";
@@ -131,8 +166,25 @@ implements Callable<Collection<PartitionStats>> {
 	    // not long-lived, so just instantiating in the constructor is good enough.
 	    computeOneTimer = metrics.getTimer(TimerDesc.COMPUTE_ONE);
 	    messagesSentCounter = metrics.getCounter(MetricNames.MESSAGES_SENT);
+	    prunedEdgesCounter = metrics.getCounter(MetricNames.KTRUSS_PRUNED_EDGES);
+	    visitedTrianglesCounter = metrics.getCounter(MetricNames.KTRUSS_VISITED_TRIANGLES);
 	    
 	    lktruss.threshold = configuration.getInt("giraph.ktruss.threshold", 2) - 2;
+	    degreeOrdered = configuration.getBoolean("giraph.ktruss.degree.ordered", false);
+	    incremental = IncrementalKTruss.isIncremental(configuration);
+	    if(ParallelKTrussPruner.getThreads(configuration) > 1){
+	    	lktruss.parallelPruner = new ParallelKTrussPruner(configuration) {
+	    		@Override
+	    		protected boolean isSamePartition(int vid1, int vid2) {
+	    			return KTrussSubgraphImpr.this.isSamePartition(vid1, vid2);
+	    		}
+
+	    		@Override
+	    		protected void sendTriple(int destination, int first, int second, int third) {
+	    			KTrussSubgraphImpr.this.sendTriple(destination, first, second, third);
+	    		}
+	    	};
+	    }
 		  
 	  }
 	  
@@ -151,6 +203,13 @@ implements Callable<Collection<PartitionStats>> {
 	        aggregatorUsage);
 
 	    vertexWriter = serviceWorker.getSuperstepOutput().getVertexWriter();
+	    batcher = new TripleMessageBatcher(configuration) {
+	    	@Override
+	    	protected void send(int destination, TripleWritable message) {
+	    		destinationId.set(destination);
+	    		sendMessage((I) destinationId, (M) message);
+	    	}
+	    };
 
 	    List<PartitionStats> partitionStatsList = Lists.newArrayList();
 	    while (!partitionIdQueue.isEmpty()) {
@@ -230,6 +289,10 @@ implements Callable<Collection<PartitionStats>> {
 	      }catch(Exception e){
 	    	  e.printStackTrace();
 	      }
+	      prunedEdgesCounter.inc(lktruss.getPrunedEdges());
+	      visitedTrianglesCounter.inc(lktruss.getVisitedTriangles());
+	      lktruss.clearPruneCounts();
+	      batcher.flush();
 
 	      /* END! */
 
@@ -275,6 +338,10 @@ implements Callable<Collection<PartitionStats>> {
 	   */
 	  private void processSubgraph(BasicGraphStoreInterface graphStore, PartitionStats partitionStats) 
 			  throws Exception{
+		  if(graphStore instanceof CompactTrussGraphStore){
+			  processCompactSubgraph((CompactTrussGraphStore)graphStore, partitionStats);
+			  return;
+		  }
 		  if(graphState.getSuperstep() > 2){
 			  this.msgDetectionCounter = 0;
 			  this.independedExternalRemoval = 0;
@@ -310,22 +377,20 @@ implements Callable<Collection<PartitionStats>> {
 	   */
 	  private void execution(BasicGraphStoreInterface graphStore, PartitionStats partitionStats) throws Exception{
 		  /* process the deleted edge<R,R> message, and initialize the queue */
-		  HashMap<Long, Boolean> isInQueue = new HashMap<Long, Boolean>();
 		  IntWritable id = new IntWritable();
+		  isInQueue.clear();
 		  queue.clear();
 		  for(BasicVertex gv : graphStore.getLocalVertex()){
 			  /* process message, generate induced subgraph */
 			  id.set(gv.getId());
 		      Iterable<M> messages = messageStore.getVertexMessages((I)id);
 		      if (!Iterables.isEmpty(messages)) {
-		    	  for(M msg : messages){
+		    	  for(TripleWritable tmsg : TripleWritable.triples(messages)){
 		    		  
-		    		  TripleWritable tmsg = (TripleWritable)msg;
 //		    		  LOG.info("msg ="+msg.toString()+" exist="+graphStore.edgeExist(tmsg.getThird(), tmsg.getSecond()));
 		    		  long idx = BasicEdge.constructEdgeId(tmsg.getSecond(), tmsg.getThird());
 		    		  if(graphStore.edgeExist(tmsg.getSecond(), tmsg.getThird()) 
-		    				  && (isInQueue.get(idx) == null)){
-		    			  isInQueue.put(idx, true);
+		    				  && isInQueue.add(idx)){
 		    			  this.independedExternalRemoval++;
 //		    			  if(!graphStore.getEdge(tmsg.getSecond(), tmsg.getThird()).isExternal()){
 //		    				  LOG.info("The second FUCK thing!!!!!!!!!");
@@ -372,9 +437,8 @@ implements Callable<Collection<PartitionStats>> {
 			  id.set(gv.getId());
 		      Iterable<M> messages = messageStore.getVertexMessages((I)id);
 		      if (!Iterables.isEmpty(messages)) {
-		    	  for(M msg : messages){
+		    	  for(TripleWritable tmsg : TripleWritable.triples(messages)){
 
-		    		  TripleWritable tmsg = (TripleWritable)msg;		    		  
 		    		  /* add edge */
 		    		  processedMsg++;
 //		    		  LOG.info("msg: "+msg.toString());
@@ -447,46 +511,7 @@ implements Callable<Collection<PartitionStats>> {
 	   * @param partitionStats
 	   */
 	  private void AnswerSuperstep(BasicGraphStoreInterface graphStore, PartitionStats partitionStats) throws Exception{
-		  IntWritable id = new IntWritable();
-		  for(BasicVertex gv : graphStore.getLocalVertex()){
-			  id.set(gv.getId());
-		      Iterable<M> messages = messageStore.getVertexMessages((I)id);
-		      if (!Iterables.isEmpty(messages)) {
-		    	  for(M msg : messages){
-//		    		  LOG.info("msg: "+msg.toString()+" cur vid="+gv.getId());
-		 
-		    		  TripleWritable tmsg = (TripleWritable)msg;
-//		    		  for(BasicEdge nb : gv.getNeighbors()){
-//		    			  if(nb.getTargetId() == tmsg.getThird()){
-		    		  /*NOTE: this optimization is really important. */
-		    		  if(gv.containNeighbor(tmsg.getThird())){
-		    				  I tid = (I) new IntWritable(tmsg.getFirst());
-		    				  M nmsg = (M) new TripleWritable(tmsg.getFirst(), tmsg.getSecond(), tmsg.getThird());
-		    				  sendMessage(tid, nmsg);
-		    				  if(!isSamePartition(tmsg.getFirst(), gv.getId()))
-		    					  this.msgTcSubgraphCounter++;
-		    				  
-		    				  if(!isSamePartition(tmsg.getFirst(), tmsg.getSecond())){
-		    					  tid = (I) new IntWritable(tmsg.getSecond());
-		    					  nmsg = (M) new TripleWritable(tmsg.getSecond(), tmsg.getFirst(), tmsg.getThird());
-		    					  sendMessage(tid, nmsg);
-		    					  if(!isSamePartition(tmsg.getSecond(), gv.getId()))
-		    						  this.msgTcSubgraphCounter++;
-		    				  }
-		    				  
-		    				  if(!isSamePartition(tmsg.getFirst(), tmsg.getThird()) 
-		    						  && !isSamePartition(tmsg.getSecond(), tmsg.getThird())){
-		    					  tid = (I) new IntWritable(tmsg.getThird());
-		    					  nmsg = (M) new TripleWritable(tmsg.getThird(), tmsg.getFirst(), tmsg.getSecond());
-		    					  sendMessage(tid, nmsg);
-		    					  if(!isSamePartition(tmsg.getThird(), gv.getId()))
-		    						  this.msgTcSubgraphCounter++;
-		    				  }
-		    			  }
-		    		  }
-//		    	  }
-		      }
-		  }
+		  answerWedges(graphStore, partitionStats.getPartitionId());
 		  /* collect data */
 		  partitionStats.addVertexCount(graphStore.getVertexCount());
 		  partitionStats.addEdgeCount(graphStore.getEdgeCount());
@@ -502,67 +527,327 @@ implements Callable<Collection<PartitionStats>> {
 	   * @param partitionStats
 	   */
 	  private void QuerySuperstep(BasicGraphStoreInterface graphStore, PartitionStats partitionStats)  throws Exception{
-		  for(BasicVertex gv : graphStore.getLocalVertex()){
-			  
-			  ArrayList<Integer> smallList = new ArrayList<Integer>();
-
-			  for(BasicEdge nb1 : gv.getNeighbors()){
-				  if(gv.getId() < nb1.getTargetId()){
-					  smallList.add(nb1.getTargetId());
+		  this.msgTcSubgraphCounter += newListing(graphStore).queryWedges();
+		  /* collect data */
+		  partitionStats.addVertexCount(graphStore.getVertexCount());
+		  partitionStats.addEdgeCount(graphStore.getEdgeCount());
+		  
+//		  graphStore.dump();
+	  }
+	  
+	  /**
+	   * The same supersteps on a CompactTrussGraphStore: the edges are addressed by id,
+	   * the support lives in the store arrays, and the triangles on a deleted edge
+	   * are found by intersecting the sorted adjacency of its end points.
+	   * @param graphStore
+	   * @param partitionStats
+	   */
+	  private void processCompactSubgraph(CompactTrussGraphStore graphStore, PartitionStats partitionStats)
+			  throws Exception{
+		  long superstep = graphState.getSuperstep();
+		  if(incremental){
+			  processIncrementalSubgraph(graphStore, partitionStats);
+			  return;
+		  }
+		  if(degreeOrdered){
+			  /* 0: degree exchange, 1: send out lists, 2: intersect, then as superstep 2, 3 ... */
+			  if(superstep < 3){
+				  this.msgTcSubgraphCounter = 0;
+				  if(superstep == 0){
+					  compactDegreeExchange(graphStore);
+				  }
+				  else if(superstep == 1){
+					  compactListingSuperstep(graphStore);
 				  }
+				  else{
+					  compactIntersectionSuperstep(graphStore);
+				  }
+				  partitionStats.addVertexCount(graphStore.getVertexCount());
+				  partitionStats.addEdgeCount(graphStore.getEdgeCount());
+				  return;
 			  }
-			  int size = smallList.size();
-			  for(int i = 0; i < size; i++){
-				  int vidOne = smallList.get(i);
-				  for(int j = i+1; j < size; j++){
-					  int vidTwo = smallList.get(j);
-					  if(vidOne < vidTwo){
-						  /* send message */
-						  I id = (I)new IntWritable(vidOne);
-						  M msg = (M)new TripleWritable(gv.getId(), vidOne, vidTwo);
-//						  LOG.info("superstep: 0 msg: "+msg.toString());
-						  sendMessage(id, msg);
-						  
-						  if(!isSamePartition(vidOne, gv.getId()))
-							  this.msgTcSubgraphCounter++;
-					  }
-					  else{
-						  /* send message */
-						  I id = (I)new IntWritable(vidTwo);
-						  M msg = (M)new TripleWritable(gv.getId(), vidTwo, vidOne);
-//						  LOG.info("superstep: 0 msg: "+msg.toString());
-						  sendMessage(id, msg);
-						  
-						  if(!isSamePartition(vidTwo, gv.getId()))
-							  this.msgTcSubgraphCounter++;
-					  }
+			  superstep--;
+		  }
+		  if(superstep > 2){
+			  this.msgDetectionCounter = 0;
+			  this.independedExternalRemoval = 0;
+			  compactExecution(graphStore, partitionStats);
+		  }
+		  else if(superstep == 2){
+			  this.msgDetectionCounter = 0;
+			  compactInducedSubgraphGeneration(graphStore, partitionStats);
+		  }
+		  else if(superstep == 1){
+			  this.msgTcSubgraphCounter = 0;
+			  answerWedges(graphStore, partitionStats.getPartitionId());
+		  }
+		  else if(superstep == 0){
+			  this.msgTcSubgraphCounter = 0;
+			  this.msgTcSubgraphCounter += newListing(graphStore).queryWedges();
+		  }
+		  partitionStats.addVertexCount(graphStore.getVertexCount());
+		  partitionStats.addEdgeCount(graphStore.getEdgeCount());
+	  }
+
+	  /**
+	   * see execution
+	   */
+	  private void compactExecution(CompactTrussGraphStore graphStore, PartitionStats partitionStats) throws Exception{
+		  EdgePruneQueue compactQueue = TrussState.of(graphStore).getPruneQueue();
+		  IntWritable id = new IntWritable();
+		  compactQueue.reset();
+		  for(int vid : graphStore.getLocalVertexIds()){
+			  id.set(vid);
+			  for(TripleWritable tmsg : TripleWritable.triples(messageStore.getVertexMessages((I)id))){
+				  int eid = graphStore.findEdge(tmsg.getSecond(), tmsg.getThird());
+				  if(eid != -1 && compactQueue.add(eid)){
+					  this.independedExternalRemoval++;
 				  }
 			  }
-			  
-//			  for(BasicEdge nb1 : gv.getNeighbors()){
-//				  if(gv.getId() >= nb1.getTargetId()) continue;
-//				  for(BasicEdge nb2 : gv.getNeighbors()){
-//					  if(gv.getId() < nb2.getTargetId()
-//							  && nb1.getTargetId() < nb2.getTargetId()){
-//						  /* send message */
-//						  I id = (I)new IntWritable(nb1.getTargetId());
-//						  M msg = (M)new TripleWritable(gv.getId(), nb1.getTargetId(), nb2.getTargetId());
-////						  LOG.info("superstep: 0 msg: "+msg.toString());
-//						  sendMessage(id, msg);
-//						  
-//						  if(!isSamePartition(nb1.getTargetId(), gv.getId()))
-//							  this.msgTcSubgraphCounter++;
-//					  }
-//				  }
-//			  }
 		  }
-		  /* collect data */
+		  lktruss.clearMessageCount();
+		  if(!lktruss.iterativelyPrune(graphStore, compactQueue)){
+			  partitionStats.addFinishedVertexCount(graphStore.getVertexCount());
+		  }
+		  this.msgDetectionCounter += lktruss.getMessageCount();
+	  }
+
+	  /**
+	   * see inducedSubgraphGeneration
+	   */
+	  private void compactInducedSubgraphGeneration(CompactTrussGraphStore graphStore, PartitionStats partitionStats) throws Exception{
+		  int processedMsg = 0;
+		  long start_time = System.currentTimeMillis(), mid_time, end_time, mid_time2;
+
+		  EdgePruneQueue compactQueue = TrussState.of(graphStore).getPruneQueue();
+		  IntWritable id = new IntWritable();
+		  compactQueue.reset();
+		  for(int vid : graphStore.getLocalVertexIds()){
+			  id.set(vid);
+			  for(TripleWritable tmsg : TripleWritable.triples(messageStore.getVertexMessages((I)id))){
+				  processedMsg++;
+				  /* no matter what type the edge is, increase the support value. */
+				  graphStore.addTriangle(tmsg.getFirst(), tmsg.getSecond(), tmsg.getThird());
+			  }
+		  }
+
+		  mid_time2 = System.currentTimeMillis();
+		  lktruss.initialize(graphStore, compactQueue);
+		  lktruss.clearMessageCount();
+		  mid_time = System.currentTimeMillis();
+		  if(!lktruss.iterativelyPrune(graphStore, compactQueue)){
+			  partitionStats.addFinishedVertexCount(graphStore.getVertexCount());
+		  }
+		  this.msgDetectionCounter += lktruss.getMessageCount();
+
+		  end_time = System.currentTimeMillis();
+		  if(LOG.isInfoEnabled()){
+			  LOG.info("compactInducedSubgraphGeneration: Message time="+(mid_time2-start_time)+
+					  " Initiali time="+(mid_time-mid_time2)+
+					  " Prune time="+(end_time-mid_time)+
+					  " Process message="+processedMsg);
+		  }
+	  }
+
+	  /**
+	   * the triangle listing of the partition, see TriangleEngine.queryWedges.
+	   */
+	  private TriangleEngine newListing(BasicGraphStoreInterface graphStore){
+		  return new TriangleEngine(graphStore) {
+			  @Override
+			  protected boolean isSamePartition(int vid1, int vid2) {
+				  return KTrussSubgraphImpr.this.isSamePartition(vid1, vid2);
+			  }
+
+			  @Override
+			  protected void sendTriple(int destination, int first, int second, int third) {
+				  KTrussSubgraphImpr.this.sendTriple(destination, first, second, third);
+			  }
+		  };
+	  }
+
+	  /**
+	   * superstep 1: answer the wedges sent to the vertices of the partition.
+	   */
+	  private void answerWedges(BasicGraphStoreInterface graphStore, int partitionId) throws IOException{
+		  TriangleEngine listing = newListing(graphStore);
+		  for(I id : messageStore.getPartitionDestinationVertices(partitionId)){
+			  int vid = ((IntWritable)id).get();
+			  for(TripleWritable tmsg : TripleWritable.triples(messageStore.getVertexMessages(id))){
+				  this.msgTcSubgraphCounter += listing.answerWedge(vid, tmsg);
+			  }
+		  }
+	  }
+
+	  /**
+	   * Incremental mode, the store is the loaded snapshot:
+	   * 0: apply the batch and query the unknown closing edges of the new triangles,
+	   * 1: answer the queries, 2: add the answered edges and start the revival,
+	   * 3...: revive the pruned edges connected to the new ones until REVIVE_AGG is false,
+	   * then count the changed supports again and prune as compactExecution.
+	   * @param graphStore
+	   * @param partitionStats
+	   */
+	  private void processIncrementalSubgraph(CompactTrussGraphStore graphStore, PartitionStats partitionStats)
+			  throws Exception{
+		  long superstep = graphState.getSuperstep();
+		  IncrementalKTruss state = TrussState.of(graphStore).getIncremental();
+		  if(superstep == 0){
+			  state = new IncrementalKTruss();
+			  TrussState.of(graphStore).setIncremental(state);
+			  incrementalBatchSuperstep(graphStore, state);
+		  }
+		  else if(superstep == 1){
+			  incrementalAnswerSuperstep(graphStore, state);
+		  }
+		  else if(state.isPruning()){
+			  this.msgDetectionCounter = 0;
+			  this.independedExternalRemoval = 0;
+			  compactExecution(graphStore, partitionStats);
+		  }
+		  else if(superstep > 2 && !((BooleanWritable)getAggregatedValue(REVIVE_AGG)).get()){
+			  incrementalPruneSuperstep(graphStore, state, partitionStats);
+		  }
+		  else{
+			  incrementalReviveSuperstep(graphStore, state, superstep == 2);
+		  }
 		  partitionStats.addVertexCount(graphStore.getVertexCount());
 		  partitionStats.addEdgeCount(graphStore.getEdgeCount());
-		  
-//		  graphStore.dump();
 	  }
-	  
+
+	  /**
+	   * Incremental superstep 0: remove and insert the edges of the batch, then query
+	   * the closing edges of the new triangles which are unknown to this partition.
+	   */
+	  private void incrementalBatchSuperstep(CompactTrussGraphStore graphStore, IncrementalKTruss state)
+			  throws Exception{
+		  this.msgTcSubgraphCounter += state.applyBatch(graphStore, IncrementalKTruss.getRemovals(configuration),
+				  IncrementalKTruss.getInsertions(configuration), incrementalPartitions);
+	  }
+
+	  /**
+	   * Incremental superstep 1: answer the queries of the closing edges, see IncrementalKTruss.answer.
+	   */
+	  private void incrementalAnswerSuperstep(CompactTrussGraphStore graphStore, IncrementalKTruss state) throws Exception{
+		  IntWritable id = new IntWritable();
+		  for(int vid : graphStore.getLocalVertexIds()){
+			  id.set(vid);
+			  for(TripleWritable tmsg : TripleWritable.triples(messageStore.getVertexMessages((I)id))){
+				  state.answer(graphStore, vid, tmsg, incrementalPartitions);
+			  }
+		  }
+	  }
+
+	  /**
+	   * Incremental supersteps 2, 3, ...: add the answered edges (superstep 2) or revive
+	   * the announced edges, then revive the pruned edges connected to the revived ones.
+	   */
+	  private void incrementalReviveSuperstep(CompactTrussGraphStore graphStore, IncrementalKTruss state,
+			  boolean answers) throws Exception{
+		  IntWritable id = new IntWritable();
+		  for(int vid : graphStore.getLocalVertexIds()){
+			  id.set(vid);
+			  for(TripleWritable tmsg : TripleWritable.triples(messageStore.getVertexMessages((I)id))){
+				  state.receive(graphStore, vid, tmsg, answers);
+			  }
+		  }
+		  aggregate(REVIVE_AGG, new BooleanWritable(state.reviveConnected(graphStore, incrementalPartitions)));
+	  }
+
+	  /**
+	   * Incremental: no edge is revived any more. The changed supports are counted again,
+	   * the ones below the threshold are pruned, then the supersteps are as compactExecution.
+	   */
+	  private void incrementalPruneSuperstep(CompactTrussGraphStore graphStore, IncrementalKTruss state,
+			  PartitionStats partitionStats) throws Exception{
+		  EdgePruneQueue compactQueue = TrussState.of(graphStore).getPruneQueue();
+		  state.recount(graphStore, lktruss.threshold, compactQueue);
+
+		  this.msgDetectionCounter = 0;
+		  lktruss.clearMessageCount();
+		  if(!lktruss.iterativelyPrune(graphStore, compactQueue)){
+			  partitionStats.addFinishedVertexCount(graphStore.getVertexCount());
+		  }
+		  this.msgDetectionCounter += lktruss.getMessageCount();
+	  }
+
+	  /**
+	   * Degree-ordered listing, superstep 0:
+	   * send the degree of each local vertex once to every other partition holding a neighbor.
+	   */
+	  private void compactDegreeExchange(CompactTrussGraphStore graphStore) throws Exception{
+		  this.msgTcSubgraphCounter += newOrderedListing(graphStore).sendDegrees();
+	  }
+
+	  /**
+	   * Degree-ordered listing, superstep 1:
+	   * the out list of each local vertex is sent once to every other partition holding
+	   * one of the out-neighbors; the out-neighbors in this partition are intersected here.
+	   */
+	  private void compactListingSuperstep(CompactTrussGraphStore graphStore) throws Exception{
+		  DegreeOrderedTriangleListing listing = newOrderedListing(graphStore);
+		  IntWritable id = new IntWritable();
+		  for(int vid : graphStore.getLocalVertexIds()){
+			  id.set(vid);
+			  for(TripleWritable tmsg : TripleWritable.triples(messageStore.getVertexMessages((I)id))){
+				  listing.setDegree(tmsg);
+			  }
+		  }
+		  this.msgTcSubgraphCounter += listing.listLocal();
+	  }
+
+	  /**
+	   * Degree-ordered listing, superstep 2:
+	   * intersect the received out lists with the out lists of the local vertices in them,
+	   * and add the triangles listed in superstep 1 by the other partitions.
+	   */
+	  private void compactIntersectionSuperstep(CompactTrussGraphStore graphStore) throws Exception{
+		  DegreeOrderedTriangleListing listing = newOrderedListing(graphStore);
+		  IntWritable id = new IntWritable();
+		  for(int vid : graphStore.getLocalVertexIds()){
+			  id.set(vid);
+			  for(TripleWritable tmsg : TripleWritable.triples(messageStore.getVertexMessages((I)id))){
+				  this.msgTcSubgraphCounter += listing.receive(vid, tmsg);
+			  }
+		  }
+		  listing.applyTriangles();
+	  }
+
+	  /**
+	   * the degree-ordered listing of the partition for the current superstep.
+	   */
+	  private DegreeOrderedTriangleListing newOrderedListing(CompactTrussGraphStore graphStore){
+		  return new DegreeOrderedTriangleListing(graphStore) {
+			  @Override
+			  protected int partitionOf(int vid) {
+				  return KTrussSubgraphImpr.this.partitionOf(vid);
+			  }
+
+			  @Override
+			  protected void sendTriple(int destination, int first, int second, int third) {
+				  KTrussSubgraphImpr.this.sendTriple(destination, first, second, third);
+			  }
+
+			  @Override
+			  protected void sendList(int destination, TripleWritable message) {
+				  destinationId.set(destination);
+				  sendMessage((I) destinationId, (M) message);
+			  }
+		  };
+	  }
+
+	  private int partitionOf(int vid){
+		  partitionOfId.set(vid);
+		  return serviceWorker.getVertexPartitionOwner((I) partitionOfId).getPartitionId();
+	  }
+
+	  /**
+	   * send the triple to the vertex, batched with the other triples to it.
+	   */
+	  private void sendTriple(int destination, int first, int second, int third) {
+		  batcher.add(destination, first, second, third);
+	  }
+
 	  private void sendMessage(I id, M message) {
 	    if (graphState.getWorkerClientRequestProcessor().
 	          sendMessageRequest(id, message)) {
@@ -614,6 +899,7 @@ implements Callable<Collection<PartitionStats>> {
 			@Override
 			public void initialize() throws InstantiationException,
 	        IllegalAccessException {
+				registerAggregator(REVIVE_AGG, BooleanOrAggregator.class);
 //		        registerAggregator(AGG_TOTALEDGE, LongSumAggregator.class);
 //		        registerAggregator(AGG_EDGE, LongSumAggregator.class);
 //		        
@@ -632,6 +918,9 @@ implements Callable<Collection<PartitionStats>> {
 			
 			public int threshold;
 			private int sendMessages = 0;
+			/* for the metrics, see clearPruneCounts */
+			private long prunedEdges = 0;
+			private long visitedTriangles = 0;
 			
 			public int getMessageCount(){
 				return sendMessages;
@@ -640,6 +929,19 @@ implements Callable<Collection<PartitionStats>> {
 			public void clearMessageCount(){
 				sendMessages = 0;
 			}
+
+			public long getPrunedEdges(){
+				return prunedEdges;
+			}
+
+			public long getVisitedTriangles(){
+				return visitedTriangles;
+			}
+
+			public void clearPruneCounts(){
+				prunedEdges = 0;
+				visitedTriangles = 0;
+			}
 			
 //			private int deleteEdge = 0;
 			
@@ -660,6 +962,7 @@ implements Callable<Collection<PartitionStats>> {
 				while(!queue.isEmpty()){
 					BasicEdge deleteEdge = queue.poll();
 					graphStore.deleteEdge(deleteEdge.getSourceId(), deleteEdge.getTargetId());
+					prunedEdges++;
 //					LOG.info("Delete Edge: "+deleteEdge.toString());
 //					graphStore.dump();
 					oneIteration(graphStore, deleteEdge, queue);
@@ -739,6 +1042,7 @@ implements Callable<Collection<PartitionStats>> {
 					 * We should assure that the triangle is still exist.
 					 */
 					if(graphStore.edgeExist(first, nb.getTargetId())){
+						visitedTriangles++;
 						/* 1. update neighbor */
 						if(!graphStore.getEdge(first, nb.getTargetId()).isExternal()){
 							/**
@@ -761,17 +1065,100 @@ implements Callable<Collection<PartitionStats>> {
 								&& !graphStore.isLocal(nb.getTargetId())
 								&& !isSamePartition(pivot, nb.getTargetId())
 								&& !isSamePartition(first, nb.getTargetId())){
-							I id = (I) new IntWritable(nb.getTargetId());
-							M msg = (M)new TripleWritable(sourceId, sourceId, targetId);
+
 //							if(deleteEdge.isExternal()){
 //								LOG.info("source="+graphStore.isLocal(sourceId)+" target="+graphStore.isLocal(targetId)+
 //										" third="+graphStore.isLocal(nb.getTargetId())+"What is FUCK thing!!!!!!!!!!!!!!");
 //							}
 							this.sendMessages ++;
-							sendMessage(id, msg);
+							sendTriple(nb.getTargetId(), sourceId, sourceId, targetId);
 						}
 					}
 				}
 			}
+
+			/* ---------------- CompactTrussGraphStore ---------------- */
+
+			private CompactTrussGraphStore compactStore;
+			private EdgePruneQueue compactQueue;
+			/* the pruning over several threads, null if "giraph.ktruss.prune.threads" is 1 */
+			private ParallelKTrussPruner parallelPruner;
+			private int deletedSource;
+			private int deletedTarget;
+			private boolean deletedExternal;
+
+			/**
+			 * the edges are deleted when they are polled; the queue takes an edge
+			 * once per superstep, by a message or by its support.
+			 */
+			public boolean iterativelyPrune(CompactTrussGraphStore graphStore, EdgePruneQueue queue) throws IOException{
+				if(parallelPruner != null){
+					boolean pruned = parallelPruner.prune(graphStore, queue, threshold);
+					prunedEdges += parallelPruner.getPrunedEdges();
+					visitedTriangles += parallelPruner.getVisitedTriangles();
+					sendMessages += parallelPruner.getSentMessages();
+					parallelPruner.clearCounts();
+					return pruned;
+				}
+				if(queue.isEmpty()){
+					return false;
+				}
+				compactStore = graphStore;
+				compactQueue = queue;
+				while(!queue.isEmpty()){
+					int eid = queue.poll();
+					if(graphStore.isDeleted(eid)){
+						continue;
+					}
+					graphStore.deleteEdge(eid);
+					prunedEdges++;
+					oneIteration(graphStore, eid);
+				}
+				return true;
+			}
+
+			public void initialize(CompactTrussGraphStore graphStore, EdgePruneQueue queue){
+				for(int eid = 0; eid < graphStore.getEdgeCapacity(); ++eid){
+					if(!graphStore.isDeleted(eid) && !graphStore.isExternal(eid)
+							&& graphStore.getSupport(eid) < threshold){
+						queue.add(eid);
+					}
+				}
+			}
+
+			/**
+			 * same as oneIteration, the deleted edge is still in the adjacency of both
+			 * end points, so its triangles are the common alive neighbors.
+			 */
+			public void oneIteration(CompactTrussGraphStore graphStore, int eid){
+				deletedSource = graphStore.getEdgeSource(eid);
+				deletedTarget = graphStore.getEdgeTarget(eid);
+				deletedExternal = graphStore.isExternal(eid);
+				graphStore.visitTriangles(eid, triangleVisitor);
+			}
+
+			private final CompactTrussGraphStore.TriangleVisitor triangleVisitor =
+					new CompactTrussGraphStore.TriangleVisitor() {
+				@Override
+				public void visit(int third, int firstEdge, int secondEdge) {
+					visitedTriangles++;
+					decrease(firstEdge);
+					decrease(secondEdge);
+					if(!deletedExternal
+							&& !compactStore.isLocal(third)
+							&& !isSamePartition(deletedSource, third)
+							&& !isSamePartition(deletedTarget, third)){
+						sendMessages ++;
+						sendTriple(third, deletedSource, deletedSource, deletedTarget);
+					}
+				}
+			};
+
+			private void decrease(int eid){
+				if(!compactStore.isExternal(eid)
+						&& compactStore.decAndGetSupport(eid) < threshold){
+					compactQueue.add(eid);
+				}
+			}
 		}
 }
@@ -0,0 +1,229 @@
+package org.apache.giraph.subgraph;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.apache.giraph.subgraph.graphextraction.ExplorationPool;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Level-synchronous pruning of one CompactTrussGraphStore over several threads, for
+ * LocalKTrussAlgorithm of KTrussSubgraphImpr.
+ * 	-- "giraph.ktruss.prune.threads": threads per partition (1: the serial pruning).
+ * 	-- "giraph.ktruss.prune.chunk": frontier edges per chunk.
+ *
+ * Every level takes the queued edges as frontier. The threads of ExplorationPool visit
+ * the triangles of the frontier edges (the store is only read) and decrement the supports
+ * of the other edges in an AtomicIntegerArray; a triangle with several frontier edges is
+ * decremented by the one of the smallest id only, so every support drops once per deleted
+ * triangle as in the serial pruning. The edges falling below the threshold are the next
+ * frontier. Between the levels the compute thread deletes the frontier from the store,
+ * queues the next one (EdgePruneQueue drops the edges queued before) and sends the messages.
+ *
+ * The messages are sent for every triangle of a deleted internal or cross edge whose third
+ * vertex is in another partition; the serial pruning skips the triangles of edges deleted
+ * before, so this is a superset of its messages, and each only tells a true deletion.
+ * External edges are deleted and decrement the supports, they are never decremented.
+ *
+ * The supports are copied to the AtomicIntegerArray and back once per call.
+ *
+ * @author simon0227
+ */
+public abstract class ParallelKTrussPruner {
+
+	/* sizes the pool of ExplorationPool */
+	private final Configuration conf;
+	private final int threads;
+	private final int chunkSize;
+
+	private long prunedEdges;
+	private long visitedTriangles;
+	private long sentMessages;
+
+	public ParallelKTrussPruner(Configuration conf) {
+		this.conf = conf;
+		this.threads = getThreads(conf);
+		this.chunkSize = Math.max(1, conf.getInt("giraph.ktruss.prune.chunk", 256));
+	}
+
+	public static int getThreads(Configuration conf) {
+		return Math.max(1, conf.getInt("giraph.ktruss.prune.threads", 1));
+	}
+
+	/**
+	 * called by the pool threads concurrently, so it may only read: the partitioners
+	 * of the workers answer from the partition owners or the partition map, which do not
+	 * change during a superstep (see WorkerGraphPartitioner.isSamePartition).
+	 */
+	protected abstract boolean isSamePartition(int vid1, int vid2);
+
+	/**
+	 * called by the compute thread only.
+	 */
+	protected abstract void sendTriple(int destination, int first, int second, int third);
+
+	public long getPrunedEdges() {
+		return prunedEdges;
+	}
+
+	public long getVisitedTriangles() {
+		return visitedTriangles;
+	}
+
+	public long getSentMessages() {
+		return sentMessages;
+	}
+
+	public void clearCounts() {
+		prunedEdges = 0;
+		visitedTriangles = 0;
+		sentMessages = 0;
+	}
+
+	/**
+	 * delete the queued edges and, level by level, the edges whose support falls
+	 * below the threshold.
+	 * @return false if the queue is empty, as the serial pruning.
+	 */
+	public boolean prune(CompactTrussGraphStore graphStore, EdgePruneQueue queue, int threshold)
+			throws IOException {
+		if(queue.isEmpty()) {
+			return false;
+		}
+		IntArrayList frontier = new IntArrayList();
+		drain(graphStore, queue, frontier);
+		if(frontier.isEmpty()) {
+			return true;
+		}
+		graphStore.sealEdges();
+		int m = graphStore.getEdgeCapacity();
+		AtomicIntegerArray support = new AtomicIntegerArray(m);
+		for(int eid = 0; eid < m; ++eid) {
+			support.set(eid, graphStore.getSupport(eid));
+		}
+		BitSet inFrontier = new BitSet(m);
+		List<LevelWorker> workers = new ArrayList<LevelWorker>(threads);
+		for(int i = 0; i < threads; ++i) {
+			workers.add(new LevelWorker(graphStore, support, inFrontier, frontier, threshold));
+		}
+		while(!frontier.isEmpty()) {
+			for(int i = 0; i < frontier.size(); ++i) {
+				inFrontier.set(frontier.getInt(i));
+			}
+			ExplorationPool.run(conf, frontier.size(), chunkSize, workers);
+			for(int i = 0; i < frontier.size(); ++i) {
+				int eid = frontier.getInt(i);
+				graphStore.deleteEdge(eid);
+				inFrontier.clear(eid);
+				prunedEdges++;
+			}
+			for(LevelWorker worker : workers) {
+				IntArrayList messages = worker.messages;
+				for(int i = 0; i < messages.size(); i += 3) {
+					int source = messages.getInt(i + 1), target = messages.getInt(i + 2);
+					sendTriple(messages.getInt(i), source, source, target);
+				}
+				sentMessages += messages.size() / 3;
+				visitedTriangles += worker.visited;
+				for(int i = 0; i < worker.next.size(); ++i) {
+					queue.add(worker.next.getInt(i));
+				}
+				worker.messages.clear();
+				worker.next.clear();
+				worker.visited = 0;
+			}
+			frontier.clear();
+			drain(graphStore, queue, frontier);
+		}
+		for(int eid = 0; eid < m; ++eid) {
+			graphStore.setSupport(eid, support.get(eid));
+		}
+		return true;
+	}
+
+	private void drain(CompactTrussGraphStore graphStore, EdgePruneQueue queue, IntArrayList frontier) {
+		while(!queue.isEmpty()) {
+			int eid = queue.poll();
+			if(!graphStore.isDeleted(eid)) {
+				frontier.add(eid);
+			}
+		}
+	}
+
+	/**
+	 * the triangles of a chunk of the frontier, with its own next frontier and messages.
+	 */
+	private class LevelWorker implements ExplorationPool.ChunkWorker,
+			CompactTrussGraphStore.TriangleVisitor {
+		private final CompactTrussGraphStore graphStore;
+		private final AtomicIntegerArray support;
+		private final BitSet inFrontier;
+		private final IntArrayList frontier;
+		private final int threshold;
+		final IntArrayList next = new IntArrayList();
+		/* (destination, source, target) */
+		final IntArrayList messages = new IntArrayList();
+		long visited;
+
+		private int deleted;
+		private int deletedSource;
+		private int deletedTarget;
+		private boolean deletedExternal;
+
+		LevelWorker(CompactTrussGraphStore graphStore, AtomicIntegerArray support, BitSet inFrontier,
+				IntArrayList frontier, int threshold) {
+			this.graphStore = graphStore;
+			this.support = support;
+			this.inFrontier = inFrontier;
+			this.frontier = frontier;
+			this.threshold = threshold;
+		}
+
+		@Override
+		public void run(int from, int to) {
+			for(int i = from; i < to; ++i) {
+				deleted = frontier.getInt(i);
+				deletedSource = graphStore.getEdgeSource(deleted);
+				deletedTarget = graphStore.getEdgeTarget(deleted);
+				deletedExternal = graphStore.isExternal(deleted);
+				graphStore.visitTriangles(deleted, this);
+			}
+		}
+
+		@Override
+		public void finish() {
+		}
+
+		@Override
+		public void visit(int third, int firstEdge, int secondEdge) {
+			visited++;
+			if(!(inFrontier.get(firstEdge) && firstEdge < deleted)
+					&& !(inFrontier.get(secondEdge) && secondEdge < deleted)) {
+				decrease(firstEdge);
+				decrease(secondEdge);
+			}
+			if(!deletedExternal
+					&& !graphStore.isLocal(third)
+					&& !isSamePartition(deletedSource, third)
+					&& !isSamePartition(deletedTarget, third)) {
+				messages.add(third);
+				messages.add(deletedSource);
+				messages.add(deletedTarget);
+			}
+		}
+
+		private void decrease(int eid) {
+			if(inFrontier.get(eid) || graphStore.isExternal(eid)) {
+				return;
+			}
+			if(support.decrementAndGet(eid) < threshold) {
+				next.add(eid);
+			}
+		}
+	}
+}
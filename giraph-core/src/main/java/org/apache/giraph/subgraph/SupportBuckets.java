@@ -0,0 +1,111 @@
+package org.apache.giraph.subgraph;
+
+import it.unimi.dsi.fastutil.ints.IntArrayFIFOQueue;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/**
+ * Bucket queue of the alive internal and cross edges of a CompactTrussGraphStore keyed
+ * by their support, for the peeling of the bucketed k-truss decomposition
+ * ("giraph.ktruss.decomposition.bucketed").
+ *
+ * An edge whose support drops is added again to its new bucket, the old entry is
+ * dropped when its bucket is read (lazy deletion). So a new threshold only reads the
+ * buckets below it, instead of all the edges, and the minimum support is the first
+ * bucket with a valid entry.
+ *
+ * @author simon0227
+ */
+public class SupportBuckets {
+
+	private final CompactTrussGraphStore store;
+	private final ArrayList<IntArrayList> buckets = new ArrayList<IntArrayList>();
+	/* the edges handed out to the peeling queue */
+	private final BitSet queued = new BitSet();
+	/* the buckets below are empty */
+	private int low = 0;
+
+	public SupportBuckets(CompactTrussGraphStore store) {
+		this.store = store;
+		for(int eid = 0; eid < store.getEdgeCapacity(); ++eid) {
+			if(!store.isDeleted(eid) && !store.isExternal(eid)) {
+				add(eid);
+			}
+		}
+	}
+
+	private void add(int eid) {
+		int support = store.getSupport(eid);
+		while(buckets.size() <= support) {
+			buckets.add(new IntArrayList());
+		}
+		buckets.get(support).add(eid);
+		if(support < low) {
+			low = support;
+		}
+	}
+
+	private boolean isValid(int eid, int support) {
+		return !queued.get(eid) && !store.isDeleted(eid) && store.getSupport(eid) == support;
+	}
+
+	/**
+	 * the support of the edge dropped but it stays at or above the threshold.
+	 */
+	public void decreased(int eid) {
+		add(eid);
+	}
+
+	/**
+	 * the edge is in the peeling queue.
+	 */
+	public void setQueued(int eid) {
+		queued.set(eid);
+	}
+
+	public boolean isQueued(int eid) {
+		return queued.get(eid);
+	}
+
+	/**
+	 * move the edges with support below the threshold to the queue.
+	 */
+	public void collectBelow(int threshold, IntArrayFIFOQueue queue) {
+		for(int s = low; s < threshold && s < buckets.size(); ++s) {
+			IntArrayList bucket = buckets.get(s);
+			for(int i = 0; i < bucket.size(); ++i) {
+				int eid = bucket.getInt(i);
+				if(isValid(eid, s)) {
+					queued.set(eid);
+					queue.enqueue(eid);
+				}
+			}
+			buckets.set(s, new IntArrayList());
+		}
+		low = Math.max(low, threshold);
+	}
+
+	/**
+	 * @return the smallest support of the edges which are not deleted or queued,
+	 * Integer.MAX_VALUE if there is none.
+	 */
+	public int minSupport() {
+		for(; low < buckets.size(); ++low) {
+			IntArrayList bucket = buckets.get(low);
+			int kept = 0;
+			for(int i = 0; i < bucket.size(); ++i) {
+				int eid = bucket.getInt(i);
+				if(isValid(eid, low)) {
+					bucket.set(kept++, eid);
+				}
+			}
+			bucket.size(kept);
+			if(kept > 0) {
+				return low;
+			}
+		}
+		return Integer.MAX_VALUE;
+	}
+}
@@ -0,0 +1,708 @@
+package org.apache.giraph.subgraph;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+
+import org.apache.giraph.aggregators.BooleanOrAggregator;
+import org.apache.giraph.aggregators.IntMaxAggregator;
+import org.apache.giraph.aggregators.IntMinAggregator;
+import org.apache.giraph.aggregators.IntSumAggregator;
+import org.apache.giraph.bsp.CentralizedServiceWorker;
+import org.apache.giraph.comm.WorkerClientRequestProcessor;
+import org.apache.giraph.comm.messages.MessageStoreByPartition;
+import org.apache.giraph.comm.netty.NettyWorkerClientRequestProcessor;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.graph.GraphState;
+import org.apache.giraph.master.DefaultMasterCompute;
+import org.apache.giraph.metrics.GiraphMetrics;
+import org.apache.giraph.metrics.MetricNames;
+import org.apache.giraph.metrics.SuperstepMetricsRegistry;
+import org.apache.giraph.partition.Partition;
+import org.apache.giraph.partition.PartitionContext;
+import org.apache.giraph.partition.PartitionStats;
+import org.apache.giraph.time.SystemTime;
+import org.apache.giraph.time.Time;
+import org.apache.giraph.time.Times;
+import org.apache.giraph.utils.MemoryUtils;
+import org.apache.giraph.utils.TimedLogger;
+import org.apache.giraph.worker.WorkerContext;
+import org.apache.giraph.worker.WorkerThreadAggregatorUsage;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.log4j.Logger;
+
+import com.yammer.metrics.core.Counter;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Top-t k-truss: the edges of the t highest truss levels (kmax - t + 1 .. kmax) with their
+ * truss numbers, without decomposing the whole graph. CompactTrussGraphStore only.
+ * 	-- "giraph.ktruss.subgraph.topt": t.
+ * 	-- "giraph.ktruss.topt.core.rounds": at most this many h-index supersteps for the bounds.
+ *
+ * The phases, chosen by the master (PHASE_AGG):
+ * 	-- CORE: the core number of every vertex is bounded by h-index steps from its degree;
+ * 	   a vertex sends its bound once to every other partition holding a neighbor when it drops.
+ * 	   Every step is an upper bound, so the rounds may stop before they converge.
+ * 	   The truss number of (u, v) is at most min(core(u), core(v)) + 1.
+ * 	-- QUERY, ANSWER, INDUCED: the lowest level is maxBound - t + 1 (LEVEL_AGG); the edges
+ * 	   below it can not be in the top t trusses and are dropped before the triangles are
+ * 	   listed, then the triangles of the edges left are listed as in the decomposition.
+ * 	-- PEEL: bucketed peeling as KTrussDecompositionSubgraph from the lowest level on,
+ * 	   the edges peeled below it take no truss number.
+ * 	-- SETTLE: the edges left are the T-truss; if none of them is bounded above T they all
+ * 	   have truss number T, so the peeling stops there.
+ * 	-- if fewer than t levels are found (the bounds were too loose), the lowest level goes
+ * 	   down and the listing starts again (QUERY) on all the edges; otherwise DONE.
+ * 	   Once a level is found kmax is known, so one more listing is enough; without any
+ * 	   level the lowest level goes down by t, 2t, 4t, ...
+ *
+ * @author simon0227
+ */
+public class TopTKTrussSubgraph <I extends WritableComparable, V extends Writable,
+E extends Writable, M extends Writable>
+implements Callable<Collection<PartitionStats>> {
+	/** Class logger */
+	  private static final Logger LOG  = Logger.getLogger(TopTKTrussSubgraph.class);
+	  /** Class time object */
+	  private static final Time TIME = SystemTime.get();
+	  /** Context */
+	  private final Mapper<?, ?, ?, ?>.Context context;
+	  /** Graph state (note that it is recreated in call() for locality) */
+	  private GraphState<I, V, E, M> graphState;
+	  /** Thread-safe queue of all partition ids */
+	  private final BlockingQueue<Integer> partitionIdQueue;
+	  /** Message store */
+	  private final MessageStoreByPartition<I, M> messageStore;
+	  /** Configuration */
+	  private final ImmutableClassesGiraphConfiguration<I, V, E, M> configuration;
+	  /** Worker (for NettyWorkerClientRequestProcessor) */
+	  private final CentralizedServiceWorker<I, V, E, M> serviceWorker;
+	  /** Dump some progress every 30 seconds */
+	  private final TimedLogger timedLogger = new TimedLogger(30 * 1000, LOG);
+	  /** Sends the messages (unique per Callable) */
+	  private WorkerClientRequestProcessor<I, V, E, M>
+	  workerClientRequestProcessor;
+	  /** batches the triples per destination (unique per Callable) */
+	  private TripleMessageBatcher batcher;
+
+	  /** Get the start time in nanos */
+	  private final long startNanos = TIME.getNanoseconds();
+
+	  // Per-Superstep Metrics
+	  /** Messages sent */
+	  private final Counter messagesSentCounter;
+
+	  /** the peeling of the current superstep, see BucketedKTrussPeeling */
+	  private final BucketedKTrussPeeling peeling = new BucketedKTrussPeeling() {
+		  @Override
+		  protected boolean isSamePartition(int vid1, int vid2) {
+			  return TopTKTrussSubgraph.this.isSamePartition(vid1, vid2);
+		  }
+
+		  @Override
+		  protected void sendTriple(int destination, int first, int second, int third) {
+			  TopTKTrussSubgraph.this.sendTriple(destination, first, second, third);
+		  }
+	  };
+	  private final IntWritable partitionOfId = new IntWritable();
+
+		private static final String PHASE_AGG = "phase";
+		private static final String LEVEL_AGG = "lowestLevel";
+		private static final String GLOBAL_THRESHOLD = "threshold";
+		private static final String CHANGE_AGG = "changeThreshold";
+		private static final String MIN_SUPPORT_AGG = "minSupport";
+		private static final String MAX_BOUND_AGG = "maxBound";
+		private static final String MAX_TRUSS_AGG = "maxTruss";
+
+		static final int PHASE_CORE = 0;
+		static final int PHASE_QUERY = 1;
+		static final int PHASE_ANSWER = 2;
+		static final int PHASE_INDUCED = 3;
+		static final int PHASE_PEEL = 4;
+		static final int PHASE_SETTLE = 5;
+		static final int PHASE_DONE = 6;
+
+	  /**
+	   * Constructor
+	   *
+	   * @param context Context
+	   * @param graphState Current graph state (use to create own graph state)
+	   * @param messageStore Message store
+	   * @param partitionIdQueue Queue of partition ids (thread-safe)
+	   * @param configuration Configuration
+	   * @param serviceWorker Service worker
+	   */
+	  public TopTKTrussSubgraph(
+	      Mapper<?, ?, ?, ?>.Context context, GraphState<I, V, E, M> graphState,
+	      MessageStoreByPartition<I, M> messageStore,
+	      BlockingQueue<Integer> partitionIdQueue,
+	      ImmutableClassesGiraphConfiguration<I, V, E, M> configuration,
+	      CentralizedServiceWorker<I, V, E, M> serviceWorker) {
+	    this.context = context;
+	    this.configuration = configuration;
+	    this.partitionIdQueue = partitionIdQueue;
+	    this.messageStore = messageStore;
+	    this.serviceWorker = serviceWorker;
+	    // Will be replaced later in call() for locality
+	    this.graphState = graphState;
+
+	    SuperstepMetricsRegistry metrics = GiraphMetrics.get().perSuperstep();
+	    messagesSentCounter = metrics.getCounter(MetricNames.MESSAGES_SENT);
+	  }
+
+	@Override
+	public Collection<PartitionStats> call() throws Exception {
+	    // Thread initialization (for locality)
+	    this.workerClientRequestProcessor =
+	        new NettyWorkerClientRequestProcessor<I, V, E, M>(
+	            context, configuration, serviceWorker);
+	    WorkerThreadAggregatorUsage aggregatorUsage =
+	        serviceWorker.getAggregatorHandler().newThreadAggregatorUsage();
+
+	    this.graphState = new GraphState<I, V, E, M>(graphState.getSuperstep(),
+	        graphState.getTotalNumVertices(), graphState.getTotalNumEdges(),
+	        context, graphState.getGraphTaskManager(), workerClientRequestProcessor,
+	        aggregatorUsage);
+
+	    batcher = new TripleMessageBatcher(configuration) {
+	    	@Override
+	    	protected void send(int destination, TripleWritable message) {
+	    		sendMessage((I) new IntWritable(destination), (M) message);
+	    	}
+	    };
+
+	    List<PartitionStats> partitionStatsList = Lists.newArrayList();
+	    while (!partitionIdQueue.isEmpty()) {
+	      Integer partitionId = partitionIdQueue.poll();
+	      if (partitionId == null) {
+	        break;
+	      }
+
+	      Partition<I, V, E, M> partition =
+	          serviceWorker.getPartitionStore().getPartition(partitionId);
+	      try {
+	        PartitionStats partitionStats = computePartition(partition);
+	        partitionStatsList.add(partitionStats);
+	        long partitionMsgs = workerClientRequestProcessor.resetMessageCount();
+	        partitionStats.addMessagesSentCount(partitionMsgs);
+	        messagesSentCounter.inc(partitionMsgs);
+	        timedLogger.info("call: Completed " +
+	            partitionStatsList.size() + " partitions, " +
+	            partitionIdQueue.size() + " remaining " +
+	            MemoryUtils.getRuntimeMemoryStats());
+	      } catch (IOException e) {
+	        throw new IllegalStateException("call: Caught unexpected IOException," +
+	            " failing.", e);
+	      } catch (InterruptedException e) {
+	        throw new IllegalStateException("call: Caught unexpected " +
+	            "InterruptedException, failing.", e);
+	      } finally {
+	        serviceWorker.getPartitionStore().putPartition(partition);
+	      }
+	    }
+
+	    if (LOG.isInfoEnabled()) {
+	      float seconds = Times.getNanosSince(TIME, startNanos) /
+	          Time.NS_PER_SECOND_AS_FLOAT;
+	      LOG.info("call: Computation took " + seconds + " secs for "  +
+	          partitionStatsList.size() + " partitions on superstep " +
+	          graphState.getSuperstep() + ".  Flushing started");
+	    }
+	    try {
+	      workerClientRequestProcessor.flush();
+	      aggregatorUsage.finishThreadComputation();
+	    } catch (IOException e) {
+	      throw new IllegalStateException("call: Flushing failed.", e);
+	    }
+	    return partitionStatsList;
+	}
+
+	/**
+	   * Compute a single partition
+	   *
+	   * @param partition Partition to compute
+	   * @return Partition stats for this computed partition
+	   */
+	  private PartitionStats computePartition(Partition<I, V, E, M> partition)
+	    throws IOException, InterruptedException {
+	    PartitionStats partitionStats =
+	        new PartitionStats(partition.getId(), 0, 0, 0, 0);
+	    if(!(partition instanceof CompactTrussGraphStore)){
+	    	throw new IllegalStateException("computePartition: the top-t k-truss needs " +
+	    			"CompactTrussGraphStore as giraph.partitionClass, got " + partition.getClass());
+	    }
+	    // Make sure this is thread-safe across runs
+	    synchronized (partition) {
+	      // Prepare Partition context
+	      WorkerContext workerContext =
+	          graphState.getGraphTaskManager().getWorkerContext();
+	      PartitionContext partitionContext = partition.getPartitionContext();
+	      synchronized (workerContext) {
+	        partitionContext.preSuperstep(workerContext);
+	      }
+	      graphState.setPartitionContext(partition.getPartitionContext());
+
+	      try{
+	    	  processSubgraph((CompactTrussGraphStore)partition, partitionStats);
+	      }catch(Exception e){
+	    	  throw new IllegalStateException("call: processing partition " + partition.getId()
+	    			  + " failed in superstep " + graphState.getSuperstep(), e);
+	      }
+	      batcher.flush();
+
+	      messageStore.clearPartition(partition.getId());
+
+	      synchronized (workerContext) {
+	        partitionContext.postSuperstep(workerContext);
+	      }
+	    }
+	    return partitionStats;
+	  }
+
+	  /**
+	   * one phase of the master on the partition.
+	   * The job ends at DONE only: the vertex count is the number of local vertices, since
+	   * the graph is empty at the end of every peeling, also before a new listing.
+	   */
+	  private void processSubgraph(CompactTrussGraphStore graphStore, PartitionStats partitionStats)
+			  throws Exception{
+		  int phase = ((IntWritable)getAggregatedValue(PHASE_AGG)).get();
+		  peeling.lowestLevel = ((IntWritable)getAggregatedValue(LEVEL_AGG)).get();
+		  peeling.threshold = ((IntWritable)getAggregatedValue(GLOBAL_THRESHOLD)).get() - 2;
+
+		  LOG.info("Local: Superstep="+graphState.getSuperstep()+": phase="+phase
+				  +" lowestLevel="+peeling.lowestLevel+" threshold="+peeling.threshold);
+
+		  peeling.maxTruss = 0;
+		  if(phase == PHASE_CORE){
+			  coreSuperstep(graphStore, partitionStats.getPartitionId());
+		  }
+		  else if(phase == PHASE_QUERY){
+			  querySuperstep(graphStore);
+		  }
+		  else if(phase == PHASE_ANSWER){
+			  answerSuperstep(graphStore);
+		  }
+		  else if(phase == PHASE_INDUCED){
+			  inducedSubgraphGeneration(graphStore);
+		  }
+		  else if(phase == PHASE_PEEL){
+			  execution(graphStore);
+		  }
+		  else if(phase == PHASE_SETTLE){
+			  settle(graphStore);
+		  }
+		  else if(phase == PHASE_DONE){
+			  keepTopLevels(graphStore, peeling.lowestLevel);
+			  partitionStats.addFinishedVertexCount(graphStore.getLocalVertexIds().length);
+		  }
+		  if(phase >= PHASE_INDUCED && phase < PHASE_DONE){
+			  TrussState state = TrussState.of(graphStore);
+			  aggregate(MIN_SUPPORT_AGG, new IntWritable(state.getSupportBuckets().minSupport()));
+			  aggregate(MAX_BOUND_AGG, new IntWritable(state.getCoreBounds().maxAliveEdgeBound()));
+			  aggregate(MAX_TRUSS_AGG, new IntWritable(peeling.maxTruss));
+		  }
+		  partitionStats.addVertexCount(graphStore.getLocalVertexIds().length);
+		  partitionStats.addEdgeCount(graphStore.getEdgeCount());
+	  }
+
+	  /**
+	   * CORE: superstep 0 starts the bounds from the degrees, the next ones take the bounds
+	   * of the remote neighbors and make one h-index step per local vertex.
+	   */
+	  private void coreSuperstep(CompactTrussGraphStore graphStore, int partitionId) throws Exception{
+		  IntArrayList changed = new IntArrayList();
+		  CoreBounds bounds;
+		  if(graphState.getSuperstep() == 0){
+			  bounds = TrussState.of(graphStore).initCoreBounds();
+			  for(int vid : graphStore.getLocalVertexIds()){
+				  changed.add(vid);
+			  }
+		  }
+		  else{
+			  bounds = receiveCoreBounds(graphStore);
+			  for(int vid : graphStore.getLocalVertexIds()){
+				  if(bounds.updateCoreBound(vid)){
+					  changed.add(vid);
+				  }
+			  }
+		  }
+		  IntArrayList neighbors = new IntArrayList();
+		  IntOpenHashSet sentTo = new IntOpenHashSet();
+		  for(int i = 0; i < changed.size(); i++){
+			  int vid = changed.getInt(i);
+			  graphStore.getNeighbors(vid, neighbors);
+			  sentTo.clear();
+			  for(int j = 0; j < neighbors.size(); j++){
+				  int nb = neighbors.getInt(j);
+				  if(!graphStore.isLocal(nb)){
+					  int pid = partitionOf(nb);
+					  if(pid != partitionId && sentTo.add(pid)){
+						  sendTriple(nb, vid, bounds.getCoreBound(vid), 0);
+					  }
+				  }
+			  }
+		  }
+		  LOG.info("core: " + changed.size() + " bounds dropped");
+		  aggregate(CHANGE_AGG, new BooleanWritable(!changed.isEmpty()));
+		  aggregate(MAX_BOUND_AGG, new IntWritable(bounds.maxEdgeBound()));
+	  }
+
+	  private CoreBounds receiveCoreBounds(CompactTrussGraphStore graphStore) throws IOException{
+		  CoreBounds bounds = TrussState.of(graphStore).getCoreBounds();
+		  IntWritable id = new IntWritable();
+		  for(int vid : graphStore.getLocalVertexIds()){
+			  id.set(vid);
+			  for(TripleWritable tmsg : TripleWritable.triples(messageStore.getVertexMessages((I)id))){
+				  bounds.setCoreBound(tmsg.getFirst(), tmsg.getSecond());
+			  }
+		  }
+		  return bounds;
+	  }
+
+	  /**
+	   * QUERY: the edges which can not reach the lowest level are dropped, so their wedges
+	   * are never sent, see TriangleEngine.queryWedges.
+	   */
+	  private void querySuperstep(CompactTrussGraphStore graphStore) throws Exception{
+		  if(TrussState.of(graphStore).getSupportBuckets() == null){
+			  /* the bounds sent in the last CORE superstep */
+			  receiveCoreBounds(graphStore);
+		  }
+		  int dropped = dropBelowLevel(graphStore, peeling.lowestLevel);
+		  LOG.info("query: " + dropped + " edges below level " + peeling.lowestLevel);
+		  newListing(graphStore).queryWedges();
+	  }
+
+	  /**
+	   * ANSWER: see TriangleEngine.answerWedge.
+	   */
+	  private void answerSuperstep(CompactTrussGraphStore graphStore) throws Exception{
+		  TriangleEngine listing = newListing(graphStore);
+		  IntWritable id = new IntWritable();
+		  for(int vid : graphStore.getLocalVertexIds()){
+			  id.set(vid);
+			  for(TripleWritable tmsg : TripleWritable.triples(messageStore.getVertexMessages((I)id))){
+				  listing.answerWedge(vid, tmsg);
+			  }
+		  }
+	  }
+
+	  /**
+	   * INDUCED: the triangles are added, the edges below the lowest level are peeled.
+	   */
+	  private void inducedSubgraphGeneration(CompactTrussGraphStore graphStore) throws Exception{
+		  IntWritable id = new IntWritable();
+		  for(int vid : graphStore.getLocalVertexIds()){
+			  id.set(vid);
+			  for(TripleWritable tmsg : TripleWritable.triples(messageStore.getVertexMessages((I)id))){
+				  graphStore.addTriangle(tmsg.getFirst(), tmsg.getSecond(), tmsg.getThird());
+			  }
+		  }
+		  TrussState.of(graphStore).getCoreBounds().sortByEdgeBound();
+		  aggregate(CHANGE_AGG,  new BooleanWritable(peeling.start(graphStore)));
+	  }
+
+	  /**
+	   * PEEL: see KTrussDecompositionSubgraph.bucketedExecution.
+	   */
+	  private void execution(CompactTrussGraphStore graphStore) throws Exception{
+		  if(!((BooleanWritable)getAggregatedValue(CHANGE_AGG)).get()){
+			  peeling.queueBelowThreshold(graphStore);
+		  }
+		  else{
+			  IntWritable id = new IntWritable();
+			  for(int vid : graphStore.getLocalVertexIds()){
+				  id.set(vid);
+				  for(TripleWritable tmsg : TripleWritable.triples(messageStore.getVertexMessages((I)id))){
+					  peeling.queueDeleted(graphStore, tmsg);
+				  }
+			  }
+		  }
+		  LOG.info("Queue Size="+peeling.getQueueSize());
+		  aggregate(CHANGE_AGG,  new BooleanWritable(peeling.prune(graphStore)));
+	  }
+
+	  /**
+	   * SETTLE: no message, every partition settles.
+	   */
+	  private void settle(CompactTrussGraphStore graphStore){
+		  int k = peeling.threshold + 2;
+		  int settled = settle(graphStore, k);
+		  if(settled > 0){
+			  peeling.maxTruss = k;
+		  }
+		  LOG.info("settle: " + settled + " edges of truss " + k);
+	  }
+
+	  /**
+	   * the edges which can not reach the lowest level are deleted. A new listing (the
+	   * lowest level went down, the store has support buckets) starts from all the edges
+	   * of the graph again: the external ones are deleted, the others revived.
+	   * @return the number of edges deleted below the level.
+	   */
+	  static int dropBelowLevel(CompactTrussGraphStore graphStore, int lowestLevel){
+		  TrussState state = TrussState.of(graphStore);
+		  if(state.getSupportBuckets() != null){
+			  for(int eid = 0; eid < graphStore.getEdgeCapacity(); ++eid){
+				  if(graphStore.isExternal(eid)){
+					  graphStore.deleteEdge(eid);
+				  }
+				  else{
+					  graphStore.reviveEdge(eid);
+				  }
+				  graphStore.setSupport(eid, 0);
+			  }
+		  }
+		  int dropped = 0;
+		  for(int eid = 0; eid < graphStore.getEdgeCapacity(); ++eid){
+			  if(!graphStore.isDeleted(eid) && state.getCoreBounds().getEdgeBound(eid) < lowestLevel){
+				  graphStore.deleteEdge(eid);
+				  dropped++;
+			  }
+		  }
+		  return dropped;
+	  }
+
+	  /**
+	   * the alive edges are the k-truss and none of them can be in a higher one, the
+	   * internal and cross ones take the truss number k. They are all deleted.
+	   * @return the number of edges which took the truss number.
+	   */
+	  static int settle(CompactTrussGraphStore graphStore, int k){
+		  TrussState state = TrussState.of(graphStore);
+		  int settled = 0;
+		  for(int eid = 0; eid < graphStore.getEdgeCapacity(); ++eid){
+			  if(graphStore.isDeleted(eid)){
+				  continue;
+			  }
+			  if(!graphStore.isExternal(eid)){
+				  state.setTrussNumber(eid, k);
+				  settled++;
+			  }
+			  graphStore.deleteEdge(eid);
+		  }
+		  return settled;
+	  }
+
+	  /**
+	   * DONE: only the top t levels are written, the lower truss numbers are cleared.
+	   */
+	  static void keepTopLevels(CompactTrussGraphStore graphStore, int lowestLevel){
+		  TrussState state = TrussState.of(graphStore);
+		  for(int eid = 0; eid < graphStore.getEdgeCapacity(); ++eid){
+			  if(state.getTrussNumber(eid) < lowestLevel){
+				  state.setTrussNumber(eid, 0);
+			  }
+		  }
+	  }
+
+	  /**
+	   * the wedge listing of the partition, see TriangleEngine.queryWedges.
+	   */
+	  private TriangleEngine newListing(CompactTrussGraphStore graphStore){
+		  return new TriangleEngine(graphStore) {
+			  @Override
+			  protected boolean isSamePartition(int vid1, int vid2) {
+				  return TopTKTrussSubgraph.this.isSamePartition(vid1, vid2);
+			  }
+
+			  @Override
+			  protected void sendTriple(int destination, int first, int second, int third) {
+				  TopTKTrussSubgraph.this.sendTriple(destination, first, second, third);
+			  }
+		  };
+	  }
+
+	  private int partitionOf(int vid){
+		  partitionOfId.set(vid);
+		  return serviceWorker.getVertexPartitionOwner((I) partitionOfId).getPartitionId();
+	  }
+
+	  /**
+	   * send the triple to the vertex, batched with the other triples to it.
+	   */
+	  private void sendTriple(int destination, int first, int second, int third) {
+		  batcher.add(destination, first, second, third);
+	  }
+
+	  private void sendMessage(I id, M message) {
+	    if (graphState.getWorkerClientRequestProcessor().
+	          sendMessageRequest(id, message)) {
+	      graphState.getGraphTaskManager().notifySentMessages();
+	    }
+	}
+
+	  public <A extends Writable> A getAggregatedValue(String name) {
+	    return graphState.getWorkerAggregatorUsage().<A>getAggregatedValue(name);
+	  }
+
+	  public <A extends Writable> void aggregate(String name, A value) {
+		    graphState.getWorkerAggregatorUsage().aggregate(name, value);
+	  }
+
+	  public boolean isSamePartition(int vid1, int vid2){
+		  return graphState.getGraphTaskManager().isSamePartition(vid1, vid2);
+	  }
+
+	  /**
+	   * The phases after CORE, chosen from the aggregated values of the last superstep.
+	   * Kept apart from the master so the phases can be run without it.
+	   */
+	  static class Phases {
+		  private final int top;
+		  private int phase = PHASE_CORE;
+		  private int lowestLevel;
+		  private int currentThreshold = 2;
+		  /* highest truss number of the current listing */
+		  private int maxTruss;
+		  /* the lowest level goes down by step when a listing finds no level, step doubles */
+		  private int step;
+
+		  Phases(int top){
+			  this.top = top;
+		  }
+
+		  /**
+		   * the core bounds are known, the first listing starts.
+		   */
+		  void coreDone(int maxBound){
+			  lowestLevel = Math.max(2, maxBound - top + 1);
+			  step = top;
+			  phase = PHASE_QUERY;
+		  }
+
+		  /**
+		   * the phase after QUERY, ANSWER, INDUCED, PEEL or SETTLE.
+		   */
+		  void next(boolean change, int minSupport, int maxBound, int maxTrussFound){
+			  if(phase == PHASE_QUERY){
+				  phase = PHASE_ANSWER;
+			  }
+			  else if(phase == PHASE_ANSWER){
+				  phase = PHASE_INDUCED;
+				  currentThreshold = lowestLevel;
+				  maxTruss = 0;
+			  }
+			  else{
+				  maxTruss = Math.max(maxTruss, maxTrussFound);
+				  if(change){
+					  phase = PHASE_PEEL;
+				  }
+				  else if(minSupport == Integer.MAX_VALUE){
+					  /* the edges from the lowest level on are all peeled */
+					  if(lowestLevel <= 2 || maxTruss - top + 1 >= lowestLevel){
+						  lowestLevel = Math.max(lowestLevel, maxTruss - top + 1);
+						  phase = PHASE_DONE;
+					  }
+					  else if(maxTruss >= lowestLevel){
+						  /* kmax is known, the next listing finds the t levels */
+						  lowestLevel = Math.max(2, maxTruss - top + 1);
+						  phase = PHASE_QUERY;
+					  }
+					  else{
+						  lowestLevel = Math.max(2, lowestLevel - step);
+						  step *= 2;
+						  phase = PHASE_QUERY;
+					  }
+				  }
+				  else if(maxBound <= currentThreshold){
+					  phase = PHASE_SETTLE;
+				  }
+				  else{
+					  currentThreshold = Math.max(currentThreshold + 1, minSupport + 3);
+					  phase = PHASE_PEEL;
+				  }
+			  }
+		  }
+
+		  int getPhase(){
+			  return phase;
+		  }
+
+		  int getLowestLevel(){
+			  return lowestLevel;
+		  }
+
+		  int getThreshold(){
+			  return currentThreshold;
+		  }
+
+		  int getMaxTruss(){
+			  return maxTruss;
+		  }
+	  }
+
+	  /**
+	   * Master compute which uses aggregators: it moves through the phases.
+	   * */
+		public static class AggregatorsMasterCompute extends
+		DefaultMasterCompute {
+			private Phases phases;
+			private int top;
+			private int coreRounds;
+			private int rounds;
+			@Override
+			public void compute() {
+				if(getSuperstep() == 0){
+					phases = new Phases(top);
+				}
+				else if(phases.getPhase() == PHASE_CORE){
+					rounds++;
+					if(!((BooleanWritable)getAggregatedValue(CHANGE_AGG)).get() || rounds >= coreRounds){
+						int maxBound = ((IntWritable)getAggregatedValue(MAX_BOUND_AGG)).get();
+						phases.coreDone(maxBound);
+						LOG.info("Superstep="+getSuperstep()+" core rounds="+rounds
+								+" maxBound="+maxBound+" lowestLevel="+phases.getLowestLevel());
+					}
+				}
+				else if(phases.getPhase() == PHASE_DONE){
+					haltComputation();
+				}
+				else{
+					int before = phases.getPhase();
+					int threshold = phases.getThreshold();
+					phases.next(((BooleanWritable)getAggregatedValue(CHANGE_AGG)).get(),
+							((IntWritable)getAggregatedValue(MIN_SUPPORT_AGG)).get(),
+							((IntWritable)getAggregatedValue(MAX_BOUND_AGG)).get(),
+							((IntWritable)getAggregatedValue(MAX_TRUSS_AGG)).get());
+					if(before >= PHASE_INDUCED
+							&& (phases.getPhase() == PHASE_QUERY || phases.getPhase() == PHASE_DONE)){
+						LOG.info("Superstep="+getSuperstep()+" maxTruss="+phases.getMaxTruss()
+								+" lowestLevel="+phases.getLowestLevel()+" phase="+phases.getPhase());
+					}
+					else if(before >= PHASE_INDUCED && phases.getThreshold() != threshold){
+						LOG.info("Superstep="+getSuperstep()+" threshold="+phases.getThreshold());
+					}
+				}
+				setAggregatedValue(PHASE_AGG, new IntWritable(phases.getPhase()));
+				setAggregatedValue(LEVEL_AGG, new IntWritable(phases.getLowestLevel()));
+		        setAggregatedValue(GLOBAL_THRESHOLD, new IntWritable(phases.getThreshold()));
+			}
+
+			@Override
+			public void initialize() throws InstantiationException,
+	        IllegalAccessException {
+				this.top = Math.max(1, getConf().getInt("giraph.ktruss.subgraph.topt", 1));
+				this.coreRounds = getConf().getInt("giraph.ktruss.topt.core.rounds", 10);
+				registerAggregator(PHASE_AGG, IntSumAggregator.class);
+				registerAggregator(LEVEL_AGG, IntSumAggregator.class);
+		        registerAggregator(GLOBAL_THRESHOLD, IntSumAggregator.class);
+				registerAggregator(CHANGE_AGG, BooleanOrAggregator.class);
+				registerAggregator(MIN_SUPPORT_AGG, IntMinAggregator.class);
+				registerAggregator(MAX_BOUND_AGG, IntMaxAggregator.class);
+				registerAggregator(MAX_TRUSS_AGG, IntMaxAggregator.class);
+			}
+	  }
+}
@@ -0,0 +1,352 @@
+package org.apache.giraph.subgraph;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+
+import org.apache.giraph.aggregators.DoubleSumAggregator;
+import org.apache.giraph.aggregators.LongSumAggregator;
+import org.apache.giraph.bsp.CentralizedServiceWorker;
+import org.apache.giraph.comm.WorkerClientRequestProcessor;
+import org.apache.giraph.comm.messages.MessageStoreByPartition;
+import org.apache.giraph.comm.netty.NettyWorkerClientRequestProcessor;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.graph.GraphState;
+import org.apache.giraph.master.DefaultMasterCompute;
+import org.apache.giraph.metrics.GiraphMetrics;
+import org.apache.giraph.metrics.MetricNames;
+import org.apache.giraph.metrics.SuperstepMetricsRegistry;
+import org.apache.giraph.partition.Partition;
+import org.apache.giraph.partition.PartitionContext;
+import org.apache.giraph.partition.PartitionStats;
+import org.apache.giraph.time.SystemTime;
+import org.apache.giraph.time.Time;
+import org.apache.giraph.time.Times;
+import org.apache.giraph.utils.MemoryUtils;
+import org.apache.giraph.utils.TimedLogger;
+import org.apache.giraph.worker.WorkerContext;
+import org.apache.giraph.worker.WorkerThreadAggregatorUsage;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.log4j.Logger;
+
+import com.yammer.metrics.core.Counter;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Triangle counting and local clustering coefficients on any BasicGraphStoreInterface
+ * partition ("giraph.ktruss.subgraph.program" = "triangles"), by TriangleEngine.
+ * 	-- "giraph.triangles.output": directory for the counts, clustering coefficients and
+ * 	   edge supports of every partition (TriangleEngine.write), none if empty.
+ *
+ * The supersteps:
+ * 	-- 0: the triangles with two vertices in a partition are counted there, the wedges
+ * 	   over three partitions are queried.
+ * 	-- 1: the queries are answered, the notices counted.
+ * 	-- 2: the last notices are counted, the sums go to the master.
+ * 	-- 3: the master prints the triangles and the average clustering coefficient.
+ * The vertex output has the triangle count of every vertex as value.
+ *
+ * @author simon0227
+ */
+public class TriangleCountSubgraph <I extends WritableComparable, V extends Writable,
+E extends Writable, M extends Writable>
+implements Callable<Collection<PartitionStats>> {
+	/** Class logger */
+	  private static final Logger LOG  = Logger.getLogger(TriangleCountSubgraph.class);
+	  /** Class time object */
+	  private static final Time TIME = SystemTime.get();
+	  /** Context */
+	  private final Mapper<?, ?, ?, ?>.Context context;
+	  /** Graph state (note that it is recreated in call() for locality) */
+	  private GraphState<I, V, E, M> graphState;
+	  /** Thread-safe queue of all partition ids */
+	  private final BlockingQueue<Integer> partitionIdQueue;
+	  /** Message store */
+	  private final MessageStoreByPartition<I, M> messageStore;
+	  /** Configuration */
+	  private final ImmutableClassesGiraphConfiguration<I, V, E, M> configuration;
+	  /** Worker (for NettyWorkerClientRequestProcessor) */
+	  private final CentralizedServiceWorker<I, V, E, M> serviceWorker;
+	  /** Dump some progress every 30 seconds */
+	  private final TimedLogger timedLogger = new TimedLogger(30 * 1000, LOG);
+	  /** Sends the messages (unique per Callable) */
+	  private WorkerClientRequestProcessor<I, V, E, M>
+	  workerClientRequestProcessor;
+	  /** batches the triples per destination (unique per Callable) */
+	  private TripleMessageBatcher batcher;
+
+	  /** Get the start time in nanos */
+	  private final long startNanos = TIME.getNanoseconds();
+
+	  // Per-Superstep Metrics
+	  /** Messages sent */
+	  private final Counter messagesSentCounter;
+
+		private static final String TRIANGLE_AGG = "triangleSum";
+		private static final String CLUSTERING_AGG = "clusteringSum";
+		private static final String VERTEX_AGG = "vertexSum";
+
+	  /**
+	   * Constructor
+	   *
+	   * @param context Context
+	   * @param graphState Current graph state (use to create own graph state)
+	   * @param messageStore Message store
+	   * @param partitionIdQueue Queue of partition ids (thread-safe)
+	   * @param configuration Configuration
+	   * @param serviceWorker Service worker
+	   */
+	  public TriangleCountSubgraph(
+	      Mapper<?, ?, ?, ?>.Context context, GraphState<I, V, E, M> graphState,
+	      MessageStoreByPartition<I, M> messageStore,
+	      BlockingQueue<Integer> partitionIdQueue,
+	      ImmutableClassesGiraphConfiguration<I, V, E, M> configuration,
+	      CentralizedServiceWorker<I, V, E, M> serviceWorker) {
+	    this.context = context;
+	    this.configuration = configuration;
+	    this.partitionIdQueue = partitionIdQueue;
+	    this.messageStore = messageStore;
+	    this.serviceWorker = serviceWorker;
+	    // Will be replaced later in call() for locality
+	    this.graphState = graphState;
+
+	    SuperstepMetricsRegistry metrics = GiraphMetrics.get().perSuperstep();
+	    messagesSentCounter = metrics.getCounter(MetricNames.MESSAGES_SENT);
+	  }
+
+	@Override
+	public Collection<PartitionStats> call() throws Exception {
+	    // Thread initialization (for locality)
+	    this.workerClientRequestProcessor =
+	        new NettyWorkerClientRequestProcessor<I, V, E, M>(
+	            context, configuration, serviceWorker);
+	    WorkerThreadAggregatorUsage aggregatorUsage =
+	        serviceWorker.getAggregatorHandler().newThreadAggregatorUsage();
+
+	    this.graphState = new GraphState<I, V, E, M>(graphState.getSuperstep(),
+	        graphState.getTotalNumVertices(), graphState.getTotalNumEdges(),
+	        context, graphState.getGraphTaskManager(), workerClientRequestProcessor,
+	        aggregatorUsage);
+
+	    batcher = new TripleMessageBatcher(configuration) {
+	    	@Override
+	    	protected void send(int destination, TripleWritable message) {
+	    		sendMessage((I) new IntWritable(destination), (M) message);
+	    	}
+	    };
+
+	    List<PartitionStats> partitionStatsList = Lists.newArrayList();
+	    while (!partitionIdQueue.isEmpty()) {
+	      Integer partitionId = partitionIdQueue.poll();
+	      if (partitionId == null) {
+	        break;
+	      }
+
+	      Partition<I, V, E, M> partition =
+	          serviceWorker.getPartitionStore().getPartition(partitionId);
+	      try {
+	        PartitionStats partitionStats = computePartition(partition);
+	        partitionStatsList.add(partitionStats);
+	        long partitionMsgs = workerClientRequestProcessor.resetMessageCount();
+	        partitionStats.addMessagesSentCount(partitionMsgs);
+	        messagesSentCounter.inc(partitionMsgs);
+	        timedLogger.info("call: Completed " +
+	            partitionStatsList.size() + " partitions, " +
+	            partitionIdQueue.size() + " remaining " +
+	            MemoryUtils.getRuntimeMemoryStats());
+	      } catch (IOException e) {
+	        throw new IllegalStateException("call: Caught unexpected IOException," +
+	            " failing.", e);
+	      } catch (InterruptedException e) {
+	        throw new IllegalStateException("call: Caught unexpected " +
+	            "InterruptedException, failing.", e);
+	      } finally {
+	        serviceWorker.getPartitionStore().putPartition(partition);
+	      }
+	    }
+
+	    if (LOG.isInfoEnabled()) {
+	      float seconds = Times.getNanosSince(TIME, startNanos) /
+	          Time.NS_PER_SECOND_AS_FLOAT;
+	      LOG.info("call: Computation took " + seconds + " secs for "  +
+	          partitionStatsList.size() + " partitions on superstep " +
+	          graphState.getSuperstep() + ".  Flushing started");
+	    }
+	    try {
+	      workerClientRequestProcessor.flush();
+	      aggregatorUsage.finishThreadComputation();
+	    } catch (IOException e) {
+	      throw new IllegalStateException("call: Flushing failed.", e);
+	    }
+	    return partitionStatsList;
+	}
+
+	/**
+	   * Compute a single partition
+	   *
+	   * @param partition Partition to compute
+	   * @return Partition stats for this computed partition
+	   */
+	  private PartitionStats computePartition(Partition<I, V, E, M> partition)
+	    throws IOException, InterruptedException {
+	    PartitionStats partitionStats =
+	        new PartitionStats(partition.getId(), 0, 0, 0, 0);
+	    if(!(partition instanceof BasicGraphStoreInterface)){
+	    	throw new IllegalStateException("computePartition: the triangle counting needs " +
+	    			"a BasicGraphStoreInterface as giraph.partitionClass, got " + partition.getClass());
+	    }
+	    // Make sure this is thread-safe across runs
+	    synchronized (partition) {
+	      // Prepare Partition context
+	      WorkerContext workerContext =
+	          graphState.getGraphTaskManager().getWorkerContext();
+	      PartitionContext partitionContext = partition.getPartitionContext();
+	      synchronized (workerContext) {
+	        partitionContext.preSuperstep(workerContext);
+	      }
+	      graphState.setPartitionContext(partition.getPartitionContext());
+
+	      try{
+	    	  processSubgraph((BasicGraphStoreInterface)partition, partitionStats);
+	      }catch(IOException e){
+	    	  throw new IllegalStateException("computePartition: the triangle counting failed on partition "
+	    			  + partition.getId() + " in superstep " + graphState.getSuperstep(), e);
+	      }
+	      batcher.flush();
+
+	      messageStore.clearPartition(partition.getId());
+
+	      synchronized (workerContext) {
+	        partitionContext.postSuperstep(workerContext);
+	      }
+	    }
+	    return partitionStats;
+	  }
+
+	  /**
+	   * one superstep of the counting on the partition, the job ends after superstep 3.
+	   */
+	  private void processSubgraph(BasicGraphStoreInterface graphStore, PartitionStats partitionStats)
+			  throws IOException{
+		  int partitionId = partitionStats.getPartitionId();
+		  long superstep = graphState.getSuperstep();
+		  TriangleEngine engine;
+		  if(superstep == 0){
+			  engine = new TriangleEngine(graphStore) {
+				  @Override
+				  protected boolean isSamePartition(int vid1, int vid2) {
+					  return TriangleCountSubgraph.this.isSamePartition(vid1, vid2);
+				  }
+
+				  @Override
+				  protected void sendTriple(int destination, int first, int second, int third) {
+					  batcher.add(destination, first, second, third);
+				  }
+			  };
+			  TriangleEngine.put(partitionId, engine);
+			  engine.listLocal();
+			  LOG.info("list: partition " + partitionId + " closed " + engine.getClosedLocally()
+					  + " triangles locally, sent " + engine.getSentQueries() + " queries and "
+					  + engine.getSentNotices() + " notices");
+		  }
+		  else if(superstep <= 2){
+			  engine = TriangleEngine.get(partitionId);
+			  if(engine == null){
+				  throw new IllegalStateException("processSubgraph: no TriangleEngine for partition "
+						  + partitionId + " in superstep " + superstep
+						  + ", it is created in superstep 0 on the worker of the partition.");
+			  }
+			  for(I id : messageStore.getPartitionDestinationVertices(partitionId)){
+				  int vid = ((IntWritable)id).get();
+				  for(TripleWritable tmsg : TripleWritable.triples(messageStore.getVertexMessages(id))){
+					  engine.receive(vid, tmsg);
+				  }
+			  }
+			  if(superstep == 2){
+				  long vertices = 0;
+				  double clustering = 0;
+				  for(BasicVertex bv : graphStore.getLocalVertex()){
+					  vertices++;
+					  clustering += engine.getClusteringCoefficient(bv.getId());
+				  }
+				  aggregate(TRIANGLE_AGG, new LongWritable(engine.getLocalTriangleSum()));
+				  aggregate(CLUSTERING_AGG, new DoubleWritable(clustering));
+				  aggregate(VERTEX_AGG, new LongWritable(vertices));
+				  String dir = configuration.get("giraph.triangles.output", "");
+				  if(dir.length() > 0){
+					  engine.write(configuration, dir, partitionId);
+				  }
+			  }
+		  }
+		  long localVertices = graphStore.getVertexCount();
+		  if(superstep >= 3){
+			  partitionStats.addFinishedVertexCount(localVertices);
+		  }
+		  partitionStats.addVertexCount(localVertices);
+		  partitionStats.addEdgeCount(graphStore.getEdgeCount());
+	  }
+
+	  private void sendMessage(I id, M message) {
+	    if (graphState.getWorkerClientRequestProcessor().
+	          sendMessageRequest(id, message)) {
+	      graphState.getGraphTaskManager().notifySentMessages();
+	    }
+	}
+
+	  public <A extends Writable> void aggregate(String name, A value) {
+		    graphState.getWorkerAggregatorUsage().aggregate(name, value);
+	  }
+
+	  public boolean isSamePartition(int vid1, int vid2){
+		  return graphState.getGraphTaskManager().isSamePartition(vid1, vid2);
+	  }
+
+	  /**
+	   * true if the k-truss program of the job is the triangle counting.
+	   */
+	  public static boolean isProgram(Configuration conf){
+		  return "triangles".equals(conf.get("giraph.ktruss.subgraph.program", ""));
+	  }
+
+	  /**
+	   * the engine of the partition for its vertex output, forgotten afterwards;
+	   * null unless the program is the triangle counting.
+	   */
+	  public static TriangleEngine removeEngine(Configuration conf, int partitionId){
+		  return isProgram(conf) ? TriangleEngine.remove(partitionId) : null;
+	  }
+
+	  /**
+	   * Master compute which uses aggregators: it prints the sums of superstep 2.
+	   * */
+		public static class AggregatorsMasterCompute extends
+		DefaultMasterCompute {
+			@Override
+			public void compute() {
+				if(getSuperstep() == 3){
+					long triangles = ((LongWritable)getAggregatedValue(TRIANGLE_AGG)).get() / 3;
+					long vertices = ((LongWritable)getAggregatedValue(VERTEX_AGG)).get();
+					double clustering = ((DoubleWritable)getAggregatedValue(CLUSTERING_AGG)).get();
+					LOG.info("Superstep="+getSuperstep()+" triangles="+triangles
+							+" average clustering coefficient="+(vertices == 0 ? 0.0 : clustering / vertices));
+				}
+			}
+
+			@Override
+			public void initialize() throws InstantiationException,
+	        IllegalAccessException {
+				registerAggregator(TRIANGLE_AGG, LongSumAggregator.class);
+				registerAggregator(CLUSTERING_AGG, DoubleSumAggregator.class);
+				registerAggregator(VERTEX_AGG, LongSumAggregator.class);
+			}
+	  }
+}
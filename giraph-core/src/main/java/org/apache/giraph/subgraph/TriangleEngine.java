@@ -0,0 +1,360 @@
+package org.apache.giraph.subgraph;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Triangle counts of one partition of any BasicGraphStoreInterface: the triangles of
+ * every local vertex, the support (triangles) of every edge with a local end point and
+ * the local clustering coefficients, 2 * triangles / (degree * (degree - 1)).
+ *
+ * A partition knows the edges of its local vertices, so it closes the wedges with a local
+ * end point itself. By the partitions holding the three vertices of a triangle:
+ * 	-- one: found in superstep 0 without messages.
+ * 	-- two: found in superstep 0 by the partition holding two of them (from the smallest
+ * 	   local vertex), which tells the third vertex (first == receiver, "notice").
+ * 	-- three: no partition can close it, the smallest vertex sends the wedge (u, x, y)
+ * 	   to x in superstep 0 ("query"), x checks (x, y) in superstep 1 and tells u and y.
+ * So every partition learns each triangle on its local vertices once and only the
+ * wedges between three partitions travel; the counts are final after superstep 2.
+ *
+ * The k-truss programs (KTrussSubgraphImpr, KTrussDecompositionSubgraph) list with
+ * queryWedges() and answerWedge() instead: they add the external edges of every triangle
+ * in superstep 2, so each partition of a triangle gets it as a message, closed locally
+ * or not, and nothing is counted here.
+ *
+ * This object is the state of a partition between the supersteps (see get()), removed
+ * once the output is saved.
+ *
+ * @author simon0227
+ */
+public abstract class TriangleEngine {
+
+	private static final Logger LOG = Logger.getLogger(TriangleEngine.class);
+
+	/* the engines of the partitions of this worker */
+	private static final ConcurrentHashMap<Integer, TriangleEngine> ENGINES =
+			new ConcurrentHashMap<Integer, TriangleEngine>();
+
+	private final BasicGraphStoreInterface store;
+	/* triangles of the local vertices */
+	private final Int2IntOpenHashMap triangles = new Int2IntOpenHashMap();
+	/* support of the edges with a local end point, by BasicEdge.constructEdgeId */
+	private final Long2IntOpenHashMap support = new Long2IntOpenHashMap();
+
+	private long closedLocally;
+	private long sentQueries;
+	private long sentNotices;
+
+	public TriangleEngine(BasicGraphStoreInterface store) {
+		this.store = store;
+	}
+
+	/**
+	 * the engine of the partition kept since superstep 0, null if there is none.
+	 */
+	public static TriangleEngine get(int partitionId) {
+		return ENGINES.get(partitionId);
+	}
+
+	/**
+	 * keep the engine of the partition for the next supersteps.
+	 */
+	public static void put(int partitionId, TriangleEngine engine) {
+		ENGINES.put(partitionId, engine);
+	}
+
+	/**
+	 * forget the engine of the partition, returns it (null if there is none).
+	 */
+	public static TriangleEngine remove(int partitionId) {
+		return ENGINES.remove(partitionId);
+	}
+
+	protected abstract boolean isSamePartition(int vid1, int vid2);
+
+	protected abstract void sendTriple(int destination, int first, int second, int third);
+
+	/**
+	 * superstep 0: close the wedges of the local vertices, send the queries.
+	 */
+	public void listLocal() {
+		IntArrayList neighbors = new IntArrayList();
+		if(store instanceof CompactTrussGraphStore) {
+			CompactTrussGraphStore compact = (CompactTrussGraphStore) store;
+			for(int u : compact.getLocalVertexIds()) {
+				compact.getNeighbors(u, neighbors);
+				listLocal(u, neighbors);
+			}
+		}
+		else {
+			for(BasicVertex bv : store.getLocalVertex()) {
+				getNeighbors(bv, neighbors);
+				listLocal(bv.getId(), neighbors);
+			}
+		}
+	}
+
+	private void listLocal(int u, IntArrayList neighbors) {
+		int[] nbs = neighbors.elements();
+		Arrays.sort(nbs, 0, neighbors.size());
+		for(int i = 0; i < neighbors.size(); ++i) {
+			int x = nbs[i];
+			boolean xLocal = store.isLocal(x);
+			if(xLocal && x < u) {
+				continue;
+			}
+			for(int j = i + 1; j < neighbors.size(); ++j) {
+				int y = nbs[j];
+				boolean yLocal = store.isLocal(y);
+				if(xLocal || yLocal) {
+					/* counted from the smallest local vertex */
+					if((yLocal && y < u) || !store.edgeExist(x, y)) {
+						continue;
+					}
+					closedLocally++;
+					found(u, x, xLocal, y, yLocal);
+				}
+				else if(u < x && !isSamePartition(x, y)) {
+					sendTriple(x, u, x, y);
+					sentQueries++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * fill out with the neighbor ids of the vertex.
+	 */
+	private static void getNeighbors(BasicVertex bv, IntArrayList out) {
+		int u = bv.getId();
+		out.clear();
+		for(BasicEdge be : bv.getNeighbors()) {
+			out.add(be.getSourceId() == u ? be.getTargetId() : be.getSourceId());
+		}
+	}
+
+	/**
+	 * superstep 0 of the k-truss listing: every local u sends each wedge (u, x, y),
+	 * u < x < y, to x.
+	 * @return the queries sent to other partitions.
+	 */
+	public long queryWedges() {
+		long remote = 0;
+		IntArrayList neighbors = new IntArrayList();
+		if(store instanceof CompactTrussGraphStore) {
+			CompactTrussGraphStore compact = (CompactTrussGraphStore) store;
+			for(int u : compact.getLocalVertexIds()) {
+				compact.getNeighbors(u, neighbors);
+				remote += queryWedges(u, neighbors);
+			}
+		}
+		else {
+			for(BasicVertex bv : store.getLocalVertex()) {
+				getNeighbors(bv, neighbors);
+				remote += queryWedges(bv.getId(), neighbors);
+			}
+		}
+		return remote;
+	}
+
+	private long queryWedges(int u, IntArrayList neighbors) {
+		/* keep the neighbors above u, sorted */
+		int[] nbs = neighbors.elements();
+		int size = 0;
+		for(int i = 0; i < neighbors.size(); ++i) {
+			if(nbs[i] > u) {
+				nbs[size++] = nbs[i];
+			}
+		}
+		Arrays.sort(nbs, 0, size);
+		long remote = 0;
+		for(int i = 0; i < size; ++i) {
+			int x = nbs[i];
+			boolean remoteX = !isSamePartition(x, u);
+			for(int j = i + 1; j < size; ++j) {
+				sendTriple(x, u, x, nbs[j]);
+				if(remoteX) {
+					remote++;
+				}
+			}
+		}
+		return remote;
+	}
+
+	/**
+	 * superstep 1 of the k-truss listing: the wedge (u, receiver, y) is a triangle if
+	 * (receiver, y) exists, then it goes once to every partition of u, receiver and y.
+	 * @return the triples sent to other partitions.
+	 */
+	public long answerWedge(int receiver, TripleWritable tmsg) {
+		int u = tmsg.getFirst(), y = tmsg.getThird();
+		if(!store.edgeExist(receiver, y)) {
+			return 0;
+		}
+		long remote = 0;
+		sendTriple(u, u, receiver, y);
+		if(!isSamePartition(u, receiver)) {
+			/* u is remote, the partition of the receiver gets its own copy */
+			remote++;
+			sendTriple(receiver, receiver, u, y);
+		}
+		if(!isSamePartition(u, y) && !isSamePartition(receiver, y)) {
+			sendTriple(y, y, u, receiver);
+			remote++;
+		}
+		return remote;
+	}
+
+	/**
+	 * a triangle closed locally, u is local and x or y.
+	 */
+	private void found(int u, int x, boolean xLocal, int y, boolean yLocal) {
+		triangles.addTo(u, 1);
+		if(xLocal) {
+			triangles.addTo(x, 1);
+		}
+		else {
+			sendTriple(x, x, u, y);
+			sentNotices++;
+		}
+		if(yLocal) {
+			triangles.addTo(y, 1);
+		}
+		else {
+			sendTriple(y, y, u, x);
+			sentNotices++;
+		}
+		support.addTo(BasicEdge.constructEdgeId(u, x), 1);
+		support.addTo(BasicEdge.constructEdgeId(u, y), 1);
+		support.addTo(BasicEdge.constructEdgeId(x, y), 1);
+	}
+
+	/**
+	 * the triangle (v, a, b) on the local vertex v, its edges (v, a) and (v, b).
+	 */
+	private void count(int v, int a, int b) {
+		triangles.addTo(v, 1);
+		support.addTo(BasicEdge.constructEdgeId(v, a), 1);
+		support.addTo(BasicEdge.constructEdgeId(v, b), 1);
+	}
+
+	/**
+	 * supersteps 1 and 2: a message to the local vertex receiver.
+	 */
+	public void receive(int receiver, TripleWritable tmsg) {
+		if(tmsg.getFirst() == receiver) {
+			count(receiver, tmsg.getSecond(), tmsg.getThird());
+		}
+		else if(store.edgeExist(receiver, tmsg.getThird())) {
+			/* the query (u, receiver, y) of three partitions */
+			int u = tmsg.getFirst(), y = tmsg.getThird();
+			count(receiver, u, y);
+			sendTriple(u, u, receiver, y);
+			sendTriple(y, y, u, receiver);
+			sentNotices += 2;
+		}
+	}
+
+	public int getTriangleCount(int vid) {
+		return triangles.get(vid);
+	}
+
+	public int getSupport(int first, int second) {
+		return support.get(BasicEdge.constructEdgeId(first, second));
+	}
+
+	public double getClusteringCoefficient(int vid) {
+		long degree = store.getDegree(vid);
+		if(degree < 2) {
+			return 0.0;
+		}
+		return 2.0 * triangles.get(vid) / (degree * (degree - 1));
+	}
+
+	/**
+	 * sum of the triangle counts of the local vertices, every triangle is in three.
+	 */
+	public long getLocalTriangleSum() {
+		long sum = 0;
+		for(int count : triangles.values()) {
+			sum += count;
+		}
+		return sum;
+	}
+
+	public long getClosedLocally() {
+		return closedLocally;
+	}
+
+	public long getSentQueries() {
+		return sentQueries;
+	}
+
+	public long getSentNotices() {
+		return sentNotices;
+	}
+
+	/**
+	 * copies of the local vertices with their triangle count as value, for the vertex output.
+	 */
+	public Collection<BasicVertex> getOutputVertices() {
+		Collection<BasicVertex> res = new ArrayList<BasicVertex>();
+		for(BasicVertex bv : store.getLocalVertex()) {
+			BasicVertex copy = new BasicVertex();
+			copy.initialize(bv.getId());
+			for(BasicEdge be : bv.getNeighbors()) {
+				copy.addNeighbor(be);
+			}
+			copy.setValue(getTriangleCount(bv.getId()));
+			res.add(copy);
+		}
+		return res;
+	}
+
+	/**
+	 * write partition-$id in the directory, tab separated:
+	 * 	-- "v id triangles clustering" for every local vertex,
+	 * 	-- "e source target support" for every edge on a triangle, source < target local.
+	 */
+	public void write(Configuration conf, String dir, int partitionId) throws IOException {
+		Path path = new Path(dir, "partition-" + partitionId);
+		FileSystem fs = path.getFileSystem(conf);
+		BufferedWriter out = new BufferedWriter(new OutputStreamWriter(fs.create(path, true), Charsets.UTF_8));
+		try {
+			for(BasicVertex bv : store.getLocalVertex()) {
+				int vid = bv.getId();
+				out.write("v\t" + vid + "\t" + getTriangleCount(vid) + "\t" + getClusteringCoefficient(vid));
+				out.newLine();
+			}
+			for(Long2IntMap.Entry entry : support.long2IntEntrySet()) {
+				long edge = entry.getLongKey();
+				int source = IncrementalKTruss.getSource(edge), target = IncrementalKTruss.getTarget(edge);
+				if(store.isLocal(source)) {
+					out.write("e\t" + source + "\t" + target + "\t" + entry.getIntValue());
+					out.newLine();
+				}
+			}
+		} finally {
+			out.close();
+		}
+		LOG.info("write: partition " + partitionId + " to " + path);
+	}
+}
@@ -0,0 +1,84 @@
+package org.apache.giraph.subgraph;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+
+import java.util.ArrayList;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Sender side batching of the TripleWritable messages of the k-truss callables:
+ * the triples to the same destination vertex are sent as one TripleWritable.
+ * 	-- "giraph.ktruss.message.batch": triples per batch (1: no batching).
+ * A batch is sent when it is full, all batches when MAX_BUFFERED_TRIPLES are buffered
+ * and at flush(), which has to be called before the messages of the superstep are flushed.
+ *
+ * The batches are serialized when they are sent, so they are reused.
+ * Not thread-safe: one instance per callable.
+ *
+ * @author simon0227
+ */
+public abstract class TripleMessageBatcher {
+
+	private static final int MAX_BUFFERED_TRIPLES = 1 << 20;
+	private static final int MAX_FREE_BATCHES = 1024;
+
+	private final int maxBatch;
+	private final Int2ObjectOpenHashMap<TripleWritable> batches = new Int2ObjectOpenHashMap<TripleWritable>();
+	private final ArrayList<TripleWritable> free = new ArrayList<TripleWritable>();
+	private final TripleWritable single = new TripleWritable();
+	private int buffered = 0;
+
+	public TripleMessageBatcher(Configuration conf) {
+		this.maxBatch = Math.max(1, conf.getInt("giraph.ktruss.message.batch", 256));
+	}
+
+	/**
+	 * send the message to the destination vertex.
+	 */
+	protected abstract void send(int destination, TripleWritable message);
+
+	public void add(int destination, int first, int second, int third) {
+		if(maxBatch == 1) {
+			single.initialize(first, second, third);
+			send(destination, single);
+			return;
+		}
+		TripleWritable batch = batches.get(destination);
+		if(batch == null) {
+			batch = free.isEmpty() ? new TripleWritable() : free.remove(free.size() - 1);
+			batch.clear();
+			batches.put(destination, batch);
+		}
+		batch.add(first, second, third);
+		buffered++;
+		if(batch.size() >= maxBatch) {
+			send(destination, batch);
+			buffered -= batch.size();
+			batches.remove(destination);
+			recycle(batch);
+		}
+		else if(buffered >= MAX_BUFFERED_TRIPLES) {
+			flush();
+		}
+	}
+
+	/**
+	 * send all the batches.
+	 */
+	public void flush() {
+		for(Int2ObjectMap.Entry<TripleWritable> entry : batches.int2ObjectEntrySet()) {
+			send(entry.getIntKey(), entry.getValue());
+			recycle(entry.getValue());
+		}
+		batches.clear();
+		buffered = 0;
+	}
+
+	private void recycle(TripleWritable batch) {
+		if(free.size() < MAX_FREE_BATCHES) {
+			free.add(batch);
+		}
+	}
+}
@@ -1,70 +1,300 @@
 package org.apache.giraph.subgraph;
 
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
+import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableUtils;
 
+/**
+ * Message of the k-truss jobs: a triple of vertex ids, or a batch of triples for the
+ * same destination (see TripleMessageBatcher), optionally with a sorted list of vertex
+ * ids (the out-neighbors of the degree-ordered triangle listing).
+ *
+ * Format: vint #triples, the triples sorted and delta-encoded as vlongs field by field,
+ * vint #list, the list delta-encoded as vlongs. A batch is written in sorted order, the
+ * message itself is not reordered. This replaces the three ints of the first version, so
+ * checkpoints and message files written before can not be read.
+ *
+ * getFirst/getSecond/getThird are the first triple; use triples() to go through the
+ * triples of all the messages of a vertex.
+ */
 public class TripleWritable implements WritableComparable{
 
-	private int first;
-	private int second;
-	private int third;
-	
+	private static final int[] EMPTY = new int[0];
+
+	/* first, second, third of each triple */
+	private int[] triples = new int[3];
+	private int size = 0;
+	private int[] list = EMPTY;
+	private int listSize = 0;
+	/* the triples are in order, so they are written as they are */
+	private boolean sorted = true;
+	/* order of the triples to write if they are not sorted */
+	private int[] order = EMPTY;
+
 	public TripleWritable(){}
-	
+
 	public TripleWritable(int first, int second, int third){
-		this.first = first;
-		this.second = second;
-		this.third = third;
+		initialize(first, second, third);
 	}
-	
+
 	public void initialize(int first, int second, int third){
-		this.first = first;
-		this.second = second;
-		this.third = third;
+		clear();
+		add(first, second, third);
+	}
+
+	/**
+	 * append a triple to the batch.
+	 */
+	public void add(int first, int second, int third){
+		if(triples.length < (size + 1) * 3){
+			int[] tmp = new int[Math.max(triples.length * 2, (size + 1) * 3)];
+			System.arraycopy(triples, 0, tmp, 0, size * 3);
+			triples = tmp;
+		}
+		triples[size * 3] = first;
+		triples[size * 3 + 1] = second;
+		triples[size * 3 + 2] = third;
+		size++;
+		if(sorted && size > 1 && compareTriples(size - 2, size - 1) > 0){
+			sorted = false;
+		}
+	}
+
+	/**
+	 * drop the triples and the list, the arrays are kept.
+	 */
+	public void clear(){
+		size = 0;
+		listSize = 0;
+		sorted = true;
+	}
+
+	/**
+	 * number of triples.
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * attach the ids list[from, to), the array is copied.
+	 */
+	public void setList(int[] ids, int from, int to){
+		if(list.length < to - from){
+			list = new int[to - from];
+		}
+		System.arraycopy(ids, from, list, 0, to - from);
+		listSize = to - from;
+	}
+
+	/**
+	 * the backing array, valid in [0, getListSize()).
+	 */
+	public int[] getList(){
+		return list;
+	}
+
+	public int getListSize(){
+		return listSize;
 	}
-	
+
 	public int getFirst(){
-		return this.first;
+		return triples[0];
 	}
-	
+
 	public int getSecond(){
-		return this.second;
+		return triples[1];
 	}
-	
+
 	public int getThird(){
-		return this.third;
+		return triples[2];
+	}
+
+	public int getFirst(int i){
+		return triples[i * 3];
+	}
+
+	public int getSecond(int i){
+		return triples[i * 3 + 1];
+	}
+
+	public int getThird(int i){
+		return triples[i * 3 + 2];
+	}
+
+	/**
+	 * the order in which the unsorted triples are written, so that the deltas are small.
+	 */
+	private int[] sortedOrder(){
+		if(order.length < size){
+			order = new int[Math.max(size, order.length * 2)];
+		}
+		for(int i = 0; i < size; i++){
+			order[i] = i;
+		}
+		IntArrays.quickSort(order, 0, size, new AbstractIntComparator() {
+			@Override
+			public int compare(int a, int b) {
+				return compareTriples(a, b);
+			}
+		});
+		return order;
+	}
+
+	private int compareTriples(int a, int b){
+		for(int f = 0; f < 3; f++){
+			int c = compareInts(triples[a * 3 + f], triples[b * 3 + f]);
+			if(c != 0){
+				return c;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Integer.compare, which Java 6 does not have.
+	 */
+	private static int compareInts(int x, int y){
+		return x < y ? -1 : (x == y ? 0 : 1);
 	}
-	
+
 	@Override
 	public void write(DataOutput out) throws IOException {
-		out.writeInt(first);
-		out.writeInt(second);
-		out.writeInt(third);
+		int[] perm = sorted ? null : sortedOrder();
+		WritableUtils.writeVInt(out, size);
+		long p1 = 0, p2 = 0, p3 = 0;
+		for(int j = 0; j < size; j++){
+			int i = (perm == null ? j : perm[j]) * 3;
+			WritableUtils.writeVLong(out, triples[i] - p1);
+			WritableUtils.writeVLong(out, triples[i + 1] - p2);
+			WritableUtils.writeVLong(out, triples[i + 2] - p3);
+			p1 = triples[i];
+			p2 = triples[i + 1];
+			p3 = triples[i + 2];
+		}
+		WritableUtils.writeVInt(out, listSize);
+		long prev = 0;
+		for(int i = 0; i < listSize; i++){
+			WritableUtils.writeVLong(out, list[i] - prev);
+			prev = list[i];
+		}
 	}
 
 	@Override
 	public void readFields(DataInput in) throws IOException {
-		first = in.readInt();
-		second = in.readInt();
-		third = in.readInt();
+		size = WritableUtils.readVInt(in);
+		if(triples.length < size * 3){
+			triples = new int[size * 3];
+		}
+		long p1 = 0, p2 = 0, p3 = 0;
+		for(int i = 0; i < size * 3; i += 3){
+			p1 += WritableUtils.readVLong(in);
+			p2 += WritableUtils.readVLong(in);
+			p3 += WritableUtils.readVLong(in);
+			triples[i] = (int) p1;
+			triples[i + 1] = (int) p2;
+			triples[i + 2] = (int) p3;
+		}
+		sorted = true;
+		listSize = WritableUtils.readVInt(in);
+		if(list.length < listSize){
+			list = new int[listSize];
+		}
+		long prev = 0;
+		for(int i = 0; i < listSize; i++){
+			prev += WritableUtils.readVLong(in);
+			list[i] = (int) prev;
+		}
+	}
+
+	/**
+	 * the triples of the messages one by one. A message of one triple is returned
+	 * itself (with its list), the triples of a batch in one reused TripleWritable,
+	 * so a triple is valid until the next one.
+	 */
+	public static Iterable<TripleWritable> triples(final Iterable<? extends Writable> messages){
+		return new Iterable<TripleWritable>() {
+			@Override
+			public Iterator<TripleWritable> iterator() {
+				return new TripleIterator(messages.iterator());
+			}
+		};
+	}
+
+	private static class TripleIterator implements Iterator<TripleWritable> {
+		private final Iterator<? extends Writable> messages;
+		private final TripleWritable cursor = new TripleWritable();
+		private TripleWritable current;
+		private int index;
+
+		TripleIterator(Iterator<? extends Writable> messages){
+			this.messages = messages;
+		}
+
+		@Override
+		public boolean hasNext() {
+			/* the message store reuses the message object, move on only after the batch */
+			while(current == null || index >= current.size){
+				if(!messages.hasNext()){
+					return false;
+				}
+				current = (TripleWritable) messages.next();
+				index = 0;
+			}
+			return true;
+		}
+
+		@Override
+		public TripleWritable next() {
+			if(!hasNext()){
+				throw new NoSuchElementException();
+			}
+			if(current.size == 1){
+				index++;
+				return current;
+			}
+			cursor.initialize(current.getFirst(index), current.getSecond(index), current.getThird(index));
+			index++;
+			return cursor;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
 	}
 
 	@Override
 	public int compareTo(Object obj) {
 		TripleWritable other = (TripleWritable)obj;
-		if(other.first != first){
-			return first - other.first;
+		int c = compareInts(getFirst(), other.getFirst());
+		if(c != 0){
+			return c;
 		}
-		if(other.second != second){
-			return second - other.second;
+		c = compareInts(getSecond(), other.getSecond());
+		if(c != 0){
+			return c;
 		}
-		return third - other.third;
+		return compareInts(getThird(), other.getThird());
 	}
-	
+
 	public String toString(){
-		return "( "+first+", "+second+", "+third+" )";
+		if(size == 1){
+			return "( "+getFirst()+", "+getSecond()+", "+getThird()+" )";
+		}
+		StringBuilder sb = new StringBuilder("[");
+		for(int i = 0; i < size; i++){
+			sb.append(" ( "+getFirst(i)+", "+getSecond(i)+", "+getThird(i)+" )");
+		}
+		return sb.append(" ]").toString();
 	}
 }
@@ -0,0 +1,212 @@
+package org.apache.giraph.subgraph;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+
+/**
+ * State of the k-truss programs on one CompactTrussGraphStore between the supersteps;
+ * the store itself only keeps the graph (CSR adjacency, supports, deleted/removed edges).
+ * 	-- the (degree, id) order of DegreeOrderedTriangleListing.
+ * 	-- the CoreBounds of TopTKTrussSubgraph.
+ * 	-- the truss numbers and the SupportBuckets of BucketedKTrussPeeling.
+ * 	-- the IncrementalKTruss state and the EdgePruneQueue of KTrussSubgraphImpr.
+ *
+ * The callables are created again every superstep, so the state of each store is kept
+ * here (see of()), as TriangleEngine keeps its engines. It is looked up by the store
+ * itself rather than by its partition id, since the tests run several stores of
+ * partition 0 side by side. getOutputVertices() removes it once the output is saved.
+ *
+ * @author simon0227
+ */
+public class TrussState {
+
+	/* the states of the stores of this worker, by identity */
+	private static final Map<CompactTrussGraphStore, TrussState> STATES =
+			Maps.newIdentityHashMap();
+
+	private final CompactTrussGraphStore store;
+
+	/* degrees of the (degree, id) order of the triangle listing, per local id */
+	private int[] orderDegree;
+	/* top-t k-truss */
+	private CoreBounds coreBounds;
+	/* bucketed decomposition: truss number per edge id (0: not peeled yet) and the support buckets */
+	private int[] trussNumber;
+	private SupportBuckets supportBuckets;
+	/* state of the incremental maintenance, see IncrementalKTruss */
+	private IncrementalKTruss incremental;
+	/* pruning queue of KTrussSubgraphImpr, reused by every superstep */
+	private EdgePruneQueue pruneQueue;
+
+	private TrussState(CompactTrussGraphStore store) {
+		this.store = store;
+	}
+
+	/**
+	 * the state of the store, created empty the first time.
+	 */
+	public static TrussState of(CompactTrussGraphStore store) {
+		synchronized(STATES) {
+			TrussState state = STATES.get(store);
+			if(state == null) {
+				state = new TrussState(store);
+				STATES.put(store, state);
+			}
+			return state;
+		}
+	}
+
+	/**
+	 * forget the state of the store, returns it (null if there is none).
+	 */
+	public static TrussState remove(CompactTrussGraphStore store) {
+		synchronized(STATES) {
+			return STATES.remove(store);
+		}
+	}
+
+	/**
+	 * the vertices of the k-truss output: the local vertices with their triangle count
+	 * after a triangle counting (triangles, the engine of the partition, null for the
+	 * other programs), the truss vertices of a decomposition, otherwise the local
+	 * vertices (value 0). The state of a CompactTrussGraphStore is removed.
+	 */
+	public static Collection<BasicVertex> getOutputVertices(BasicGraphStoreInterface gs, TriangleEngine triangles) {
+		TrussState state = (gs instanceof CompactTrussGraphStore) ? remove((CompactTrussGraphStore) gs) : null;
+		if(triangles != null) {
+			return triangles.getOutputVertices();
+		}
+		if(state != null && state.hasTrussNumbers()) {
+			return state.getTrussVertices();
+		}
+		return gs.getLocalVertex();
+	}
+
+	/* ---------------- (degree, id) order ---------------- */
+
+	/**
+	 * the local vertices take their current degree, the remote ones 0 until setOrderDegree.
+	 */
+	public void initOrderDegrees() {
+		store.sealEdges();
+		orderDegree = new int[store.getVertexCapacity()];
+		for(int lid = 0; lid < store.getLocalVertexCount(); ++lid) {
+			orderDegree[lid] = store.getAliveDegree(lid);
+		}
+	}
+
+	/**
+	 * the degree of a remote vertex, as received from its partition.
+	 */
+	public void setOrderDegree(int id, int d) {
+		int lid = store.getLocalId(id);
+		if(lid != -1) {
+			orderDegree[lid] = d;
+		}
+	}
+
+	/**
+	 * @return true if u comes before v in the (degree, id) order.
+	 */
+	public boolean precedes(int u, int v) {
+		int du = orderDegree[store.getLocalId(u)];
+		int dv = orderDegree[store.getLocalId(v)];
+		return du < dv || (du == dv && u < v);
+	}
+
+	/* ---------------- upper bounds of the top-t k-truss ---------------- */
+
+	/**
+	 * the bounds start from the current degrees, see CoreBounds.
+	 */
+	public CoreBounds initCoreBounds() {
+		coreBounds = new CoreBounds(store);
+		return coreBounds;
+	}
+
+	public CoreBounds getCoreBounds() {
+		return coreBounds;
+	}
+
+	/* ---------------- truss numbers of the decomposition ---------------- */
+
+	/**
+	 * after the induced subgraph is complete, no edge is added later.
+	 */
+	public void initTrussNumbers() {
+		trussNumber = new int[store.getEdgeCapacity()];
+	}
+
+	public void setTrussNumber(int eid, int k) {
+		trussNumber[eid] = k;
+	}
+
+	public int getTrussNumber(int eid) {
+		return (trussNumber == null || trussNumber.length <= eid) ? 0 : trussNumber[eid];
+	}
+
+	public boolean hasTrussNumbers() {
+		return trussNumber != null;
+	}
+
+	public SupportBuckets getSupportBuckets() {
+		return supportBuckets;
+	}
+
+	public void setSupportBuckets(SupportBuckets supportBuckets) {
+		this.supportBuckets = supportBuckets;
+	}
+
+	/**
+	 * the peeled edges of the local vertices, one BasicVertex per (vertex, truss number)
+	 * with the truss number as value, deleted edges included. External edges are skipped.
+	 */
+	public Collection<BasicVertex> getTrussVertices() {
+		store.sealEdges();
+		Collection<BasicVertex> res = new ArrayList<BasicVertex>();
+		Int2ObjectOpenHashMap<BasicVertex> byTruss = new Int2ObjectOpenHashMap<BasicVertex>();
+		for(int lid = 0; lid < store.getLocalVertexCount(); ++lid) {
+			int id = store.getGlobalId(lid);
+			byTruss.clear();
+			for(int i = store.getSliceStart(lid); i < store.getSliceEnd(lid); ++i) {
+				int e = store.getSliceEdge(i);
+				int k = getTrussNumber(e);
+				if(k == 0 || store.isExternal(e)) {
+					continue;
+				}
+				BasicVertex bv = byTruss.get(k);
+				if(bv == null) {
+					bv = new BasicVertex();
+					bv.initialize(id);
+					bv.setValue(k);
+					byTruss.put(k, bv);
+					res.add(bv);
+				}
+				bv.addNeighbor(new BasicEdge(id, store.getGlobalId(store.getSliceNbr(i)), store.getEdgeType(e), true));
+			}
+		}
+		return res;
+	}
+
+	/* ---------------- incremental maintenance ---------------- */
+
+	public EdgePruneQueue getPruneQueue() {
+		if(pruneQueue == null) {
+			pruneQueue = new EdgePruneQueue();
+		}
+		return pruneQueue;
+	}
+
+	public IncrementalKTruss getIncremental() {
+		return incremental;
+	}
+
+	public void setIncremental(IncrementalKTruss incremental) {
+		this.incremental = incremental;
+	}
+}
@@ -6,15 +6,15 @@ public class BasicEdge {
 	private int vid;
 	
 	private int label;
-	private int weight;
+	private long weight; //raw weight of a graph edge, or the PathSemiring weight of a partial path.
 	
 	public BasicEdge() { }
 	
-	public BasicEdge(int vid, int label, int weight){
+	public BasicEdge(int vid, int label, long weight){
 		this.initialize(vid, label, weight);
 	}
 	
-	public void initialize(int vid, int label, int weight) {
+	public void initialize(int vid, int label, long weight) {
 		this.vid = vid;
 		this.label = label;
 		this.weight = weight;
@@ -28,11 +28,11 @@ public class BasicEdge {
 		this.label = label;
 	}
 	
-	public int getWeight() {
+	public long getWeight() {
 		return weight;
 	}
 	
-	public void setWeight(int weight) {
+	public void setWeight(long weight) {
 		this.weight = weight;
 	}
 	
@@ -22,6 +22,9 @@ public class BasicVertex {
 	private int sid;
 	private int weight;
 	
+	/* neighbors grouped by (edge label, neighbor label, direction); built in superstep 2. */
+	private LabelAdjacencyIndex adjacencyIndex;
+	
 	public BasicVertex() { }
 	
 	public void initialize(int id, int label){
@@ -63,6 +66,14 @@ public class BasicVertex {
 		this.label = label;
 	}
 	
+	public LabelAdjacencyIndex getAdjacencyIndex() {
+		return (adjacencyIndex == null) ? LabelAdjacencyIndex.EMPTY : adjacencyIndex;
+	}
+	
+	public void setAdjacencyIndex(LabelAdjacencyIndex adjacencyIndex) {
+		this.adjacencyIndex = adjacencyIndex;
+	}
+	
 	public void addOutNeighbor(BasicEdge newEdge) {
 		BasicEdge oldBe = outNeighbors.get(newEdge.getVid());
 		if(oldBe != null) {
@@ -0,0 +1,884 @@
+package org.apache.giraph.subgraph.graphextraction;
+
+import it.unimi.dsi.fastutil.Swapper;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntComparator;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.giraph.edge.Edge;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.partition.SimplePartition;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.util.Progressable;
+import org.apache.log4j.Logger;
+
+/**
+ * Compressed sparse row (CSR) local storage for graph extraction.
+ * 	-- configured by "giraph.partitionClass"
+ * 	-- evaluated by GraphExtractionWithArrayBasedStore (local ids, same as ArrayBasedGraphStore)
+ *
+ * Instead of one HashMap and one BasicEdge object per edge, the neighborhood of
+ * every vertex is kept in primitive arrays:
+ * 	-- xxxOffset[lid] .. xxxOffset[lid+1] is the slice of vertex lid,
+ * 	-- xxxNbr / xxxLabel / xxxWeight hold the neighbor local id, edge label and weight,
+ * 	-- each slice is sorted by (edge label, neighbor label, neighbor id), one edge per neighbor
+ * 	   as in BasicVertex, so the leaf queries find the edges of a label pair by binary search
+ * 	   on the slice itself (LabelAdjacencyIndex keeps only the offsets).
+ * Global ids are mapped to local ids by an open-addressing int map.
+ *
+ * Edges added after loading (in-edges and the edges of remote vertices in supersteps 1-2)
+ * are appended to a staging buffer, removed edges are only marked in the CSR arrays. Both
+ * are merged by compact(), which has to be called once the neighborhoods are complete and
+ * before they are read: the readers never change the store, so the exploration threads
+ * can share it. A neighborhood with edges added or removed since the last compact() can
+ * not be read (IllegalStateException). Degrees are always up to date. A vertex label changed
+ * after the edges are merged (the remote vertices get theirs in supersteps 1-2) makes
+ * compact() sort the slices again.
+ *
+ * The BasicVertex objects handed out by this store are light-weight views on the arrays;
+ * the path evaluation reads the arrays directly by getOutStart/getOutNbrs etc. (LabelAdjacencyIndex).
+ *
+ * The preprocessed store is saved as the arrays themselves (see GraphStoreSnapshot).
+ */
+public class CSRGraphStore
+extends SimplePartition<IntWritable, IntWritable, IntWritable, PartialAggregatedPath>
+implements BasicGraphStoreInterface, PersistentGraphStore
+{
+	private static final Logger LOG = Logger.getLogger(CSRGraphStore.class);
+
+	/* global ids to local ids */
+	private Int2IntOpenHashMap gid2lid;
+
+	/* per local id properties */
+	private IntArrayList lid2gid;
+	private IntArrayList vertexLabel;
+	private IntArrayList vertexSid;
+	private IntArrayList vertexWeight;
+	private ArrayList<CSRVertex> vertexViews;
+
+	/* record the number of local vertices; this is also the minimal id of remote vertices. */
+	private int localVertexCount;
+
+	/* local vertices are fixed after the INPUT superstep. */
+	private Collection<BasicVertex> localVertexCollection;
+	/* read-only view on vertexViews */
+	private Collection<BasicVertex> allVertexCollection;
+
+	/* sealed adjacency */
+	private Adjacency out;
+	private Adjacency in;
+	/* a vertex label changed since the last compact(), so the slices are not sorted by the neighbor labels. */
+	private boolean neighborOrderStale;
+
+	public CSRGraphStore() { }
+
+	public void initialize(int partitionId, Progressable progressable) {
+		super.initialize(partitionId, progressable);
+		gid2lid = new Int2IntOpenHashMap();
+		gid2lid.defaultReturnValue(-1);
+		lid2gid = new IntArrayList();
+		vertexLabel = new IntArrayList();
+		vertexSid = new IntArrayList();
+		vertexWeight = new IntArrayList();
+		vertexViews = new ArrayList<CSRVertex>();
+		allVertexCollection = Collections.<BasicVertex>unmodifiableList(vertexViews);
+		localVertexCount = 0;
+		out = new Adjacency();
+		in = new Adjacency();
+		neighborOrderStale = false;
+	}
+
+	/**
+	 * Finalize the input partition as the customized local storage format.
+	 * This method has to be called after the INPUT superstep (-1).
+	 */
+	public void inititalGraphStore() {
+		for(Vertex<IntWritable, IntWritable, IntWritable, PartialAggregatedPath> vertex : this.getVertexs()){
+			addVertex(vertex.getId().get(), vertex.getValue().get());
+		}
+		localVertexCount = lid2gid.size();
+
+		for(Vertex<IntWritable, IntWritable, IntWritable, PartialAggregatedPath> vertex : this.getVertexs()){
+			int lid = gid2lid.get(vertex.getId().get());
+			/*
+			 * NOTE THAT: the label of a remote neighbor is identified
+			 * by the messages of superstep 1 and 2.
+			 */
+			for(Edge<IntWritable, IntWritable> edge : vertex.getEdges()){
+				int targetId = edge.getTargetVertexId().get();
+				int nlid = gid2lid.get(targetId);
+				if(nlid == -1) {
+					nlid = addVertex(targetId, -1);
+				}
+				out.stage(lid, nlid, edge.getValue().get(), 1);
+			}
+		}
+		this.clear(); //clear the original vertex partition.
+
+		sealLocalVertices();
+		out.compact();
+		gid2lid.trim();
+	}
+
+	private void sealLocalVertices() {
+		CSRVertex[] locals = new CSRVertex[localVertexCount];
+		for(int i = 0; i < localVertexCount; ++i) {
+			locals[i] = vertexViews.get(i);
+		}
+		localVertexCollection = Collections.unmodifiableList(Arrays.<BasicVertex>asList(locals));
+	}
+
+	@Override
+	public int getSnapshotVersion() {
+		return 1;
+	}
+
+	/**
+	 * localVertexCount, vertex count n, lid2gid[n], label[n], then the out and in adjacency.
+	 * The sid/weight markers and the partial paths are not saved.
+	 */
+	@Override
+	public void writeSnapshot(DataOutput output) throws IOException {
+		int n = lid2gid.size();
+		output.writeInt(localVertexCount);
+		output.writeInt(n);
+		writeInts(output, lid2gid.elements(), n);
+		writeInts(output, vertexLabel.elements(), n);
+		/* the slices are saved sorted as the index expects them. */
+		compact();
+		out.write(output);
+		in.write(output);
+	}
+
+	@Override
+	public void readSnapshot(IntBuffer input) throws IOException {
+		int local = input.get();
+		int n = input.get();
+		/* the vertices read in the INPUT superstep must be the local vertices of the snapshot. */
+		if(super.getVertexCount() != 0 && super.getVertexCount() != local) {
+			throw new IOException("readSnapshot: partition " + getId() + " has " + super.getVertexCount()
+					+ " input vertices, but " + local + " in the snapshot. Is the graph partitioned differently?");
+		}
+		this.clear();
+
+		lid2gid = IntArrayList.wrap(readInts(input, n));
+		vertexLabel = IntArrayList.wrap(readInts(input, n));
+		gid2lid = new Int2IntOpenHashMap(n);
+		gid2lid.defaultReturnValue(-1);
+		vertexSid = new IntArrayList(n);
+		vertexWeight = new IntArrayList(n);
+		vertexViews = new ArrayList<CSRVertex>(n);
+		allVertexCollection = Collections.<BasicVertex>unmodifiableList(vertexViews);
+		for(int lid = 0; lid < n; ++lid) {
+			gid2lid.put(lid2gid.getInt(lid), lid);
+			vertexSid.add(-1);
+			vertexWeight.add(0);
+			vertexViews.add(new CSRVertex(lid));
+		}
+		localVertexCount = local;
+		sealLocalVertices();
+
+		out = new Adjacency();
+		out.read(input);
+		in = new Adjacency();
+		in.read(input);
+		neighborOrderStale = false;
+	}
+
+	private static void writeInts(DataOutput output, int[] array, int length) throws IOException {
+		for(int i = 0; i < length; ++i) {
+			output.writeInt(array[i]);
+		}
+	}
+
+	/* bulk copy, no per element parsing. */
+	private static int[] readInts(IntBuffer input, int length) {
+		int[] res = new int[length];
+		input.get(res);
+		return res;
+	}
+
+	private int addVertex(int globalId, int label) {
+		int lid = lid2gid.size();
+		gid2lid.put(globalId, lid);
+		lid2gid.add(globalId);
+		vertexLabel.add(label);
+		vertexSid.add(-1);
+		vertexWeight.add(0);
+		vertexViews.add(new CSRVertex(lid));
+		return lid;
+	}
+
+	/**
+	 * Return the number of local vertex
+	 */
+	public long getVertexCount(){
+		return localVertexCount;
+	}
+
+	public long getTotalVertexCount() {
+		return lid2gid.size();
+	}
+
+	/**
+	 * Return the number of out edges
+	 */
+	public long getEdgeCount(){
+		long size = 0;
+		for(int i = 0; i < localVertexCount; ++i){
+			size += out.degree(i);
+		}
+		return size;
+	}
+
+	public long getTotalEdgeCount(){
+		return out.size();
+	}
+
+	public int getLocalId(int globalId) {
+		return gid2lid.get(globalId);
+	}
+
+	public int getGlobalId(int localId) {
+		return lid2gid.getInt(localId);
+	}
+
+	public BasicVertex getVertex(int localId) {
+		return vertexViews.get(localId);
+	}
+
+	public BasicVertex createVertex(int globalId, int label) {
+		return vertexViews.get(addVertex(globalId, label));
+	}
+
+	public boolean isLocal(int localId) {
+		return (localId < localVertexCount);
+	}
+
+	public Collection<BasicVertex> getLocalVertex() {
+		return localVertexCollection;
+	}
+
+	/**
+	 * local and remote vertices, a read-only view: the vertices created later are in it too.
+	 */
+	public Collection<BasicVertex> getAllVertex() {
+		return allVertexCollection;
+	}
+
+	public boolean hasVertex(int globalId) {
+		return gid2lid.containsKey(globalId);
+	}
+
+	public boolean isRemoteVertex(int localId) {
+		return (localId >= localVertexCount);
+	}
+
+	/**
+	 * merge the staged and the removed edges into the CSR arrays of both directions, and sort
+	 * the slices again if a vertex label changed.
+	 * Call it after the last modification of the neighborhoods, before they are read.
+	 */
+	public void compact() {
+		if(neighborOrderStale) {
+			out.compact();
+			in.compact();
+			neighborOrderStale = false;
+		}
+		else {
+			out.ensureCompacted();
+			in.ensureCompacted();
+		}
+	}
+
+	/**
+	 * true if a vertex label changed since the last compact(): the slices are not sorted by
+	 * the neighbor labels until the next one.
+	 */
+	public boolean isNeighborOrderStale() {
+		return neighborOrderStale;
+	}
+
+	private void setVertexLabel(int localId, int label) {
+		if(vertexLabel.getInt(localId) != label) {
+			vertexLabel.set(localId, label);
+			neighborOrderStale = true;
+		}
+	}
+
+	/* primitive accessors, valid until the next modification of the store. */
+
+	public int getLabel(int localId) {
+		return vertexLabel.getInt(localId);
+	}
+
+	public int getOutStart(int localId) {
+		out.checkCompacted(localId);
+		return out.start(localId);
+	}
+
+	public int getOutEnd(int localId) {
+		out.checkCompacted(localId);
+		return out.end(localId);
+	}
+
+	public int getInStart(int localId) {
+		in.checkCompacted(localId);
+		return in.start(localId);
+	}
+
+	public int getInEnd(int localId) {
+		in.checkCompacted(localId);
+		return in.end(localId);
+	}
+
+	public int[] getOutNbrs() { return out.nbr; }
+	public int[] getOutLabels() { return out.label; }
+	public int[] getOutWeights() { return out.weight; }
+	public int[] getInNbrs() { return in.nbr; }
+	public int[] getInLabels() { return in.label; }
+	public int[] getInWeights() { return in.weight; }
+
+	@Override
+	public void addMsgEdge(int localId, BasicEdge be) {
+		this.getVertex(localId).addTmpNeighbor(be);
+	}
+
+	@Override
+	public void clearMessage() {
+		for(CSRVertex bv : vertexViews) {
+			bv.clearTmpeNeighbors();
+		}
+	}
+
+	public void dump(){
+		StringBuffer sb = new StringBuffer();
+		sb.append("\nLocal vertex Size="+ this.getVertexCount()+"\n");
+		for(int i = 0; i < vertexViews.size(); ++i) {
+			sb.append(i < localVertexCount ? "\tLocal: " : "\tRemote: ");
+			sb.append(vertexViews.get(i).toString()+"\n");
+		}
+		LOG.info(sb.toString());
+	}
+
+	public void printGid2LidMap() {
+		for(int lid = 0; lid < lid2gid.size(); ++lid) {
+			LOG.info(lid2gid.getInt(lid)+" ==> "+ lid);
+		}
+	}
+
+	public int getTmpNeighborSize() {
+		int size = 0;
+		for(CSRVertex vertex : vertexViews) {
+			size += vertex.getTmpNeighbors().size();
+		}
+		return size;
+	}
+
+	public void printStatstics() {
+		LOG.info("local vertex#="+localVertexCount);
+		LOG.info("remote vertex#="+(lid2gid.size() - localVertexCount));
+		LOG.info("total edge#="+getTotalEdgeCount());
+		LOG.info("Tmp NeighborSize="+getTmpNeighborSize());
+		LOG.info("In NeighborSize="+in.size());
+	}
+
+	/**
+	 * One direction of the adjacency: sealed CSR arrays plus a staging buffer (COO).
+	 * A removed edge keeps its slot, its neighbor is set to REMOVED until compact().
+	 */
+	private class Adjacency {
+		static final int REMOVED = -1;
+
+		/* offset[lid] .. offset[lid+1]; vertices beyond offset.length-1 have no sealed edges. */
+		int[] offset = new int[] {0};
+		int[] nbr = new int[0];
+		int[] label = new int[0];
+		int[] weight = new int[0];
+
+		IntArrayList stagedSrc = new IntArrayList();
+		IntArrayList stagedNbr = new IntArrayList();
+		IntArrayList stagedLabel = new IntArrayList();
+		IntArrayList stagedWeight = new IntArrayList();
+		/* number of staged edges per source vertex */
+		IntArrayList stagedDegree = new IntArrayList();
+		/* number of removed sealed edges per vertex, and in total */
+		IntArrayList removedDegree = new IntArrayList();
+		int removedCount;
+
+		int sealedVertexCount() {
+			return offset.length - 1;
+		}
+
+		int start(int lid) {
+			return lid < sealedVertexCount() ? offset[lid] : nbr.length;
+		}
+
+		int end(int lid) {
+			return lid < sealedVertexCount() ? offset[lid + 1] : nbr.length;
+		}
+
+		int degree(int lid) {
+			return end(lid) - start(lid) - get(removedDegree, lid) + get(stagedDegree, lid);
+		}
+
+		long size() {
+			return nbr.length - removedCount + stagedSrc.size();
+		}
+
+		private int get(IntArrayList perVertex, int lid) {
+			return lid < perVertex.size() ? perVertex.getInt(lid) : 0;
+		}
+
+		private void increase(IntArrayList perVertex, int lid, int delta) {
+			while(perVertex.size() <= lid) {
+				perVertex.add(0);
+			}
+			perVertex.set(lid, perVertex.getInt(lid) + delta);
+		}
+
+		void stage(int src, int n, int l, int w) {
+			stagedSrc.add(src);
+			stagedNbr.add(n);
+			stagedLabel.add(l);
+			stagedWeight.add(w);
+			increase(stagedDegree, src, 1);
+		}
+
+		boolean isCompacted() {
+			return stagedSrc.isEmpty() && removedCount == 0;
+		}
+
+		void ensureCompacted() {
+			if(!isCompacted()) {
+				compact();
+			}
+		}
+
+		/* no staged or removed edge of lid waits for compact(). */
+		boolean isCompacted(int lid) {
+			return get(stagedDegree, lid) == 0 && get(removedDegree, lid) == 0;
+		}
+
+		/* the readers do not compact, see compact() of the store. */
+		void checkCompacted(int lid) {
+			if(!isCompacted(lid)) {
+				throw new IllegalStateException("checkCompacted: the edges of vertex " + lid
+						+ " changed since the last compact() of the store.");
+			}
+		}
+
+		/* mark the edges of lid to n as removed. */
+		void remove(int lid, int n) {
+			/* a staged edge to n is removed too, so it is merged first (rare). */
+			if(get(stagedDegree, lid) != 0) {
+				compact();
+			}
+			for(int i = start(lid); i < end(lid); ++i) {
+				if(nbr[i] == n) {
+					markRemoved(lid, i);
+				}
+			}
+		}
+
+		/* mark all the edges of lid as removed, the staged ones are dropped at once. */
+		void clear(int lid) {
+			if(get(stagedDegree, lid) != 0) {
+				compact();
+			}
+			for(int i = start(lid); i < end(lid); ++i) {
+				if(nbr[i] != REMOVED) {
+					markRemoved(lid, i);
+				}
+			}
+		}
+
+		private void markRemoved(int lid, int i) {
+			nbr[i] = REMOVED;
+			increase(removedDegree, lid, 1);
+			removedCount++;
+		}
+
+		/* the sealed arrays only, call ensureCompacted first. */
+		void write(DataOutput output) throws IOException {
+			output.writeInt(offset.length);
+			writeInts(output, offset, offset.length);
+			output.writeInt(nbr.length);
+			writeInts(output, nbr, nbr.length);
+			writeInts(output, label, label.length);
+			writeInts(output, weight, weight.length);
+		}
+
+		void read(IntBuffer input) {
+			offset = readInts(input, input.get());
+			int m = input.get();
+			nbr = readInts(input, m);
+			label = readInts(input, m);
+			weight = readInts(input, m);
+		}
+
+		/**
+		 * merge the staged edges into the sealed arrays, keep the last edge of every
+		 * neighbor (as the map of BasicVertex does), then sort every slice by (label, nbr label, nbr).
+		 */
+		void compact() {
+			int n = Math.max(lid2gid.size(), sealedVertexCount());
+			int[] newOffset = new int[n + 1];
+			for(int lid = 0; lid < n; ++lid) {
+				newOffset[lid + 1] = newOffset[lid] + degree(lid);
+			}
+			int total = newOffset[n];
+			final int[] newNbr = new int[total];
+			final int[] newLabel = new int[total];
+			final int[] newWeight = new int[total];
+			int[] fill = new int[n];
+			for(int lid = 0; lid < n; ++lid) {
+				int s = start(lid);
+				int len = end(lid) - s;
+				if(get(removedDegree, lid) == 0) {
+					System.arraycopy(nbr, s, newNbr, newOffset[lid], len);
+					System.arraycopy(label, s, newLabel, newOffset[lid], len);
+					System.arraycopy(weight, s, newWeight, newOffset[lid], len);
+					fill[lid] = newOffset[lid] + len;
+					continue;
+				}
+				int pos = newOffset[lid];
+				for(int i = s; i < s + len; ++i) {
+					if(nbr[i] != REMOVED) {
+						newNbr[pos] = nbr[i];
+						newLabel[pos] = label[i];
+						newWeight[pos] = weight[i];
+						pos++;
+					}
+				}
+				fill[lid] = pos;
+			}
+			for(int i = 0; i < stagedSrc.size(); ++i) {
+				int pos = fill[stagedSrc.getInt(i)]++;
+				newNbr[pos] = stagedNbr.getInt(i);
+				newLabel[pos] = stagedLabel.getInt(i);
+				newWeight[pos] = stagedWeight.getInt(i);
+			}
+			stagedSrc.clear(); stagedSrc.trim();
+			stagedNbr.clear(); stagedNbr.trim();
+			stagedLabel.clear(); stagedLabel.trim();
+			stagedWeight.clear(); stagedWeight.trim();
+			stagedDegree.clear(); stagedDegree.trim();
+			removedDegree.clear(); removedDegree.trim();
+			removedCount = 0;
+
+			IntComparator byNbr = new IntComparator() {
+				@Override
+				public int compare(int a, int b) {
+					if(newNbr[a] != newNbr[b])
+						return newNbr[a] < newNbr[b] ? -1 : 1;
+					return 0;
+				}
+
+				@Override
+				public int compare(Integer a, Integer b) {
+					return compare(a.intValue(), b.intValue());
+				}
+			};
+			final int[] labels = vertexLabel.elements();
+			IntComparator byLabel = new IntComparator() {
+				@Override
+				public int compare(int a, int b) {
+					if(newLabel[a] != newLabel[b])
+						return newLabel[a] < newLabel[b] ? -1 : 1;
+					int la = labels[newNbr[a]], lb = labels[newNbr[b]];
+					if(la != lb)
+						return la < lb ? -1 : 1;
+					if(newNbr[a] != newNbr[b])
+						return newNbr[a] < newNbr[b] ? -1 : 1;
+					return 0;
+				}
+
+				@Override
+				public int compare(Integer a, Integer b) {
+					return compare(a.intValue(), b.intValue());
+				}
+			};
+			Swapper swapper = new Swapper() {
+				@Override
+				public void swap(int a, int b) {
+					int t = newNbr[a]; newNbr[a] = newNbr[b]; newNbr[b] = t;
+					t = newLabel[a]; newLabel[a] = newLabel[b]; newLabel[b] = t;
+					t = newWeight[a]; newWeight[a] = newWeight[b]; newWeight[b] = t;
+				}
+			};
+
+			/* the sealed edges come before the staged ones, so the later copy of a neighbor wins as in a map. */
+			int w = 0;
+			int[] compactOffset = new int[n + 1];
+			for(int lid = 0; lid < n; ++lid) {
+				int s = newOffset[lid];
+				int e = newOffset[lid + 1];
+				if(e - s > 1) {
+					it.unimi.dsi.fastutil.Arrays.mergeSort(s, e, byNbr, swapper); //stable
+				}
+				compactOffset[lid] = w;
+				for(int i = s; i < e; ++i) {
+					if(i + 1 < e && newNbr[i] == newNbr[i + 1]) {
+						continue;
+					}
+					newNbr[w] = newNbr[i];
+					newLabel[w] = newLabel[i];
+					newWeight[w] = newWeight[i];
+					w++;
+				}
+				if(w - compactOffset[lid] > 1) {
+					it.unimi.dsi.fastutil.Arrays.quickSort(compactOffset[lid], w, byLabel, swapper);
+				}
+			}
+			compactOffset[n] = w;
+			offset = compactOffset;
+			nbr = (w == total) ? newNbr : Arrays.copyOf(newNbr, w);
+			label = (w == total) ? newLabel : Arrays.copyOf(newLabel, w);
+			weight = (w == total) ? newWeight : Arrays.copyOf(newWeight, w);
+		}
+	}
+
+	/**
+	 * A read-only collection over one CSR slice.
+	 * An iterator returns the same BasicEdge cursor at every step, so the caller has to copy
+	 * an edge it keeps beyond the next step.
+	 */
+	private static class SliceCollection extends AbstractCollection<BasicEdge> {
+		private final int[] nbr;
+		private final int[] label;
+		private final int[] weight;
+		private final int start;
+		private final int end;
+
+		SliceCollection(int[] nbr, int[] label, int[] weight, int start, int end) {
+			this.nbr = nbr;
+			this.label = label;
+			this.weight = weight;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public Iterator<BasicEdge> iterator() {
+			return new Iterator<BasicEdge>() {
+				private int pos = start;
+				private final BasicEdge cursor = new BasicEdge();
+
+				@Override
+				public boolean hasNext() {
+					return pos < end;
+				}
+
+				@Override
+				public BasicEdge next() {
+					if(pos >= end) {
+						throw new NoSuchElementException();
+					}
+					cursor.initialize(nbr[pos], label[pos], weight[pos]);
+					pos++;
+					return cursor;
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+
+		@Override
+		public int size() {
+			return end - start;
+		}
+	}
+
+	/**
+	 * View of a vertex on the CSR arrays. Only the partial paths (tmp neighbors) are kept
+	 * in the object itself.
+	 */
+	private class CSRVertex extends BasicVertex {
+		private final int lid;
+		private ArrayList<BasicEdge> tmpNeighborStore;
+
+		CSRVertex(int lid) {
+			this.lid = lid;
+		}
+
+		/* re-initialize the slot of this view: new global id and label, no edges and no partial paths. */
+		@Override
+		public void initialize(int id, int label) {
+			int oldId = lid2gid.getInt(lid);
+			if(gid2lid.get(oldId) == lid) {
+				gid2lid.remove(oldId);
+			}
+			gid2lid.put(id, lid);
+			lid2gid.set(lid, id);
+			setVertexLabel(lid, label);
+			vertexSid.set(lid, -1);
+			vertexWeight.set(lid, 0);
+			tmpNeighborStore = null;
+			out.clear(lid);
+			in.clear(lid);
+		}
+
+		@Override
+		public int getSid() {
+			return vertexSid.getInt(lid);
+		}
+
+		@Override
+		public int getWeight() {
+			return vertexWeight.getInt(lid);
+		}
+
+		@Override
+		public void setSid(int sid) {
+			vertexSid.set(lid, sid);
+		}
+
+		@Override
+		public void setWeight(int weight) {
+			vertexWeight.set(lid, weight);
+		}
+
+		@Override
+		public int getId() {
+			return lid2gid.getInt(lid);
+		}
+
+		@Override
+		public int getLabel() {
+			return vertexLabel.getInt(lid);
+		}
+
+		@Override
+		public void setLabel(int label) {
+			setVertexLabel(lid, label);
+		}
+
+		/* graph edges carry raw int weights; partial paths are kept as tmp neighbors. */
+		@Override
+		public void addOutNeighbor(BasicEdge newEdge) {
+			out.stage(lid, newEdge.getVid(), newEdge.getLabel(), (int) newEdge.getWeight());
+		}
+
+		@Override
+		public void addInNeighbor(BasicEdge newEdge) {
+			in.stage(lid, newEdge.getVid(), newEdge.getLabel(), (int) newEdge.getWeight());
+		}
+
+		@Override
+		public void addTmpNeighbor(BasicEdge edge) {
+			if(tmpNeighborStore == null) {
+				tmpNeighborStore = new ArrayList<BasicEdge>();
+			}
+			tmpNeighborStore.add(edge);
+		}
+
+		@Override
+		public void clearTmpeNeighbors() {
+			tmpNeighborStore = null;
+		}
+
+		@Override
+		public Collection<BasicEdge> getOutNeighbors(){
+			out.checkCompacted(lid);
+			return new SliceCollection(out.nbr, out.label, out.weight, out.start(lid), out.end(lid));
+		}
+
+		@Override
+		public Collection<BasicEdge> getInNeighbors() {
+			in.checkCompacted(lid);
+			return new SliceCollection(in.nbr, in.label, in.weight, in.start(lid), in.end(lid));
+		}
+
+		@Override
+		public Collection<BasicEdge> getTmpNeighbors() {
+			if(tmpNeighborStore == null) {
+				return Collections.<BasicEdge>emptyList();
+			}
+			return tmpNeighborStore;
+		}
+
+		@Override
+		public int getOutDegree(){
+			return out.degree(lid);
+		}
+
+		@Override
+		public int getInDegree() {
+			return in.degree(lid);
+		}
+
+		@Override
+		public boolean containNeighbor(int vid){
+			out.checkCompacted(lid);
+			for(int i = out.start(lid); i < out.end(lid); ++i) {
+				if(out.nbr[i] == vid) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public boolean containNeighbor(BasicEdge ne){
+			out.checkCompacted(lid);
+			for(int i = out.start(lid); i < out.end(lid); ++i) {
+				if(out.nbr[i] == ne.getVid() && out.label[i] == ne.getLabel()) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public void removeEdge(int targetId) {
+			out.remove(lid, targetId);
+		}
+
+		@Override
+		public String toString(){
+			StringBuilder res = new StringBuilder();
+			res.append("vid="+getId()+" label="+getLabel()+"\n\toutNbrSize="+getOutDegree()+" outNbrList=");
+			/* no neighbor list before the changes are merged, the degrees are known anyway. */
+			if(out.isCompacted(lid)){
+				appendEdges(res, getOutNeighbors());
+			}
+			else{
+				res.append("(uncompacted)");
+			}
+			res.append("\n\tinNbrSize="+getInDegree()+" inNBrList=");
+			if(in.isCompacted(lid)){
+				appendEdges(res, getInNeighbors());
+			}
+			else{
+				res.append("(uncompacted)");
+			}
+			res.append("\n\ttmpNbrSize="+getTmpNeighbors().size()+" tmpNbrList=");
+			appendEdges(res, getTmpNeighbors());
+			res.append("sid = "+ getSid()+" weight="+getWeight());
+			return res.toString();
+		}
+
+		private void appendEdges(StringBuilder res, Iterable<BasicEdge> edges){
+			res.append("(");
+			for(BasicEdge vid : edges){
+				res.append(" id="+vid.getVid()+", w="+vid.getWeight()+", l="+vid.getLabel());
+			}
+			res.append(")");
+		}
+	}
+}
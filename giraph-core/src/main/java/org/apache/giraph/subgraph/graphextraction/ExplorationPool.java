@@ -0,0 +1,154 @@
+package org.apache.giraph.subgraph.graphextraction;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.subgraph.ParallelKTrussPruner;
+import org.apache.hadoop.conf.Configuration;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Split a loop of the two-hop exploration over the threads of one worker, configured by
+ * "grapholap.path.evaluation.exploration.threads" (1: the compute thread only) and
+ * "grapholap.path.evaluation.exploration.chunk" (vertices per chunk).
+ *
+ * Every ChunkWorker claims the next chunk of [0, n) from a shared counter until the loop
+ * is done, so the threads balance themselves on skewed degrees as with work stealing.
+ * The first worker runs in the calling compute thread, the others in a pool shared by all
+ * the compute threads of the JVM (see getPool). A worker keeps its own state (send buffers,
+ * aggregation maps), and finish() is called in its thread once it runs out of chunks.
+ *
+ * @author simon0227
+ */
+public class ExplorationPool {
+
+	public interface ChunkWorker {
+		/**
+		 * explore the items [from, to).
+		 */
+		void run(int from, int to) throws IOException;
+
+		/**
+		 * no chunk is left, e.g. flush the messages.
+		 */
+		void finish() throws IOException;
+	}
+
+	private static ExecutorService pool;
+
+	public static int getThreads(Configuration conf) {
+		return Math.max(1, GiraphConstants.GRAPHOLAP_PATH_EVALUATION_EXPLORATION_THREADS.get(conf));
+	}
+
+	public static int getChunkSize(Configuration conf) {
+		return Math.max(1, GiraphConstants.GRAPHOLAP_PATH_EVALUATION_EXPLORATION_CHUNK.get(conf));
+	}
+
+	/**
+	 * the pool is created once, with a thread less than the largest of the loops (the
+	 * exploration and the k-truss pruning, ParallelKTrussPruner), and never shut down: other
+	 * compute threads may be waiting on it. The compute threads share it, so the workers
+	 * of concurrent loops queue up there, while every loop also runs in its calling thread.
+	 */
+	private static synchronized ExecutorService getPool(Configuration conf) {
+		if(pool == null) {
+			int size = Math.max(getThreads(conf), ParallelKTrussPruner.getThreads(conf)) - 1;
+			pool = Executors.newFixedThreadPool(Math.max(1, size), new ThreadFactoryBuilder()
+					.setNameFormat("exploration-%d").setDaemon(true).build());
+		}
+		return pool;
+	}
+
+	/**
+	 * run the workers over [0, n) and wait for all of them.
+	 */
+	public static void run(Configuration conf, final int n, final int chunkSize,
+			List<? extends ChunkWorker> workers) throws IOException {
+		final AtomicInteger next = new AtomicInteger(0);
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		if(workers.size() > 1) {
+			ExecutorService executor = getPool(conf);
+			for(int i = 1; i < workers.size(); ++i) {
+				final ChunkWorker worker = workers.get(i);
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws IOException {
+						boolean done = false;
+						try {
+							loop(n, chunkSize, next, worker);
+							done = true;
+						} finally {
+							if(!done) {
+								next.set(n); //stop the others.
+							}
+						}
+						return null;
+					}
+				}));
+			}
+		}
+		/* the helpers write into the shared state of the caller, e.g. the explorers, so they
+		 * are stopped and waited for before anything is thrown. */
+		Exception failure = null;
+		try {
+			loop(n, chunkSize, next, workers.get(0));
+		} catch (IOException e) {
+			failure = e;
+		} catch (RuntimeException e) {
+			failure = e;
+		}
+		if(failure != null) {
+			next.set(n); //stop the others.
+		}
+		boolean interrupted = false;
+		for(Future<Void> future : futures) {
+			while(true) {
+				try {
+					future.get();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+					next.set(n);
+				} catch (ExecutionException e) {
+					if(failure == null) {
+						failure = new IOException("run: exploration failed.", e.getCause());
+					}
+					break;
+				}
+			}
+		}
+		if(interrupted) {
+			Thread.currentThread().interrupt();
+			if(failure == null) {
+				throw new IllegalStateException("run: interrupted while exploring.");
+			}
+		}
+		if(failure instanceof IOException) {
+			throw (IOException) failure;
+		}
+		if(failure != null) {
+			throw (RuntimeException) failure;
+		}
+	}
+
+	private static void loop(int n, int chunkSize, AtomicInteger next, ChunkWorker worker)
+			throws IOException {
+		while(true) {
+			int from = next.getAndAdd(chunkSize);
+			if(from >= n || from < 0) {
+				break;
+			}
+			worker.run(from, Math.min(n, from + chunkSize));
+		}
+		worker.finish();
+	}
+}
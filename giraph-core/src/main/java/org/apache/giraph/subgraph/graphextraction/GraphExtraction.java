@@ -1,8 +1,6 @@
 package org.apache.giraph.subgraph.graphextraction;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.concurrent.BlockingQueue;
 
@@ -12,8 +10,6 @@ import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.giraph.graph.GraphState;
 import org.apache.giraph.partition.Partition;
 import org.apache.giraph.partition.PartitionStats;
-import org.apache.giraph.plan.EdgeDirection;
-import org.apache.giraph.plan.QueryNode;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.mapreduce.Mapper;
 
@@ -25,11 +21,8 @@ import org.apache.hadoop.mapreduce.Mapper;
  * @param <V>
  *
  */
-public class GraphExtraction<I,V,E,M> extends GraphExtractionCallable<IntWritable, IntWritable, IntWritable, PartialAggregatedPath> {
+public class GraphExtraction<I,V,E,M> extends PathEvaluationCallable {
 
-	private ArrayList<QueryNode> queries;
-	private long msgCount = 0;
-	
  	public GraphExtraction(
 			Mapper<?, ?, ?, ?>.Context context,
 			GraphState<IntWritable, IntWritable, IntWritable, PartialAggregatedPath> graphState,
@@ -100,6 +93,9 @@ public class GraphExtraction<I,V,E,M> extends GraphExtractionCallable<IntWritabl
 			PartialAggregatedPath newMsg = new PartialAggregatedPath();
 			newMsg.setVid(vertex.getId());
 			newMsg.setVlabel(vertex.getLabel());
+			if(labelStatistics != null) {
+				labelStatistics.startVertex(vertex);
+			}
 			for(PartialAggregatedPath msg : messages) {
 				if(false == localGraph.hasVertex(msg.getVid())) { //TODO: costy?
 					localGraph.createVertex(msg.getVid(), msg.getVlabel());
@@ -109,12 +105,19 @@ public class GraphExtraction<I,V,E,M> extends GraphExtractionCallable<IntWritabl
 				}
 				vertex.addInNeighbor(new BasicEdge(msg.getVid(), msg.getElabel(), msg.getWeight()));
 				
+				if(labelStatistics != null) {
+					labelStatistics.addInEdge(msg.getVlabel(), msg.getElabel());
+				}
+				
 				newMsg.setElabel(msg.getElabel());
 				newMsg.setWeight(msg.getWeight());
 				if(workerClientRequestProcessor.sendMessageRequest(new IntWritable(msg.getVid()), newMsg)) { //TODO: do not send message if it is local.
 					graphState.getGraphTaskManager().notifySentMessages();
 				}
 			}
+			if(labelStatistics != null) {
+				labelStatistics.finishVertex();
+			}
 			
 			messageStore.clearVertexMessages(stubId);
 			// Add statistics for this vertex
@@ -160,13 +163,16 @@ public class GraphExtraction<I,V,E,M> extends GraphExtractionCallable<IntWritabl
 	        partitionStats.addEdgeCount(vertex.getOutDegree());
         }
 		
+		/* labels of all the neighbors are known now, group the adjacency for the leaf queries. */
+		for(BasicVertex vertex : localGraph.getAllVertex()) {
+			vertex.setAdjacencyIndex(LabelAdjacencyIndex.build(localGraph, vertex));
+		}
+		
 //		sendMsg = 0;
 		/* initialize the query */
 		//scan over all the vertex and execute the 2-hop exploration;
 		//all the vertex are treated as starting vertex
-		for(BasicVertex vertex : localGraph.getAllVertex()) {
-			twoHopExploration(localGraph, vertex);
-		}
+		explore(localGraph, getAllVertices(localGraph), true, true, partitionStats);
 //		System.out.println("Send Msg: "+ sendMsg+ " vcount="+localGraph.getAllVertex().size());
 	}
 	
@@ -180,6 +186,10 @@ public class GraphExtraction<I,V,E,M> extends GraphExtractionCallable<IntWritabl
 			saveExtractedGraph(localGraph, partitionStats);
 			return;
 		}
+		if(pathJoin != null) {
+			executeQueryWithPathStore(localGraph, partitionStats);
+			return;
+		}
 		
 		long startTime = System.currentTimeMillis();
 		
@@ -203,8 +213,16 @@ public class GraphExtraction<I,V,E,M> extends GraphExtractionCallable<IntWritabl
 		/* 2. query on the updated local storage through two-hop neighbor exploration 
 		 * 	and generate new messages */
 		msgCount = 0;
+		BasicVertex[] startVertices = new BasicVertex[startVertexId.size()];
+		int n = 0;
 		for(int vertexId : startVertexId) {
-			twoHopExploration(localGraph, localGraph.getVertex(vertexId)); //TODO: random access vertex.
+			startVertices[n++] = localGraph.getVertex(vertexId);
+		}
+		explore(localGraph, startVertices, false, true, partitionStats);
+		/* a leaf query above the lowest level of the plan, e.g. of a shorter line pattern,
+		 * starts from all the vertices as in superstep 2. */
+		if(hasLeafQuery(queries)) {
+			explore(localGraph, getAllVertices(localGraph), true, false, partitionStats);
 		}
 		long endTime = System.currentTimeMillis();
 		System.out.println("Total Messages need to be sent: "+msgCount+" startVertexSize="+startVertexId.size()+" preprocessTime="+(midTime - startTime)+" executeTime="+(endTime-midTime)
@@ -216,160 +234,16 @@ public class GraphExtraction<I,V,E,M> extends GraphExtractionCallable<IntWritabl
 	private void saveExtractedGraph(BasicGraphStoreInterface localGraph,
 			PartitionStats partitionStats) throws IOException {
 		IntWritable stubId = new IntWritable();
-		HashMap<Integer, Integer> cleanEdges = new HashMap<Integer, Integer>();
 		for (BasicVertex vertex : localGraph.getLocalVertex()) {
 			stubId.set(vertex.getId());
 			Iterable<PartialAggregatedPath> messages = messageStore.getVertexMessages(stubId);
-			cleanEdges.clear();
-			for(PartialAggregatedPath msg : messages) {
-				int nid = msg.getTid();
-				Integer curWeight = cleanEdges.get(nid);
-				if(curWeight == null) {
-					curWeight = 0;
-				}
-				curWeight += msg.getWeight(); //aggregation - II;
-				cleanEdges.put(nid, curWeight); //TODO: here the root query is Right query, so the messages are grouped by sid.
-			}
-			
-			for(int sourceId : cleanEdges.keySet()) {
-				BasicEdge be = new BasicEdge();
-				be.setVid(sourceId);
-				be.setWeight(cleanEdges.get(sourceId));
-				vertex.addTmpNeighbor(be);
-			}
+			addRootPaths(vertex, messages);
 			
 			// Remove the messages now that the vertex has finished computation
 			messageStore.clearVertexMessages(stubId);
 		}	
 	}
 
-	/**
-	 * start two-hop exploration for a certain vertex.
-	 */
-	private void twoHopExploration(BasicGraphStoreInterface localGraph, BasicVertex startVertex) {
-		queries = graphState.getGraphTaskManager().getQueries();
-		/* NOTE: if left (right) queryId = -1 in query node, 
-		 * it means an empty left (right) query. 
-		 */
-		for(QueryNode qn : queries) {
-			if(qn.isLeafNode()) {
-				leafNodeQuery(qn, localGraph, startVertex);
-			}
-			else {
-				midNodeQuery(qn, localGraph, startVertex);
-			}
-		}
-	}
-	
-	private void leafNodeQuery(QueryNode query, BasicGraphStoreInterface localGraph, BasicVertex startVertex) {
-		/* TODO: make sure the left is non-empty in the query node. */
-		if(query.getLeftLabel() == startVertex.getLabel()) {
-			/* NOTE: in the query node, the edge direction is determined against the middle vertex. 
-			 * here the startVertex is left-end vertex, not the middle vertex. */
-			EdgeDirection ed = EdgeDirection.BOTH;
-			if(query.getLeftEdgeDirection() == EdgeDirection.INCOMING)
-				ed = EdgeDirection.OUTGOING;
-			if(query.getLeftEdgeDirection() == EdgeDirection.OUTGOING)
-				ed = EdgeDirection.INCOMING;
-			ArrayList<BasicEdge> firstNbrs = getMatchedEdge(localGraph, startVertex, query.getNodeLabel(), ed, query.getLeftEdgeLabel());
-			HashMap<Integer, Integer> aggWeights = new HashMap<Integer, Integer>();
-			int count = 0;
-			if(query.getRightLabel() == -1) {
-				for(BasicEdge be : firstNbrs) {
-					aggWeights.put(be.getVid(), be.getWeight());
-					count++;
-				}
-			} else {
-				for(BasicEdge be : firstNbrs) {
-					BasicVertex bv = localGraph.getVertex(be.getVid());
-					ArrayList<BasicEdge> secondNbrs = getMatchedEdge(localGraph, bv, query.getRightLabel(), query.getRightEdgeDirection(), query.getRightEdgeLabel());
-					for(BasicEdge edge : secondNbrs) {
-						//save vertex edge.getVid;
-						Integer curVal = aggWeights.get(edge.getVid());
-						if(curVal == null) {
-							curVal = 0;
-						}
-						//aggregate-I $otimes$
-						int deleta = be.getWeight() * edge.getWeight();
-						//aggregate-II $oplus$
-						curVal += deleta;
-						aggWeights.put(edge.getVid(), curVal);
-						count++;
-					}
-				}
-			}
-
-			/* send messages */
-			for(int vid : aggWeights.keySet()) {
-				IntWritable targetId = new IntWritable(query.isLeftQuery() == true ? vid : startVertex.getId());
-				PartialAggregatedPath msg = new PartialAggregatedPath();
-				msg.setQid(query.getNodeId());
-				msg.setWeight(aggWeights.get(vid));
-				msg.setSid(startVertex.getId());
-				msg.setTid(vid);
-				this.workerClientRequestProcessor.sendMessageRequest(targetId, msg);
-			}
-		}
-	}
-	
-	private void midNodeQuery(QueryNode query, BasicGraphStoreInterface localGraph, BasicVertex startVertex) {
-		HashMap<Integer, Integer> aggWeights = new HashMap<Integer, Integer>();
-		for(BasicEdge be : startVertex.getTmpNeighbors()) {
-			if(be.getLabel() == query.getLeftEdgeLabel()) {
-				BasicVertex midVertex = localGraph.getVertex(be.getVid()); //TODO: randomly access vertex.!!!!
-				if(midVertex.getLabel() == query.getNodeLabel()) {
-					for(BasicEdge edge : midVertex.getTmpNeighbors()) { //here can also be a leaf query.
-						if(edge.getLabel() == query.getRightQueryId()) {
-							//save vertex edge.getVid;
-							Integer curVal = aggWeights.get(edge.getVid());
-							if(curVal == null) {
-								curVal = 0;
-							}
-//							//aggregate-I $otimes$
-							int deleta = be.getWeight() * edge.getWeight();
-							
-							curVal += deleta;
-							aggWeights.put(edge.getVid(), curVal); //TODO: cost here!!!!!!
-						}
-					}
-				}
-			}
-		}
-		/* send messages */
-		/*42 min*/
-		for(int vid : aggWeights.keySet()) {
-			IntWritable targetId = new IntWritable(query.isLeftQuery() == true ? vid : startVertex.getId());
-			PartialAggregatedPath msg = new PartialAggregatedPath();
-			msg.setQid(query.getNodeId());
-			msg.setWeight(aggWeights.get(vid));
-			msg.setSid(startVertex.getId());
-			msg.setTid(vid);
-			msgCount++;
-			this.workerClientRequestProcessor.sendMessageRequest(targetId, msg);
-		}
-	}
-
-	private ArrayList<BasicEdge> getMatchedEdge(BasicGraphStoreInterface localGraph, BasicVertex vertex,
-			int nodeLabel, EdgeDirection edgeDirection, int edgeLabel) {
-		ArrayList<BasicEdge> res = new ArrayList<BasicEdge>();
-		if(edgeDirection == EdgeDirection.INCOMING || edgeDirection == EdgeDirection.BOTH) {
-			for(BasicEdge be : vertex.getInNeighbors()) {
-				if((localGraph.getVertex(be.getVid()) != null && localGraph.getVertex(be.getVid()).getLabel() == nodeLabel) && be.getLabel() == edgeLabel) {
-					res.add(be);
-				}
-			}
-		}
-
-		if(edgeDirection == EdgeDirection.OUTGOING || edgeDirection == EdgeDirection.BOTH) {
-			for(BasicEdge be : vertex.getOutNeighbors()) {
-				if((localGraph.getVertex(be.getVid()) != null && localGraph.getVertex(be.getVid()).getLabel() == nodeLabel) && be.getLabel() == edgeLabel) {
-					res.add(be);
-				}
-			}
-		}
-		return res;
-	}
-
 	/**
 	 * attach messages to the correspond vertices 
 	 * for preparing the two-hop neighbor exploration.
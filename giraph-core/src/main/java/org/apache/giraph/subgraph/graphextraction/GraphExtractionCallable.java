@@ -191,6 +191,7 @@ public abstract class GraphExtractionCallable<I extends WritableComparable, V ex
           graphState.getSuperstep() + ".  Flushing started");
     }
     try {
+      finishComputation();
       workerClientRequestProcessor.flush();
       
       aggregatorUsage.finishThreadComputation();
@@ -200,6 +201,16 @@ public abstract class GraphExtractionCallable<I extends WritableComparable, V ex
     return partitionStatsList;
   }
   
+  /**
+   * Called once all the partitions of this thread are computed, before the
+   * request processor is flushed. Subclasses send the messages they buffer
+   * themselves here.
+   *
+   * @throws IOException
+   */
+  protected void finishComputation() throws IOException {
+  }
+
   public <A extends Writable> void aggregate(String name, A value) {
     graphState.getWorkerAggregatorUsage().aggregate(name, value);
   }
@@ -1,8 +1,6 @@
 package org.apache.giraph.subgraph.graphextraction;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.concurrent.BlockingQueue;
 
@@ -12,11 +10,12 @@ import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.giraph.graph.GraphState;
 import org.apache.giraph.partition.Partition;
 import org.apache.giraph.partition.PartitionStats;
-import org.apache.giraph.plan.EdgeDirection;
-import org.apache.giraph.plan.QueryNode;
+import org.apache.giraph.plan.QueryPlan;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.mapreduce.Mapper;
 
+import com.google.common.collect.Iterables;
+
 
 /**
  * configured by ...
@@ -25,15 +24,8 @@ import org.apache.hadoop.mapreduce.Mapper;
  * @param <V>
  *
  */
-public class GraphExtractionWithArrayBasedStore<I,V,E,M> extends GraphExtractionCallable<IntWritable, IntWritable, IntWritable, PartialAggregatedPath> {
+public class GraphExtractionWithArrayBasedStore<I,V,E,M> extends PathEvaluationCallable {
 
-	private ArrayList<QueryNode> queries;
-	private long msgCount = 0;
-//	private long sendMsg = 0;
-	
-	/* data structure for cache results during two-hop exploration. */
-//	private HashMap<Integer, Pair> cachedWeights;
-	
  	public GraphExtractionWithArrayBasedStore(
 			Mapper<?, ?, ?, ?>.Context context,
 			GraphState<IntWritable, IntWritable, IntWritable, PartialAggregatedPath> graphState,
@@ -49,12 +41,15 @@ public class GraphExtractionWithArrayBasedStore<I,V,E,M> extends GraphExtraction
 	 * supersteps 0 - 2: preprocess graph by materializing incoming edges and vertex labels.
 	 * superstep 2: the superstep 2 also initialize the query which process the lowest level of plan tree.
 	 * follow-up supersteps: finish evaluating the whole plan tree.
+	 * With a loaded snapshot (GraphStoreSnapshot) the graph is preprocessed already, so
+	 * superstep 0 starts with the step 2.
 	 */
 	@Override
 	public void computeSuperstep(Partition<IntWritable, IntWritable, IntWritable, PartialAggregatedPath> partition,
 			PartitionStats partitionStats) throws IOException, InterruptedException {
 		BasicGraphStoreInterface localGraph = (BasicGraphStoreInterface) partition;
-		switch((int)graphState.getSuperstep()) {
+		int step = (int)graphState.getSuperstep() + 2 - QueryPlan.getFirstQuerySuperstep(configuration);
+		switch(step) {
 			case 0: notifyOutNeighbors(localGraph, partitionStats); break;
 			case 1: updateLocalGraph(localGraph, partitionStats); break;
 			case 2: initializeQuery(localGraph, partitionStats); break;
@@ -105,6 +100,9 @@ public class GraphExtractionWithArrayBasedStore<I,V,E,M> extends GraphExtraction
 			newMsg.setVid(vertex.getId());
 			newMsg.setVlabel(vertex.getLabel());
 			int vertexLocalId = localGraph.getLocalId(vertex.getId());
+			if(labelStatistics != null) {
+				labelStatistics.startVertex(vertex);
+			}
 			for(PartialAggregatedPath msg : messages) {
 				if(false == localGraph.hasVertex(msg.getVid())) {
 					localGraph.createVertex(msg.getVid(), msg.getVlabel());
@@ -117,12 +115,19 @@ public class GraphExtractionWithArrayBasedStore<I,V,E,M> extends GraphExtraction
 				}
 				vertex.addInNeighbor(new BasicEdge(localId, msg.getElabel(), msg.getWeight()));
 				
+				if(labelStatistics != null) {
+					labelStatistics.addInEdge(msg.getVlabel(), msg.getElabel());
+				}
+				
 				newMsg.setElabel(msg.getElabel());
 				newMsg.setWeight(msg.getWeight());
 				if(workerClientRequestProcessor.sendMessageRequest(new IntWritable(msg.getVid()), newMsg)) { //TODO: do not send message if it is local.
 					graphState.getGraphTaskManager().notifySentMessages();
 				}
 			}
+			if(labelStatistics != null) {
+				labelStatistics.finishVertex();
+			}
 			
 			messageStore.clearVertexMessages(stubId);
 			// Add statistics for this vertex
@@ -161,15 +166,27 @@ public class GraphExtractionWithArrayBasedStore<I,V,E,M> extends GraphExtraction
 	        partitionStats.addEdgeCount(vertex.getOutDegree());
         }
 		
-		int vcount = 0;
-		/* initialize the query */
-		//scan over all the vertex and execute the 2-hop exploration;
-		//all the vertex are treated as starting vertex
+		/* the adjacency and the labels are complete: merge and sort the slices once, the exploration threads only read them. */
+		if(localGraph instanceof CSRGraphStore) {
+			((CSRGraphStore) localGraph).compact();
+		}
+		
+		/* the preprocessing is done, the same for all the queries on this graph. */
+		if(GraphStoreSnapshot.isSaving(configuration)) {
+			GraphStoreSnapshot.save(configuration, localGraph, partitionStats.getPartitionId(),
+					Iterables.size(serviceWorker.getPartitionOwners()));
+		}
+		
+		/* labels of all the neighbors are known now, group the adjacency for the leaf queries. */
 		for(BasicVertex vertex : localGraph.getAllVertex()) {
 			if(vertex == null) break;
-			vcount++;
-			twoHopExploration(localGraph, vertex);
+			vertex.setAdjacencyIndex(LabelAdjacencyIndex.build(localGraph, vertex));
 		}
+		
+		/* initialize the query */
+		//scan over all the vertex and execute the 2-hop exploration;
+		//all the vertex are treated as starting vertex
+		explore(localGraph, getAllVertices(localGraph), true, true, partitionStats);
 	}
 	
 	public void executeQuery(BasicGraphStoreInterface localGraph,
@@ -182,6 +199,10 @@ public class GraphExtractionWithArrayBasedStore<I,V,E,M> extends GraphExtraction
 			saveExtractedGraph(localGraph, partitionStats);
 			return;
 		}
+		if(pathJoin != null) {
+			executeQueryWithPathStore(localGraph, partitionStats);
+			return;
+		}
 		
 		long startTime = System.currentTimeMillis();
 		
@@ -203,8 +224,16 @@ public class GraphExtractionWithArrayBasedStore<I,V,E,M> extends GraphExtraction
 		/* 2. query on the updated local storage through two-hop neighbor exploration 
 		 * 	and generate new messages */
 		msgCount = 0;
+		BasicVertex[] startVertices = new BasicVertex[startVertexLocalId.size()];
+		int n = 0;
 		for(int vertexId : startVertexLocalId) {
-			twoHopExploration(localGraph, localGraph.getVertex(vertexId));
+			startVertices[n++] = localGraph.getVertex(vertexId);
+		}
+		explore(localGraph, startVertices, false, true, partitionStats);
+		/* a leaf query above the lowest level of the plan, e.g. of a shorter line pattern,
+		 * starts from all the vertices as in superstep 2. */
+		if(hasLeafQuery(queries)) {
+			explore(localGraph, getAllVertices(localGraph), true, false, partitionStats);
 		}
 		long endTime = System.currentTimeMillis();
 		System.out.println("Total Messages need to be sent: "+msgCount+" startVertexSize="+startVertexLocalId.size()+" preprocessTime="+(midTime - startTime)+" executeTime="+(endTime-midTime));
@@ -215,30 +244,10 @@ public class GraphExtractionWithArrayBasedStore<I,V,E,M> extends GraphExtraction
 	private void saveExtractedGraph(BasicGraphStoreInterface localGraph,
 			PartitionStats partitionStats) throws IOException {
 		IntWritable stubId = new IntWritable();
-		HashMap<Integer, Integer> cleanEdges = new HashMap<Integer, Integer>();
 		for (BasicVertex vertex : localGraph.getLocalVertex()) {
 			stubId.set(vertex.getId());
 			Iterable<PartialAggregatedPath> messages = messageStore.getVertexMessages(stubId);
-			cleanEdges.clear();
-			for(PartialAggregatedPath msg : messages) {
-//				vertex.addTmpNeighbor(msg.getTid(), msg.getWeight());
-//				System.out.println("Final: sid="+msg.getSid()+" tid="+msg.getTid()+" vid="+vertex.getId()+" groupby="+msg.getTid());
-				int nid = msg.getTid();
-				Integer curWeight = cleanEdges.get(nid);
-				if(curWeight == null) {
-					curWeight = 0;
-				}
-				curWeight += msg.getWeight(); //aggregation - II;
-				cleanEdges.put(nid, curWeight); //TODO: here the root query is Right query, so the messages are grouped by sid.
-			}
-			
-			for(int sourceId : cleanEdges.keySet()) {
-				BasicEdge be = new BasicEdge();
-				be.setVid(sourceId);
-				be.setWeight(cleanEdges.get(sourceId));
-//				System.out.println("sourceId="+sourceId+" edge="+be.toString());
-				vertex.addTmpNeighbor(be);
-			}
+			addRootPaths(vertex, messages);
 			
 			// Remove the messages now that the vertex has finished computation
 			messageStore.clearVertexMessages(stubId);
@@ -248,146 +257,6 @@ public class GraphExtractionWithArrayBasedStore<I,V,E,M> extends GraphExtraction
 		}
 	}
 
-	/**
-	 * start two-hop exploration for a certain vertex.
-	 */
-	private void twoHopExploration(BasicGraphStoreInterface localGraph, BasicVertex startVertex) {
-		queries = graphState.getGraphTaskManager().getQueries();
-		/* NOTE: if left (right) queryId = -1 in query node, 
-		 * it means an empty left (right) query. 
-		 */
-		for(QueryNode qn : queries) {
-			if(qn.isLeafNode()) {
-				leafNodeQuery(qn, localGraph, startVertex);
-			}
-			else {
-				midNodeQuery(qn, localGraph, startVertex);
-			}
-		}
-	}
-	
-	private void leafNodeQuery(QueryNode query, BasicGraphStoreInterface localGraph, BasicVertex startVertex) {
-		/* TODO: make sure the left is non-empty in the query node. */
-		if(query.getLeftLabel() == startVertex.getLabel()) {
-			/* NOTE: in the query node, the edge direction is determined against the middle vertex. 
-			 * here the startVertex is left-end vertex, not the middle vertex. */
-			EdgeDirection ed = EdgeDirection.BOTH;
-			if(query.getLeftEdgeDirection() == EdgeDirection.INCOMING)
-				ed = EdgeDirection.OUTGOING;
-			if(query.getLeftEdgeDirection() == EdgeDirection.OUTGOING)
-				ed = EdgeDirection.INCOMING;
-			ArrayList<BasicEdge> firstNbrs = getMatchedEdge(localGraph, startVertex, query.getNodeLabel(), ed, query.getLeftEdgeLabel());
-			HashMap<Integer, Integer> aggWeights = new HashMap<Integer, Integer>();
-			int count = 0;
-			if(query.getRightLabel() == -1) {
-				for(BasicEdge be : firstNbrs) {
-					aggWeights.put(be.getVid(), be.getWeight());
-					count++;
-				}
-			} else {
-				for(BasicEdge be : firstNbrs) {
-					BasicVertex bv = localGraph.getVertex(be.getVid());
-					ArrayList<BasicEdge> secondNbrs = getMatchedEdge(localGraph, bv, query.getRightLabel(), query.getRightEdgeDirection(), query.getRightEdgeLabel());
-					for(BasicEdge edge : secondNbrs) {
-//						System.out.println("qid="+query.getNodeId()+" startId="+startVertex.getId()+" "+edge.toString());
-						//save vertex edge.getVid;
-						Integer curVal = aggWeights.get(edge.getVid());
-						if(curVal == null) {
-							curVal = 0;
-						}
-						//aggregate-I $otimes$
-						int deleta = be.getWeight() * edge.getWeight();
-						//aggregate-II $oplus$
-						curVal += deleta;
-						aggWeights.put(edge.getVid(), curVal);
-						count++;
-					}
-				}
-			}
-//			System.out.println("qid = "+query.getNodeId()+" count="+count +" startVertexId="+startVertex.toString());
-			/* send messages */
-
-			for(int vid : aggWeights.keySet()) {
-				int gid = localGraph.getGlobalId(vid);
-				IntWritable targetId = new IntWritable(query.isLeftQuery() == true ? gid : startVertex.getId());
-				PartialAggregatedPath msg = new PartialAggregatedPath();
-				msg.setQid(query.getNodeId());
-				msg.setWeight(aggWeights.get(vid));
-				msg.setSid(startVertex.getId());
-				msg.setTid(gid);
-				this.workerClientRequestProcessor.sendMessageRequest(targetId, msg);
-//				System.out.println("Leaf query message: qid="+msg.getQid()+" weight="+msg.getWeight()+" sid="+msg.getSid()+" tid="
-//						+msg.getTid()+" startId="+startVertex.getId()+" sendTargetId="+targetId);
-			}
-		}
-	}
-	
-	private void midNodeQuery(QueryNode query, BasicGraphStoreInterface localGraph, BasicVertex startVertex) {
-		ArrayList<Integer> reachedVertex = new ArrayList<Integer>();
-		int startLocalId = localGraph.getLocalId(startVertex.getId());
-
-		for(BasicEdge be : startVertex.getTmpNeighbors()) {
-			if(be.getLabel() == query.getLeftEdgeLabel()) {
-				BasicVertex midVertex = localGraph.getVertex(be.getVid()); 
-				if(midVertex.getLabel() == query.getNodeLabel()) {
-					for(BasicEdge edge : midVertex.getTmpNeighbors()) { //here can also be a leaf query.
-						if(edge.getLabel() == query.getRightQueryId()) {
-//							//aggregate-I $otimes$
-							int deleta = be.getWeight() * edge.getWeight();
-							
-							/* one hour 2 min*/
-							BasicVertex endBv = localGraph.getVertex(edge.getVid());
-							if(endBv.getSid() != startLocalId) {
-								reachedVertex.add(edge.getVid());
-								endBv.setSid(startLocalId);
-								endBv.setWeight(deleta);
-							}
-							else {
-								endBv.setWeight(endBv.getWeight() + deleta);
-							}
-						}
-					}
-				}
-			}
-		}
-		/* send messages */
-		/*42 min*/
-		for(int vid : reachedVertex) {
-			int gid = localGraph.getGlobalId(vid);
-			IntWritable targetId = new IntWritable(query.isLeftQuery() == true ? gid : startVertex.getId());
-			PartialAggregatedPath msg = new PartialAggregatedPath();
-			msg.setQid(query.getNodeId());
-			msg.setWeight(localGraph.getVertex(vid).getWeight()); // 42 min.
-			msg.setSid(startVertex.getId());
-			msg.setTid(gid);
-			msgCount++;
-			this.workerClientRequestProcessor.sendMessageRequest(targetId, msg);
-//			System.out.println("Mid query message: qid="+msg.getQid()+" weight="+msg.getWeight()+" sid="+msg.getSid()+" tid="
-//					+msg.getTid()+" startId="+startVertex.getId()+" sendTargetId="+targetId);
-		}
-	}
-
-	private ArrayList<BasicEdge> getMatchedEdge(BasicGraphStoreInterface localGraph, BasicVertex vertex,
-			int nodeLabel, EdgeDirection edgeDirection, int edgeLabel) {
-		ArrayList<BasicEdge> res = new ArrayList<BasicEdge>();
-		if(edgeDirection == EdgeDirection.INCOMING || edgeDirection == EdgeDirection.BOTH) {
-			for(BasicEdge be : vertex.getInNeighbors()) {
-				if((localGraph.getVertex(be.getVid()) != null && localGraph.getVertex(be.getVid()).getLabel() == nodeLabel) && be.getLabel() == edgeLabel) {
-					res.add(be);
-				}
-			}
-		}
-
-		if(edgeDirection == EdgeDirection.OUTGOING || edgeDirection == EdgeDirection.BOTH) {
-			for(BasicEdge be : vertex.getOutNeighbors()) {
-				if((localGraph.getVertex(be.getVid()) != null && localGraph.getVertex(be.getVid()).getLabel() == nodeLabel) && be.getLabel() == edgeLabel) {
-					res.add(be);
-				}
-			}
-		}
-		return res;
-	}
-
 	/**
 	 * attach messages to the correspond vertices 
 	 * for preparing the two-hop neighbor exploration.
@@ -0,0 +1,132 @@
+package org.apache.giraph.subgraph.graphextraction;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.log4j.Logger;
+
+/**
+ * Snapshot of the preprocessed local graph, i.e. the partition after supersteps 0 - 2 which
+ * materialize the in-edges, the neighbor labels and the remote vertices. These supersteps
+ * are the same for every query on a graph, so a job may save them and later jobs start
+ * with the query phase at superstep 0.
+ * 	-- "grapholap.path.evaluation.snapshot.save": directory to save to, in superstep 2.
+ * 	-- "grapholap.path.evaluation.snapshot.load": directory to load from, in the INPUT superstep.
+ *
+ * One file per partition (partition-$id), big-endian ints only:
+ * 	-- header: MAGIC, FORMAT_VERSION, version of the store, partition id, number of partitions.
+ * 	-- body:   written by the PersistentGraphStore.
+ * A snapshot on the local file system is memory-mapped, otherwise the file is read at once.
+ * The job loading a snapshot must use the same number of partitions and the same partitioner.
+ *
+ * @author simon0227
+ */
+public class GraphStoreSnapshot {
+
+	private static final Logger LOG = Logger.getLogger(GraphStoreSnapshot.class);
+
+	public static final int MAGIC = 0x47584753; //"GXGS"
+	public static final int FORMAT_VERSION = 1;
+	private static final int HEADER_INTS = 5;
+
+	public static Path getPath(String dir, int partitionId) {
+		return new Path(dir, "partition-" + partitionId);
+	}
+
+	public static boolean isSaving(Configuration conf) {
+		return GiraphConstants.GRAPHOLAP_PATH_EVALUATION_SNAPSHOT_SAVE.get(conf).length() > 0;
+	}
+
+	private static PersistentGraphStore asPersistent(BasicGraphStoreInterface store) {
+		if(!(store instanceof PersistentGraphStore)) {
+			throw new IllegalStateException("Snapshots are not supported by " + store.getClass().getName()
+					+ ", use a PersistentGraphStore such as CSRGraphStore.");
+		}
+		return (PersistentGraphStore) store;
+	}
+
+	public static void save(Configuration conf, BasicGraphStoreInterface store,
+			int partitionId, int numPartitions) throws IOException {
+		PersistentGraphStore pstore = asPersistent(store);
+		Path path = getPath(GiraphConstants.GRAPHOLAP_PATH_EVALUATION_SNAPSHOT_SAVE.get(conf), partitionId);
+		long startTime = System.currentTimeMillis();
+		FileSystem fs = path.getFileSystem(conf);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fs.create(path, true), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(pstore.getSnapshotVersion());
+			out.writeInt(partitionId);
+			out.writeInt(numPartitions);
+			pstore.writeSnapshot(out);
+		} finally {
+			out.close();
+		}
+		LOG.info("save: partition " + partitionId + " to " + path + " in "
+				+ (System.currentTimeMillis() - startTime) + " ms");
+	}
+
+	public static void load(Configuration conf, BasicGraphStoreInterface store,
+			int partitionId, int numPartitions) throws IOException {
+		PersistentGraphStore pstore = asPersistent(store);
+		Path path = getPath(GiraphConstants.GRAPHOLAP_PATH_EVALUATION_SNAPSHOT_LOAD.get(conf), partitionId);
+		long startTime = System.currentTimeMillis();
+		FileSystem fs = path.getFileSystem(conf);
+		long length = fs.getFileStatus(path).getLen();
+		if(length > Integer.MAX_VALUE) {
+			throw new IOException("load: snapshot " + path + " is larger than 2GB, use more partitions.");
+		}
+
+		ByteBuffer buffer;
+		if(fs instanceof LocalFileSystem || "file".equals(fs.getUri().getScheme())) {
+			RandomAccessFile file = new RandomAccessFile(new File(path.toUri().getPath()), "r");
+			try {
+				buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+			} finally {
+				file.close(); //the mapping stays valid.
+			}
+		}
+		else {
+			byte[] data = new byte[(int) length];
+			FSDataInputStream in = fs.open(path);
+			try {
+				in.readFully(0, data);
+			} finally {
+				in.close();
+			}
+			buffer = ByteBuffer.wrap(data);
+		}
+
+		IntBuffer ints = buffer.asIntBuffer();
+		if(ints.remaining() < HEADER_INTS || ints.get() != MAGIC) {
+			throw new IOException("load: " + path + " is not a graph store snapshot.");
+		}
+		int formatVersion = ints.get();
+		int storeVersion = ints.get();
+		if(formatVersion != FORMAT_VERSION || storeVersion != pstore.getSnapshotVersion()) {
+			throw new IOException("load: " + path + " has version " + formatVersion + "." + storeVersion
+					+ ", expected " + FORMAT_VERSION + "." + pstore.getSnapshotVersion());
+		}
+		int savedPartitionId = ints.get();
+		int savedNumPartitions = ints.get();
+		if(savedPartitionId != partitionId || savedNumPartitions != numPartitions) {
+			throw new IOException("load: " + path + " is partition " + savedPartitionId + " of "
+					+ savedNumPartitions + ", expected " + partitionId + " of " + numPartitions);
+		}
+		pstore.readSnapshot(ints);
+		LOG.info("load: partition " + partitionId + " from " + path + " in "
+				+ (System.currentTimeMillis() - startTime) + " ms");
+	}
+}
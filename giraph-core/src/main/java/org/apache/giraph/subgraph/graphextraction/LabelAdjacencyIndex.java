@@ -0,0 +1,291 @@
+package org.apache.giraph.subgraph.graphextraction;
+
+import it.unimi.dsi.fastutil.Swapper;
+import it.unimi.dsi.fastutil.ints.IntComparator;
+
+import org.apache.giraph.plan.EdgeDirection;
+
+/**
+ * Adjacency of one vertex grouped by (edge label, neighbor vertex label), per direction.
+ * 	-- built once the labels of all the (remote) neighbors are materialized, i.e. in superstep 2.
+ * 	-- the in-edges come at the positions [0, in-degree), the out-edges after them; the edges
+ * 	   of a group in one direction are one contiguous range [rangeStart, rangeEnd).
+ * 	-- EdgeDirection.BOTH is two ranges, see directions().
+ *
+ * The matched edges of a query node are found by binary search instead of
+ * scanning the whole neighborhood with a label lookup per edge.
+ * 	-- CSRGraphStore: the slices of the store are sorted by (edge label, neighbor label) by
+ * 	   its compact(), so the index only keeps the offsets of the vertex in the CSR arrays.
+ * 	-- the map-based stores: the edges are copied into parallel primitive arrays and sorted,
+ * 	   no BasicEdge object per edge.
+ *
+ * @author simon0227
+ */
+public abstract class LabelAdjacencyIndex {
+
+	public static final LabelAdjacencyIndex EMPTY = new CopiedIndex(new int[0], new long[0], new int[0], new int[0], 0);
+
+	private static final byte IN = 0;
+	private static final byte OUT = 1;
+
+	private static final EdgeDirection[] IN_AND_OUT = {EdgeDirection.INCOMING, EdgeDirection.OUTGOING};
+	private static final EdgeDirection[] ONLY_IN = {EdgeDirection.INCOMING};
+	private static final EdgeDirection[] ONLY_OUT = {EdgeDirection.OUTGOING};
+	private static final EdgeDirection[] NONE = {};
+
+	/**
+	 * the directions whose ranges make up the edges of direction (against this vertex),
+	 * e.g. INCOMING and OUTGOING for BOTH. Shared arrays, do not change them.
+	 */
+	public static EdgeDirection[] directions(EdgeDirection direction) {
+		switch(direction) {
+			case INCOMING: return ONLY_IN;
+			case OUTGOING: return ONLY_OUT;
+			case BOTH: return IN_AND_OUT;
+			default: return NONE;
+		}
+	}
+
+	/**
+	 * build the index of a vertex; the neighbors which are not in the local graph are dropped.
+	 * A CSRGraphStore has to be compacted after the last change of its edges and labels.
+	 * @param localGraph
+	 * @param vertex
+	 * @return
+	 */
+	public static LabelAdjacencyIndex build(BasicGraphStoreInterface localGraph, BasicVertex vertex) {
+		if(localGraph instanceof CSRGraphStore) {
+			CSRGraphStore csr = (CSRGraphStore) localGraph;
+			if(csr.isNeighborOrderStale()) {
+				throw new IllegalStateException("build: vertex labels changed since the last compact() "
+						+ "of the store, the slices are not sorted by the neighbor labels.");
+			}
+			int lid = localGraph.getLocalId(vertex.getId());
+			if(csr.getInStart(lid) == csr.getInEnd(lid) && csr.getOutStart(lid) == csr.getOutEnd(lid)) {
+				return EMPTY;
+			}
+			return new SliceIndex(csr, csr.getInStart(lid), csr.getInEnd(lid), csr.getOutStart(lid), csr.getOutEnd(lid));
+		}
+		int size = vertex.getInDegree() + vertex.getOutDegree();
+		if(size == 0) {
+			return EMPTY;
+		}
+		final int[] nbrs = new int[size];
+		final long[] weights = new long[size];
+		final int[] edgeLabels = new int[size];
+		final int[] nbrLabels = new int[size];
+		final byte[] directions = new byte[size];
+		int pos = 0;
+		for(BasicEdge be : vertex.getInNeighbors()) {
+			BasicVertex nbr = localGraph.getVertex(be.getVid());
+			if(nbr != null) {
+				nbrs[pos] = be.getVid();
+				weights[pos] = be.getWeight();
+				edgeLabels[pos] = be.getLabel();
+				nbrLabels[pos] = nbr.getLabel();
+				directions[pos] = IN;
+				pos++;
+			}
+		}
+		int inDegree = pos;
+		for(BasicEdge be : vertex.getOutNeighbors()) {
+			BasicVertex nbr = localGraph.getVertex(be.getVid());
+			if(nbr != null) {
+				nbrs[pos] = be.getVid();
+				weights[pos] = be.getWeight();
+				edgeLabels[pos] = be.getLabel();
+				nbrLabels[pos] = nbr.getLabel();
+				directions[pos] = OUT;
+				pos++;
+			}
+		}
+		return CopiedIndex.sort(nbrs, weights, edgeLabels, nbrLabels, directions, inDegree, pos);
+	}
+
+	private static int compareKey(int el1, int nl1, int el2, int nl2) {
+		if(el1 != el2) return el1 < el2 ? -1 : 1;
+		if(nl1 != nl2) return nl1 < nl2 ? -1 : 1;
+		return 0;
+	}
+
+	/**
+	 * NOTE: the direction is against this vertex, e.g. INCOMING returns the in-edges.
+	 * It is INCOMING or OUTGOING, BOTH is split by directions().
+	 */
+	public int rangeStart(int edgeLabel, int nbrLabel, EdgeDirection direction) {
+		switch(direction) {
+			case INCOMING: return lowerBound(0, getInDegree(), edgeLabel, nbrLabel);
+			case OUTGOING: return lowerBound(getInDegree(), size(), edgeLabel, nbrLabel);
+			case BOTH: throw new IllegalArgumentException("rangeStart: BOTH is two ranges, see directions().");
+			default: return 0;
+		}
+	}
+
+	public int rangeEnd(int edgeLabel, int nbrLabel, EdgeDirection direction) {
+		switch(direction) {
+			case INCOMING: return lowerBound(0, getInDegree(), edgeLabel, nbrLabel + 1);
+			case OUTGOING: return lowerBound(getInDegree(), size(), edgeLabel, nbrLabel + 1);
+			case BOTH: throw new IllegalArgumentException("rangeEnd: BOTH is two ranges, see directions().");
+			default: return 0;
+		}
+	}
+
+	/* the first position of [lo, hi) whose key is not smaller than the given key. */
+	private int lowerBound(int lo, int hi, int edgeLabel, int nbrLabel) {
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(compareKey(getEdgeLabel(mid), getNbrLabel(mid), edgeLabel, nbrLabel) < 0) {
+				lo = mid + 1;
+			}
+			else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	public abstract int getNbr(int pos);
+
+	/* raw weight of the graph edge */
+	public abstract long getWeight(int pos);
+
+	public abstract int size();
+
+	protected abstract int getInDegree();
+
+	protected abstract int getEdgeLabel(int pos);
+
+	protected abstract int getNbrLabel(int pos);
+
+	/**
+	 * offsets of one vertex in the CSR arrays of the store, sorted by (label, neighbor label).
+	 * The arrays are read from the store, which is not changed during the exploration.
+	 */
+	private static class SliceIndex extends LabelAdjacencyIndex {
+		private final CSRGraphStore csr;
+		private final int inStart;
+		private final int inDegree;
+		private final int outStart;
+		private final int size;
+
+		SliceIndex(CSRGraphStore csr, int inStart, int inEnd, int outStart, int outEnd) {
+			this.csr = csr;
+			this.inStart = inStart;
+			this.inDegree = inEnd - inStart;
+			this.outStart = outStart;
+			this.size = inDegree + outEnd - outStart;
+		}
+
+		@Override
+		public int getNbr(int pos) {
+			return pos < inDegree ? csr.getInNbrs()[inStart + pos] : csr.getOutNbrs()[outStart + pos - inDegree];
+		}
+
+		@Override
+		public long getWeight(int pos) {
+			return pos < inDegree ? csr.getInWeights()[inStart + pos] : csr.getOutWeights()[outStart + pos - inDegree];
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		protected int getInDegree() {
+			return inDegree;
+		}
+
+		@Override
+		protected int getEdgeLabel(int pos) {
+			return pos < inDegree ? csr.getInLabels()[inStart + pos] : csr.getOutLabels()[outStart + pos - inDegree];
+		}
+
+		@Override
+		protected int getNbrLabel(int pos) {
+			return csr.getLabel(getNbr(pos));
+		}
+	}
+
+	/**
+	 * the edges of a map-based store, copied into primitive arrays.
+	 */
+	private static class CopiedIndex extends LabelAdjacencyIndex {
+		/* neighbor id and raw weight of each edge */
+		private final int[] nbrs;
+		private final long[] weights;
+		private final int[] edgeLabels;
+		private final int[] nbrLabels;
+		private final int inDegree;
+
+		private CopiedIndex(int[] nbrs, long[] weights, int[] edgeLabels, int[] nbrLabels, int inDegree) {
+			this.nbrs = nbrs;
+			this.weights = weights;
+			this.edgeLabels = edgeLabels;
+			this.nbrLabels = nbrLabels;
+			this.inDegree = inDegree;
+		}
+
+		/* sort by (direction, edge label, neighbor label); the in-edges are the first inDegree ones. */
+		static LabelAdjacencyIndex sort(final int[] nbrs, final long[] weights, final int[] edgeLabels, final int[] nbrLabels,
+				final byte[] directions, int inDegree, int pos) {
+			it.unimi.dsi.fastutil.Arrays.quickSort(0, pos, new IntComparator() {
+				@Override
+				public int compare(int a, int b) {
+					if(directions[a] != directions[b]) return directions[a] - directions[b];
+					return compareKey(edgeLabels[a], nbrLabels[a], edgeLabels[b], nbrLabels[b]);
+				}
+
+				@Override
+				public int compare(Integer a, Integer b) {
+					return compare(a.intValue(), b.intValue());
+				}
+			}, new Swapper() {
+				@Override
+				public void swap(int a, int b) {
+					long w = weights[a]; weights[a] = weights[b]; weights[b] = w;
+					int t = nbrs[a]; nbrs[a] = nbrs[b]; nbrs[b] = t;
+					t = edgeLabels[a]; edgeLabels[a] = edgeLabels[b]; edgeLabels[b] = t;
+					t = nbrLabels[a]; nbrLabels[a] = nbrLabels[b]; nbrLabels[b] = t;
+					byte d = directions[a]; directions[a] = directions[b]; directions[b] = d;
+				}
+			});
+
+			if(pos == nbrs.length) {
+				return new CopiedIndex(nbrs, weights, edgeLabels, nbrLabels, inDegree);
+			}
+			return new CopiedIndex(java.util.Arrays.copyOf(nbrs, pos), java.util.Arrays.copyOf(weights, pos),
+					java.util.Arrays.copyOf(edgeLabels, pos), java.util.Arrays.copyOf(nbrLabels, pos), inDegree);
+		}
+
+		@Override
+		public int getNbr(int pos) {
+			return nbrs[pos];
+		}
+
+		@Override
+		public long getWeight(int pos) {
+			return weights[pos];
+		}
+
+		@Override
+		public int size() {
+			return nbrs.length;
+		}
+
+		@Override
+		protected int getInDegree() {
+			return inDegree;
+		}
+
+		@Override
+		protected int getEdgeLabel(int pos) {
+			return edgeLabels[pos];
+		}
+
+		@Override
+		protected int getNbrLabel(int pos) {
+			return nbrLabels[pos];
+		}
+	}
+}
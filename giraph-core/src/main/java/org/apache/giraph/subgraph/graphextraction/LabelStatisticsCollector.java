@@ -0,0 +1,68 @@
+package org.apache.giraph.subgraph.graphextraction;
+
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+
+import org.apache.giraph.plan.LabelStatistics;
+
+/**
+ * Collect the LabelStatistics of local vertices for the "cost" plan in superstep 1,
+ * where every in-edge message carries the label of its source vertex.
+ * 	-- edges are counted at their targets, per (source label, edge label, target label).
+ * 	-- in-degrees per (edge label, source label), out-degrees per edge label only since
+ * 	   the labels of the out-neighbors are not known yet.
+ *
+ * usage: startVertex, addInEdge for every in-edge, finishVertex.
+ * Not thread-safe: one instance per compute thread.
+ *
+ * @author simon0227
+ */
+public class LabelStatisticsCollector {
+
+	private final LabelStatistics statistics = new LabelStatistics();
+	/* (elabel, source label) ==> in-degree of the current vertex */
+	private final Long2IntOpenHashMap inDegree = new Long2IntOpenHashMap();
+	/* elabel ==> out-degree of the current vertex */
+	private final Int2IntOpenHashMap outDegree = new Int2IntOpenHashMap();
+	private int curLabel;
+
+	public void startVertex(BasicVertex vertex) {
+		curLabel = vertex.getLabel();
+		statistics.addVertex(curLabel);
+		outDegree.clear();
+		for(BasicEdge be : vertex.getOutNeighbors()) {
+			outDegree.addTo(be.getLabel(), 1);
+		}
+		for(Int2IntMap.Entry e : outDegree.int2IntEntrySet()) {
+			statistics.addDegree(curLabel, e.getIntKey(), LabelStatistics.ANY_LABEL, LabelStatistics.OUT, e.getIntValue());
+		}
+		inDegree.clear();
+	}
+
+	public void addInEdge(int srcLabel, int elabel) {
+		inDegree.addTo(((long) elabel << 32) | (srcLabel & 0xFFFFFFFFL), 1);
+	}
+
+	public void finishVertex() {
+		for(Long2IntMap.Entry e : inDegree.long2IntEntrySet()) {
+			int elabel = (int) (e.getLongKey() >> 32);
+			int srcLabel = (int) e.getLongKey();
+			statistics.addEdges(srcLabel, elabel, curLabel, e.getIntValue());
+			statistics.addDegree(curLabel, elabel, srcLabel, LabelStatistics.IN, e.getIntValue());
+		}
+	}
+
+	public boolean isEmpty() {
+		return statistics.isEmpty();
+	}
+
+	public LabelStatistics getStatistics() {
+		return statistics;
+	}
+
+	public void clear() {
+		statistics.clear();
+	}
+}
@@ -0,0 +1,138 @@
+package org.apache.giraph.subgraph.graphextraction;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.graph.GraphTaskManager;
+import org.apache.giraph.plan.QueryNode;
+
+/**
+ * The mid queries without the tmp neighbors, for "grapholap.path.evaluation.tmp.max.paths" > 0;
+ * shared by GraphExtraction and GraphExtractionWithArrayBasedStore.
+ * 	-- join: the left paths ending at a local vertex and the right paths starting at it are
+ * 	   both sent to this vertex, so they are joined per middle vertex while scanning the messages.
+ * 	-- the joined paths are merged per (qid, sid, tid) in the SpillablePathStore.
+ * 	-- send: all the merged paths in one scan at the end.
+ *
+ * Not thread-safe: one instance per compute thread.
+ *
+ * @author simon0227
+ */
+public class MidQueryJoin {
+
+	/**
+	 * sends one path of a query (global ids), e.g. the explorer of the compute thread.
+	 */
+	public interface PathSender {
+		void sendPath(QueryNode query, int sid, int tid, long weight);
+	}
+
+	private final PathSemiring semiring;
+	private final SpillablePathStore pathStore;
+	/* (qid, sid or tid, weight) of the left and right paths at the middle vertex being joined. */
+	private final IntArrayList leftQids = new IntArrayList();
+	private final IntArrayList leftVids = new IntArrayList();
+	private final LongArrayList leftWeights = new LongArrayList();
+	private final IntArrayList rightQids = new IntArrayList();
+	private final IntArrayList rightVids = new IntArrayList();
+	private final LongArrayList rightWeights = new LongArrayList();
+	/* paths spilled by the last send */
+	private long spilledPaths;
+
+	public MidQueryJoin(PathSemiring semiring, ImmutableClassesGiraphConfiguration<?, ?, ?, ?> conf) {
+		this.semiring = semiring;
+		this.pathStore = new SpillablePathStore(semiring, conf);
+	}
+
+	public static boolean isEnabled(ImmutableClassesGiraphConfiguration<?, ?, ?, ?> conf) {
+		return SpillablePathStore.isEnabled(conf);
+	}
+
+	/**
+	 * the run files are named after the partition.
+	 */
+	public void setPartitionId(int partitionId) {
+		pathStore.setPartitionId(partitionId);
+	}
+
+	/**
+	 * join the paths received by one middle vertex for the mid queries of the current level.
+	 */
+	public void join(int vertexLabel, Iterable<PartialAggregatedPath> messages, List<QueryNode> queries,
+			GraphTaskManager<?, ?, ?, ?> taskManager) throws IOException {
+		leftQids.clear(); leftVids.clear(); leftWeights.clear();
+		rightQids.clear(); rightVids.clear(); rightWeights.clear();
+		for(PartialAggregatedPath msg : messages) {
+			if(taskManager.isLeftQuery(msg.getQid()) == true) {
+				leftQids.add(msg.getQid());
+				leftVids.add(msg.getSid());
+				leftWeights.add(msg.getWeight());
+			}
+			else {
+				rightQids.add(msg.getQid());
+				rightVids.add(msg.getTid());
+				rightWeights.add(msg.getWeight());
+			}
+		}
+		if(leftQids.isEmpty() || rightQids.isEmpty()) {
+			return;
+		}
+		for(QueryNode qn : queries) {
+			if(qn.isLeafNode() || qn.getNodeLabel() != vertexLabel) {
+				continue;
+			}
+			for(int i = 0; i < leftQids.size(); ++i) {
+				if(leftQids.getInt(i) != qn.getLeftQueryId()) {
+					continue;
+				}
+				for(int j = 0; j < rightQids.size(); ++j) {
+					if(rightQids.getInt(j) == qn.getRightQueryId()) {
+						//aggregate-I $otimes$, aggregate-II $oplus$ in the store
+						pathStore.add(qn.getNodeId(), leftVids.getInt(i), rightVids.getInt(j),
+								semiring.times(leftWeights.getLong(i), rightWeights.getLong(j)));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * send the merged paths in (qid, sid, tid) order, then drop them.
+	 * @return the number of paths sent.
+	 */
+	public long send(List<QueryNode> queries, PathSender sender) throws IOException {
+		long sent = 0;
+		QueryNode query = null;
+		pathStore.startScan();
+		while(pathStore.next()) {
+			if(query == null || query.getNodeId() != pathStore.qid()) {
+				query = getQuery(queries, pathStore.qid());
+			}
+			sender.sendPath(query, pathStore.sid(), pathStore.tid(), pathStore.weight());
+			sent++;
+		}
+		spilledPaths = pathStore.resetSpilledPaths();
+		pathStore.clear();
+		return sent;
+	}
+
+	/**
+	 * number of paths written to run files by the last send.
+	 */
+	public long getSpilledPaths() {
+		return spilledPaths;
+	}
+
+	private static QueryNode getQuery(List<QueryNode> queries, int qid) {
+		for(QueryNode qn : queries) {
+			if(qn.getNodeId() == qid) {
+				return qn;
+			}
+		}
+		throw new IllegalStateException("getQuery: query " + qid + " is not in the current level.");
+	}
+}
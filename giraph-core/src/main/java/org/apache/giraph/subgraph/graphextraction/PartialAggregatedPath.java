@@ -7,7 +7,7 @@ import java.io.IOException;
 import org.apache.hadoop.io.WritableComparable;
 
 /**
- * In this prototype, we assume the aggregated value (weight) is Integer.
+ * The aggregated value (weight) is a long interpreted by the configured PathSemiring.
  * NOTE THAT this class is also used to represent the message during preprocess, the mapping is
  * 	-- sid    ==> vid, the id of vertex
  *  -- tid    ==> vlabel, the id of vertex label
@@ -21,7 +21,7 @@ public class PartialAggregatedPath implements WritableComparable<PartialAggregat
 	int sid; /* vid */
 	int tid; /* vlabel */
 	int qid; /* elabel */
-	int weight;
+	long weight;
 	
 	public PartialAggregatedPath() {
 //		weight = new IntWritable();
@@ -75,11 +75,11 @@ public class PartialAggregatedPath implements WritableComparable<PartialAggregat
 		this.qid = qid;
 	}
 	
-	public int getWeight() {
+	public long getWeight() {
 		return weight;
 	}
 	
-	public void setWeight(int weight) {
+	public void setWeight(long weight) {
 		this.weight = weight;
 	}
 	
@@ -88,7 +88,7 @@ public class PartialAggregatedPath implements WritableComparable<PartialAggregat
 		sid = in.readInt();
 		tid = in.readInt();
 		qid = in.readInt();
-		weight = in.readInt();
+		weight = in.readLong();
 //		weight = new IntWritable();
 //		weight.readFields(in);
 	}
@@ -98,7 +98,7 @@ public class PartialAggregatedPath implements WritableComparable<PartialAggregat
 		out.writeInt(sid);
 		out.writeInt(tid);
 		out.writeInt(qid);
-		out.writeInt(weight);
+		out.writeLong(weight);
 //		weight.write(out);
 	}
 
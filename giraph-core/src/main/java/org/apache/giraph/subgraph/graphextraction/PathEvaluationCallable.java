@@ -0,0 +1,409 @@
+package org.apache.giraph.subgraph.graphextraction;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.giraph.bsp.CentralizedServiceWorker;
+import org.apache.giraph.comm.WorkerClientRequestProcessor;
+import org.apache.giraph.comm.messages.MessageStoreByPartition;
+import org.apache.giraph.comm.netty.NettyWorkerClientRequestProcessor;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.graph.GraphState;
+import org.apache.giraph.partition.PartitionStats;
+import org.apache.giraph.plan.EdgeDirection;
+import org.apache.giraph.plan.QueryNode;
+import org.apache.giraph.plan.QueryPlan;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.mapreduce.Mapper;
+
+/**
+ * The path evaluation shared by GraphExtraction (global ids) and
+ * GraphExtractionWithArrayBasedStore (local ids): the two-hop exploration over the
+ * exploration threads, the mid query join without the tmp neighbors (MidQueryJoin) and
+ * the aggregation of the root paths. The subclasses preprocess the graph in their own
+ * store and attach the incoming paths to it.
+ *
+ * The paths are keyed by the ids of the local graph and mapped by getGlobalId before
+ * they are sent, which is the identity for the map-based stores.
+ *
+ * @author simon0227
+ */
+public abstract class PathEvaluationCallable extends GraphExtractionCallable<IntWritable, IntWritable, IntWritable, PartialAggregatedPath> {
+
+	protected ArrayList<QueryNode> queries;
+	protected long msgCount = 0;
+	
+	/* aggregation-I and aggregation-II of the path weights. */
+	protected final PathSemiring semiring;
+	
+	/* explores in the compute thread, with its request processor and combiner; created by the first getExplorer. */
+	private Explorer explorer;
+	/* explorer first, then the extra threads with their own request processors and combiners;
+	 * created by the first explore over several threads, reused until the callable ends. */
+	private ArrayList<Explorer> workers;
+	/* the two-hop exploration of a partition is split over so many threads (ExplorationPool). */
+	private final int explorationThreads;
+	private final int chunkSize;
+	/* root query ==> paths of the vertex being saved, used when several line patterns are evaluated. */
+	private final Int2ObjectOpenHashMap<PathWeightAccumulator> rootWeights = new Int2ObjectOpenHashMap<PathWeightAccumulator>();
+	/* null if the sender-side combining is turned off. */
+	private final PathMessageCombiner combiner;
+	/* label statistics collected in superstep 1, null unless the "cost" plan is used. */
+	protected final LabelStatisticsCollector labelStatistics;
+	/* joins the partial paths of the mid queries, null if they are kept as tmp neighbors. */
+	protected final MidQueryJoin pathJoin;
+	
+	protected PathEvaluationCallable(
+			Mapper<?, ?, ?, ?>.Context context,
+			GraphState<IntWritable, IntWritable, IntWritable, PartialAggregatedPath> graphState,
+			MessageStoreByPartition<IntWritable, PartialAggregatedPath> messageStore,
+			BlockingQueue<Integer> partitionIdQueue,
+			ImmutableClassesGiraphConfiguration<IntWritable, IntWritable, IntWritable, PartialAggregatedPath> configuration,
+			CentralizedServiceWorker<IntWritable, IntWritable, IntWritable, PartialAggregatedPath> serviceWorker) {
+		super(context, graphState, messageStore, partitionIdQueue, configuration,
+				serviceWorker);
+		semiring = PathSemiring.create(configuration);
+		explorationThreads = ExplorationPool.getThreads(configuration);
+		chunkSize = ExplorationPool.getChunkSize(configuration);
+		if(GiraphConstants.GRAPHOLAP_PATH_EVALUATION_MSG_COMBINE.get(configuration)) {
+			combiner = new PathMessageCombiner(semiring, serviceWorker, GiraphConstants.MAX_MSG_REQUEST_SIZE.get(configuration));
+		}
+		else {
+			combiner = null;
+		}
+		if(QueryPlan.isCostPlan(configuration) && graphState.getSuperstep() == 1) {
+			labelStatistics = new LabelStatisticsCollector();
+		}
+		else {
+			labelStatistics = null;
+		}
+		pathJoin = MidQueryJoin.isEnabled(configuration) ? new MidQueryJoin(semiring, configuration) : null;
+	}
+
+	/**
+	 * the explorer of the compute thread; its request processor is the one of the callable.
+	 */
+	private Explorer getExplorer() {
+		if(explorer == null) {
+			explorer = new Explorer(workerClientRequestProcessor, combiner, false);
+		}
+		return explorer;
+	}
+
+	/**
+	 * executeQuery without the tmp neighbors, for "grapholap.path.evaluation.tmp.max.paths" > 0.
+	 * The left paths ending at a local vertex and the right paths starting at it are both sent
+	 * to this vertex, so the mid queries are joined per middle vertex while scanning the messages.
+	 * The joined paths are merged per (qid, sid, tid) in the SpillablePathStore, which spills
+	 * sorted runs to the local disk above the budget, and sent in one scan at the end (MidQueryJoin).
+	 */
+	protected void executeQueryWithPathStore(BasicGraphStoreInterface localGraph,
+			PartitionStats partitionStats) throws IOException {
+		long startTime = System.currentTimeMillis();
+		pathJoin.setPartitionId(partitionStats.getPartitionId());
+		
+		/* 1. join the left and right paths at each middle vertex. */
+		IntWritable stubId = new IntWritable();
+		for (BasicVertex vertex : localGraph.getLocalVertex()) {
+			stubId.set(vertex.getId());
+			pathJoin.join(vertex.getLabel(), messageStore.getVertexMessages(stubId), queries,
+					graphState.getGraphTaskManager());
+			messageStore.clearVertexMessages(stubId);
+		}
+		long midTime = System.currentTimeMillis();
+		
+		/* 2. send the merged paths, in (qid, sid, tid) order. */
+		msgCount = pathJoin.send(queries, getExplorer());
+		
+		/* 3. the leaf queries on the local graph, as in executeQuery. */
+		if(hasLeafQuery(queries)) {
+			explore(localGraph, getAllVertices(localGraph), true, false, partitionStats);
+		}
+		long endTime = System.currentTimeMillis();
+		if(LOG.isInfoEnabled()) {
+			LOG.info("Total Messages need to be sent: "+msgCount+" spilledPaths="+pathJoin.getSpilledPaths()
+					+" joinTime="+(midTime - startTime)+" executeTime="+(endTime-midTime));
+		}
+	}
+
+	/**
+	 * aggregate the paths of the root queries received by vertex (aggregation-II) and keep
+	 * them as its tmp neighbors, the label of a result edge is its line pattern.
+	 */
+	protected void addRootPaths(BasicVertex vertex, Iterable<PartialAggregatedPath> messages) {
+		for(PartialAggregatedPath msg : messages) {
+			getRootWeights(msg.getQid()).accumulate(msg.getTid(), msg.getWeight()); //aggregation - II. TODO: here the root query is Right query, so the messages are grouped by sid.
+		}
+		
+		for(Int2ObjectMap.Entry<PathWeightAccumulator> entry : rootWeights.int2ObjectEntrySet()) {
+			PathWeightAccumulator weights = entry.getValue();
+			ArrayList<Integer> patterns = graphState.getGraphTaskManager().getPatternsOfRoot(entry.getIntKey());
+			int numPatterns = (patterns == null) ? 1 : patterns.size();
+			for(int p = 0; p < numPatterns; ++p) {
+				for(int i = 0; i < weights.size(); ++i) {
+					BasicEdge be = new BasicEdge();
+					be.setVid(weights.keyAt(i));
+					be.setWeight(weights.valueAt(i));
+					be.setLabel((patterns == null) ? 0 : patterns.get(p));
+					vertex.addTmpNeighbor(be);
+				}
+			}
+			weights.clear();
+		}
+	}
+
+	protected boolean hasLeafQuery(ArrayList<QueryNode> queries) {
+		for(QueryNode qn : queries) {
+			if(qn.isLeafNode()) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private PathWeightAccumulator getRootWeights(int qid) {
+		PathWeightAccumulator res = rootWeights.get(qid);
+		if(res == null) {
+			res = new PathWeightAccumulator(semiring);
+			rootWeights.put(qid, res);
+		}
+		return res;
+	}
+	
+	/**
+	 * all the vertices of the local graph (local and remote), as start vertices.
+	 */
+	protected BasicVertex[] getAllVertices(BasicGraphStoreInterface localGraph) {
+		ArrayList<BasicVertex> res = new ArrayList<BasicVertex>();
+		for(BasicVertex vertex : localGraph.getAllVertex()) {
+			if(vertex == null) break;
+			res.add(vertex);
+		}
+		return res.toArray(new BasicVertex[res.size()]);
+	}
+
+	/**
+	 * run the two-hop exploration from the start vertices, in chunks over explorationThreads
+	 * threads when there are more than a chunk of them. The extra threads have their own
+	 * request processors and combiners, built once per callable and flushed before this returns.
+	 */
+	protected void explore(BasicGraphStoreInterface localGraph, BasicVertex[] startVertices,
+			boolean leafQueries, boolean midQueries, PartitionStats partitionStats) throws IOException {
+		Explorer first = getExplorer();
+		if(explorationThreads == 1 || startVertices.length <= chunkSize) {
+			first.start(localGraph, startVertices, leafQueries, midQueries);
+			first.run(0, startVertices.length);
+			msgCount += first.resetMsgCount();
+			return;
+		}
+		if(workers == null) {
+			workers = new ArrayList<Explorer>(explorationThreads);
+			workers.add(first);
+			for(int i = 1; i < explorationThreads; ++i) {
+				workers.add(new Explorer(
+						new NettyWorkerClientRequestProcessor<IntWritable, IntWritable, IntWritable, PartialAggregatedPath>(
+								context, configuration, serviceWorker),
+						(combiner == null) ? null : new PathMessageCombiner(semiring, serviceWorker,
+								GiraphConstants.MAX_MSG_REQUEST_SIZE.get(configuration)),
+						true));
+			}
+		}
+		for(Explorer worker : workers) {
+			worker.start(localGraph, startVertices, leafQueries, midQueries);
+		}
+		ExplorationPool.run(configuration, startVertices.length, chunkSize, workers);
+		for(Explorer worker : workers) {
+			msgCount += worker.resetMsgCount();
+			if(worker.helper) {
+				long sent = worker.processor.resetMessageCount();
+				partitionStats.addMessagesSentCount(sent);
+				messagesSentCounter.inc(sent);
+			}
+		}
+	}
+
+	/**
+	 * the state of one exploration thread: the paths of the current start vertex and
+	 * the request processor (and combiner) sending them. Only reads the local graph.
+	 */
+	private class Explorer implements ExplorationPool.ChunkWorker, MidQueryJoin.PathSender {
+		private final WorkerClientRequestProcessor<IntWritable, IntWritable, IntWritable, PartialAggregatedPath> processor;
+		/* null if the sender-side combining is turned off. */
+		private final PathMessageCombiner combiner;
+		/* true for the extra threads, which flush their processors in finish. */
+		private final boolean helper;
+		/* reused by all the start vertices of this thread. */
+		private final PathWeightAccumulator aggWeights = new PathWeightAccumulator(semiring);
+		private final IntWritable targetId = new IntWritable();
+		private final PartialAggregatedPath outMsg = new PartialAggregatedPath();
+		private long msgCount = 0;
+
+		private BasicGraphStoreInterface localGraph;
+		private BasicVertex[] startVertices;
+		private boolean leafQueries;
+		private boolean midQueries;
+
+		Explorer(WorkerClientRequestProcessor<IntWritable, IntWritable, IntWritable, PartialAggregatedPath> processor,
+				PathMessageCombiner combiner, boolean helper) {
+			this.processor = processor;
+			this.combiner = combiner;
+			this.helper = helper;
+		}
+
+		void start(BasicGraphStoreInterface localGraph, BasicVertex[] startVertices,
+				boolean leafQueries, boolean midQueries) {
+			this.localGraph = localGraph;
+			this.startVertices = startVertices;
+			this.leafQueries = leafQueries;
+			this.midQueries = midQueries;
+		}
+
+		@Override
+		public void run(int from, int to) {
+			for(int i = from; i < to; ++i) {
+				twoHopExploration(localGraph, startVertices[i], leafQueries, midQueries);
+			}
+		}
+
+		@Override
+		public void finish() throws IOException {
+			if(helper) {
+				if(combiner != null) {
+					combiner.flush(processor);
+				}
+				processor.flush();
+			}
+			localGraph = null;
+			startVertices = null;
+		}
+
+		long resetMsgCount() {
+			long res = msgCount;
+			msgCount = 0;
+			return res;
+		}
+
+		/**
+		 * start two-hop exploration for a certain vertex.
+		 */
+		private void twoHopExploration(BasicGraphStoreInterface localGraph, BasicVertex startVertex,
+				boolean leafQueries, boolean midQueries) {
+			ArrayList<QueryNode> queries = graphState.getGraphTaskManager().getQueries();
+			/* NOTE: if left (right) queryId = -1 in query node, 
+			 * it means an empty left (right) query. 
+			 */
+			for(QueryNode qn : queries) {
+				if(qn.isLeafNode()) {
+					if(leafQueries) {
+						leafNodeQuery(qn, localGraph, startVertex);
+					}
+				}
+				else if(midQueries) {
+					midNodeQuery(qn, localGraph, startVertex);
+				}
+			}
+		}
+	
+		private void leafNodeQuery(QueryNode query, BasicGraphStoreInterface localGraph, BasicVertex startVertex) {
+			/* TODO: make sure the left is non-empty in the query node. */
+			if(query.getLeftLabel() == startVertex.getLabel()) {
+				/* NOTE: in the query node, the edge direction is determined against the middle vertex. 
+				 * here the startVertex is left-end vertex, not the middle vertex. */
+				EdgeDirection ed = EdgeDirection.BOTH;
+				if(query.getLeftEdgeDirection() == EdgeDirection.INCOMING)
+					ed = EdgeDirection.OUTGOING;
+				if(query.getLeftEdgeDirection() == EdgeDirection.OUTGOING)
+					ed = EdgeDirection.INCOMING;
+				LabelAdjacencyIndex firstNbrs = startVertex.getAdjacencyIndex();
+				aggWeights.clear();
+				for(EdgeDirection firstDirection : LabelAdjacencyIndex.directions(ed)) {
+					int firstEnd = firstNbrs.rangeEnd(query.getLeftEdgeLabel(), query.getNodeLabel(), firstDirection);
+					for(int i = firstNbrs.rangeStart(query.getLeftEdgeLabel(), query.getNodeLabel(), firstDirection); i < firstEnd; ++i) {
+						long firstWeight = semiring.fromEdgeWeight(firstNbrs.getWeight(i));
+						if(query.getRightLabel() == -1) {
+							aggWeights.accumulate(firstNbrs.getNbr(i), firstWeight);
+							continue;
+						}
+						LabelAdjacencyIndex secondNbrs = localGraph.getVertex(firstNbrs.getNbr(i)).getAdjacencyIndex();
+						for(EdgeDirection secondDirection : LabelAdjacencyIndex.directions(query.getRightEdgeDirection())) {
+							int secondEnd = secondNbrs.rangeEnd(query.getRightEdgeLabel(), query.getRightLabel(), secondDirection);
+							for(int j = secondNbrs.rangeStart(query.getRightEdgeLabel(), query.getRightLabel(), secondDirection); j < secondEnd; ++j) {
+								//aggregate-I $otimes$, aggregate-II $oplus$
+								aggWeights.accumulate(secondNbrs.getNbr(j), semiring.times(firstWeight, semiring.fromEdgeWeight(secondNbrs.getWeight(j))));
+							}
+						}
+					}
+				}
+
+				/* send messages */
+				sendAggregatedPaths(query, localGraph, startVertex);
+			}
+		}
+	
+		private void midNodeQuery(QueryNode query, BasicGraphStoreInterface localGraph, BasicVertex startVertex) {
+			aggWeights.clear();
+			for(BasicEdge be : startVertex.getTmpNeighbors()) {
+				if(be.getLabel() == query.getLeftQueryId()) { //the paths of the left query.
+					BasicVertex midVertex = localGraph.getVertex(be.getVid()); //TODO: randomly access vertex.!!!!
+					if(midVertex.getLabel() == query.getNodeLabel()) {
+						for(BasicEdge edge : midVertex.getTmpNeighbors()) { //here can also be a leaf query.
+							if(edge.getLabel() == query.getRightQueryId()) {
+								//aggregate-I $otimes$, aggregate-II $oplus$
+								aggWeights.accumulate(edge.getVid(), semiring.times(be.getWeight(), edge.getWeight()));
+							}
+						}
+					}
+				}
+			}
+			/* send messages */
+			msgCount += aggWeights.size();
+			sendAggregatedPaths(query, localGraph, startVertex);
+		}
+
+		/**
+		 * send the aggregated paths of startVertex in aggWeights (keyed by the ids of the
+		 * local graph, which are the global ids for the map-based stores).
+		 */
+		private void sendAggregatedPaths(QueryNode query, BasicGraphStoreInterface localGraph, BasicVertex startVertex) {
+			for(int i = 0; i < aggWeights.size(); ++i) {
+				sendPath(query, startVertex.getId(), localGraph.getGlobalId(aggWeights.keyAt(i)), aggWeights.valueAt(i));
+			}
+		}
+
+		/**
+		 * send one path of query (global ids); a left query goes to the end vertex,
+		 * a right query to the start vertex.
+		 */
+		@Override
+		public void sendPath(QueryNode query, int sid, int tid, long weight) {
+			int target = query.isLeftQuery() == true ? tid : sid;
+			if(combiner != null) {
+				combiner.add(processor, target, query.getNodeId(), sid, tid, weight);
+				return;
+			}
+			targetId.set(target);
+			outMsg.setQid(query.getNodeId());
+			outMsg.setSid(sid);
+			outMsg.setTid(tid);
+			outMsg.setWeight(weight);
+			processor.sendMessageRequest(targetId, outMsg);
+		}
+	}
+
+	@Override
+	protected void finishComputation() throws IOException {
+		if(combiner != null) {
+			combiner.flush(workerClientRequestProcessor);
+			LOG.info(combiner.resetStatistics());
+		}
+		if(labelStatistics != null && labelStatistics.isEmpty() == false) {
+			aggregate(QueryPlan.LABEL_STATISTICS_AGGREGATOR, labelStatistics.getStatistics());
+			labelStatistics.clear();
+		}
+	}
+}
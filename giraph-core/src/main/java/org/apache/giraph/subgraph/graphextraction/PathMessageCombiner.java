@@ -0,0 +1,179 @@
+package org.apache.giraph.subgraph.graphextraction;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+
+import java.util.Arrays;
+
+import org.apache.giraph.bsp.CentralizedServiceWorker;
+import org.apache.giraph.comm.WorkerClientRequestProcessor;
+import org.apache.hadoop.io.IntWritable;
+
+/**
+ * Sender-side combining of the partial paths, configured by "grapholap.path.evaluation.msg.combine".
+ *
+ * The partial paths with the same (qid, sid, tid) go to the same target vertex, but are
+ * produced independently, e.g. by the copies of a remote start vertex in different partitions
+ * of a worker. They are merged with $oplus$ of the PathSemiring in a buffer per destination
+ * worker; a buffer is handed to the request processor (serialized) once it reaches
+ * "giraph.msgRequestSize" bytes, and all the buffers are flushed at the end of the superstep.
+ *
+ * Not thread-safe: one instance per compute thread, so only the paths of the partitions
+ * computed by that thread are combined; the same (qid, sid, tid) produced by two threads
+ * is sent twice and merged by the receiver. Off by default.
+ *
+ * @author simon0227
+ */
+public class PathMessageCombiner {
+
+	/* serialized size of a message: target id + PartialAggregatedPath */
+	private static final int MESSAGE_BYTES = 4 + 4 * 3 + 8;
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private final PathSemiring semiring;
+	private final CentralizedServiceWorker<IntWritable, ?, ?, ?> serviceWorker;
+	private final int maxMessagesPerWorker;
+	/* task id of the destination worker ==> buffer */
+	private final Int2ObjectOpenHashMap<WorkerBuffer> buffers = new Int2ObjectOpenHashMap<WorkerBuffer>();
+
+	private final IntWritable stubId = new IntWritable();
+	private final IntWritable targetId = new IntWritable();
+	private final PartialAggregatedPath outMsg = new PartialAggregatedPath();
+
+	private long addedCount = 0;
+	private long sentCount = 0;
+
+	public PathMessageCombiner(PathSemiring semiring,
+			CentralizedServiceWorker<IntWritable, ?, ?, ?> serviceWorker, int maxMessageBytesPerWorker) {
+		this.semiring = semiring;
+		this.serviceWorker = serviceWorker;
+		this.maxMessagesPerWorker = Math.max(1, maxMessageBytesPerWorker / MESSAGE_BYTES);
+	}
+
+	/**
+	 * add one partial path sent to vertex target.
+	 */
+	public void add(WorkerClientRequestProcessor<IntWritable, ?, ?, PartialAggregatedPath> processor,
+			int target, int qid, int sid, int tid, long weight) {
+		stubId.set(target);
+		int taskId = serviceWorker.getVertexPartitionOwner(stubId).getWorkerInfo().getTaskId();
+		WorkerBuffer buffer = buffers.get(taskId);
+		if(buffer == null) {
+			buffer = new WorkerBuffer();
+			buffers.put(taskId, buffer);
+		}
+		addedCount++;
+		buffer.add(target, qid, sid, tid, weight);
+		if(buffer.size >= maxMessagesPerWorker) {
+			send(processor, buffer);
+		}
+	}
+
+	/**
+	 * send all the buffered paths; called before the request processor is flushed.
+	 */
+	public void flush(WorkerClientRequestProcessor<IntWritable, ?, ?, PartialAggregatedPath> processor) {
+		for(WorkerBuffer buffer : buffers.values()) {
+			send(processor, buffer);
+		}
+	}
+
+	private void send(WorkerClientRequestProcessor<IntWritable, ?, ?, PartialAggregatedPath> processor,
+			WorkerBuffer buffer) {
+		for(int i = 0; i < buffer.size; ++i) {
+			targetId.set(buffer.targets[i]);
+			outMsg.setQid(buffer.qids[i]);
+			outMsg.setSid(buffer.sids[i]);
+			outMsg.setTid(buffer.tids[i]);
+			outMsg.setWeight(buffer.weights[i]);
+			processor.sendMessageRequest(targetId, outMsg);
+		}
+		sentCount += buffer.size;
+		buffer.clear();
+	}
+
+	/**
+	 * number of paths added and actually sent since the last call.
+	 */
+	public String resetStatistics() {
+		String res = "combined paths: added=" + addedCount + " sent=" + sentCount;
+		addedCount = 0;
+		sentCount = 0;
+		return res;
+	}
+
+	/**
+	 * paths to one worker, an open addressing table over (qid, sid, tid).
+	 */
+	private class WorkerBuffer {
+		int[] targets;
+		int[] qids;
+		int[] sids;
+		int[] tids;
+		long[] weights;
+		int size;
+		/* entry index + 1, 0 means free */
+		int[] table;
+		int mask;
+
+		WorkerBuffer() {
+			allocate(INITIAL_CAPACITY);
+			table = new int[INITIAL_CAPACITY * 2];
+			mask = table.length - 1;
+		}
+
+		private void allocate(int capacity) {
+			targets = (targets == null) ? new int[capacity] : Arrays.copyOf(targets, capacity);
+			qids = (qids == null) ? new int[capacity] : Arrays.copyOf(qids, capacity);
+			sids = (sids == null) ? new int[capacity] : Arrays.copyOf(sids, capacity);
+			tids = (tids == null) ? new int[capacity] : Arrays.copyOf(tids, capacity);
+			weights = (weights == null) ? new long[capacity] : Arrays.copyOf(weights, capacity);
+		}
+
+		private int hash(int qid, int sid, int tid) {
+			int h = (qid * 0x9E3779B9 + sid) * 0x9E3779B9 + tid;
+			h *= 0x9E3779B9;
+			return h ^ (h >>> 16);
+		}
+
+		void add(int target, int qid, int sid, int tid, long weight) {
+			int pos = hash(qid, sid, tid) & mask;
+			while(table[pos] != 0) {
+				int e = table[pos] - 1;
+				if(qids[e] == qid && sids[e] == sid && tids[e] == tid) {
+					weights[e] = semiring.plus(weights[e], weight);
+					return;
+				}
+				pos = (pos + 1) & mask;
+			}
+			if(size == targets.length) {
+				allocate(size * 2);
+			}
+			targets[size] = target;
+			qids[size] = qid;
+			sids[size] = sid;
+			tids[size] = tid;
+			weights[size] = weight;
+			table[pos] = ++size;
+			if(size * 2 > table.length) {
+				rehash(table.length * 2);
+			}
+		}
+
+		private void rehash(int capacity) {
+			table = new int[capacity];
+			mask = capacity - 1;
+			for(int e = 0; e < size; ++e) {
+				int pos = hash(qids[e], sids[e], tids[e]) & mask;
+				while(table[pos] != 0) {
+					pos = (pos + 1) & mask;
+				}
+				table[pos] = e + 1;
+			}
+		}
+
+		void clear() {
+			size = 0;
+			Arrays.fill(table, 0);
+		}
+	}
+}
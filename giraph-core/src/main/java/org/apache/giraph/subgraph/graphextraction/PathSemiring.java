@@ -0,0 +1,204 @@
+package org.apache.giraph.subgraph.graphextraction;
+
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.io.VertexOutputFormat;
+import org.apache.giraph.utils.ReflectionUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * The semiring used to aggregate the weights of paths.
+ * 	-- aggregation-I  ($otimes$, times): concatenate two partial paths.
+ * 	-- aggregation-II ($oplus$, plus): merge the partial paths between the same pair of vertices.
+ *
+ * Every weight is a primitive long, so messages (PartialAggregatedPath) and tmp edges have
+ * the same layout for all the semirings; floating point semirings keep the raw bits of a double.
+ * The raw weight of a graph edge (an int, 1 for unweighted input) is mapped by fromEdgeWeight.
+ *
+ * configured by "grapholap.path.evaluation.semiring":
+ * 	-- count:      number of paths, (+, *) on long. (default)
+ * 	-- sumproduct: (+, *) on double, e.g. path probabilities.
+ * 	-- minplus:    shortest path, (min, +) on long.
+ * 	-- maxmin:     bottleneck (widest) path, (max, min) on long.
+ *
+ * @author simon0227
+ */
+public abstract class PathSemiring {
+
+	/**
+	 * identity of plus, i.e. "no path".
+	 */
+	public abstract long zero();
+
+	/**
+	 * identity of times, i.e. the empty path.
+	 */
+	public abstract long one();
+
+	/**
+	 * aggregation-I $otimes$
+	 */
+	public abstract long times(long a, long b);
+
+	/**
+	 * aggregation-II $oplus$
+	 */
+	public abstract long plus(long a, long b);
+
+	/**
+	 * map the raw weight of a graph edge into the semiring.
+	 */
+	public long fromEdgeWeight(long rawWeight) {
+		return rawWeight;
+	}
+
+	public String toString(long weight) {
+		return Long.toString(weight);
+	}
+
+	/**
+	 * the writable form of a weight, used when the extracted graph is saved.
+	 */
+	public Writable toWritable(long weight) {
+		return new LongWritable(weight);
+	}
+
+	/**
+	 * the class of toWritable, i.e. the edge values of the saved extracted graph.
+	 */
+	public Class<? extends Writable> getWritableClass() {
+		return LongWritable.class;
+	}
+
+	/**
+	 * the extracted graph is saved with the weights of the semiring as edge values, not with
+	 * the edge values of the input (the int labels), so the vertex output format has to take
+	 * getWritableClass(): a raw format, or one typed with it or a super class.
+	 * Checked when a worker starts, the semiring may be set after the job validation.
+	 */
+	public static void checkOutputFormat(ImmutableClassesGiraphConfiguration<?, ?, ?, ?> conf) {
+		if(conf.getVertexOutputFormatClass() == null) {
+			return;
+		}
+		PathSemiring semiring = create(conf);
+		Class<?> edgeValueClass = ReflectionUtils.getTypeArguments(
+				VertexOutputFormat.class, conf.getVertexOutputFormatClass()).get(2);
+		if(edgeValueClass != null && !edgeValueClass.isAssignableFrom(semiring.getWritableClass())) {
+			throw new IllegalStateException("checkOutputFormat: The semiring " +
+					GiraphConstants.GRAPHOLAP_PATH_EVALUATION_SEMIRING.get(conf) + " saves " +
+					semiring.getWritableClass().getSimpleName() + " edge values, but " +
+					conf.getVertexOutputFormatClass().getName() + " writes " +
+					edgeValueClass.getSimpleName());
+		}
+	}
+
+	public static PathSemiring create(Configuration conf) {
+		return create(GiraphConstants.GRAPHOLAP_PATH_EVALUATION_SEMIRING.get(conf));
+	}
+
+	public static PathSemiring create(String name) {
+		if(name.equals("count")) {
+			return new LongCount();
+		}
+		else if(name.equals("sumproduct")) {
+			return new DoubleSumProduct();
+		}
+		else if(name.equals("minplus")) {
+			return new MinPlus();
+		}
+		else if(name.equals("maxmin")) {
+			return new MaxMin();
+		}
+		throw new IllegalArgumentException("Unknown path semiring: " + name +
+				", expected one of count, sumproduct, minplus and maxmin.");
+	}
+
+	/**
+	 * number of paths.
+	 */
+	public static final class LongCount extends PathSemiring {
+		@Override
+		public long zero() { return 0L; }
+		@Override
+		public long one() { return 1L; }
+		@Override
+		public long times(long a, long b) { return a * b; }
+		@Override
+		public long plus(long a, long b) { return a + b; }
+	}
+
+	/**
+	 * sum of the products of the edge weights, on doubles.
+	 */
+	public static final class DoubleSumProduct extends PathSemiring {
+		private static final long ZERO = Double.doubleToRawLongBits(0.0);
+		private static final long ONE = Double.doubleToRawLongBits(1.0);
+
+		@Override
+		public long zero() { return ZERO; }
+		@Override
+		public long one() { return ONE; }
+		@Override
+		public long times(long a, long b) {
+			return Double.doubleToRawLongBits(Double.longBitsToDouble(a) * Double.longBitsToDouble(b));
+		}
+		@Override
+		public long plus(long a, long b) {
+			return Double.doubleToRawLongBits(Double.longBitsToDouble(a) + Double.longBitsToDouble(b));
+		}
+		@Override
+		public long fromEdgeWeight(long rawWeight) {
+			return Double.doubleToRawLongBits(rawWeight);
+		}
+		@Override
+		public String toString(long weight) {
+			return Double.toString(Double.longBitsToDouble(weight));
+		}
+		@Override
+		public Writable toWritable(long weight) {
+			return new DoubleWritable(Double.longBitsToDouble(weight));
+		}
+		@Override
+		public Class<? extends Writable> getWritableClass() {
+			return DoubleWritable.class;
+		}
+	}
+
+	/**
+	 * length of the shortest path; Long.MAX_VALUE is infinity.
+	 */
+	public static final class MinPlus extends PathSemiring {
+		@Override
+		public long zero() { return Long.MAX_VALUE; }
+		@Override
+		public long one() { return 0L; }
+		@Override
+		public long times(long a, long b) {
+			if(a == Long.MAX_VALUE || b == Long.MAX_VALUE) {
+				return Long.MAX_VALUE;
+			}
+			long res = a + b;
+			/* saturate on overflow of two non-negative lengths. */
+			return (res < 0 && a >= 0 && b >= 0) ? Long.MAX_VALUE : res;
+		}
+		@Override
+		public long plus(long a, long b) { return a < b ? a : b; }
+	}
+
+	/**
+	 * capacity of the widest path, i.e. the maximum over paths of the minimum edge weight.
+	 */
+	public static final class MaxMin extends PathSemiring {
+		@Override
+		public long zero() { return Long.MIN_VALUE; }
+		@Override
+		public long one() { return Long.MAX_VALUE; }
+		@Override
+		public long times(long a, long b) { return a < b ? a : b; }
+		@Override
+		public long plus(long a, long b) { return a > b ? a : b; }
+	}
+}
@@ -0,0 +1,139 @@
+package org.apache.giraph.subgraph.graphextraction;
+
+import java.util.Arrays;
+
+/**
+ * Reusable vertex id -> path weight accumulator for the partial aggregation (aggregation-II)
+ * of one start vertex during two-hop exploration; the weights are merged by the PathSemiring.
+ * 	-- open addressing with linear probing, no boxing.
+ * 	-- the occupied slots are recorded in insertion order, so iterating and
+ * 	   clearing cost O(size) instead of O(capacity); a hub vertex that grows the
+ * 	   table does not slow down the following start vertices.
+ *
+ * Not thread-safe: one instance per compute thread.
+ *
+ * @author simon0227
+ */
+public class PathWeightAccumulator {
+
+	private static final int FREE = -1;
+
+	private final PathSemiring semiring;
+	private int[] keys;
+	private long[] values;
+	/* insertion position of the slot, -1 means free. */
+	private int[] slotOf;
+	/* slots in insertion order */
+	private int[] touched;
+	private int size;
+	private int mask;
+
+	public PathWeightAccumulator(PathSemiring semiring) {
+		this(semiring, 1024);
+	}
+
+	public PathWeightAccumulator(PathSemiring semiring, int expected) {
+		this.semiring = semiring;
+		int capacity = Integer.highestOneBit(Math.max(4, expected) * 2 - 1) << 1;
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new long[capacity];
+		slotOf = new int[capacity];
+		Arrays.fill(slotOf, FREE);
+		touched = new int[capacity];
+		mask = capacity - 1;
+	}
+
+	private static int hash(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private int find(int key) {
+		int pos = hash(key) & mask;
+		while(slotOf[pos] != FREE && keys[pos] != key) {
+			pos = (pos + 1) & mask;
+		}
+		return pos;
+	}
+
+	/**
+	 * aggregation-II: value(key) = value(key) $oplus$ weight.
+	 */
+	public void accumulate(int key, long weight) {
+		int pos = find(key);
+		if(slotOf[pos] != FREE) {
+			values[pos] = semiring.plus(values[pos], weight);
+			return;
+		}
+		insert(pos, key, weight);
+	}
+
+	/**
+	 * value(key) = value, overwriting the old one.
+	 */
+	public void put(int key, long value) {
+		int pos = find(key);
+		if(slotOf[pos] != FREE) {
+			values[pos] = value;
+			return;
+		}
+		insert(pos, key, value);
+	}
+
+	private void insert(int pos, int key, long value) {
+		keys[pos] = key;
+		values[pos] = value;
+		slotOf[pos] = size;
+		touched[size++] = pos;
+		if(size * 4 >= keys.length * 3) {
+			rehash(keys.length << 1);
+		}
+	}
+
+	private void rehash(int capacity) {
+		int[] oldKeys = keys;
+		long[] oldValues = values;
+		int[] oldTouched = touched;
+		int oldSize = size;
+		allocate(capacity);
+		size = 0;
+		for(int i = 0; i < oldSize; ++i) {
+			int old = oldTouched[i];
+			int pos = find(oldKeys[old]);
+			keys[pos] = oldKeys[old];
+			values[pos] = oldValues[old];
+			slotOf[pos] = size;
+			touched[size++] = pos;
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @param i the i-th inserted key, 0 <= i < size()
+	 */
+	public int keyAt(int i) {
+		return keys[touched[i]];
+	}
+
+	public long valueAt(int i) {
+		return values[touched[i]];
+	}
+
+	public void clear() {
+		for(int i = 0; i < size; ++i) {
+			slotOf[touched[i]] = FREE;
+		}
+		size = 0;
+	}
+}
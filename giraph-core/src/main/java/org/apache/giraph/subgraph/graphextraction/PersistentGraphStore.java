@@ -0,0 +1,26 @@
+package org.apache.giraph.subgraph.graphextraction;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.IntBuffer;
+
+/**
+ * A local graph storage which can be saved after the preprocessing (supersteps 0 - 2)
+ * and loaded by a later job, see GraphStoreSnapshot.
+ * The body of a snapshot consists of ints only, so that it is read by bulk copies
+ * from a (memory-mapped) IntBuffer.
+ *
+ * @author simon0227
+ */
+public interface PersistentGraphStore {
+
+	/* version of the body written by writeSnapshot. */
+	public int getSnapshotVersion();
+
+	public void writeSnapshot(DataOutput out) throws IOException;
+
+	/**
+	 * replace the content of the store, including the vertices of the input superstep.
+	 */
+	public void readSnapshot(IntBuffer in) throws IOException;
+}
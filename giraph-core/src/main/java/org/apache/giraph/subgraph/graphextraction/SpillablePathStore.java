@@ -0,0 +1,391 @@
+package org.apache.giraph.subgraph.graphextraction;
+
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.log4j.Logger;
+
+/**
+ * Out-of-core store of the partial paths (qid, sid, tid, weight) produced by the mid queries
+ * of one partition, used instead of the tmp neighbors when
+ * "grapholap.path.evaluation.tmp.max.paths" is set.
+ * 	-- the paths are merged by $oplus$ of the PathSemiring in an open addressing table.
+ * 	-- once the table holds max.paths paths, it is sorted by (qid, sid, tid) and written
+ * 	   to a run file under "giraph.messagesDirectory", as SequentialFileMessageStore does.
+ * 	-- scan returns the paths in (qid, sid, tid) order, each key once; with run files
+ * 	   the rest of the table is spilled too and the runs are merged. MAX_RUNS runs are
+ * 	   merged into one already while adding.
+ * Below the budget nothing touches the disk.
+ *
+ * usage: add ..., startScan, next/qid/sid/tid/weight ..., clear.
+ * Not thread-safe: one instance per compute thread.
+ *
+ * @author simon0227
+ */
+public class SpillablePathStore {
+
+	private static final Logger LOG = Logger.getLogger(SpillablePathStore.class);
+	/* the runs are merged into one when there are so many, to bound the open files. */
+	private static final int MAX_RUNS = 64;
+
+	private final PathSemiring semiring;
+	private final int maxPathsInMemory;
+	private final String directory;
+	private final int bufferSize;
+
+	private int[] qids;
+	private int[] sids;
+	private int[] tids;
+	private long[] weights;
+	private int size;
+	/* entry index + 1, 0 means free */
+	private int[] table;
+	private int mask;
+
+	private final List<File> runs = new ArrayList<File>();
+	private int partitionId;
+	private long spilledPaths = 0;
+
+	/* scan state */
+	private int[] order;
+	private int scanPos;
+	private PriorityQueue<RunReader> readers;
+	private int curQid;
+	private int curSid;
+	private int curTid;
+	private long curWeight;
+
+	public SpillablePathStore(PathSemiring semiring, ImmutableClassesGiraphConfiguration<?, ?, ?, ?> conf) {
+		this.semiring = semiring;
+		this.maxPathsInMemory = Math.max(1, GiraphConstants.GRAPHOLAP_PATH_EVALUATION_TMP_MAX_PATHS.get(conf));
+		this.bufferSize = GiraphConstants.MESSAGES_BUFFER_SIZE.get(conf);
+		List<String> userPaths = GiraphConstants.MESSAGES_DIRECTORY.getList(conf);
+		this.directory = userPaths.get((int) (Thread.currentThread().getId() % userPaths.size()))
+				+ File.separator + conf.get("mapred.job.id", "Unknown Job")
+				+ File.separator + conf.getTaskPartition() + File.separator;
+		int capacity = Math.min(1024, Integer.highestOneBit(maxPathsInMemory));
+		qids = new int[capacity];
+		sids = new int[capacity];
+		tids = new int[capacity];
+		weights = new long[capacity];
+		table = new int[capacity * 2];
+		mask = table.length - 1;
+	}
+
+	public static boolean isEnabled(ImmutableClassesGiraphConfiguration<?, ?, ?, ?> conf) {
+		return GiraphConstants.GRAPHOLAP_PATH_EVALUATION_TMP_MAX_PATHS.get(conf) > 0;
+	}
+
+	/**
+	 * the run files are named after the partition.
+	 */
+	public void setPartitionId(int partitionId) {
+		this.partitionId = partitionId;
+	}
+
+	private static int hash(int qid, int sid, int tid) {
+		int h = (qid * 0x9E3779B9 + sid) * 0x9E3779B9 + tid;
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * add one partial path; paths with the same (qid, sid, tid) are merged by $oplus$.
+	 */
+	public void add(int qid, int sid, int tid, long weight) throws IOException {
+		int pos = hash(qid, sid, tid) & mask;
+		while(table[pos] != 0) {
+			int e = table[pos] - 1;
+			if(qids[e] == qid && sids[e] == sid && tids[e] == tid) {
+				weights[e] = semiring.plus(weights[e], weight);
+				return;
+			}
+			pos = (pos + 1) & mask;
+		}
+		if(size == qids.length) {
+			int capacity = size * 2;
+			qids = Arrays.copyOf(qids, capacity);
+			sids = Arrays.copyOf(sids, capacity);
+			tids = Arrays.copyOf(tids, capacity);
+			weights = Arrays.copyOf(weights, capacity);
+		}
+		qids[size] = qid;
+		sids[size] = sid;
+		tids[size] = tid;
+		weights[size] = weight;
+		table[pos] = ++size;
+		if(size >= maxPathsInMemory) {
+			spill();
+		}
+		else if(size * 2 > table.length) {
+			rehash(table.length * 2);
+		}
+	}
+
+	private void rehash(int capacity) {
+		table = new int[capacity];
+		mask = capacity - 1;
+		for(int e = 0; e < size; ++e) {
+			int pos = hash(qids[e], sids[e], tids[e]) & mask;
+			while(table[pos] != 0) {
+				pos = (pos + 1) & mask;
+			}
+			table[pos] = e + 1;
+		}
+	}
+
+	/**
+	 * entry indexes of the table sorted by (qid, sid, tid).
+	 */
+	private int[] sortEntries() {
+		int[] perm = new int[size];
+		for(int i = 0; i < size; ++i) {
+			perm[i] = i;
+		}
+		IntArrays.quickSort(perm, 0, size, new AbstractIntComparator() {
+			@Override
+			public int compare(int a, int b) {
+				return compareKeys(qids[a], sids[a], tids[a], qids[b], sids[b], tids[b]);
+			}
+		});
+		return perm;
+	}
+
+	private static int compareKeys(int q1, int s1, int t1, int q2, int s2, int t2) {
+		if(q1 != q2) return q1 < q2 ? -1 : 1;
+		if(s1 != s2) return s1 < s2 ? -1 : 1;
+		if(t1 != t2) return t1 < t2 ? -1 : 1;
+		return 0;
+	}
+
+	private void spill() throws IOException {
+		if(size == 0) {
+			return;
+		}
+		new File(directory).mkdirs();
+		File file = new File(directory, "paths-" + partitionId + "-" + runs.size());
+		int[] perm = sortEntries();
+		DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file), bufferSize));
+		try {
+			for(int e : perm) {
+				out.writeInt(qids[e]);
+				out.writeInt(sids[e]);
+				out.writeInt(tids[e]);
+				out.writeLong(weights[e]);
+			}
+		} finally {
+			out.close();
+		}
+		runs.add(file);
+		spilledPaths += size;
+		if(LOG.isInfoEnabled()) {
+			LOG.info("spill: " + size + " paths of partition " + partitionId + " to " + file);
+		}
+		size = 0;
+		Arrays.fill(table, 0);
+		if(runs.size() >= MAX_RUNS) {
+			mergeRuns();
+		}
+	}
+
+	/**
+	 * merge all the runs into a single one.
+	 */
+	private void mergeRuns() throws IOException {
+		File file = new File(directory, "paths-" + partitionId + "-merged-" + System.nanoTime());
+		openReaders();
+		DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file), bufferSize));
+		try {
+			while(next()) {
+				out.writeInt(curQid);
+				out.writeInt(curSid);
+				out.writeInt(curTid);
+				out.writeLong(curWeight);
+			}
+		} finally {
+			out.close();
+			readers = null;
+		}
+		deleteRuns();
+		runs.add(file);
+	}
+
+	private void openReaders() throws IOException {
+		readers = new PriorityQueue<RunReader>(runs.size(), new Comparator<RunReader>() {
+			@Override
+			public int compare(RunReader a, RunReader b) {
+				return compareKeys(a.qid, a.sid, a.tid, b.qid, b.sid, b.tid);
+			}
+		});
+		for(File file : runs) {
+			RunReader reader = new RunReader(file);
+			if(reader.advance()) {
+				readers.add(reader);
+			}
+			else {
+				reader.close();
+			}
+		}
+	}
+
+	private void deleteRuns() {
+		for(File file : runs) {
+			if(file.delete() == false) {
+				LOG.warn("deleteRuns: failed to delete " + file);
+			}
+		}
+		runs.clear();
+	}
+
+	public boolean hasSpilled() {
+		return runs.isEmpty() == false;
+	}
+
+	public void startScan() throws IOException {
+		if(runs.isEmpty()) {
+			order = sortEntries();
+			scanPos = 0;
+			return;
+		}
+		spill();
+		openReaders();
+	}
+
+	/**
+	 * move to the next (qid, sid, tid); the paths with the same key in different runs
+	 * are merged by $oplus$.
+	 * @return false at the end of the scan.
+	 */
+	public boolean next() throws IOException {
+		if(readers == null) {
+			if(order == null || scanPos >= order.length) {
+				return false;
+			}
+			int e = order[scanPos++];
+			curQid = qids[e];
+			curSid = sids[e];
+			curTid = tids[e];
+			curWeight = weights[e];
+			return true;
+		}
+		RunReader head = readers.poll();
+		if(head == null) {
+			return false;
+		}
+		curQid = head.qid;
+		curSid = head.sid;
+		curTid = head.tid;
+		curWeight = head.weight;
+		forward(head);
+		while(readers.isEmpty() == false) {
+			RunReader r = readers.peek();
+			if(r.qid != curQid || r.sid != curSid || r.tid != curTid) {
+				break;
+			}
+			readers.poll();
+			curWeight = semiring.plus(curWeight, r.weight);
+			forward(r);
+		}
+		return true;
+	}
+
+	private void forward(RunReader reader) throws IOException {
+		if(reader.advance()) {
+			readers.add(reader);
+		}
+		else {
+			reader.close();
+		}
+	}
+
+	public int qid() {
+		return curQid;
+	}
+
+	public int sid() {
+		return curSid;
+	}
+
+	public int tid() {
+		return curTid;
+	}
+
+	public long weight() {
+		return curWeight;
+	}
+
+	/**
+	 * number of paths written to run files since the last call.
+	 */
+	public long resetSpilledPaths() {
+		long res = spilledPaths;
+		spilledPaths = 0;
+		return res;
+	}
+
+	/**
+	 * drop all the paths and delete the run files.
+	 */
+	public void clear() throws IOException {
+		if(readers != null) {
+			for(RunReader reader : readers) {
+				reader.close();
+			}
+			readers = null;
+		}
+		deleteRuns();
+		order = null;
+		size = 0;
+		Arrays.fill(table, 0);
+	}
+
+	/**
+	 * sequential reader of a sorted run.
+	 */
+	private class RunReader {
+		private final DataInputStream in;
+		int qid;
+		int sid;
+		int tid;
+		long weight;
+
+		RunReader(File file) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), bufferSize));
+		}
+
+		boolean advance() throws IOException {
+			try {
+				qid = in.readInt();
+			} catch (EOFException e) {
+				return false;
+			}
+			sid = in.readInt();
+			tid = in.readInt();
+			weight = in.readLong();
+			return true;
+		}
+
+		void close() throws IOException {
+			in.close();
+		}
+	}
+}
@@ -49,6 +49,10 @@ import org.apache.giraph.io.superstep_output.SuperstepOutput;
 import org.apache.giraph.subgraph.BasicEdge;
 import org.apache.giraph.subgraph.BasicGraphStoreInterface;
 import org.apache.giraph.subgraph.BasicVertex;
+import org.apache.giraph.subgraph.KTrussSnapshot;
+import org.apache.giraph.subgraph.TriangleCountSubgraph;
+import org.apache.giraph.subgraph.TrussState;
+import org.apache.giraph.subgraph.graphextraction.PathSemiring;
 import org.apache.giraph.utils.CallableFactory;
 import org.apache.giraph.utils.JMapHistoDumper;
 import org.apache.giraph.graph.Vertex;
@@ -95,6 +99,7 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 
 import net.iharder.Base64;
@@ -461,6 +466,11 @@ public class BspServiceWorker<I extends WritableComparable,
 
   @Override
   public FinishedSuperstepStats setup() {
+    // The extracted graph is saved with the edge values of the semiring
+    if (GiraphConstants.GRAPHOLAP_PATH_EVALUATION_IMPR.get(
+        getConfiguration())) {
+      PathSemiring.checkOutputFormat(getConfiguration());
+    }
 	//  Unless doing a restart, prepare for computation:
     // 1. Start superstep INPUT_SUPERSTEP (no computation)
     // 2. Wait until the INPUT_SPLIT_ALL_READY_PATH node has been created
@@ -579,10 +589,6 @@ else[HADOOP_NON_SECURE]*/
     }
 
 
-    if(GiraphConstants.GRAPHOLAP_PATH_EVALUATION.get(getConfiguration())) {
-	      //TODO: read the query plan here.
-    }
-
     // Generate the partition stats for the input superstep and process
     // if necessary
     List<PartitionStats> partitionStatsList =
@@ -592,7 +598,12 @@ else[HADOOP_NON_SECURE]*/
           getPartitionStore().getPartition(partitionId);
 
       if(GiraphConstants.GRAPHOLAP_PATH_EVALUATION_IMPR.get(getConfiguration())) {
-    	  ((org.apache.giraph.subgraph.graphextraction.BasicGraphStoreInterface) partition).inititalGraphStore();
+    	  if(QueryPlan.isSnapshotLoaded(getConfiguration())) {
+    		  loadGraphStoreSnapshot(partition);
+    	  }
+    	  else {
+    		  ((org.apache.giraph.subgraph.graphextraction.BasicGraphStoreInterface) partition).inititalGraphStore();
+    	  }
       }
       
 	  LOG.info("local partition info: "+partition.getVertexCount()+" "+partition.getEdgeCount());
@@ -612,6 +623,24 @@ else[HADOOP_NON_SECURE]*/
     return finishSuperstep(graphState, partitionStatsList);
   }
   
+  /**
+   * Replace the input partition by its preprocessed snapshot.
+   *
+   * @param partition Partition owned by this worker
+   */
+  private void loadGraphStoreSnapshot(Partition<I, V, E, M> partition) {
+    int numPartitions = Iterables.size(getPartitionOwners());
+    try {
+      org.apache.giraph.subgraph.graphextraction.GraphStoreSnapshot.load(
+          getConfiguration(),
+          (org.apache.giraph.subgraph.graphextraction.BasicGraphStoreInterface)
+              partition, partition.getId(), numPartitions);
+    } catch (IOException e) {
+      throw new IllegalStateException("loadGraphStoreSnapshot: Failed to " +
+          "load partition " + partition.getId(), e);
+    }
+  }
+
   public void readQueryPlan() {
 	  String queryPlanPath = this.basePath+"/_grapholap/_pathevaluation/_queryplan";
   	  try {
@@ -771,8 +800,9 @@ else[HADOOP_NON_SECURE]*/
         " - Attempt=" + getApplicationAttempt() +
         ", Superstep=" + getSuperstep());
     
-    //TODO: read the query plan in Superstep 1.
-    if(this.getSuperstep() == 1) {
+    /* the master saves the plan after QueryPlan.getPlanSuperstep() (after the label
+     * statistics of superstep 1 for the cost plan), read it before it is evaluated. */
+    if(this.getSuperstep() == QueryPlan.getPlanSuperstep(getConfiguration()) + 1) {
     	this.readQueryPlan();
     }
 
@@ -1034,14 +1064,19 @@ else[HADOOP_NON_SECURE]*/
             	   * Special for the ktruss output
             	   */
             	  BasicGraphStoreInterface gs = (BasicGraphStoreInterface)(partition);
-          		  for(BasicVertex rv : gs.getLocalVertex()){
+            	  if(KTrussSnapshot.isSaving(getConfiguration())){
+            	    KTrussSnapshot.save(getConfiguration(), gs, partition.getId(),
+            	        workerGraphPartitioner.getPartitionOwners().size());
+            	  }
+          		  for(BasicVertex rv : TrussState.getOutputVertices(gs,
+                      TriangleCountSubgraph.removeEngine(getConfiguration(), partition.getId()))){
 	          			Vertex<I, V, E, M> vertex = 
 	          					getConfiguration().createVertex();
 	          			List<Edge<I, E>> edges = Lists.newLinkedList();
 	          			for(BasicEdge nb : rv.getNeighbors()){
 	          				edges.add(EdgeFactory.create(((I)new IntWritable(nb.getTargetId())), ((E)NullWritable.get())));
 	          			}
-	          			vertex.initialize((I)(new IntWritable(rv.getId())), ((V)new IntWritable(0)), edges);
+	          			vertex.initialize((I)(new IntWritable(rv.getId())), ((V)new IntWritable(rv.getValue())), edges);
 		               
 	          			vertexWriter.writeVertex(vertex);
 		                ++verticesWritten;
@@ -1063,16 +1098,28 @@ else[HADOOP_NON_SECURE]*/
             	  LOG.info("Saving vertices of extracted graph.");
             	  org.apache.giraph.subgraph.graphextraction.BasicGraphStoreInterface gs = 
             			  (org.apache.giraph.subgraph.graphextraction.BasicGraphStoreInterface)(partition);
+            	  org.apache.giraph.subgraph.graphextraction.PathSemiring semiring =
+            			  org.apache.giraph.subgraph.graphextraction.PathSemiring.create(getConfiguration());
 //            	  gs.dump();
           		  for(org.apache.giraph.subgraph.graphextraction.BasicVertex rv : gs.getLocalVertex()){
               			Vertex<I, V, E, M> vertex = 
               					getConfiguration().createVertex();
               			List<Edge<I, E>> edges = Lists.newLinkedList();
+              			/* the tmp neighbors are grouped by line pattern (edge label), one output vertex per pattern. */
+              			int pattern = 0;
               			for(org.apache.giraph.subgraph.graphextraction.BasicEdge nb : rv.getTmpNeighbors()){
-              				edges.add(EdgeFactory.create(((I)new IntWritable(nb.getVid())), ((E)new IntWritable(nb.getWeight()))));
+              				if(nb.getLabel() != pattern && edges.isEmpty() == false) {
+              					vertex.initialize((I)(new IntWritable(rv.getId())), ((V)new IntWritable(pattern)), edges);
+              					vertexWriter.writeVertex(vertex);
+              					++verticesWritten;
+              					vertex = getConfiguration().createVertex();
+              					edges = Lists.newLinkedList();
+              				}
+              				pattern = nb.getLabel();
+              				edges.add(EdgeFactory.create(((I)new IntWritable(nb.getVid())), ((E)semiring.toWritable(nb.getWeight()))));
 //              				edges.add(EdgeFactory.create(((I)new IntWritable(gs.getGlobalId(nb.getVid()))), ((E)new IntWritable(nb.getWeight()))));
               			}
-              			vertex.initialize((I)(new IntWritable(rv.getId())), ((V)new IntWritable(0)), edges);
+              			vertex.initialize((I)(new IntWritable(rv.getId())), ((V)new IntWritable(pattern)), edges);
                        
               			vertexWriter.writeVertex(vertex);
                         ++verticesWritten;
@@ -1668,7 +1715,7 @@ else[HADOOP_NON_SECURE]*/
   @Override
   public ArrayList<QueryNode> getQueries() {
 	  long superstep = getSuperstep();
-	  return queryPlan.getQueryByLevel(superstep - 2); //TODO: magic number here.
+	  return queryPlan.getQueryByLevel(superstep - QueryPlan.getFirstQuerySuperstep(getConfiguration()));
   }
   
   public int getPlanSize() {
@@ -1684,4 +1731,9 @@ else[HADOOP_NON_SECURE]*/
   public QueryNode getQueryByChild(int qid) {
 	return queryPlan.getQueryNodeByChild(qid);
   }
+
+  @Override
+  public ArrayList<Integer> getPatternsOfRoot(int qid) {
+	return queryPlan.getPatternsOfRoot(qid);
+  }
 }
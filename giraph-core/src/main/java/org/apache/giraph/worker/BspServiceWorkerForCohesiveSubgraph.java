@@ -48,6 +48,9 @@ import org.apache.giraph.io.superstep_output.SuperstepOutput;
 import org.apache.giraph.subgraph.BasicEdge;
 import org.apache.giraph.subgraph.BasicGraphStoreInterface;
 import org.apache.giraph.subgraph.BasicVertex;
+import org.apache.giraph.subgraph.KTrussSnapshot;
+import org.apache.giraph.subgraph.TriangleCountSubgraph;
+import org.apache.giraph.subgraph.TrussState;
 import org.apache.giraph.utils.CallableFactory;
 import org.apache.giraph.utils.JMapHistoDumper;
 import org.apache.giraph.graph.Vertex;
@@ -456,8 +459,7 @@ public class BspServiceWorkerForCohesiveSubgraph<I extends WritableComparable,
 
   @Override
   public FinishedSuperstepStats setup() {
-    // TODO: read the query plan here. 
-	//  Unless doing a restart, prepare for computation:
+    // Unless doing a restart, prepare for computation:
     // 1. Start superstep INPUT_SUPERSTEP (no computation)
     // 2. Wait until the INPUT_SPLIT_ALL_READY_PATH node has been created
     // 3. Process input splits until there are no more.
@@ -585,7 +587,12 @@ else[HADOOP_NON_SECURE]*/
       if(this.getConfiguration().getBoolean("giraph.ktruss.subgraph", false)){
     	  LOG.info("Call the graph store initialization method.");
 //    	  LOG.info("partition info: "+partition.getVertexCount()+" "+partition.getEdgeCount());
-    	  ((BasicGraphStoreInterface)partition).inititalGraphStore();
+    	  if(KTrussSnapshot.isLoading(getConfiguration())){
+    		  loadKTrussSnapshot(partition);
+    	  }
+    	  else{
+    		  ((BasicGraphStoreInterface)partition).inititalGraphStore();
+    	  }
 //    	  LOG.info("partition info: "+partition.getVertexCount()+" "+partition.getEdgeCount());
       }
       
@@ -943,6 +950,21 @@ else[HADOOP_NON_SECURE]*/
     }
   }
 
+  /**
+   * Replace the input partition by the saved k-truss, for the incremental mode.
+   *
+   * @param partition Partition owned by this worker
+   */
+  private void loadKTrussSnapshot(Partition<I, V, E, M> partition) {
+    try {
+      KTrussSnapshot.load(getConfiguration(), (BasicGraphStoreInterface) partition,
+          partition.getId(), workerGraphPartitioner.getPartitionOwners().size());
+    } catch (IOException e) {
+      throw new IllegalStateException("loadKTrussSnapshot: Failed to " +
+          "load partition " + partition.getId(), e);
+    }
+  }
+
   /**
    * Save the vertices using the user-defined VertexOutputFormat from our
    * vertexArray based on the split.
@@ -1000,14 +1022,19 @@ else[HADOOP_NON_SECURE]*/
             	   * Special for the ktruss output
             	   */
             	  BasicGraphStoreInterface gs = (BasicGraphStoreInterface)(partition);
-          		  for(BasicVertex rv : gs.getLocalVertex()){
+            	  if(KTrussSnapshot.isSaving(getConfiguration())){
+            	    KTrussSnapshot.save(getConfiguration(), gs, partition.getId(),
+            	        workerGraphPartitioner.getPartitionOwners().size());
+            	  }
+          		  for(BasicVertex rv : TrussState.getOutputVertices(gs,
+                      TriangleCountSubgraph.removeEngine(getConfiguration(), partition.getId()))){
 	          			Vertex<I, V, E, M> vertex = 
 	          					getConfiguration().createVertex();
 	          			List<Edge<I, E>> edges = Lists.newLinkedList();
 	          			for(BasicEdge nb : rv.getNeighbors()){
 	          				edges.add(EdgeFactory.create(((I)new IntWritable(nb.getTargetId())), ((E)NullWritable.get())));
 	          			}
-	          			vertex.initialize((I)(new IntWritable(rv.getId())), ((V)new IntWritable(0)), edges);
+	          			vertex.initialize((I)(new IntWritable(rv.getId())), ((V)new IntWritable(rv.getValue())), edges);
 		               
 	          			vertexWriter.writeVertex(vertex);
 		                ++verticesWritten;
@@ -1620,4 +1647,10 @@ public QueryNode getQueryByChild(int qid) {
 public int getPlanSize() {
 	  return 0;
 }
+
+/* no query plan is evaluated by this worker, so no query is the root of a line pattern. */
+@Override
+public ArrayList<Integer> getPatternsOfRoot(int qid) {
+	return new ArrayList<Integer>();
+}
 }
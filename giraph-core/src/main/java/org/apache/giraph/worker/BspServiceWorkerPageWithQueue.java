@@ -14,12 +14,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -37,6 +35,7 @@ import org.apache.giraph.comm.netty.NettyWorkerAggregatorRequestProcessor;
 import org.apache.giraph.comm.netty.NettyWorkerClient;
 import org.apache.giraph.comm.netty.NettyWorkerClientRequestProcessor;
 import org.apache.giraph.comm.netty.NettyWorkerServer;
+import org.apache.giraph.comm.requests.SendWorkerMessagesRequest;
 import org.apache.giraph.comm.requests.WorkerRequest;
 import org.apache.giraph.comm.requests.WritableRequest;
 import org.apache.giraph.conf.GiraphConstants;
@@ -73,10 +72,16 @@ import org.apache.giraph.plan.QueryPlan;
 import org.apache.giraph.subgraph.BasicEdge;
 import org.apache.giraph.subgraph.BasicGraphStoreInterface;
 import org.apache.giraph.subgraph.BasicVertex;
+import org.apache.giraph.subgraph.KTrussSnapshot;
+import org.apache.giraph.subgraph.TriangleCountSubgraph;
+import org.apache.giraph.subgraph.TrussState;
+import org.apache.giraph.subgraph.graphextraction.PathSemiring;
+import org.apache.giraph.utils.ByteArrayVertexIdMessages;
 import org.apache.giraph.utils.CallableFactory;
 import org.apache.giraph.utils.JMapHistoDumper;
 import org.apache.giraph.utils.LoggerUtils;
 import org.apache.giraph.utils.MemoryUtils;
+import org.apache.giraph.utils.PairList;
 import org.apache.giraph.utils.ProgressableUtils;
 import org.apache.giraph.utils.WritableUtils;
 import org.apache.giraph.zk.BspEvent;
@@ -118,6 +123,9 @@ public class BspServiceWorkerPageWithQueue<I extends WritableComparable,
     implements ResetSuperstepMetricsObserver, IBspServiceWorker<I, V, E, M> {
   /** Class logger */
   private static final Logger LOG = Logger.getLogger(BspServiceWorkerPageWithQueue.class);
+  /** Name of gauge for time spent waiting on the local requests */
+  public static final String TIMER_WAIT_LOCAL_REQUESTS =
+      "wait-local-requests-us";
   /** My process health znode */
   private String myHealthZnode;
   /** Worker info */
@@ -157,9 +165,10 @@ public class BspServiceWorkerPageWithQueue<I extends WritableComparable,
   /** Superstep output */
   private SuperstepOutput<I, V, E> superstepOutput;
   
-  private final BlockingQueue<WorkerRequest> sendWorkerMessagesRequestQueue;
-  private final List<LocalMessageServer> localMessageServers = new ArrayList<LocalMessageServer>();
-  private int localMessageServerSize;
+  /** Executes the requests sent to this worker by itself */
+  private final LocalRequestExecutor localRequestExecutor;
+  /** Time spent waiting on local requests to finish */
+  private GiraphTimer waitLocalRequestsTimer;
 
   long workerVertexNumber;
   long workerEdgeNumber;
@@ -215,73 +224,11 @@ public class BspServiceWorkerPageWithQueue<I extends WritableComparable,
     }
     observers = conf.createWorkerObservers();
 
-    GiraphMetrics.get().addSuperstepResetObserver(this);    
-    
-    /* create Async Local Thread */
-   sendWorkerMessagesRequestQueue = 
-    		new LinkedBlockingQueue<WorkerRequest>();
-//    sendWorkerMessagesRequestQueue = new CustomizedBlockingQueue<WorkerRequest>();
-   localMessageServerSize = conf.getInt("giraph.asynclocal.concurrency", 8);
-//   isDynamic = conf.getBoolean(GiraphConstants.GIRAPH_ISDYNAMIC, GiraphConstants.DEFAULT_GIRAPH_ISDYNAMIC);
-//   totalLocalMessageServerSize = localMessageServerSize;
-//   localMessageServer = new LocalMessageServer[localMessageServerSize];
-   if(LOG.isInfoEnabled()){
-	   LOG.info("Create "+ localMessageServerSize+" threads to consume local incoming messages.");
-   }
-   for(int i = 0; i < localMessageServerSize; i++){
-	   localMessageServers.add(new LocalMessageServer());
-	   localMessageServers.get(i).start();
-   }
-  }
-  
-class LocalMessageServer extends Thread{
-//	  private long messageProcessCost = 0L;
-//	  private long messageWaitCost = 0L;
-//	  private long messageTotalRequests = 0L;
-	  
-	  public void run(){
-  		while (true) {
-			try {
-//				long start_time = System.currentTimeMillis(), midtime;
-				WorkerRequest writableRequest = sendWorkerMessagesRequestQueue.take();
-//					sendWorkerMessagesRequestQueue.poll(
-//							300, TimeUnit.SECONDS);
-//				midtime = System.currentTimeMillis();
-//				messageTotalRequests++;
-				((WorkerRequest) writableRequest).doRequest(workerServer.getServerData());
-//				messageProcessCost += System.currentTimeMillis() - midtime;
-//				messageWaitCost += midtime - start_time;
-			} catch (InterruptedException e) {
-				//e.printStackTrace();
-				break;
-		    }
-		}
-//  		System.out.println(this.getId()+": totalreq: " + messageTotalRequests);
-//  		System.out.println(this.getId()+": totalpros: " + messageProcessCost);
-//  		System.out.println();
-//  		if(messageTotalRequests != 0)
-//  			updateThreadsInfo(messageTotalRequests, messageProcessCost);
-//  		messageTotalRequests = 0;
-//  		messageProcessCost = 0;
-	  }
-	  
-//	  public long getLocalMessageProcessTime(){
-//		  long result = messageProcessCost;
-//		  messageProcessCost = 0;
-//		  return result;
-//	  }
-//	  
-//	  public long getTotalRequests(){
-//		  long result = messageTotalRequests;
-//		  messageTotalRequests = 0;
-//		  return result;
-//	  }
-//	  
-//	  public long getLocalMessageWaitTime(){
-//		  long result = messageWaitCost;
-//		  messageWaitCost = 0;
-//		  return result;
-//	  }
+    localRequestExecutor = new LocalRequestExecutor(getServerData(),
+        GiraphConstants.ASYNC_LOCAL_CONCURRENCY.get(conf),
+        GiraphConstants.ASYNC_LOCAL_QUEUE_CAPACITY.get(conf));
+
+    GiraphMetrics.get().addSuperstepResetObserver(this);
   }
 
   @Override
@@ -290,6 +237,9 @@ class LocalMessageServer extends Thread{
         TIMER_WAIT_REQUESTS, TimeUnit.MICROSECONDS);
     wcPostSuperstepTimer = new GiraphTimer(superstepMetrics,
         "worker-context-post-superstep", TimeUnit.MICROSECONDS);
+    waitLocalRequestsTimer = new GiraphTimer(superstepMetrics,
+        TIMER_WAIT_LOCAL_REQUESTS, TimeUnit.MICROSECONDS);
+    localRequestExecutor.newSuperstep(superstepMetrics);
   }
 
   @Override
@@ -533,6 +483,11 @@ public boolean isHealthy() {
 
   @Override
   public FinishedSuperstepStats setup() {
+    // The extracted graph is saved with the edge values of the semiring
+    if (GiraphConstants.GRAPHOLAP_PATH_EVALUATION_IMPR.get(
+        getConfiguration())) {
+      PathSemiring.checkOutputFormat(getConfiguration());
+    }
     // Unless doing a restart, prepare for computation:
     // 1. Start superstep INPUT_SUPERSTEP (no computation)
     // 2. Wait until the INPUT_SPLIT_ALL_READY_PATH node has been created
@@ -661,9 +616,22 @@ else[HADOOP_NON_SECURE]*/
       if(this.getConfiguration().getBoolean("giraph.ktruss.subgraph", false)){
     	  LOG.info("Call the graph store initialization method.");
 //    	  LOG.info("partition info: "+partition.getVertexCount()+" "+partition.getEdgeCount());
-    	  ((BasicGraphStoreInterface)partition).inititalGraphStore();
+    	  if(KTrussSnapshot.isLoading(getConfiguration())){
+    		  loadKTrussSnapshot(partition);
+    	  }
+    	  else{
+    		  ((BasicGraphStoreInterface)partition).inititalGraphStore();
+    	  }
 //    	  LOG.info("partition info: "+partition.getVertexCount()+" "+partition.getEdgeCount());
       }
+      else if(GiraphConstants.GRAPHOLAP_PATH_EVALUATION_IMPR.get(getConfiguration())) {
+    	  if(QueryPlan.isSnapshotLoaded(getConfiguration())) {
+    		  loadGraphStoreSnapshot(partition);
+    	  }
+    	  else {
+    		  ((org.apache.giraph.subgraph.graphextraction.BasicGraphStoreInterface) partition).inititalGraphStore();
+    	  }
+      }
       
       PartitionStats partitionStats =
           new PartitionStats(partition.getId(),
@@ -866,8 +834,9 @@ else[HADOOP_NON_SECURE]*/
         " - Attempt=" + getApplicationAttempt() +
         ", Superstep=" + getSuperstep());
     
-    //TODO: read the query plan in Superstep 1.
-    if(this.getSuperstep() == 1) {
+    /* the master saves the plan after QueryPlan.getPlanSuperstep() (after the label
+     * statistics of superstep 1 for the cost plan), read it before it is evaluated. */
+    if(this.getSuperstep() == QueryPlan.getPlanSuperstep(getConfiguration()) + 1) {
     	this.readQueryPlan();
     }
     
@@ -1001,16 +970,14 @@ else[HADOOP_NON_SECURE]*/
     timerContext.stop();
   }
 
-private void waitForLocalRequestsToFinish() {
-  while(sendWorkerMessagesRequestQueue.peek() != null){
-	  try {
-		  /* sleep 1000msec */
-		Thread.sleep(1000);
-	} catch (InterruptedException e) {
-		e.printStackTrace();
-	}
-  }  
-}
+  /**
+   * Wait for the requests this worker sent to itself to be executed.
+   */
+  private void waitForLocalRequestsToFinish() {
+    GiraphTimerContext timerContext = waitLocalRequestsTimer.time();
+    localRequestExecutor.waitForIdle();
+    timerContext.stop();
+  }
   
   /**
    * Wait for all the other Workers to finish the superstep.
@@ -1085,6 +1052,39 @@ private void waitForLocalRequestsToFinish() {
     }
   }
 
+  /**
+   * Replace the input partition by the saved k-truss, for the incremental mode.
+   *
+   * @param partition Partition owned by this worker
+   */
+  private void loadKTrussSnapshot(Partition<I, V, E, M> partition) {
+    try {
+      KTrussSnapshot.load(getConfiguration(), (BasicGraphStoreInterface) partition,
+          partition.getId(), workerGraphPartitioner.getPartitionOwners().size());
+    } catch (IOException e) {
+      throw new IllegalStateException("loadKTrussSnapshot: Failed to " +
+          "load partition " + partition.getId(), e);
+    }
+  }
+
+  /**
+   * Replace the input partition by its preprocessed snapshot.
+   *
+   * @param partition Partition owned by this worker
+   */
+  private void loadGraphStoreSnapshot(Partition<I, V, E, M> partition) {
+    try {
+      org.apache.giraph.subgraph.graphextraction.GraphStoreSnapshot.load(
+          getConfiguration(),
+          (org.apache.giraph.subgraph.graphextraction.BasicGraphStoreInterface)
+              partition, partition.getId(),
+          workerGraphPartitioner.getPartitionOwners().size());
+    } catch (IOException e) {
+      throw new IllegalStateException("loadGraphStoreSnapshot: Failed to " +
+          "load partition " + partition.getId(), e);
+    }
+  }
+
   /**
    * Save the vertices using the user-defined VertexOutputFormat from our
    * vertexArray based on the split.
@@ -1122,14 +1122,19 @@ private void waitForLocalRequestsToFinish() {
     	   * Special for the ktruss output
     	   */
     	  BasicGraphStoreInterface gs = (BasicGraphStoreInterface)(partition);
-  		  for(BasicVertex rv : gs.getLocalVertex()){
+    	  if(KTrussSnapshot.isSaving(getConfiguration())){
+    	    KTrussSnapshot.save(getConfiguration(), gs, partition.getId(),
+    	        workerGraphPartitioner.getPartitionOwners().size());
+    	  }
+  		  for(BasicVertex rv : TrussState.getOutputVertices(gs,
+                      TriangleCountSubgraph.removeEngine(getConfiguration(), partition.getId()))){
       			Vertex<I, V, E, M> vertex = 
       					getConfiguration().createVertex();
       			List<Edge<I, E>> edges = Lists.newLinkedList();
       			for(BasicEdge nb : rv.getNeighbors()){
       				edges.add(EdgeFactory.create(((I)new IntWritable(nb.getTargetId())), ((E)NullWritable.get())));
       			}
-      			vertex.initialize((I)(new IntWritable(rv.getId())), ((V)new IntWritable(0)), edges);
+      			vertex.initialize((I)(new IntWritable(rv.getId())), ((V)new IntWritable(rv.getValue())), edges);
                
       			vertexWriter.writeVertex(vertex);
                 ++verticesWritten;
@@ -1151,16 +1156,28 @@ private void waitForLocalRequestsToFinish() {
     	  LOG.info("Saving vertices of extracted graph.");
     	  org.apache.giraph.subgraph.graphextraction.BasicGraphStoreInterface gs = 
     			  (org.apache.giraph.subgraph.graphextraction.BasicGraphStoreInterface)(partition);
+    	  org.apache.giraph.subgraph.graphextraction.PathSemiring semiring =
+    			  org.apache.giraph.subgraph.graphextraction.PathSemiring.create(getConfiguration());
 //    	  gs.dump();
   		  for(org.apache.giraph.subgraph.graphextraction.BasicVertex rv : gs.getLocalVertex()){
       			Vertex<I, V, E, M> vertex = 
       					getConfiguration().createVertex();
       			List<Edge<I, E>> edges = Lists.newLinkedList();
+      			/* the tmp neighbors are grouped by line pattern (edge label), one output vertex per pattern. */
+      			int pattern = 0;
       			for(org.apache.giraph.subgraph.graphextraction.BasicEdge nb : rv.getTmpNeighbors()){
-      				edges.add(EdgeFactory.create(((I)new IntWritable(nb.getVid())), ((E)new IntWritable(nb.getWeight()))));
+      				if(nb.getLabel() != pattern && edges.isEmpty() == false) {
+      					vertex.initialize((I)(new IntWritable(rv.getId())), ((V)new IntWritable(pattern)), edges);
+      					vertexWriter.writeVertex(vertex);
+      					++verticesWritten;
+      					vertex = getConfiguration().createVertex();
+      					edges = Lists.newLinkedList();
+      				}
+      				pattern = nb.getLabel();
+      				edges.add(EdgeFactory.create(((I)new IntWritable(nb.getVid())), ((E)semiring.toWritable(nb.getWeight()))));
 //      				edges.add(EdgeFactory.create(((I)new IntWritable(gs.getGlobalId(nb.getVid()))), ((E)new IntWritable(nb.getWeight()))));
       			}
-      			vertex.initialize((I)(new IntWritable(rv.getId())), ((V)new IntWritable(0)), edges);
+      			vertex.initialize((I)(new IntWritable(rv.getId())), ((V)new IntWritable(pattern)), edges);
                
       			vertexWriter.writeVertex(vertex);
                 ++verticesWritten;
@@ -1261,10 +1278,8 @@ private void waitForLocalRequestsToFinish() {
     // all clients have disconnected (or the exceptions on the
     // client side ignored).
     workerServer.close();
-    
-    for(int i = 0; i < this.localMessageServerSize; i++){
-    	localMessageServers.get(i).interrupt();
-    }
+
+    localRequestExecutor.shutdown();
   }
 
   @Override
@@ -1708,14 +1723,40 @@ public final BspEvent getPartitionExchangeChildrenChangedEvent() {
   }
 
 	
-  public void addLocalMessage(WritableRequest writableRequest){
-		try {
-			sendWorkerMessagesRequestQueue.put((WorkerRequest) writableRequest);
-		} catch (InterruptedException e) {
-			throw new IllegalStateException(
-	    		  "addLocalMessage: Got InterruptedException ", e);
-		}
-	}
+  /**
+   * Hand a request to this worker to the local request executor. The
+   * messages are split by partition, so every partition is fed by one
+   * executor thread.
+   *
+   * @param writableRequest Request to execute
+   */
+  @Override
+  public void addLocalMessage(WritableRequest writableRequest) {
+    if (!(writableRequest instanceof SendWorkerMessagesRequest)) {
+      localRequestExecutor.execute(-1, (WorkerRequest) writableRequest);
+      return;
+    }
+    PairList<Integer, ByteArrayVertexIdMessages<I, M>> partitionMessages =
+        ((SendWorkerMessagesRequest<I, M>) writableRequest)
+            .getPartitionVertexData();
+    PairList<Integer, ByteArrayVertexIdMessages<I, M>>.Iterator iterator =
+        partitionMessages.getIterator();
+    if (partitionMessages.getSize() == 1) {
+      iterator.next();
+      localRequestExecutor.execute(iterator.getCurrentFirst(),
+          (WorkerRequest) writableRequest);
+      return;
+    }
+    while (iterator.hasNext()) {
+      iterator.next();
+      PairList<Integer, ByteArrayVertexIdMessages<I, M>> single =
+          new PairList<Integer, ByteArrayVertexIdMessages<I, M>>();
+      single.initialize(1);
+      single.add(iterator.getCurrentFirst(), iterator.getCurrentSecond());
+      localRequestExecutor.execute(iterator.getCurrentFirst(),
+          new SendWorkerMessagesRequest<I, M>(single));
+    }
+  }
   
   public void incLocalRequests() {
 	  localRequests++;
@@ -1764,48 +1805,6 @@ public final BspEvent getPartitionExchangeChildrenChangedEvent() {
 //	  return finishTime - startTime;
 //  }
   
-  public void stopThreads() {
-    for(int i = 0; i < this.localMessageServerSize; i++){
-    	localMessageServers.get(i).interrupt();
-    }
-    for(int i = 0; i < this.localMessageServerSize; i++){
-    	try {
-    		localMessageServers.get(i).join();
-    	} catch(InterruptedException e) {
-//    		e.printStackTrace();
-    	}
-    }
-    /* here needs new API */
-//    monitor.setSLMetrics((int)this.localRequests, this.getRunTime());
-//    monitor.setSRMetrics((int)(this.totalRequests.get()-this.localRequests), 
-//    		this.getRunTime());
-//    monitor.setSPMetrics((int)(this.totalRequests.get()), this.totalProcessTime.get());
- 
-//    monitor.setSLMetrics(sendWorkerMessagesRequestQueue.getBlockingTime());
-//    monitor.setWaitForBlockingQueue(waitForBlockingQueue, getRunTime());
-//    /* here is remote blocking Time */
-//    monitor.setSRMetrics(workerServer.getRemoteTimeInterval());
-//    monitor.setWaitForRequest(waitForRequestCost,  getRunTime());
-  }
-  
-  public void restartThreads() {
-	    localMessageServers.clear();
-//	    /* dynamic is on */
-//	    if(isDynamic){
-//	    	localMessageServerSize = monitor.getNlmp();
-//	    	workerServer.setServereNrmp(monitor.getNrmp());
-//		    LOG.info("SuperStep = "+getSuperstep()+": "+"localMessageServerSize="+monitor.getNlmp());
-//	    }
-	    for(int i = 0; i < localMessageServerSize; i++){
-	 	   localMessageServers.add(new LocalMessageServer());
-	 	   localMessageServers.get(i).start();
-	    }
-	    
-//	    workerServer.resetRemoteTime();
-	    
-//	    sendWorkerMessagesRequestQueue.resetTime();
-  }
-  
 //  public void resetRemoteTime(){
 //	    workerServer.resetRemoteTime();
 //	    
@@ -1853,7 +1852,7 @@ public boolean isSamePartition(int vid1, int vid2) {
 @Override
 public ArrayList<QueryNode> getQueries() {
 	  long superstep = getSuperstep();
-	  return queryPlan.getQueryByLevel(superstep - 2); //TODO: magic number here.
+	  return queryPlan.getQueryByLevel(superstep - QueryPlan.getFirstQuerySuperstep(getConfiguration()));
 }
 
 public int getPlanSize() {
@@ -1870,6 +1869,11 @@ public QueryNode getQueryByChild(int qid) {
 	return queryPlan.getQueryNodeByChild(qid);
 }
 
+@Override
+public ArrayList<Integer> getPatternsOfRoot(int qid) {
+	return queryPlan.getPatternsOfRoot(qid);
+}
+
 public void readQueryPlan() {
 	  String queryPlanPath = this.basePath+"/_grapholap/_pathevaluation/_queryplan";
 	  try {
@@ -0,0 +1,246 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.worker;
+
+import org.apache.giraph.comm.ServerData;
+import org.apache.giraph.comm.requests.WorkerRequest;
+import org.apache.giraph.metrics.MetricNames;
+import org.apache.giraph.metrics.SuperstepMetricsRegistry;
+import org.apache.log4j.Logger;
+
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.Timer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executes the requests a worker sends to itself on a fixed set of threads,
+ * so the compute threads do not apply their own messages.
+ *
+ * Every thread drains its own bounded queue. A request for a partition
+ * always goes to the same thread, so the requests of a partition never
+ * contend with each other in the message store. Requests without a
+ * partition are spread round robin. A producer blocks while its queue is
+ * full, which bounds the memory held by pending requests.
+ *
+ * The executor counts the requests in flight (queued or running) and
+ * {@link #waitForIdle()} returns as soon as the count drops to zero. A
+ * failed request does not stop its thread: the first failure is kept and
+ * rethrown by the next {@link #waitForIdle()}, once the other requests
+ * have drained.
+ */
+@SuppressWarnings("rawtypes")
+public class LocalRequestExecutor {
+  /** Class logger */
+  private static final Logger LOG =
+      Logger.getLogger(LocalRequestExecutor.class);
+  /** Server data the requests are applied to */
+  private final ServerData serverData;
+  /** Queue of every thread */
+  private final List<BlockingQueue<WorkerRequest>> queues;
+  /** Threads draining the queues */
+  private final List<Thread> threads;
+  /** Next queue for the requests without a partition */
+  private final AtomicInteger nextQueue = new AtomicInteger();
+  /** Requests submitted and not finished yet */
+  private final AtomicLong inFlight = new AtomicLong();
+  /** Monitor the waiters of {@link #waitForIdle()} sleep on */
+  private final Object idleLock = new Object();
+  /** First failure of a request not reported yet, guarded by idleLock */
+  private Throwable failure;
+  /** Queue depth seen by the producers, per superstep */
+  private volatile Histogram queueDepth;
+  /** Time producers spent blocked on a full queue, per superstep */
+  private volatile Timer producerBlocked;
+
+  /**
+   * Constructor, starts the threads.
+   *
+   * @param serverData Server data the requests are applied to
+   * @param numThreads Number of threads (and queues)
+   * @param queueCapacity Requests each queue holds before producers block
+   */
+  public LocalRequestExecutor(ServerData serverData, int numThreads,
+      int queueCapacity) {
+    this.serverData = serverData;
+    numThreads = Math.max(1, numThreads);
+    queues = new ArrayList<BlockingQueue<WorkerRequest>>(numThreads);
+    threads = new ArrayList<Thread>(numThreads);
+    for (int i = 0; i < numThreads; ++i) {
+      final BlockingQueue<WorkerRequest> queue =
+          new ArrayBlockingQueue<WorkerRequest>(Math.max(1, queueCapacity));
+      queues.add(queue);
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          drain(queue);
+        }
+      }, "local-request-" + i);
+      thread.setDaemon(true);
+      threads.add(thread);
+      thread.start();
+    }
+    if (LOG.isInfoEnabled()) {
+      LOG.info("LocalRequestExecutor: " + numThreads + " threads, " +
+          queueCapacity + " requests per queue");
+    }
+  }
+
+  /**
+   * Register the metrics of a new superstep.
+   *
+   * @param superstepMetrics Metrics of the superstep
+   */
+  public void newSuperstep(SuperstepMetricsRegistry superstepMetrics) {
+    queueDepth = superstepMetrics.getUniformHistogram(
+        MetricNames.LOCAL_REQUEST_QUEUE_DEPTH);
+    producerBlocked = superstepMetrics.getTimer(
+        MetricNames.LOCAL_REQUEST_PRODUCER_BLOCKED, TimeUnit.MICROSECONDS,
+        TimeUnit.SECONDS);
+  }
+
+  /**
+   * Queue a request, blocks while the queue of its thread is full.
+   *
+   * @param partitionId Partition of the request, negative if it has none
+   * @param request Request to execute
+   */
+  public void execute(int partitionId, WorkerRequest request) {
+    int index = partitionId >= 0 ? partitionId :
+        nextQueue.getAndIncrement() & Integer.MAX_VALUE;
+    BlockingQueue<WorkerRequest> queue = queues.get(index % queues.size());
+    Histogram depth = queueDepth;
+    if (depth != null) {
+      depth.update(queue.size());
+    }
+    inFlight.incrementAndGet();
+    if (queue.offer(request)) {
+      return;
+    }
+    long start = System.nanoTime();
+    try {
+      queue.put(request);
+    } catch (InterruptedException e) {
+      finished();
+      throw new IllegalStateException(
+          "execute: Interrupted while waiting for a full queue", e);
+    }
+    Timer blocked = producerBlocked;
+    if (blocked != null) {
+      blocked.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Wait until every request submitted so far has been executed.
+   * Rethrows (once) the first failure of a request since the last call.
+   */
+  public void waitForIdle() {
+    Throwable reported;
+    synchronized (idleLock) {
+      while (inFlight.get() != 0) {
+        try {
+          idleLock.wait();
+        } catch (InterruptedException e) {
+          throw new IllegalStateException(
+              "waitForIdle: Interrupted while waiting for local requests", e);
+        }
+      }
+      reported = failure;
+      failure = null;
+    }
+    if (reported != null) {
+      throw new IllegalStateException(
+          "waitForIdle: A local request failed", reported);
+    }
+  }
+
+  /**
+   * Get the number of requests queued or running.
+   *
+   * @return Requests in flight
+   */
+  public long getInFlight() {
+    return inFlight.get();
+  }
+
+  /**
+   * Stop the threads, the requests still queued are dropped.
+   */
+  public void shutdown() {
+    for (Thread thread : threads) {
+      thread.interrupt();
+    }
+    for (Thread thread : threads) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  /**
+   * Loop of a thread: execute the requests of its queue until interrupted.
+   *
+   * @param queue Queue of the thread
+   */
+  @SuppressWarnings("unchecked")
+  private void drain(BlockingQueue<WorkerRequest> queue) {
+    while (true) {
+      WorkerRequest request;
+      try {
+        request = queue.take();
+      } catch (InterruptedException e) {
+        return;
+      }
+      try {
+        request.doRequest(serverData);
+      // CHECKSTYLE: stop IllegalCatch
+      } catch (Throwable t) {
+      // CHECKSTYLE: resume IllegalCatch
+        LOG.error("drain: Local request failed", t);
+        synchronized (idleLock) {
+          if (failure == null) {
+            failure = t;
+          }
+        }
+      } finally {
+        finished();
+      }
+    }
+  }
+
+  /**
+   * A request left the executor, wake up the waiters if it was the last one.
+   */
+  private void finished() {
+    if (inFlight.decrementAndGet() == 0) {
+      synchronized (idleLock) {
+        idleLock.notifyAll();
+      }
+    }
+  }
+}
@@ -20,18 +20,24 @@ package org.apache.giraph.comm;
 
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.io.Files;
 import org.apache.commons.io.FileUtils;
 import org.apache.giraph.bsp.CentralizedServiceWorker;
+import org.apache.giraph.combiner.MinimumIntCombiner;
 import org.apache.giraph.comm.messages.BasicMessageStore;
 import org.apache.giraph.comm.messages.ByteArrayMessagesPerVertexStore;
+import org.apache.giraph.comm.messages.CompactMessagesPerVertexStore;
 import org.apache.giraph.comm.messages.DiskBackedMessageStore;
 import org.apache.giraph.comm.messages.DiskBackedMessageStoreByPartition;
 import org.apache.giraph.comm.messages.FlushableMessageStore;
 import org.apache.giraph.comm.messages.MessageStore;
+import org.apache.giraph.comm.messages.MessageStoreByPartition;
 import org.apache.giraph.comm.messages.MessageStoreFactory;
+import org.apache.giraph.comm.messages.PrimitiveMessagesPerVertexStore;
 import org.apache.giraph.comm.messages.SequentialFileMessageStore;
+import org.apache.giraph.comm.messages.VertexMessageStore;
 import org.apache.giraph.conf.GiraphConfiguration;
 import org.apache.giraph.conf.GiraphConstants;
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
@@ -39,6 +45,7 @@ import org.apache.giraph.utils.ByteArrayVertexIdMessages;
 import org.apache.giraph.utils.CollectionUtils;
 import org.apache.giraph.utils.MockUtils;
 import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.subgraph.graphextraction.PartialAggregatedPath;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Writable;
@@ -46,6 +53,7 @@ import org.apache.hadoop.io.WritableComparable;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.Mockito;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
@@ -55,7 +63,9 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
@@ -63,6 +73,8 @@ import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 /** Test for different types of message stores */
@@ -87,6 +99,15 @@ public class TestMessageStores {
     }
   }
 
+  private static class PathVertex extends Vertex<IntWritable,
+        IntWritable, IntWritable, PartialAggregatedPath> {
+
+    @Override
+    public void compute(Iterable<PartialAggregatedPath> messages)
+      throws IOException {
+    }
+  }
+
   @Before
   public void prepare() throws IOException {
     directory = Files.createTempDir();
@@ -275,6 +296,145 @@ public class TestMessageStores {
     }
   }
 
+  /**
+   * Check that every vertex with messages has one message, their minimum
+   */
+  private void checkMinimumMessages(
+      MessageStore<IntWritable, IntWritable> messageStore,
+      Map<IntWritable, Collection<IntWritable>> expectedMessages)
+    throws IOException {
+    int numVertices = 0;
+    for (Entry<IntWritable, Collection<IntWritable>> entry :
+        expectedMessages.entrySet()) {
+      if (entry.getValue().isEmpty()) {
+        continue;
+      }
+      numVertices++;
+      int minimum = Integer.MAX_VALUE;
+      for (IntWritable message : entry.getValue()) {
+        minimum = Math.min(minimum, message.get());
+      }
+      IntWritable actual = Iterables.getOnlyElement(
+          messageStore.getVertexMessages(entry.getKey()));
+      assertEquals(minimum, actual.get());
+    }
+    assertEquals(numVertices,
+        Iterables.size(messageStore.getDestinationVertices()));
+  }
+
+  @Test
+  public void testPrimitiveMessagesPerVertexStore() throws IOException {
+    GiraphConfiguration initConfig = new GiraphConfiguration();
+    initConfig.setVertexClass(IntVertex.class);
+    initConfig.setCombinerClass(MinimumIntCombiner.class);
+    ImmutableClassesGiraphConfiguration<IntWritable, IntWritable,
+        IntWritable, IntWritable> combinerConfig =
+        new ImmutableClassesGiraphConfiguration<IntWritable, IntWritable,
+            IntWritable, IntWritable>(initConfig);
+    assertTrue(PrimitiveMessagesPerVertexStore.isSupported(combinerConfig));
+
+    MessageStoreFactory<IntWritable, IntWritable,
+        MessageStoreByPartition<IntWritable, IntWritable>> factory =
+        PrimitiveMessagesPerVertexStore.newFactory(service, combinerConfig);
+    SortedMap<IntWritable, Collection<IntWritable>> messages =
+        new TreeMap<IntWritable, Collection<IntWritable>>();
+    MessageStoreByPartition<IntWritable, IntWritable> messageStore =
+        factory.newStore();
+    putNTimes(messageStore, messages, testData);
+    checkMinimumMessages(messageStore, messages);
+    messageStore = doCheckpoint(factory, messageStore);
+    checkMinimumMessages(messageStore, messages);
+    messageStore.clearAll();
+    assertEquals(0, messageStore.getNumberOfMessages());
+  }
+
+  /**
+   * Add one path message to a compact store
+   */
+  private void addPath(
+      MessageStoreByPartition<IntWritable, PartialAggregatedPath> messageStore,
+      ImmutableClassesGiraphConfiguration<IntWritable, IntWritable,
+          IntWritable, PartialAggregatedPath> pathConfig,
+      int vid, int qid, int sid, int tid, long weight) throws IOException {
+    PartialAggregatedPath path = new PartialAggregatedPath();
+    path.setQid(qid);
+    path.setSid(sid);
+    path.setTid(tid);
+    path.setWeight(weight);
+    ByteArrayVertexIdMessages<IntWritable, PartialAggregatedPath> messages =
+        new ByteArrayVertexIdMessages<IntWritable, PartialAggregatedPath>();
+    messages.setConf(pathConfig);
+    messages.initialize();
+    messages.add(new IntWritable(vid), path);
+    messageStore.addPartitionMessages(vid % testData.numOfPartitions,
+        messages);
+  }
+
+  @Test
+  public void testCompactMessagesPerVertexStore() throws IOException {
+    GiraphConfiguration initConfig = new GiraphConfiguration();
+    initConfig.setVertexClass(PathVertex.class);
+    ImmutableClassesGiraphConfiguration<IntWritable, IntWritable,
+        IntWritable, PartialAggregatedPath> pathConfig =
+        new ImmutableClassesGiraphConfiguration<IntWritable, IntWritable,
+            IntWritable, PartialAggregatedPath>(initConfig);
+    // Partial paths are merged from the first query superstep on
+    Mockito.when(service.getSuperstep()).thenReturn(2L);
+    CentralizedServiceWorker<IntWritable, ?, ?, PartialAggregatedPath>
+        pathService = (CentralizedServiceWorker) service;
+    MessageStoreByPartition<IntWritable, PartialAggregatedPath> messageStore =
+        CompactMessagesPerVertexStore.newFactory(pathService, pathConfig)
+            .newStore();
+
+    // Expected "count" weight of every (qid, sid, tid) of every vertex,
+    // with vertices cleared and messaged again
+    Map<Integer, Map<List<Integer>, Long>> expected = Maps.newHashMap();
+    int numVertices = 20;
+    for (int op = 0; op < 5000; op++) {
+      int vid = RANDOM.nextInt(numVertices);
+      if (RANDOM.nextInt(20) == 0) {
+        messageStore.clearVertexMessages(new IntWritable(vid));
+        expected.remove(vid);
+        assertFalse(messageStore.hasMessagesForVertex(new IntWritable(vid)));
+        continue;
+      }
+      int qid = RANDOM.nextInt(2);
+      int sid = RANDOM.nextInt(10);
+      int tid = RANDOM.nextInt(10);
+      long weight = 1 + RANDOM.nextInt(5);
+      addPath(messageStore, pathConfig, vid, qid, sid, tid, weight);
+      Map<List<Integer>, Long> vertexPaths = expected.get(vid);
+      if (vertexPaths == null) {
+        vertexPaths = Maps.newHashMap();
+        expected.put(vid, vertexPaths);
+      }
+      List<Integer> key = Arrays.asList(qid, sid, tid);
+      Long previous = vertexPaths.get(key);
+      vertexPaths.put(key, (previous == null ? 0 : previous) + weight);
+    }
+
+    int numMessages = 0;
+    for (int vid = 0; vid < numVertices; vid++) {
+      Map<List<Integer>, Long> vertexPaths = expected.get(vid);
+      VertexMessageStore actual =
+          messageStore.getVertexMessageStore(new IntWritable(vid));
+      if (vertexPaths == null) {
+        assertTrue(actual == null);
+        continue;
+      }
+      assertEquals(vertexPaths.size(), actual.size());
+      for (int i = 0; i < actual.size(); i++) {
+        List<Integer> key = Arrays.asList(
+            actual.getQid(i), actual.getSid(i), actual.getTid(i));
+        assertEquals(vertexPaths.get(key).longValue(), actual.getWeight(i));
+      }
+      numMessages += vertexPaths.size();
+    }
+    assertEquals(numMessages, messageStore.getNumberOfMessages());
+    assertEquals(expected.size(),
+        Iterables.size(messageStore.getDestinationVertices()));
+  }
+
   @Test
   public void testDiskBackedMessageStore() {
     try {
@@ -0,0 +1,213 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import org.apache.giraph.bsp.CentralizedServiceWorker;
+import org.apache.giraph.combiner.SimpleSumCombiner;
+import org.apache.giraph.comm.messages.MessageStoreByPartition;
+import org.apache.giraph.comm.messages.OneMessagePerVertexStore;
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.partition.BasicPartitionOwner;
+import org.apache.giraph.partition.PartitionOwner;
+import org.apache.giraph.utils.ByteArrayVertexIdMessages;
+import org.apache.giraph.utils.PairList;
+import org.apache.giraph.worker.WorkerInfo;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Test {@link SendCombiningMessageCache} against {@link SendMessageCache} */
+public class TestSendCombiningMessageCache {
+  /** Number of workers */
+  private static final int NUM_WORKERS = 2;
+  /** Number of partitions */
+  private static final int NUM_PARTITIONS = 4;
+  /** Number of destination vertices */
+  private static final int NUM_VERTICES = 2000;
+  private ImmutableClassesGiraphConfiguration<LongWritable, IntWritable,
+      IntWritable, IntWritable> conf;
+  private CentralizedServiceWorker<LongWritable, IntWritable, IntWritable,
+      IntWritable> service;
+  private List<WorkerInfo> workers;
+
+  private static class SumVertex extends Vertex<LongWritable, IntWritable,
+      IntWritable, IntWritable> {
+    @Override
+    public void compute(Iterable<IntWritable> messages) throws IOException {
+    }
+  }
+
+  @Before
+  public void prepare() {
+    GiraphConfiguration initConfig = new GiraphConfiguration();
+    initConfig.setVertexClass(SumVertex.class);
+    initConfig.setCombinerClass(SimpleSumCombiner.class);
+    conf = new ImmutableClassesGiraphConfiguration<LongWritable, IntWritable,
+        IntWritable, IntWritable>(initConfig);
+
+    workers = Lists.newArrayList();
+    for (int w = 0; w < NUM_WORKERS; w++) {
+      WorkerInfo workerInfo = new WorkerInfo();
+      workerInfo.setTaskId(w);
+      workerInfo.setInetSocketAddress(
+          new InetSocketAddress("localhost", 30000 + w));
+      workers.add(workerInfo);
+    }
+    final List<PartitionOwner> owners = Lists.newArrayList();
+    for (int p = 0; p < NUM_PARTITIONS; p++) {
+      owners.add(new BasicPartitionOwner(p, workers.get(p % NUM_WORKERS)));
+    }
+
+    service = Mockito.mock(CentralizedServiceWorker.class);
+    Mockito.doReturn(owners).when(service).getPartitionOwners();
+    Mockito.doReturn(workers).when(service).getWorkerInfoList();
+    Mockito.when(service.getVertexPartitionOwner(
+        Mockito.any(LongWritable.class))).thenAnswer(
+        new Answer<PartitionOwner>() {
+          @Override
+          public PartitionOwner answer(InvocationOnMock invocation) {
+            LongWritable vertexId =
+                (LongWritable) invocation.getArguments()[0];
+            return owners.get((int) (vertexId.get() % NUM_PARTITIONS));
+          }
+        });
+  }
+
+  /**
+   * Send random messages through a cache, reusing the id and message
+   * objects as the request processor does, flushing a worker when its
+   * cache is full, and add everything sent to a message store.
+   *
+   * @param cache Cache to send through
+   * @param store Store receiving the flushed messages
+   * @param seed Seed of the messages
+   * @return Number of messages flushed out of the cache
+   */
+  private int sendRandomMessages(SendMessageCache<LongWritable,
+      IntWritable> cache, MessageStoreByPartition<LongWritable,
+      IntWritable> store, long seed) throws IOException {
+    Random random = new Random(seed);
+    LongWritable vertexId = new LongWritable();
+    IntWritable message = new IntWritable();
+    int sent = 0;
+    for (int i = 0; i < 50000; i++) {
+      vertexId.set(random.nextInt(NUM_VERTICES));
+      message.set(random.nextInt(10));
+      int partitionId = (int) (vertexId.get() % NUM_PARTITIONS);
+      WorkerInfo workerInfo = workers.get(partitionId % NUM_WORKERS);
+      if (cache.addMessage(workerInfo, partitionId, vertexId, message) >=
+          4 * 1024) {
+        sent += addToStore(cache.removeWorkerMessages(workerInfo), store);
+      }
+    }
+    PairList<WorkerInfo, PairList<Integer,
+        ByteArrayVertexIdMessages<LongWritable, IntWritable>>>.Iterator
+        iterator = cache.removeAllMessages().getIterator();
+    while (iterator.hasNext()) {
+      iterator.next();
+      sent += addToStore(iterator.getCurrentSecond(), store);
+    }
+    return sent;
+  }
+
+  /**
+   * Add flushed messages to a store
+   *
+   * @param messages Messages by partition
+   * @param store Message store
+   * @return Number of messages
+   */
+  private int addToStore(PairList<Integer,
+      ByteArrayVertexIdMessages<LongWritable, IntWritable>> messages,
+      MessageStoreByPartition<LongWritable, IntWritable> store)
+    throws IOException {
+    int count = 0;
+    PairList<Integer, ByteArrayVertexIdMessages<LongWritable,
+        IntWritable>>.Iterator iterator = messages.getIterator();
+    while (iterator.hasNext()) {
+      iterator.next();
+      count += countMessages(iterator.getCurrentSecond());
+      store.addPartitionMessages(iterator.getCurrentFirst(),
+          iterator.getCurrentSecond());
+    }
+    return count;
+  }
+
+  /**
+   * Count the messages of a batch
+   *
+   * @param messages Batch
+   * @return Number of messages
+   */
+  private int countMessages(
+      ByteArrayVertexIdMessages<LongWritable, IntWritable> messages) {
+    int count = 0;
+    ByteArrayVertexIdMessages<LongWritable, IntWritable>.VertexIdMessageIterator
+        iterator = messages.getVertexIdMessageIterator();
+    while (iterator.hasNext()) {
+      iterator.next();
+      count++;
+    }
+    return count;
+  }
+
+  @Test
+  public void testSameMessagesAsUncombined() throws IOException {
+    MessageStoreByPartition<LongWritable, IntWritable> uncombinedStore =
+        OneMessagePerVertexStore.newFactory(service, conf).newStore();
+    int uncombinedSent = sendRandomMessages(
+        new SendMessageCache<LongWritable, IntWritable>(conf, service),
+        uncombinedStore, 7);
+
+    MessageStoreByPartition<LongWritable, IntWritable> combinedStore =
+        OneMessagePerVertexStore.newFactory(service, conf).newStore();
+    int combinedSent = sendRandomMessages(
+        new SendCombiningMessageCache<LongWritable, IntWritable>(conf,
+            service, conf.createCombiner()), combinedStore, 7);
+
+    assertEquals(50000, uncombinedSent);
+    assertTrue(combinedSent < uncombinedSent);
+    assertEquals(
+        Iterables.size(uncombinedStore.getDestinationVertices()),
+        Iterables.size(combinedStore.getDestinationVertices()));
+    for (LongWritable vertexId : uncombinedStore.getDestinationVertices()) {
+      assertEquals(
+          Iterables.getOnlyElement(
+              uncombinedStore.getVertexMessages(vertexId)).get(),
+          Iterables.getOnlyElement(
+              combinedStore.getVertexMessages(vertexId)).get());
+    }
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.graph;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.metrics.MetricNames;
+import org.apache.giraph.metrics.SuperstepMetricsRegistry;
+import org.apache.giraph.metrics.TimerDesc;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.yammer.metrics.core.Histogram;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test {@link VertexComputeProfiler}.
+ */
+public class TestVertexComputeProfiler {
+  /** Configuration with the metrics enabled */
+  private GiraphConfiguration conf;
+  /** Metrics of the superstep */
+  private SuperstepMetricsRegistry metrics;
+
+  @Before
+  public void setUp() {
+    conf = new GiraphConfiguration();
+    GiraphConstants.METRICS_ENABLE.set(conf, true);
+    metrics = SuperstepMetricsRegistry.create(conf, 1);
+  }
+
+  @Test
+  public void testDisabledByDefault() {
+    assertNull(VertexComputeProfiler.create(conf, metrics));
+  }
+
+  @Test
+  public void testSampling() {
+    GiraphConstants.VERTEX_PROFILE_SAMPLE.set(conf, 3);
+    VertexComputeProfiler profiler =
+        VertexComputeProfiler.create(conf, metrics);
+    assertNotNull(profiler);
+
+    int sampled = 0;
+    for (int i = 1; i <= 10; ++i) {
+      boolean sample = profiler.sample();
+      assertEquals(i % 3 == 0, sample);
+      if (sample) {
+        ++sampled;
+      }
+    }
+    assertEquals(3, sampled);
+  }
+
+  @Test
+  public void testSampleRecorded() {
+    GiraphConstants.VERTEX_PROFILE_SAMPLE.set(conf, 1);
+    VertexComputeProfiler profiler =
+        VertexComputeProfiler.create(conf, metrics);
+
+    assertTrue(profiler.sample());
+    profiler.start(10);
+    profiler.stop(15);
+    assertTrue(profiler.sample());
+    profiler.start(15);
+    profiler.stop(16);
+
+    Histogram messages =
+        metrics.getUniformHistogram(MetricNames.VERTEX_MESSAGES_SENT);
+    assertEquals(2, messages.count());
+    assertEquals(5, (long) messages.max());
+    assertEquals(1, (long) messages.min());
+    assertEquals(2, metrics.getUniformHistogram(
+        MetricNames.VERTEX_COMPUTE_NANOS).count());
+    assertEquals(2, metrics.getTimer(TimerDesc.COMPUTE_ONE).count());
+    assertFalse(metrics.getUniformHistogram(
+        MetricNames.VERTEX_COMPUTE_NANOS).min() < 0);
+  }
+}
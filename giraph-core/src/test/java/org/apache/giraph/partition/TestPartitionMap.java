@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.partition;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test {@link PartitionMap} and the vertex ids of
+ * {@link IdenticalWorkerPartitioner}.
+ */
+public class TestPartitionMap {
+  /** Directory of the maps */
+  private File directory;
+  /** Configuration */
+  private Configuration conf;
+
+  @Before
+  public void setUp() {
+    directory = Files.createTempDir();
+    conf = new Configuration();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(directory);
+  }
+
+  /**
+   * Write a text map.
+   *
+   * @param name File name
+   * @param content Content of the map
+   * @return Path of the map
+   * @throws IOException
+   */
+  private Path writeText(String name, String content) throws IOException {
+    File file = new File(directory, name);
+    Files.write(content, file, Charsets.UTF_8);
+    return new Path(file.getAbsolutePath());
+  }
+
+  @Test
+  public void testTextToBinary() throws IOException {
+    int maxVertexId = 1000;
+    short[] expected = new short[maxVertexId + 1];
+    Random random = new Random(42);
+    StringBuilder text = new StringBuilder();
+    text.append(maxVertexId).append('\n');
+    for (int vid = 0; vid <= maxVertexId; ++vid) {
+      expected[vid] = (short) random.nextInt(Short.MAX_VALUE);
+      text.append(vid).append(vid % 2 == 0 ? '\t' : ' ')
+          .append(expected[vid]).append('\n');
+    }
+    Path textPath = writeText("map.txt", text.toString());
+    File binaryFile = new File(directory, "map.bin");
+    Path binaryPath = new Path(binaryFile.getAbsolutePath());
+    PartitionMap.convert(conf, textPath, binaryPath);
+    assertEquals(8 + 2 * (maxVertexId + 1), binaryFile.length());
+
+    PartitionMap textMap = PartitionMap.load(conf, textPath);
+    PartitionMap binaryMap = PartitionMap.load(conf, binaryPath);
+    assertEquals(maxVertexId + 1, textMap.size());
+    assertEquals(maxVertexId + 1, binaryMap.size());
+    for (int vid = 0; vid <= maxVertexId; ++vid) {
+      assertEquals(expected[vid], textMap.get(vid));
+      assertEquals(expected[vid], binaryMap.get(vid));
+    }
+  }
+
+  @Test
+  public void testTinyTextMap() throws IOException {
+    // Shorter than the magic number of the binary format
+    PartitionMap map = PartitionMap.load(conf, writeText("tiny.txt", "0\n"));
+    assertEquals(1, map.size());
+    assertEquals(0, map.get(0));
+  }
+
+  @Test
+  public void testEmptyTextMap() throws IOException {
+    Path path = writeText("empty.txt", "");
+    try {
+      PartitionMap.load(conf, path);
+      fail("An empty map should not load");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("is empty"));
+    }
+  }
+
+  @Test
+  public void testTruncatedBinaryMap() throws IOException {
+    // The magic number and a part of the vertex count
+    File file = new File(directory, "truncated.bin");
+    DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+    try {
+      out.writeInt(PartitionMap.MAGIC);
+      out.writeShort(0);
+    } finally {
+      out.close();
+    }
+    try {
+      PartitionMap.load(conf, new Path(file.getAbsolutePath()));
+      fail("A map shorter than the header should not load");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains(file.getPath()));
+    }
+  }
+
+  @Test
+  public void testIntIds() {
+    assertEquals(7, IdenticalWorkerPartitioner.getIntId(new IntWritable(7)));
+    assertEquals(Integer.MAX_VALUE, IdenticalWorkerPartitioner.getIntId(
+        new LongWritable(Integer.MAX_VALUE)));
+    assertEquals(12, IdenticalWorkerPartitioner.getIntId(new Text("12")));
+    try {
+      IdenticalWorkerPartitioner.getIntId(
+          new LongWritable(Integer.MAX_VALUE + 1L));
+      fail("A vertex id over Integer.MAX_VALUE should be rejected");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,393 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.plan;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.graph.GraphTaskManager;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.subgraph.graphextraction.MidQueryJoin;
+import org.apache.giraph.subgraph.graphextraction.PartialAggregatedPath;
+import org.apache.giraph.subgraph.graphextraction.PathSemiring;
+import org.apache.hadoop.io.IntWritable;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the plan of several line patterns shared in one job.
+ */
+public class TestQueryPlan {
+  /** Vertex of the path evaluation */
+  private static class PathVertex extends Vertex<IntWritable, IntWritable,
+      IntWritable, PartialAggregatedPath> {
+    @Override
+    public void compute(Iterable<PartialAggregatedPath> messages)
+      throws IOException {
+    }
+  }
+
+  /** Configuration of the plans */
+  private GiraphConfiguration conf;
+
+  @Before
+  public void setUp() {
+    conf = new GiraphConfiguration();
+    conf.setVertexClass(PathVertex.class);
+    GiraphConstants.GRAPHOLAP_PATH_EVALUATION_PLAN.set(conf, "line");
+  }
+
+  /**
+   * Line pattern with outgoing edges
+   *
+   * @param labels Vertex labels of the line
+   * @return Raw query nodes
+   */
+  private static ArrayList<RawQueryNode> line(int... labels) {
+    ArrayList<RawQueryNode> res = new ArrayList<RawQueryNode>();
+    for (int i = 0; i < labels.length; ++i) {
+      boolean last = i == labels.length - 1;
+      res.add(new RawQueryNode(i, labels[i], last ? -1 : i + 1,
+          last ? -1 : 10 + i, last ? EdgeDirection.UNSET :
+          EdgeDirection.OUTGOING));
+    }
+    return res;
+  }
+
+  /**
+   * Change the edge from a vertex of a line pattern to the next one
+   *
+   * @param line Line pattern
+   * @param i Index of the vertex
+   * @param edgeLabel New edge label
+   * @param direction New edge direction
+   * @return The line pattern
+   */
+  private static ArrayList<RawQueryNode> withEdge(
+      ArrayList<RawQueryNode> line, int i, int edgeLabel,
+      EdgeDirection direction) {
+    RawQueryNode qn = line.get(i);
+    line.set(i, new RawQueryNode(qn.getVid(), qn.getVlabel(),
+        qn.getNextVid(), edgeLabel, direction));
+    return line;
+  }
+
+  /**
+   * Create the plan on the master and read it as a worker does
+   *
+   * @param sharing Whether the same queries are shared
+   * @param patterns Line patterns
+   * @return Plan read by the worker
+   * @throws IOException
+   */
+  private QueryPlan createAndRead(boolean sharing,
+      ArrayList<ArrayList<RawQueryNode>> patterns) throws IOException {
+    return createAndRead(sharing, patterns, null);
+  }
+
+  /**
+   * Create the plan on the master with the label statistics collected by the
+   * workers and read it as a worker does
+   *
+   * @param sharing Whether the same queries are shared
+   * @param patterns Line patterns
+   * @param statistics Label statistics of the "cost" plan
+   * @return Plan read by the worker
+   * @throws IOException
+   */
+  private QueryPlan createAndRead(boolean sharing,
+      ArrayList<ArrayList<RawQueryNode>> patterns, LabelStatistics statistics)
+    throws IOException {
+    GiraphConstants.GRAPHOLAP_PATH_EVALUATION_QUERY_SHARING.set(conf,
+        sharing);
+    ImmutableClassesGiraphConfiguration immutableConf =
+        new ImmutableClassesGiraphConfiguration(conf);
+    QueryPlan plan = new QueryPlan();
+    plan.setConf(immutableConf);
+    plan.setLabelStatistics(statistics);
+    plan.createPlans(patterns, null, null);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    plan.write(new DataOutputStream(bytes));
+
+    QueryPlan read = new QueryPlan();
+    read.setConf(immutableConf);
+    read.readFields(new DataInputStream(
+        new ByteArrayInputStream(bytes.toByteArray())));
+    return read;
+  }
+
+  /**
+   * Levels of a plan, the root level last
+   *
+   * @param plan Plan
+   * @return Queries by level
+   */
+  private static List<List<QueryNode>> levels(QueryPlan plan) {
+    List<List<QueryNode>> res = Lists.newArrayList();
+    for (long superstep = 0; plan.getQueryByLevel(superstep) != null;
+        ++superstep) {
+      res.add(plan.getQueryByLevel(superstep));
+    }
+    return res;
+  }
+
+  /**
+   * Number of query nodes of a plan
+   *
+   * @param plan Plan
+   * @return Number of query nodes
+   */
+  private static int countQueries(QueryPlan plan) {
+    int count = 0;
+    for (List<QueryNode> level : levels(plan)) {
+      count += level.size();
+    }
+    return count;
+  }
+
+  @Test
+  public void testSharedPatterns() throws IOException {
+    ArrayList<ArrayList<RawQueryNode>> patterns = Lists.newArrayList();
+    patterns.add(line(0, 1, 2, 1, 0));
+    patterns.add(line(0, 1, 2, 1, 0));
+    patterns.add(line(0, 1, 2));
+    QueryPlan shared = createAndRead(true, patterns);
+    QueryPlan unshared = createAndRead(false, patterns);
+
+    for (QueryPlan plan : new QueryPlan[] {shared, unshared}) {
+      assertEquals(3, plan.getNumPatterns());
+      // The longest pattern, not derived from the query nodes
+      assertEquals(5, plan.getSize());
+
+      // The roots of all the patterns are at level 0
+      List<List<QueryNode>> levels = levels(plan);
+      Set<Integer> answered = Sets.newHashSet();
+      for (QueryNode root : levels.get(levels.size() - 1)) {
+        List<Integer> rootPatterns = plan.getPatternsOfRoot(root.getNodeId());
+        assertNotNull(rootPatterns);
+        answered.addAll(rootPatterns);
+      }
+      assertEquals(Sets.newHashSet(0, 1, 2), answered);
+
+      // A mid query joins the paths of its left and right children
+      for (int level = 0; level < levels.size(); ++level) {
+        for (QueryNode qn : levels.get(level)) {
+          if (qn.isLeafNode()) {
+            continue;
+          }
+          if (qn.getLeftEdgeDirection() == EdgeDirection.UNSET) {
+            assertTrue(plan.isLeftQuery(qn.getLeftQueryId()));
+            assertSame(qn, plan.getQueryNodeByChild(qn.getLeftQueryId()));
+          }
+          if (qn.getRightEdgeDirection() == EdgeDirection.UNSET) {
+            assertSame(qn, plan.getQueryNodeByChild(qn.getRightQueryId()));
+          }
+        }
+      }
+    }
+
+    // The same patterns share one root, and their sub queries
+    int root = -1;
+    for (QueryNode qn : levels(shared).get(levels(shared).size() - 1)) {
+      if (shared.getPatternsOfRoot(qn.getNodeId()).contains(0)) {
+        root = qn.getNodeId();
+      }
+    }
+    assertEquals(Lists.newArrayList(0, 1), shared.getPatternsOfRoot(root));
+    assertTrue(countQueries(shared) < countQueries(unshared));
+  }
+
+  /**
+   * Root of the "cost" plan of line(0, 1, 2, 3), 100 vertices per label
+   *
+   * @param edgeCounts Number of edges matching each edge of the line
+   * @return Root query node
+   * @throws IOException
+   */
+  private QueryNode costPlanRoot(long... edgeCounts) throws IOException {
+    LabelStatistics statistics = new LabelStatistics();
+    for (int label = 0; label <= edgeCounts.length; ++label) {
+      for (int i = 0; i < 100; ++i) {
+        statistics.addVertex(label);
+      }
+    }
+    for (int i = 0; i < edgeCounts.length; ++i) {
+      statistics.addEdges(i, 10 + i, i + 1, edgeCounts[i]);
+    }
+    ArrayList<ArrayList<RawQueryNode>> patterns = Lists.newArrayList();
+    patterns.add(line(0, 1, 2, 3));
+    List<List<QueryNode>> levels =
+        levels(createAndRead(false, patterns, statistics));
+    List<QueryNode> roots = levels.get(levels.size() - 1);
+    assertEquals(1, roots.size());
+    return roots.get(0);
+  }
+
+  @Test
+  public void testCostPlanJoinOrder() throws IOException {
+    GiraphConstants.GRAPHOLAP_PATH_EVALUATION_PLAN.set(conf,
+        QueryPlan.COST_PLAN);
+    // The paths over the frequent edge are not enumerated: the two rare edges
+    // are explored first, the frequent one is joined at the root
+    QueryNode root = costPlanRoot(10000, 100, 100);
+    assertEquals(1, root.getNodeLabel());
+    assertFalse(root.isLeafNode());
+    root = costPlanRoot(100, 100, 10000);
+    assertEquals(2, root.getNodeLabel());
+    assertFalse(root.isLeafNode());
+    // Without skew both orders cost the same, the first pivot is taken
+    assertEquals(1, costPlanRoot(100, 100, 100).getNodeLabel());
+  }
+
+  @Test
+  public void testDifferentEdgesNotShared() throws IOException {
+    ArrayList<ArrayList<RawQueryNode>> patterns = Lists.newArrayList();
+    patterns.add(line(0, 1, 2, 1, 0));
+    // Only the label of the edge 2 -> 3 differs
+    patterns.add(withEdge(line(0, 1, 2, 1, 0), 2, 99,
+        EdgeDirection.OUTGOING));
+    // Only the direction of the edge 3 -> 4 differs
+    patterns.add(withEdge(line(0, 1, 2, 1, 0), 3, 13,
+        EdgeDirection.INCOMING));
+    QueryPlan shared = createAndRead(true, patterns);
+    QueryPlan unshared = createAndRead(false, patterns);
+
+    // Every pattern keeps its own root
+    List<List<QueryNode>> levels = levels(shared);
+    List<QueryNode> roots = levels.get(levels.size() - 1);
+    assertEquals(3, roots.size());
+    for (QueryNode root : roots) {
+      assertEquals(1, shared.getPatternsOfRoot(root.getNodeId()).size());
+    }
+
+    // The line plan is ((((0 1) 2) 3) 4): the queries up to vertex 2 are
+    // shared by all the patterns, the one up to vertex 3 by the first and
+    // the last pattern
+    assertEquals(12, countQueries(unshared));
+    assertEquals(7, countQueries(shared));
+    for (List<QueryNode> level : levels) {
+      for (int i = 0; i < level.size(); ++i) {
+        for (int j = i + 1; j < level.size(); ++j) {
+          assertFalse(level.get(i).isSameQuery(level.get(j)));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testMidQueryJoin() throws IOException {
+    // The binary plan joins two sub queries at the middle vertex
+    GiraphConstants.GRAPHOLAP_PATH_EVALUATION_PLAN.set(conf, "binary");
+    ArrayList<ArrayList<RawQueryNode>> patterns = Lists.newArrayList();
+    patterns.add(line(0, 1, 2, 1, 0, 1, 2));
+    final QueryPlan plan = createAndRead(true, patterns);
+    QueryNode mid = null;
+    for (List<QueryNode> level : levels(plan)) {
+      for (QueryNode qn : level) {
+        if (!qn.isLeafNode() &&
+            qn.getLeftEdgeDirection() == EdgeDirection.UNSET &&
+            qn.getRightEdgeDirection() == EdgeDirection.UNSET) {
+          mid = qn;
+        }
+      }
+    }
+    assertNotNull(mid);
+
+    GraphTaskManager<?, ?, ?, ?> taskManager =
+        Mockito.mock(GraphTaskManager.class);
+    Mockito.when(taskManager.isLeftQuery(Mockito.anyInt())).thenAnswer(
+        new Answer<Boolean>() {
+          @Override
+          public Boolean answer(InvocationOnMock invocation) {
+            return plan.isLeftQuery((Integer) invocation.getArguments()[0]);
+          }
+        });
+    GiraphConstants.GRAPHOLAP_PATH_EVALUATION_TMP_MAX_PATHS.set(conf, 1000);
+    PathSemiring semiring = PathSemiring.create("count");
+    MidQueryJoin join = new MidQueryJoin(semiring,
+        new ImmutableClassesGiraphConfiguration(conf));
+
+    // Left paths 7->v and 8->v, right path v->9; the mid query joins on the
+    // id of its left query, whatever the (unset) left edge label is
+    List<PartialAggregatedPath> messages = Lists.newArrayList(
+        path(mid.getLeftQueryId(), 7, 100, 2),
+        path(mid.getLeftQueryId(), 8, 100, 3),
+        path(mid.getRightQueryId(), 100, 9, 5));
+    join.join(mid.getNodeLabel(), messages, Lists.newArrayList(mid),
+        taskManager);
+    // Another label at the middle vertex is not joined
+    join.join(mid.getNodeLabel() + 1, messages, Lists.newArrayList(mid),
+        taskManager);
+
+    final List<long[]> sent = Lists.newArrayList();
+    long count = join.send(Lists.newArrayList(mid),
+        new MidQueryJoin.PathSender() {
+          @Override
+          public void sendPath(QueryNode query, int sid, int tid,
+              long weight) {
+            sent.add(new long[] {query.getNodeId(), sid, tid, weight});
+          }
+        });
+    assertEquals(2, count);
+    assertEquals(mid.getNodeId(), sent.get(0)[0]);
+    assertEquals(7, sent.get(0)[1]);
+    assertEquals(9, sent.get(0)[2]);
+    assertEquals(semiring.times(2, 5), sent.get(0)[3]);
+    assertEquals(8, sent.get(1)[1]);
+    assertEquals(semiring.times(3, 5), sent.get(1)[3]);
+  }
+
+  /**
+   * Partial path message
+   *
+   * @param qid Query id
+   * @param sid Start vertex
+   * @param tid End vertex
+   * @param weight Weight
+   * @return Message
+   */
+  private static PartialAggregatedPath path(int qid, int sid, int tid,
+      long weight) {
+    PartialAggregatedPath msg = new PartialAggregatedPath();
+    msg.setQid(qid);
+    msg.setSid(sid);
+    msg.setTid(tid);
+    msg.setWeight(weight);
+    return msg;
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.subgraph;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the edge ids, the triangles and the snapshots of
+ * {@link CompactTrussGraphStore} against a set of edges.
+ */
+public class TestCompactTrussGraphStore {
+  /** Number of vertices of the random graphs */
+  private static final int NUM_VERTICES = 60;
+
+  /**
+   * Add and delete random edges in the store and in the expected edges
+   *
+   * @param store Store
+   * @param edges Expected edges, by BasicEdge.constructEdgeId
+   * @param random Random
+   */
+  private static void randomChanges(CompactTrussGraphStore store,
+      Set<Long> edges, Random random) {
+    for (int i = 0; i < 400; ++i) {
+      int x = random.nextInt(NUM_VERTICES);
+      int y = random.nextInt(NUM_VERTICES);
+      if (x != y) {
+        assertEquals(edges.add(BasicEdge.constructEdgeId(x, y)),
+            store.addEdge(new BasicEdge(x, y, BasicEdge.BASICEDGE_EXTERNAL,
+                false)));
+      }
+    }
+    List<Long> list = Lists.newArrayList(edges);
+    for (int i = 0; i < 60; ++i) {
+      long edge = list.get(random.nextInt(list.size()));
+      assertEquals(edges.remove(edge),
+          store.deleteEdge((int) (edge >> 32), (int) edge));
+    }
+  }
+
+  /**
+   * Check the edges and the triangles of the store
+   *
+   * @param store Store
+   * @param edges Expected edges
+   */
+  private static void checkEdges(final CompactTrussGraphStore store,
+      final Set<Long> edges) {
+    for (int x = 0; x < NUM_VERTICES; ++x) {
+      for (int y = 0; y < NUM_VERTICES; ++y) {
+        if (x != y) {
+          boolean exists = edges.contains(BasicEdge.constructEdgeId(x, y));
+          assertEquals(exists, store.edgeExist(x, y));
+          assertEquals(exists, store.findEdge(x, y) != -1);
+          assertEquals(exists, store.getEdge(x, y) != null);
+        }
+      }
+    }
+    assertEquals(2 * edges.size(), store.getTotalEdgeCount());
+
+    for (int eid = 0; eid < store.getEdgeCapacity(); ++eid) {
+      if (store.isDeleted(eid)) {
+        continue;
+      }
+      final int u = store.getEdgeSource(eid);
+      final int v = store.getEdgeTarget(eid);
+      final Set<Integer> found = Sets.newHashSet();
+      store.visitTriangles(eid, new CompactTrussGraphStore.TriangleVisitor() {
+        @Override
+        public void visit(int third, int firstEdge, int secondEdge) {
+          assertEquals(store.findEdge(u, third), firstEdge);
+          assertEquals(store.findEdge(v, third), secondEdge);
+          assertTrue(found.add(third));
+        }
+      });
+      Set<Integer> expected = Sets.newHashSet();
+      for (int w = 0; w < NUM_VERTICES; ++w) {
+        if (edges.contains(BasicEdge.constructEdgeId(u, w)) &&
+            edges.contains(BasicEdge.constructEdgeId(v, w))) {
+          expected.add(w);
+        }
+      }
+      assertEquals(expected, found);
+    }
+  }
+
+  @Test
+  public void testEdgesAndTriangles() {
+    CompactTrussGraphStore store = TrussTestUtils.createStore();
+    Set<Long> edges = Sets.newHashSet();
+    Random random = new Random(7);
+    for (int round = 0; round < 4; ++round) {
+      randomChanges(store, edges, random);
+      checkEdges(store, edges);
+    }
+  }
+
+  @Test
+  public void testGetEdge() {
+    CompactTrussGraphStore store = TrussTestUtils.createStore();
+    store.addEdge(new BasicEdge(3, 1, BasicEdge.BASICEDGE_EXTERNAL, false));
+    int eid = store.findEdge(1, 3);
+    store.setSupport(eid, 4);
+
+    BasicEdge be = store.getEdge(1, 3);
+    assertNotNull(be);
+    assertEquals(Sets.newHashSet(1, 3),
+        Sets.newHashSet(be.getSourceId(), be.getTargetId()));
+    assertTrue(be.isExternal());
+    assertEquals(4, be.getCount());
+    assertEquals(4, store.getMainEdge(3, 1).getCount());
+
+    // A copy, the support stays in the store
+    be.decAndGetCount();
+    assertEquals(4, store.getSupport(eid));
+
+    store.deleteEdge(eid);
+    assertNull(store.getEdge(1, 3));
+    assertNull(store.getMainEdge(1, 3));
+    assertFalse(store.edgeExist(3, 1));
+  }
+
+  @Test
+  public void testSnapshot() throws IOException {
+    CompactTrussGraphStore store = TrussTestUtils.createStore();
+    Set<Long> edges = Sets.newHashSet();
+    Random random = new Random(3);
+    randomChanges(store, edges, random);
+    for (int eid = 0; eid < store.getEdgeCapacity(); ++eid) {
+      store.setSupport(eid, eid % 5);
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    store.writeSnapshot(new DataOutputStream(bytes));
+    CompactTrussGraphStore read = TrussTestUtils.createStore();
+    read.readSnapshot(new DataInputStream(
+        new ByteArrayInputStream(bytes.toByteArray())));
+
+    checkEdges(read, edges);
+    for (long edge : edges) {
+      int x = (int) (edge >> 32);
+      int y = (int) edge;
+      assertEquals(store.getSupport(store.findEdge(x, y)),
+          read.getSupport(read.findEdge(x, y)));
+    }
+    // The read store is changed as the original one
+    randomChanges(read, edges, random);
+    checkEdges(read, edges);
+  }
+}
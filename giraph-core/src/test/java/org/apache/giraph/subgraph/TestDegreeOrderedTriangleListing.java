@@ -0,0 +1,338 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.subgraph;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.apache.giraph.subgraph.TrussTestUtils.partitionOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test {@link DegreeOrderedTriangleListing} over 1, 2 and 3 partitions: the
+ * supports of every partition store after the degree-ordered supersteps are
+ * the ones of the wedge queries of {@link TriangleEngine}, and the number of
+ * triangles with a local vertex.
+ */
+public class TestDegreeOrderedTriangleListing {
+  /** Number of vertices of the random graphs */
+  private static final int NUM_VERTICES = 40;
+  /** Number of random edges tried */
+  private static final int NUM_EDGES = 250;
+
+  /** A message to a vertex */
+  private static class Message {
+    /** Destination vertex */
+    private final int destination;
+    /** Triple, with the list if any */
+    private final TripleWritable triple;
+
+    /**
+     * Constructor
+     *
+     * @param destination Destination vertex
+     * @param triple Triple
+     */
+    Message(int destination, TripleWritable triple) {
+      this.destination = destination;
+      this.triple = triple;
+    }
+  }
+
+  /**
+   * Inboxes of the partitions for the next superstep.
+   */
+  private static class Exchange {
+    /** Number of partitions */
+    private final int partitions;
+    /** Messages by destination partition */
+    private List<List<Message>> next = Lists.newArrayList();
+
+    /**
+     * Constructor
+     *
+     * @param partitions Number of partitions
+     */
+    Exchange(int partitions) {
+      this.partitions = partitions;
+      superstep();
+    }
+
+    /**
+     * Send a copy of the message
+     *
+     * @param destination Destination vertex
+     * @param message Message
+     */
+    void send(int destination, TripleWritable message) {
+      TripleWritable copy = new TripleWritable(message.getFirst(),
+          message.getSecond(), message.getThird());
+      copy.setList(message.getList(), 0, message.getListSize());
+      next.get(partitionOf(destination, partitions)).add(
+          new Message(destination, copy));
+    }
+
+    /**
+     * Start the next superstep
+     *
+     * @return Messages received by every partition
+     */
+    List<List<Message>> superstep() {
+      List<List<Message>> received = next;
+      next = Lists.newArrayList();
+      for (int p = 0; p < partitions; ++p) {
+        next.add(Lists.<Message>newArrayList());
+      }
+      return received;
+    }
+  }
+
+  /**
+   * Listing of one partition for one superstep
+   *
+   * @param store Store of the partition
+   * @param exchange Inboxes
+   * @param partitions Number of partitions
+   * @return Listing
+   */
+  private static DegreeOrderedTriangleListing newListing(
+      CompactTrussGraphStore store, final Exchange exchange,
+      final int partitions) {
+    return new DegreeOrderedTriangleListing(store) {
+      @Override
+      protected int partitionOf(int vid) {
+        return TrussTestUtils.partitionOf(vid, partitions);
+      }
+
+      @Override
+      protected void sendTriple(int destination, int first, int second,
+          int third) {
+        exchange.send(destination, new TripleWritable(first, second, third));
+      }
+
+      @Override
+      protected void sendList(int destination, TripleWritable message) {
+        exchange.send(destination, message);
+      }
+    };
+  }
+
+  /**
+   * Supersteps 0 - 3 of the degree-ordered listing, 3 adds the triangles as
+   * inducedSubgraphGeneration does.
+   *
+   * @param edges Graph
+   * @param partitions Number of partitions
+   * @return Stores of the partitions
+   */
+  private static CompactTrussGraphStore[] orderedSupports(Set<Long> edges,
+      int partitions) {
+    Exchange exchange = new Exchange(partitions);
+    CompactTrussGraphStore[] stores = new CompactTrussGraphStore[partitions];
+    for (int p = 0; p < partitions; ++p) {
+      stores[p] = TrussTestUtils.createPartitionStore(edges, NUM_VERTICES, p,
+          partitions);
+      newListing(stores[p], exchange, partitions).sendDegrees();
+    }
+    List<List<Message>> received = exchange.superstep();
+    for (int p = 0; p < partitions; ++p) {
+      DegreeOrderedTriangleListing listing =
+          newListing(stores[p], exchange, partitions);
+      for (Message message : received.get(p)) {
+        listing.setDegree(message.triple);
+      }
+      listing.listLocal();
+    }
+    received = exchange.superstep();
+    for (int p = 0; p < partitions; ++p) {
+      DegreeOrderedTriangleListing listing =
+          newListing(stores[p], exchange, partitions);
+      for (Message message : received.get(p)) {
+        listing.receive(message.destination, message.triple);
+      }
+      listing.applyTriangles();
+    }
+    received = exchange.superstep();
+    for (int p = 0; p < partitions; ++p) {
+      for (Message message : received.get(p)) {
+        assertEquals(0, message.triple.getListSize());
+        stores[p].addTriangle(message.triple.getFirst(),
+            message.triple.getSecond(), message.triple.getThird());
+      }
+    }
+    for (List<Message> messages : exchange.superstep()) {
+      assertTrue(messages.isEmpty());
+    }
+    return stores;
+  }
+
+  /**
+   * Supersteps 0 - 2 of the wedge queries of TriangleEngine.
+   *
+   * @param edges Graph
+   * @param partitions Number of partitions
+   * @return Stores of the partitions
+   */
+  private static CompactTrussGraphStore[] wedgeSupports(Set<Long> edges,
+      final int partitions) {
+    final Exchange exchange = new Exchange(partitions);
+    CompactTrussGraphStore[] stores = new CompactTrussGraphStore[partitions];
+    TriangleEngine[] engines = new TriangleEngine[partitions];
+    for (int p = 0; p < partitions; ++p) {
+      stores[p] = TrussTestUtils.createPartitionStore(edges, NUM_VERTICES, p,
+          partitions);
+      engines[p] = new TriangleEngine(stores[p]) {
+        @Override
+        protected boolean isSamePartition(int vid1, int vid2) {
+          return partitionOf(vid1, partitions) ==
+              partitionOf(vid2, partitions);
+        }
+
+        @Override
+        protected void sendTriple(int destination, int first, int second,
+            int third) {
+          exchange.send(destination,
+              new TripleWritable(first, second, third));
+        }
+      };
+      engines[p].queryWedges();
+    }
+    List<List<Message>> received = exchange.superstep();
+    for (int p = 0; p < partitions; ++p) {
+      for (Message message : received.get(p)) {
+        engines[p].answerWedge(message.destination, message.triple);
+      }
+    }
+    received = exchange.superstep();
+    for (int p = 0; p < partitions; ++p) {
+      for (Message message : received.get(p)) {
+        stores[p].addTriangle(message.triple.getFirst(),
+            message.triple.getSecond(), message.triple.getThird());
+      }
+    }
+    return stores;
+  }
+
+  /**
+   * Alive edges of a store with their support
+   *
+   * @param store Store
+   * @return Edge ==> support
+   */
+  private static Map<Long, Integer> supports(CompactTrussGraphStore store) {
+    Map<Long, Integer> res = Maps.newHashMap();
+    for (int eid = 0; eid < store.getEdgeCapacity(); ++eid) {
+      if (!store.isDeleted(eid)) {
+        res.put(BasicEdge.constructEdgeId(store.getEdgeSource(eid),
+            store.getEdgeTarget(eid)), store.getSupport(eid));
+      }
+    }
+    return res;
+  }
+
+  /**
+   * Triangles of every edge with a vertex in the partition
+   *
+   * @param edges Graph
+   * @param partitionId Partition
+   * @param partitions Number of partitions
+   * @return Edge ==> support
+   */
+  private static Map<Long, Integer> bruteForceSupports(Set<Long> edges,
+      int partitionId, int partitions) {
+    Map<Long, Integer> res = Maps.newHashMap();
+    for (long edge : edges) {
+      int u = TrussTestUtils.source(edge);
+      int v = TrussTestUtils.target(edge);
+      if (partitionOf(u, partitions) == partitionId ||
+          partitionOf(v, partitions) == partitionId) {
+        res.put(edge, 0);
+      }
+    }
+    for (long edge : edges) {
+      int u = TrussTestUtils.source(edge);
+      int v = TrussTestUtils.target(edge);
+      for (int w = v + 1; w < NUM_VERTICES; ++w) {
+        if (edges.contains(BasicEdge.constructEdgeId(u, w)) &&
+            edges.contains(BasicEdge.constructEdgeId(v, w)) &&
+            (partitionOf(u, partitions) == partitionId ||
+            partitionOf(v, partitions) == partitionId ||
+            partitionOf(w, partitions) == partitionId)) {
+          increase(res, edge);
+          increase(res, BasicEdge.constructEdgeId(u, w));
+          increase(res, BasicEdge.constructEdgeId(v, w));
+        }
+      }
+    }
+    return res;
+  }
+
+  /**
+   * Add one to the support of an edge
+   *
+   * @param supports Edge ==> support
+   * @param edge Edge
+   */
+  private static void increase(Map<Long, Integer> supports, long edge) {
+    Integer support = supports.get(edge);
+    supports.put(edge, support == null ? 1 : support + 1);
+  }
+
+  @Test
+  public void testSupports() {
+    for (int partitions = 1; partitions <= 3; ++partitions) {
+      for (long seed = 0; seed < 5; ++seed) {
+        Set<Long> edges = TrussTestUtils.randomGraph(NUM_VERTICES, NUM_EDGES,
+            new Random(seed));
+        CompactTrussGraphStore[] ordered = orderedSupports(edges, partitions);
+        CompactTrussGraphStore[] wedges = wedgeSupports(edges, partitions);
+        for (int p = 0; p < partitions; ++p) {
+          assertEquals(supports(wedges[p]), supports(ordered[p]));
+          assertEquals(bruteForceSupports(edges, p, partitions),
+              supports(ordered[p]));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testOneTriangleOverThreePartitions() {
+    // 0, 1 and 2 are in the partitions 0, 1 and 2: the triangle is found by
+    // the intersection of superstep 2
+    Set<Long> edges = Sets.newHashSet();
+    edges.add(BasicEdge.constructEdgeId(0, 1));
+    edges.add(BasicEdge.constructEdgeId(1, 2));
+    edges.add(BasicEdge.constructEdgeId(0, 2));
+    // and 3, 6 are with 0 in partition 0: a triangle of superstep 1
+    edges.add(BasicEdge.constructEdgeId(3, 6));
+    edges.add(BasicEdge.constructEdgeId(3, 1));
+    edges.add(BasicEdge.constructEdgeId(6, 1));
+    CompactTrussGraphStore[] ordered = orderedSupports(edges, 3);
+    for (int p = 0; p < 3; ++p) {
+      assertEquals(bruteForceSupports(edges, p, 3), supports(ordered[p]));
+    }
+  }
+}
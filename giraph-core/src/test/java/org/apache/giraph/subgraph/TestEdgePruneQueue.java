@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.subgraph;
+
+import com.google.common.collect.Lists;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test {@link EdgePruneQueue}: first in first out, an edge at most once
+ * until reset(), and the order kept when the ring buffer grows.
+ */
+public class TestEdgePruneQueue {
+  /** Number of edges, more than the initial buffer */
+  private static final int NUM_EDGES = 3000;
+
+  /**
+   * Poll every edge of the queue
+   *
+   * @param queue Queue, emptied
+   * @return Edges in polling order
+   */
+  private static IntArrayList drain(EdgePruneQueue queue) {
+    IntArrayList res = new IntArrayList();
+    while (!queue.isEmpty()) {
+      res.add(queue.poll());
+    }
+    return res;
+  }
+
+  @Test
+  public void testDuplicates() {
+    EdgePruneQueue queue = new EdgePruneQueue();
+    assertTrue(queue.add(7));
+    assertTrue(queue.add(3));
+    assertFalse(queue.add(7));
+    assertEquals(2, queue.size());
+    assertEquals(7, queue.poll());
+    // A polled edge is still queued until reset()
+    assertTrue(queue.isQueued(7));
+    assertFalse(queue.add(7));
+    assertEquals(IntArrayList.wrap(new int[] {3}), drain(queue));
+
+    queue.reset();
+    assertFalse(queue.isQueued(3));
+    assertTrue(queue.add(3));
+    assertTrue(queue.add(7));
+    assertEquals(IntArrayList.wrap(new int[] {3, 7}), drain(queue));
+  }
+
+  @Test
+  public void testGrowAfterWrapAround() {
+    EdgePruneQueue queue = new EdgePruneQueue();
+    IntArrayList expected = new IntArrayList();
+    for (int eid = 0; eid < 1000; ++eid) {
+      queue.add(eid);
+    }
+    // The head moves, so the next edges wrap around the buffer end
+    for (int eid = 0; eid < 600; ++eid) {
+      assertEquals(eid, queue.poll());
+    }
+    for (int eid = 600; eid < NUM_EDGES; ++eid) {
+      queue.add(eid);
+      expected.add(eid);
+    }
+    assertEquals(NUM_EDGES - 600, queue.size());
+    IntArrayList drained = drain(queue);
+    assertEquals(expected, drained);
+  }
+
+  @Test
+  public void testSupportOrderWithRemovalsAndDuplicates() {
+    Random random = new Random(11);
+    final int[] support = new int[NUM_EDGES];
+    List<Integer> edges = Lists.newArrayList();
+    for (int eid = 0; eid < NUM_EDGES; ++eid) {
+      support[eid] = random.nextInt(20);
+      edges.add(eid);
+    }
+    // Queued from the lowest support on, as the pruning takes the levels
+    Collections.sort(edges, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return support[a] - support[b];
+      }
+    });
+    EdgePruneQueue queue = new EdgePruneQueue();
+    BitSet removed = new BitSet();
+    IntArrayList expected = new IntArrayList();
+    IntArrayList drained = new IntArrayList();
+    for (int i = 0; i < edges.size(); ++i) {
+      int eid = edges.get(i);
+      assertTrue(queue.add(eid));
+      // Every edge is pushed again by a message, it is not taken twice
+      assertFalse(queue.add(edges.get(random.nextInt(i + 1))));
+      // Some queued edges are deleted before they are polled
+      if (random.nextInt(4) == 0) {
+        removed.set(eid);
+      } else {
+        expected.add(eid);
+      }
+      // Poll part of the queue, skip the deleted edges as the pruning does
+      while (!queue.isEmpty() && random.nextBoolean()) {
+        int polled = queue.poll();
+        if (!removed.get(polled)) {
+          drained.add(polled);
+        }
+      }
+    }
+    while (!queue.isEmpty()) {
+      int polled = queue.poll();
+      if (!removed.get(polled)) {
+        drained.add(polled);
+      }
+    }
+    assertEquals(expected, drained);
+    for (int i = 1; i < drained.size(); ++i) {
+      assertTrue(support[drained.getInt(i - 1)] <= support[drained.getInt(i)]);
+    }
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.subgraph;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test {@link IncrementalKTruss} on one partition: a saved k-truss updated
+ * with random batches against the brute force k-truss of the new graph.
+ */
+public class TestIncrementalKTruss {
+  /** Number of vertices of the saved graph */
+  private static final int NUM_VERTICES = 40;
+  /** Number of vertices after the batches, the new ones are added by them */
+  private static final int NUM_BATCH_VERTICES = 45;
+
+  /** One partition: no other partition to query */
+  private static final IncrementalKTruss.Partitions ONE_PARTITION =
+      new IncrementalKTruss.Partitions() {
+        @Override
+        public int partitionOf(int vid) {
+          return 0;
+        }
+
+        @Override
+        public void sendTriple(int destination, int first, int second,
+            int third) {
+          fail("sendTriple: one partition sends no message");
+        }
+      };
+
+  /**
+   * Local pruning of {@link KTrussSubgraphImpr}
+   *
+   * @param k Truss parameter
+   * @return Pruning with the threshold of k
+   */
+  private static KTrussSubgraphImpr<IntWritable, IntWritable, NullWritable,
+      TripleWritable>.LocalKTrussAlgorithm createPruning(int k) {
+    KTrussSubgraphImpr<IntWritable, IntWritable, NullWritable,
+        TripleWritable> job = new KTrussSubgraphImpr<IntWritable,
+        IntWritable, NullWritable, TripleWritable>(null, null, null, null,
+        new ImmutableClassesGiraphConfiguration<IntWritable, IntWritable,
+            NullWritable, TripleWritable>(
+            TrussTestUtils.createConfiguration()), null);
+    KTrussSubgraphImpr<IntWritable, IntWritable, NullWritable,
+        TripleWritable>.LocalKTrussAlgorithm lktruss =
+        job.new LocalKTrussAlgorithm();
+    lktruss.threshold = k - 2;
+    return lktruss;
+  }
+
+  /**
+   * Saved k-truss of a graph, read back as the incremental job loads it
+   *
+   * @param edges Graph
+   * @param k Truss parameter
+   * @return Store of the snapshot
+   * @throws IOException
+   */
+  private static CompactTrussGraphStore savedKTruss(Set<Long> edges, int k)
+    throws IOException {
+    CompactTrussGraphStore store =
+        TrussTestUtils.createLocalStore(edges, NUM_VERTICES);
+    EdgePruneQueue queue = TrussState.of(store).getPruneQueue();
+    KTrussSubgraphImpr<IntWritable, IntWritable, NullWritable,
+        TripleWritable>.LocalKTrussAlgorithm lktruss = createPruning(k);
+    lktruss.initialize(store, queue);
+    lktruss.iterativelyPrune(store, queue);
+    assertEquals(TrussTestUtils.kTruss(edges, k, NUM_VERTICES),
+        TrussTestUtils.aliveEdges(store));
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    store.writeSnapshot(new DataOutputStream(bytes));
+    CompactTrussGraphStore read = TrussTestUtils.createStore();
+    read.readSnapshot(new DataInputStream(
+        new ByteArrayInputStream(bytes.toByteArray())));
+    return read;
+  }
+
+  /**
+   * Run the incremental supersteps of one partition
+   *
+   * @param store Saved k-truss
+   * @param k Truss parameter
+   * @param removals Removed edges
+   * @param insertions Inserted edges
+   * @throws IOException
+   */
+  private static void update(CompactTrussGraphStore store, int k,
+      long[] removals, long[] insertions) throws IOException {
+    IncrementalKTruss state = new IncrementalKTruss();
+    TrussState.of(store).setIncremental(state);
+    assertEquals(0, state.applyBatch(store, removals, insertions,
+        ONE_PARTITION));
+    // Superstep 1 has no query to answer, the revival runs until it is over
+    while (state.reviveConnected(store, ONE_PARTITION)) {
+      continue;
+    }
+    EdgePruneQueue queue = TrussState.of(store).getPruneQueue();
+    state.recount(store, k - 2, queue);
+    assertTrue(state.isPruning());
+    createPruning(k).iterativelyPrune(store, queue);
+  }
+
+  @Test
+  public void testSameAsBruteForce() throws IOException {
+    for (int k = 3; k <= 5; ++k) {
+      for (long seed = 1; seed <= 3; ++seed) {
+        Random random = new Random(seed * 10 + k);
+        Set<Long> edges =
+            TrussTestUtils.randomGraph(NUM_VERTICES, 250, random);
+        CompactTrussGraphStore store = savedKTruss(edges, k);
+
+        // Removals of alive and pruned edges, and of a missing one
+        LongArrayList removals = new LongArrayList();
+        List<Long> list = Lists.newArrayList(edges);
+        for (int i = 0; i < 15; ++i) {
+          removals.add(list.get(random.nextInt(list.size())));
+        }
+        removals.add(BasicEdge.constructEdgeId(NUM_VERTICES + 1,
+            NUM_VERTICES + 2));
+        // Insertions, some to new vertices; an edge removed and inserted
+        // again stays
+        Set<Long> insertions = TrussTestUtils.randomGraph(
+            NUM_BATCH_VERTICES, 80, random);
+        insertions.add(removals.getLong(0));
+
+        Set<Long> expected = Sets.newHashSet(edges);
+        expected.removeAll(removals);
+        expected.addAll(insertions);
+        update(store, k, removals.toLongArray(),
+            new LongArrayList(insertions).toLongArray());
+        Set<Long> truss =
+            TrussTestUtils.kTruss(expected, k, NUM_BATCH_VERTICES);
+        assertTrue(!truss.isEmpty());
+        assertEquals(truss, TrussTestUtils.aliveEdges(store));
+      }
+    }
+  }
+}
@@ -0,0 +1,196 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.subgraph;
+
+import com.google.common.collect.Maps;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.graph.GraphState;
+import org.apache.giraph.graph.GraphTaskManager;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test that {@link ParallelKTrussPruner} prunes the same edges as the serial
+ * pruning of {@link KTrussSubgraphImpr} for several threads and chunks.
+ */
+public class TestParallelKTrussPruner {
+  /** Number of vertices of the random graphs */
+  private static final int NUM_VERTICES = 60;
+  /** Vertices below are local, the others are remote */
+  private static final int NUM_LOCAL_VERTICES = 45;
+
+  /**
+   * Store of one partition: internal edges between the local vertices,
+   * cross edges to the remote ones and external edges between them, with
+   * the supports counted.
+   *
+   * @param edges Edges
+   * @return Store
+   */
+  private static CompactTrussGraphStore createStore(Set<Long> edges) {
+    CompactTrussGraphStore store = TrussTestUtils.createStore();
+    IntArrayList local = new IntArrayList();
+    for (int vid = 0; vid < NUM_LOCAL_VERTICES; ++vid) {
+      local.add(vid);
+    }
+    store.addLocalVertices(local);
+    for (long edge : edges) {
+      int a = TrussTestUtils.source(edge);
+      int b = TrussTestUtils.target(edge);
+      int locals = (a < NUM_LOCAL_VERTICES ? 1 : 0) +
+          (b < NUM_LOCAL_VERTICES ? 1 : 0);
+      store.addEdge(a, b, locals == 2 ? BasicEdge.BASICEDGE_INTERNAL :
+          (locals == 1 ? BasicEdge.BASICEDGE_CROSS :
+          BasicEdge.BASICEDGE_EXTERNAL));
+    }
+    TrussTestUtils.countSupports(store);
+    return store;
+  }
+
+  /**
+   * Serial pruning of {@link KTrussSubgraphImpr}, the other vertices are in
+   * the same partition as the deleted edges, so no message is sent.
+   *
+   * @param store Store
+   * @param k Truss parameter
+   * @throws IOException
+   */
+  private static void pruneSerially(CompactTrussGraphStore store, int k)
+    throws IOException {
+    GraphTaskManager taskManager = Mockito.mock(GraphTaskManager.class);
+    Mockito.when(taskManager.isSamePartition(Mockito.anyInt(),
+        Mockito.anyInt())).thenReturn(true);
+    GraphState graphState = Mockito.mock(GraphState.class);
+    Mockito.when(graphState.getGraphTaskManager()).thenReturn(taskManager);
+    KTrussSubgraphImpr<IntWritable, IntWritable, NullWritable,
+        TripleWritable> job = new KTrussSubgraphImpr<IntWritable,
+        IntWritable, NullWritable, TripleWritable>(null, graphState, null,
+        null, new ImmutableClassesGiraphConfiguration<IntWritable,
+            IntWritable, NullWritable, TripleWritable>(
+            TrussTestUtils.createConfiguration()), null);
+    KTrussSubgraphImpr<IntWritable, IntWritable, NullWritable,
+        TripleWritable>.LocalKTrussAlgorithm lktruss =
+        job.new LocalKTrussAlgorithm();
+    lktruss.threshold = k - 2;
+    EdgePruneQueue queue = TrussState.of(store).getPruneQueue();
+    lktruss.initialize(store, queue);
+    assertTrue(lktruss.iterativelyPrune(store, queue));
+  }
+
+  /**
+   * Pruning over several threads
+   *
+   * @param store Store
+   * @param k Truss parameter
+   * @param threads Pruning threads
+   * @param chunkSize Frontier edges per chunk
+   * @throws IOException
+   */
+  private static void pruneInParallel(CompactTrussGraphStore store, int k,
+      int threads, int chunkSize) throws IOException {
+    GiraphConfiguration conf = TrussTestUtils.createConfiguration();
+    conf.setInt("giraph.ktruss.prune.threads", threads);
+    conf.setInt("giraph.ktruss.prune.chunk", chunkSize);
+    ParallelKTrussPruner pruner = new ParallelKTrussPruner(conf) {
+      @Override
+      protected boolean isSamePartition(int vid1, int vid2) {
+        return true;
+      }
+
+      @Override
+      protected void sendTriple(int destination, int first, int second,
+          int third) {
+        fail("sendTriple: all the vertices are in the same partition");
+      }
+    };
+    EdgePruneQueue queue = TrussState.of(store).getPruneQueue();
+    for (int eid = 0; eid < store.getEdgeCapacity(); ++eid) {
+      if (!store.isDeleted(eid) && !store.isExternal(eid) &&
+          store.getSupport(eid) < k - 2) {
+        queue.add(eid);
+      }
+    }
+    assertTrue(pruner.prune(store, queue, k - 2));
+    assertTrue(pruner.getPrunedEdges() > 0);
+  }
+
+  /**
+   * Alive edges of a store with their supports, external edges without
+   *
+   * @param store Store
+   * @return Edge ==> support, -1 for the external edges
+   */
+  private static Map<Long, Integer> supports(CompactTrussGraphStore store) {
+    Map<Long, Integer> res = Maps.newHashMap();
+    for (int eid = 0; eid < store.getEdgeCapacity(); ++eid) {
+      if (!store.isDeleted(eid)) {
+        res.put(BasicEdge.constructEdgeId(store.getEdgeSource(eid),
+            store.getEdgeTarget(eid)),
+            store.isExternal(eid) ? -1 : store.getSupport(eid));
+      }
+    }
+    return res;
+  }
+
+  @Test
+  public void testSameAsSerialPruning() throws IOException {
+    for (long seed = 1; seed <= 2; ++seed) {
+      Set<Long> edges = TrussTestUtils.randomGraph(NUM_VERTICES, 700,
+          new Random(seed));
+      for (int k = 4; k <= 6; ++k) {
+        CompactTrussGraphStore serial = createStore(edges);
+        pruneSerially(serial, k);
+        Map<Long, Integer> expected = supports(serial);
+        assertTrue(expected.size() < edges.size());
+        for (int threads = 2; threads <= 4; ++threads) {
+          for (int chunkSize : new int[] {1, 7, 256}) {
+            CompactTrussGraphStore parallel = createStore(edges);
+            pruneInParallel(parallel, k, threads, chunkSize);
+            assertEquals(expected, supports(parallel));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testLocalGraphAsBruteForce() throws IOException {
+    Set<Long> edges = TrussTestUtils.randomGraph(NUM_LOCAL_VERTICES, 400,
+        new Random(3));
+    for (int k = 3; k <= 5; ++k) {
+      CompactTrussGraphStore store =
+          TrussTestUtils.createLocalStore(edges, NUM_LOCAL_VERTICES);
+      pruneInParallel(store, k, 3, 5);
+      assertEquals(TrussTestUtils.kTruss(edges, k, NUM_LOCAL_VERTICES),
+          TrussTestUtils.aliveEdges(store));
+    }
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.subgraph;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import it.unimi.dsi.fastutil.ints.IntArrayFIFOQueue;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test {@link SupportBuckets} and {@link BucketedKTrussPeeling} on one
+ * partition against a sequential truss decomposition.
+ */
+public class TestSupportBuckets {
+  /** Number of vertices of the random graphs */
+  private static final int NUM_VERTICES = 40;
+
+  /**
+   * Edge ids of the queue
+   *
+   * @param queue Queue, emptied
+   * @return Edge ids
+   */
+  private static Set<Integer> drain(IntArrayFIFOQueue queue) {
+    Set<Integer> res = Sets.newHashSet();
+    while (!queue.isEmpty()) {
+      res.add(queue.dequeueInt());
+    }
+    return res;
+  }
+
+  @Test
+  public void testBuckets() {
+    CompactTrussGraphStore store = TrussTestUtils.createStore();
+    int[] eids = new int[5];
+    for (int i = 0; i < eids.length; ++i) {
+      eids[i] = store.addEdge(i, i + 10, BasicEdge.BASICEDGE_CROSS);
+      store.setSupport(eids[i], i + 1);
+    }
+    int external = store.addEdge(1, 2, BasicEdge.BASICEDGE_EXTERNAL);
+    store.setSupport(external, 0);
+    store.deleteEdge(eids[4]);
+
+    SupportBuckets buckets = new SupportBuckets(store);
+    // External and deleted edges are not in the buckets
+    assertEquals(1, buckets.minSupport());
+
+    // eids[3] drops from 4 to 2, its old entry is skipped
+    store.setSupport(eids[3], 2);
+    buckets.decreased(eids[3]);
+    IntArrayFIFOQueue queue = new IntArrayFIFOQueue();
+    buckets.collectBelow(3, queue);
+    assertEquals(Sets.newHashSet(eids[0], eids[1], eids[3]), drain(queue));
+    assertTrue(buckets.isQueued(eids[3]));
+    assertFalse(buckets.isQueued(eids[2]));
+    assertEquals(3, buckets.minSupport());
+
+    // A queued edge is not taken again
+    buckets.collectBelow(5, queue);
+    assertEquals(Sets.newHashSet(eids[2]), drain(queue));
+    assertEquals(Integer.MAX_VALUE, buckets.minSupport());
+  }
+
+  /**
+   * Peeling of one partition, no message is sent
+   *
+   * @return Peeling
+   */
+  static BucketedKTrussPeeling newPeeling() {
+    return new BucketedKTrussPeeling() {
+      @Override
+      protected boolean isSamePartition(int vid1, int vid2) {
+        return true;
+      }
+
+      @Override
+      protected void sendTriple(int destination, int first, int second,
+          int third) {
+        fail("sendTriple: all the vertices are in the same partition");
+      }
+    };
+  }
+
+  /**
+   * Peel all the edges of a store of one partition as the bucketed
+   * decomposition does, the master raising the threshold.
+   *
+   * @param store Store, supports counted
+   */
+  private static void peel(CompactTrussGraphStore store) {
+    BucketedKTrussPeeling peeling = newPeeling();
+    peeling.threshold = 0;
+    peeling.start(store);
+    SupportBuckets buckets = TrussState.of(store).getSupportBuckets();
+    int threshold = 2;
+    while (buckets.minSupport() != Integer.MAX_VALUE) {
+      threshold = Math.max(threshold + 1, buckets.minSupport() + 3);
+      peeling.threshold = threshold - 2;
+      peeling.queueBelowThreshold(store);
+      assertTrue(peeling.prune(store));
+    }
+  }
+
+  @Test
+  public void testPeelingAsSequentialDecomposition() {
+    for (long seed = 1; seed <= 3; ++seed) {
+      Set<Long> edges = TrussTestUtils.randomGraph(NUM_VERTICES, 300,
+          new Random(seed));
+      CompactTrussGraphStore store =
+          TrussTestUtils.createLocalStore(edges, NUM_VERTICES);
+      peel(store);
+
+      TrussState state = TrussState.of(store);
+      Map<Long, Integer> peeled = Maps.newHashMap();
+      for (int eid = 0; eid < store.getEdgeCapacity(); ++eid) {
+        assertTrue(store.isDeleted(eid));
+        peeled.put(BasicEdge.constructEdgeId(store.getEdgeSource(eid),
+            store.getEdgeTarget(eid)), state.getTrussNumber(eid));
+      }
+      Map<Long, Integer> expected =
+          TrussTestUtils.trussNumbers(edges, NUM_VERTICES);
+      assertTrue(Sets.newHashSet(expected.values()).size() > 2);
+      assertEquals(expected, peeled);
+
+      // The output takes the truss vertices and drops the state
+      assertFalse(TrussState.getOutputVertices(store, null).isEmpty());
+      assertNull(TrussState.remove(store));
+    }
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.subgraph;
+
+import com.google.common.collect.Maps;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test the phases of {@link TopTKTrussSubgraph} on one partition: the truss
+ * numbers of the top t levels are the ones of the full decomposition, the
+ * lower ones are 0. The triangles are counted on the store instead of the
+ * wedge messages.
+ */
+public class TestTopTKTruss {
+  /** Number of vertices of the random graphs */
+  private static final int NUM_VERTICES = 40;
+  /** Supersteps before the test fails */
+  private static final int MAX_SUPERSTEPS = 10000;
+
+  /**
+   * Run the phases on a store of one partition
+   *
+   * @param store Store, as after the input superstep
+   * @param top t
+   * @param coreRounds Most supersteps of the core bounds
+   */
+  private static void topT(CompactTrussGraphStore store, int top,
+      int coreRounds) {
+    TrussState state = TrussState.of(store);
+    CoreBounds bounds = state.initCoreBounds();
+    boolean change = true;
+    for (int rounds = 1; change && rounds < coreRounds; ++rounds) {
+      change = false;
+      for (int vid : store.getLocalVertexIds()) {
+        change |= bounds.updateCoreBound(vid);
+      }
+    }
+    TopTKTrussSubgraph.Phases phases = new TopTKTrussSubgraph.Phases(top);
+    phases.coreDone(bounds.maxEdgeBound());
+
+    BucketedKTrussPeeling peeling = TestSupportBuckets.newPeeling();
+    for (int superstep = 0; superstep < MAX_SUPERSTEPS; ++superstep) {
+      int phase = phases.getPhase();
+      peeling.lowestLevel = phases.getLowestLevel();
+      peeling.threshold = phases.getThreshold() - 2;
+      peeling.maxTruss = 0;
+      change = false;
+      if (phase == TopTKTrussSubgraph.PHASE_QUERY) {
+        TopTKTrussSubgraph.dropBelowLevel(store, peeling.lowestLevel);
+      } else if (phase == TopTKTrussSubgraph.PHASE_ANSWER) {
+        TrussTestUtils.countSupports(store);
+      } else if (phase == TopTKTrussSubgraph.PHASE_INDUCED) {
+        bounds.sortByEdgeBound();
+        change = peeling.start(store);
+      } else if (phase == TopTKTrussSubgraph.PHASE_PEEL) {
+        peeling.queueBelowThreshold(store);
+        change = peeling.prune(store);
+      } else if (phase == TopTKTrussSubgraph.PHASE_SETTLE) {
+        int k = peeling.threshold + 2;
+        if (TopTKTrussSubgraph.settle(store, k) > 0) {
+          peeling.maxTruss = k;
+        }
+      } else {
+        assertEquals(TopTKTrussSubgraph.PHASE_DONE, phase);
+        TopTKTrussSubgraph.keepTopLevels(store, peeling.lowestLevel);
+        return;
+      }
+      if (phase >= TopTKTrussSubgraph.PHASE_INDUCED) {
+        phases.next(change, state.getSupportBuckets().minSupport(),
+            bounds.maxAliveEdgeBound(), peeling.maxTruss);
+      } else {
+        phases.next(false, 0, 0, 0);
+      }
+    }
+    fail("no DONE phase after " + MAX_SUPERSTEPS + " supersteps");
+  }
+
+  /**
+   * Truss numbers of the top t levels of the decomposition, 0 below
+   *
+   * @param edges Graph
+   * @param top t
+   * @return Edge ==> truss number
+   */
+  private static Map<Long, Integer> topLevels(Set<Long> edges, int top) {
+    Map<Long, Integer> res =
+        TrussTestUtils.trussNumbers(edges, NUM_VERTICES);
+    int lowestLevel = Collections.max(res.values()) - top + 1;
+    for (Map.Entry<Long, Integer> entry : res.entrySet()) {
+      if (entry.getValue() < lowestLevel) {
+        entry.setValue(0);
+      }
+    }
+    return res;
+  }
+
+  /**
+   * Truss numbers of a store
+   *
+   * @param store Store
+   * @return Edge ==> truss number
+   */
+  private static Map<Long, Integer> trussNumbers(
+      CompactTrussGraphStore store) {
+    TrussState state = TrussState.of(store);
+    Map<Long, Integer> res = Maps.newHashMap();
+    for (int eid = 0; eid < store.getEdgeCapacity(); ++eid) {
+      res.put(BasicEdge.constructEdgeId(store.getEdgeSource(eid),
+          store.getEdgeTarget(eid)), state.getTrussNumber(eid));
+    }
+    return res;
+  }
+
+  @Test
+  public void testTopLevelsAsDecomposition() {
+    for (long seed = 1; seed <= 3; ++seed) {
+      Set<Long> edges = TrussTestUtils.randomGraph(NUM_VERTICES, 300,
+          new Random(seed));
+      for (int top = 1; top <= 3; ++top) {
+        // 1 round: the degrees are the bounds, so the first listing may find
+        // fewer than t levels and the lowest level goes down
+        for (int coreRounds : new int[] {1, 100}) {
+          CompactTrussGraphStore store = TrussTestUtils.createPartitionStore(
+              edges, NUM_VERTICES, 0, 1);
+          topT(store, top, coreRounds);
+          Map<Long, Integer> expected = topLevels(edges, top);
+          assertTrue(Collections.max(expected.values()) > 3);
+          assertEquals("seed=" + seed + " top=" + top +
+              " coreRounds=" + coreRounds, expected, trussNumbers(store));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testAllLevels() {
+    // a t above kmax writes every truss number from 2 on
+    Set<Long> edges = TrussTestUtils.randomGraph(NUM_VERTICES, 200,
+        new Random(7));
+    CompactTrussGraphStore store = TrussTestUtils.createPartitionStore(
+        edges, NUM_VERTICES, 0, 1);
+    topT(store, NUM_VERTICES, 100);
+    assertEquals(TrussTestUtils.trussNumbers(edges, NUM_VERTICES),
+        trussNumbers(store));
+  }
+}
@@ -0,0 +1,404 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.subgraph;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test {@link TriangleEngine} over 1, 2 and 3 partitions against a brute
+ * force count, exchanging the triples between the engines as the
+ * supersteps do.
+ */
+public class TestTriangleEngine {
+  /** Number of vertices of the random graphs */
+  private static final int NUM_VERTICES = 40;
+  /** Number of random edges tried */
+  private static final int NUM_EDGES = 250;
+
+  /** Neighbors of every vertex */
+  private final Map<Integer, Set<Integer>> adjacency = Maps.newHashMap();
+
+  /**
+   * Partition of a vertex
+   *
+   * @param vid Vertex id
+   * @param partitions Number of partitions
+   * @return Partition of the vertex
+   */
+  private static int partitionOf(int vid, int partitions) {
+    return (vid * 7 + 3) % partitions;
+  }
+
+  /**
+   * Build a random undirected graph in adjacency.
+   *
+   * @param seed Seed of the graph
+   */
+  private void randomGraph(long seed) {
+    adjacency.clear();
+    Random random = new Random(seed);
+    for (int i = 0; i < NUM_EDGES; ++i) {
+      int x = random.nextInt(NUM_VERTICES);
+      int y = random.nextInt(NUM_VERTICES);
+      if (x != y) {
+        neighbors(x).add(y);
+        neighbors(y).add(x);
+      }
+    }
+  }
+
+  /**
+   * Neighbors of a vertex, created if missing
+   *
+   * @param vid Vertex id
+   * @return Neighbors
+   */
+  private Set<Integer> neighbors(int vid) {
+    Set<Integer> neighbors = adjacency.get(vid);
+    if (neighbors == null) {
+      neighbors = Sets.newHashSet();
+      adjacency.put(vid, neighbors);
+    }
+    return neighbors;
+  }
+
+  /**
+   * Partition of the shared graph, only its local vertices are visible.
+   */
+  private class PartitionGraphStore implements BasicGraphStoreInterface {
+    /** Partition id */
+    private final int partitionId;
+    /** Number of partitions */
+    private final int partitions;
+
+    /**
+     * Constructor
+     *
+     * @param partitionId Partition id
+     * @param partitions Number of partitions
+     */
+    PartitionGraphStore(int partitionId, int partitions) {
+      this.partitionId = partitionId;
+      this.partitions = partitions;
+    }
+
+    @Override
+    public BasicEdge getEdge(int first, int second) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public BasicEdge getMainEdge(int first, int second) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Collection<BasicEdge> getEdges() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean addEdge(BasicEdge re) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean deleteEdge(int first, int second) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean edgeExist(int first, int second) {
+      // A partition only knows the edges of its local vertices
+      assertTrue(isLocal(first) || isLocal(second));
+      return adjacency.containsKey(first) &&
+          adjacency.get(first).contains(second);
+    }
+
+    @Override
+    public BasicVertex getVertex(int id) {
+      assertTrue(isLocal(id));
+      BasicVertex vertex = new BasicVertex();
+      vertex.initialize(id);
+      for (int neighbor : adjacency.get(id)) {
+        vertex.addNeighbor(new BasicEdge(id, neighbor,
+            BasicEdge.BASICEDGE_INTERNAL, true));
+      }
+      return vertex;
+    }
+
+    @Override
+    public int getDegree(int id) {
+      return adjacency.containsKey(id) ? adjacency.get(id).size() : 0;
+    }
+
+    @Override
+    public boolean isLocal(int id) {
+      return partitionOf(id, partitions) == partitionId;
+    }
+
+    @Override
+    public Collection<BasicVertex> getLocalVertex() {
+      List<BasicVertex> vertices = Lists.newArrayList();
+      for (int vid : adjacency.keySet()) {
+        if (isLocal(vid)) {
+          vertices.add(getVertex(vid));
+        }
+      }
+      return vertices;
+    }
+
+    @Override
+    public long getVertexCount() {
+      return getLocalVertex().size();
+    }
+
+    @Override
+    public long getEdgeCount() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long getTotalEdgeCount() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void inititalGraphStore() {
+    }
+
+    @Override
+    public void dump() {
+    }
+  }
+
+  /**
+   * Engines of every partition sending into the inboxes of the next
+   * superstep.
+   */
+  private class Exchange {
+    /** Number of partitions */
+    private final int partitions;
+    /** Engines by partition */
+    private final TriangleEngine[] engines;
+    /** Triples (destination, first, second, third) for the next superstep */
+    private List<List<int[]>> next = Lists.newArrayList();
+    /** Triples sent to another partition */
+    private long remote;
+
+    /**
+     * Constructor
+     *
+     * @param partitions Number of partitions
+     */
+    Exchange(final int partitions) {
+      this.partitions = partitions;
+      engines = new TriangleEngine[partitions];
+      for (int p = 0; p < partitions; ++p) {
+        final int sender = p;
+        next.add(Lists.<int[]>newArrayList());
+        engines[p] = new TriangleEngine(new PartitionGraphStore(p, partitions)) {
+          @Override
+          protected boolean isSamePartition(int vid1, int vid2) {
+            return partitionOf(vid1, partitions) ==
+                partitionOf(vid2, partitions);
+          }
+
+          @Override
+          protected void sendTriple(int destination, int first, int second,
+              int third) {
+            int partition = partitionOf(destination, partitions);
+            if (partition != sender) {
+              remote++;
+            }
+            next.get(partition).add(
+                new int[] {destination, first, second, third});
+          }
+        };
+      }
+    }
+
+    /**
+     * Start the next superstep
+     *
+     * @return Triples received by every partition
+     */
+    List<List<int[]>> superstep() {
+      List<List<int[]>> received = next;
+      next = Lists.newArrayList();
+      for (int p = 0; p < partitions; ++p) {
+        next.add(Lists.<int[]>newArrayList());
+      }
+      return received;
+    }
+  }
+
+  /**
+   * Number of triangles on a vertex
+   *
+   * @param vid Vertex id
+   * @return Triangles
+   */
+  private int bruteForceTriangles(int vid) {
+    List<Integer> neighbors = Lists.newArrayList(adjacency.get(vid));
+    int triangles = 0;
+    for (int i = 0; i < neighbors.size(); ++i) {
+      for (int j = i + 1; j < neighbors.size(); ++j) {
+        if (adjacency.get(neighbors.get(i)).contains(neighbors.get(j))) {
+          ++triangles;
+        }
+      }
+    }
+    return triangles;
+  }
+
+  /**
+   * Triangles (sorted vertex ids) with a vertex in the partition
+   *
+   * @param partitionId Partition
+   * @param partitions Number of partitions
+   * @return Triangles
+   */
+  private Set<List<Integer>> bruteForceTriangles(int partitionId,
+      int partitions) {
+    Set<List<Integer>> triangles = Sets.newHashSet();
+    for (int u : adjacency.keySet()) {
+      for (int x : adjacency.get(u)) {
+        for (int y : adjacency.get(u)) {
+          if (u < x && x < y && adjacency.get(x).contains(y) &&
+              (partitionOf(u, partitions) == partitionId ||
+              partitionOf(x, partitions) == partitionId ||
+              partitionOf(y, partitions) == partitionId)) {
+            triangles.add(Arrays.asList(u, x, y));
+          }
+        }
+      }
+    }
+    return triangles;
+  }
+
+  @Test
+  public void testCounts() {
+    for (int partitions = 1; partitions <= 3; ++partitions) {
+      for (long seed = 0; seed < 5; ++seed) {
+        randomGraph(seed);
+        Exchange exchange = new Exchange(partitions);
+        for (TriangleEngine engine : exchange.engines) {
+          engine.listLocal();
+        }
+        for (int superstep = 1; superstep <= 2; ++superstep) {
+          List<List<int[]>> received = exchange.superstep();
+          for (int p = 0; p < partitions; ++p) {
+            for (int[] triple : received.get(p)) {
+              exchange.engines[p].receive(triple[0],
+                  new TripleWritable(triple[1], triple[2], triple[3]));
+            }
+          }
+        }
+        // The counts are final after superstep 2
+        for (List<int[]> triples : exchange.superstep()) {
+          assertTrue(triples.isEmpty());
+        }
+        if (partitions == 1) {
+          assertEquals(0, exchange.remote);
+        }
+
+        long triangleSum = 0;
+        for (int vid : adjacency.keySet()) {
+          TriangleEngine engine =
+              exchange.engines[partitionOf(vid, partitions)];
+          assertEquals(bruteForceTriangles(vid),
+              engine.getTriangleCount(vid));
+          for (int neighbor : adjacency.get(vid)) {
+            Set<Integer> common = Sets.newHashSet(adjacency.get(vid));
+            common.retainAll(adjacency.get(neighbor));
+            assertEquals(common.size(), engine.getSupport(vid, neighbor));
+          }
+          triangleSum += bruteForceTriangles(vid);
+        }
+        long engineSum = 0;
+        for (TriangleEngine engine : exchange.engines) {
+          engineSum += engine.getLocalTriangleSum();
+        }
+        assertEquals(triangleSum, engineSum);
+      }
+    }
+  }
+
+  @Test
+  public void testKTrussListing() {
+    for (int partitions = 1; partitions <= 3; ++partitions) {
+      for (long seed = 0; seed < 5; ++seed) {
+        randomGraph(seed);
+        Exchange exchange = new Exchange(partitions);
+        long remote = 0;
+        for (TriangleEngine engine : exchange.engines) {
+          remote += engine.queryWedges();
+        }
+        List<List<int[]>> received = exchange.superstep();
+        for (int p = 0; p < partitions; ++p) {
+          for (int[] triple : received.get(p)) {
+            remote += exchange.engines[p].answerWedge(triple[0],
+                new TripleWritable(triple[1], triple[2], triple[3]));
+          }
+        }
+        assertEquals(exchange.remote, remote);
+
+        // Every partition gets each triangle on its vertices once
+        received = exchange.superstep();
+        for (int p = 0; p < partitions; ++p) {
+          Set<List<Integer>> triangles = Sets.newHashSet();
+          for (int[] triple : received.get(p)) {
+            assertEquals(triple[0], triple[1]);
+            int[] sorted = {triple[1], triple[2], triple[3]};
+            Arrays.sort(sorted);
+            assertTrue(triangles.add(
+                Arrays.asList(sorted[0], sorted[1], sorted[2])));
+          }
+          assertEquals(bruteForceTriangles(p, partitions), triangles);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testRegistry() {
+    randomGraph(0);
+    Exchange exchange = new Exchange(1);
+    TriangleEngine.put(17, exchange.engines[0]);
+    assertSame(exchange.engines[0], TriangleEngine.get(17));
+    assertSame(exchange.engines[0], TriangleEngine.remove(17));
+    assertNull(TriangleEngine.get(17));
+    assertNull(TriangleEngine.remove(17));
+  }
+}
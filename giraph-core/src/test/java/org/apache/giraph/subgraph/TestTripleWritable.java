@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.subgraph;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the serialization of single triples, batches and lists of
+ * {@link TripleWritable}.
+ */
+public class TestTripleWritable {
+  /**
+   * Write a message and read it into another one
+   *
+   * @param message Message to write
+   * @param read Message read into
+   * @return read
+   * @throws IOException
+   */
+  private static TripleWritable roundTrip(TripleWritable message,
+      TripleWritable read) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    message.write(new DataOutputStream(bytes));
+    read.readFields(new DataInputStream(
+        new ByteArrayInputStream(bytes.toByteArray())));
+    return read;
+  }
+
+  /**
+   * Triples of a message in order
+   *
+   * @param message Message
+   * @return Triples as lists
+   */
+  private static List<List<Integer>> triples(TripleWritable message) {
+    List<List<Integer>> res = Lists.newArrayList();
+    for (int i = 0; i < message.size(); ++i) {
+      res.add(Lists.newArrayList(message.getFirst(i), message.getSecond(i),
+          message.getThird(i)));
+    }
+    return res;
+  }
+
+  @Test
+  public void testSingle() throws IOException {
+    TripleWritable read = roundTrip(
+        new TripleWritable(Integer.MAX_VALUE, -7, Integer.MIN_VALUE),
+        new TripleWritable());
+    assertEquals(1, read.size());
+    assertEquals(Integer.MAX_VALUE, read.getFirst());
+    assertEquals(-7, read.getSecond());
+    assertEquals(Integer.MIN_VALUE, read.getThird());
+    assertEquals(0, read.getListSize());
+  }
+
+  @Test
+  public void testBatch() throws IOException {
+    Random random = new Random(5);
+    TripleWritable batch = new TripleWritable();
+    List<List<Integer>> expected = Lists.newArrayList();
+    for (int i = 0; i < 500; ++i) {
+      // Large gaps and negative ids, so the deltas are negative too
+      int first = random.nextInt(10) == 0 ? random.nextInt() :
+          random.nextInt(100);
+      int second = random.nextInt() >> random.nextInt(32);
+      int third = -random.nextInt(1000);
+      batch.add(first, second, third);
+      expected.add(Lists.newArrayList(first, second, third));
+    }
+
+    // A reused message holding a longer batch and a list before
+    TripleWritable read = new TripleWritable();
+    for (int i = 0; i < 800; ++i) {
+      read.add(i, i, i);
+    }
+    read.setList(new int[] {1, 2, 3}, 0, 3);
+    roundTrip(batch, read);
+
+    // The batch is not reordered by write, the read batch is sorted
+    assertEquals(expected, triples(batch));
+    Collections.sort(expected, new Comparator<List<Integer>>() {
+      @Override
+      public int compare(List<Integer> a, List<Integer> b) {
+        for (int f = 0; f < 3; ++f) {
+          int c = a.get(f).compareTo(b.get(f));
+          if (c != 0) {
+            return c;
+          }
+        }
+        return 0;
+      }
+    });
+    assertEquals(expected, triples(read));
+    assertEquals(0, read.getListSize());
+
+    // Written again after it was read, in the same order
+    assertEquals(expected, triples(roundTrip(read, new TripleWritable())));
+  }
+
+  @Test
+  public void testList() throws IOException {
+    int[] ids = {-100, -3, 0, 5, 6, 1 << 20, Integer.MAX_VALUE};
+    TripleWritable message = new TripleWritable(4, 0, 0);
+    message.setList(ids, 1, ids.length);
+    TripleWritable read = roundTrip(message, new TripleWritable());
+    assertEquals(4, read.getFirst());
+    assertEquals(ids.length - 1, read.getListSize());
+    for (int i = 0; i < read.getListSize(); ++i) {
+      assertEquals(ids[i + 1], read.getList()[i]);
+    }
+  }
+
+  @Test
+  public void testCompareTo() {
+    TripleWritable min = new TripleWritable(Integer.MIN_VALUE, 0, 0);
+    TripleWritable max = new TripleWritable(Integer.MAX_VALUE, 0, 0);
+    // The difference of the ids overflows
+    assertTrue(min.compareTo(max) < 0);
+    assertTrue(max.compareTo(min) > 0);
+    assertTrue(new TripleWritable(1, 2, -3).compareTo(
+        new TripleWritable(1, 2, 3)) < 0);
+    assertEquals(0, new TripleWritable(1, 2, 3).compareTo(
+        new TripleWritable(1, 2, 3)));
+  }
+}
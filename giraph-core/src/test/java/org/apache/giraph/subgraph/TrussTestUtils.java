@@ -0,0 +1,292 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.subgraph;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.graph.Vertex;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Random graphs, stores of one partition and brute force k-truss for the
+ * k-truss tests. The edges are kept as {@link BasicEdge#constructEdgeId}.
+ */
+public class TrussTestUtils {
+  /** Vertex of the k-truss jobs */
+  public static class TrussVertex extends Vertex<IntWritable, IntWritable,
+      NullWritable, TripleWritable> {
+    @Override
+    public void compute(Iterable<TripleWritable> messages)
+      throws IOException {
+    }
+  }
+
+  /** Do not construct */
+  private TrussTestUtils() { }
+
+  /**
+   * Configuration of the k-truss jobs
+   *
+   * @return Configuration
+   */
+  public static GiraphConfiguration createConfiguration() {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setVertexClass(TrussVertex.class);
+    return conf;
+  }
+
+  /**
+   * Create an empty store of partition 0
+   *
+   * @return Store
+   */
+  public static CompactTrussGraphStore createStore() {
+    CompactTrussGraphStore store = new CompactTrussGraphStore();
+    store.setConf(new ImmutableClassesGiraphConfiguration(
+        createConfiguration()));
+    store.initialize(0, null);
+    store.inititalGraphStore();
+    return store;
+  }
+
+  /**
+   * Random undirected graph
+   *
+   * @param numVertices Vertex ids are 0 .. numVertices - 1
+   * @param numEdges Number of random edges tried
+   * @param random Random
+   * @return Edges
+   */
+  public static Set<Long> randomGraph(int numVertices, int numEdges,
+      Random random) {
+    Set<Long> edges = Sets.newHashSet();
+    for (int i = 0; i < numEdges; ++i) {
+      int x = random.nextInt(numVertices);
+      int y = random.nextInt(numVertices);
+      if (x != y) {
+        edges.add(BasicEdge.constructEdgeId(x, y));
+      }
+    }
+    return edges;
+  }
+
+  /**
+   * Source of an edge
+   *
+   * @param edge Edge
+   * @return Smaller end point
+   */
+  public static int source(long edge) {
+    return (int) (edge >> 32);
+  }
+
+  /**
+   * Target of an edge
+   *
+   * @param edge Edge
+   * @return Larger end point
+   */
+  public static int target(long edge) {
+    return (int) edge;
+  }
+
+  /**
+   * Store of one partition holding all the vertices of the graph, the edges
+   * are internal and their supports are counted.
+   *
+   * @param edges Edges
+   * @param numVertices Vertex ids are 0 .. numVertices - 1
+   * @return Store
+   */
+  public static CompactTrussGraphStore createLocalStore(Set<Long> edges,
+      int numVertices) {
+    CompactTrussGraphStore store = createStore();
+    IntArrayList vertices = new IntArrayList();
+    for (int vid = 0; vid < numVertices; ++vid) {
+      vertices.add(vid);
+    }
+    store.addLocalVertices(vertices);
+    for (long edge : edges) {
+      store.addEdge(source(edge), target(edge), BasicEdge.BASICEDGE_INTERNAL);
+    }
+    countSupports(store);
+    return store;
+  }
+
+  /**
+   * Partition of a vertex in the tests of several partitions
+   *
+   * @param vid Vertex id
+   * @param partitions Number of partitions
+   * @return Partition of the vertex
+   */
+  public static int partitionOf(int vid, int partitions) {
+    return (vid * 7 + 3) % partitions;
+  }
+
+  /**
+   * Store of one of several partitions as after the input superstep: the
+   * edges of its local vertices, internal or cross, without supports.
+   *
+   * @param edges Edges
+   * @param numVertices Vertex ids are 0 .. numVertices - 1
+   * @param partitionId Partition of the store
+   * @param partitions Number of partitions
+   * @return Store
+   */
+  public static CompactTrussGraphStore createPartitionStore(Set<Long> edges,
+      int numVertices, int partitionId, int partitions) {
+    CompactTrussGraphStore store = createStore();
+    IntArrayList vertices = new IntArrayList();
+    for (int vid = 0; vid < numVertices; ++vid) {
+      if (partitionOf(vid, partitions) == partitionId) {
+        vertices.add(vid);
+      }
+    }
+    store.addLocalVertices(vertices);
+    for (long edge : edges) {
+      boolean sourceLocal = store.isLocal(source(edge));
+      boolean targetLocal = store.isLocal(target(edge));
+      if (sourceLocal && targetLocal) {
+        store.addEdge(source(edge), target(edge),
+            BasicEdge.BASICEDGE_INTERNAL);
+      } else if (sourceLocal || targetLocal) {
+        store.addEdge(source(edge), target(edge), BasicEdge.BASICEDGE_CROSS);
+      }
+    }
+    return store;
+  }
+
+  /**
+   * Set the support of every alive edge to its number of triangles
+   *
+   * @param store Store
+   */
+  public static void countSupports(CompactTrussGraphStore store) {
+    final int[] count = new int[1];
+    CompactTrussGraphStore.TriangleVisitor counter =
+        new CompactTrussGraphStore.TriangleVisitor() {
+          @Override
+          public void visit(int third, int firstEdge, int secondEdge) {
+            count[0]++;
+          }
+        };
+    for (int eid = 0; eid < store.getEdgeCapacity(); ++eid) {
+      if (!store.isDeleted(eid)) {
+        count[0] = 0;
+        store.visitTriangles(eid, counter);
+        store.setSupport(eid, count[0]);
+      }
+    }
+  }
+
+  /**
+   * Alive edges of a store
+   *
+   * @param store Store
+   * @return Edges
+   */
+  public static Set<Long> aliveEdges(CompactTrussGraphStore store) {
+    Set<Long> edges = Sets.newHashSet();
+    for (int eid = 0; eid < store.getEdgeCapacity(); ++eid) {
+      if (!store.isDeleted(eid)) {
+        edges.add(BasicEdge.constructEdgeId(store.getEdgeSource(eid),
+            store.getEdgeTarget(eid)));
+      }
+    }
+    return edges;
+  }
+
+  /**
+   * Number of triangles of an edge in a graph
+   *
+   * @param edges Graph
+   * @param edge Edge
+   * @param numVertices Vertex ids are 0 .. numVertices - 1
+   * @return Support
+   */
+  private static int support(Set<Long> edges, long edge, int numVertices) {
+    int u = source(edge);
+    int v = target(edge);
+    int support = 0;
+    for (int w = 0; w < numVertices; ++w) {
+      if (edges.contains(BasicEdge.constructEdgeId(u, w)) &&
+          edges.contains(BasicEdge.constructEdgeId(v, w))) {
+        support++;
+      }
+    }
+    return support;
+  }
+
+  /**
+   * Brute force k-truss: remove the edges with fewer than k - 2 triangles
+   * until there is none.
+   *
+   * @param edges Graph
+   * @param k Truss parameter
+   * @param numVertices Vertex ids are 0 .. numVertices - 1
+   * @return Edges of the k-truss
+   */
+  public static Set<Long> kTruss(Set<Long> edges, int k, int numVertices) {
+    Set<Long> alive = Sets.newHashSet(edges);
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (Iterator<Long> it = alive.iterator(); it.hasNext();) {
+        if (support(alive, it.next(), numVertices) < k - 2) {
+          it.remove();
+          changed = true;
+        }
+      }
+    }
+    return alive;
+  }
+
+  /**
+   * Sequential truss decomposition
+   *
+   * @param edges Graph
+   * @param numVertices Vertex ids are 0 .. numVertices - 1
+   * @return Edge ==> largest k of a k-truss holding the edge
+   */
+  public static Map<Long, Integer> trussNumbers(Set<Long> edges,
+      int numVertices) {
+    Map<Long, Integer> res = Maps.newHashMap();
+    Set<Long> previous = edges;
+    for (int k = 3; !previous.isEmpty(); ++k) {
+      Set<Long> truss = kTruss(previous, k, numVertices);
+      for (long edge : previous) {
+        if (!truss.contains(edge)) {
+          res.put(edge, k - 1);
+        }
+      }
+      previous = truss;
+    }
+    return res;
+  }
+}
@@ -0,0 +1,346 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.subgraph.graphextraction;
+
+import com.google.common.collect.Maps;
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.plan.EdgeDirection;
+import org.apache.hadoop.io.IntWritable;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test the vertex views of {@link CSRGraphStore} against the map based
+ * {@link BasicVertex}.
+ */
+public class TestCSRGraphStore {
+  /** Number of vertices */
+  private static final int NUM_VERTICES = 30;
+  /** Number of edge labels */
+  private static final int NUM_LABELS = 3;
+
+  /** Vertex of the path evaluation */
+  private static class PathVertex extends Vertex<IntWritable, IntWritable,
+      IntWritable, PartialAggregatedPath> {
+    @Override
+    public void compute(Iterable<PartialAggregatedPath> messages)
+      throws IOException {
+    }
+  }
+
+  /** Store under test */
+  private CSRGraphStore store;
+  /** Map based vertices with the same edges, by local id */
+  private BasicVertex[] expected;
+
+  @Before
+  public void setUp() {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setVertexClass(PathVertex.class);
+    store = new CSRGraphStore();
+    store.setConf(new ImmutableClassesGiraphConfiguration(conf));
+    store.initialize(0, null);
+    expected = new BasicVertex[NUM_VERTICES];
+    for (int i = 0; i < NUM_VERTICES; ++i) {
+      int gid = 1000 + i;
+      BasicVertex vertex = store.createVertex(gid, i % NUM_LABELS);
+      assertEquals(i, store.getLocalId(gid));
+      assertEquals(gid, vertex.getId());
+      expected[i] = new BasicVertex();
+      expected[i].initialize(gid, i % NUM_LABELS);
+    }
+  }
+
+  /**
+   * Edges of a neighborhood by neighbor id
+   *
+   * @param edges Neighborhood
+   * @return neighbor ==> (label, weight)
+   */
+  private static Map<Integer, String> toMap(Iterable<BasicEdge> edges) {
+    Map<Integer, String> res = Maps.newHashMap();
+    for (BasicEdge be : edges) {
+      res.put(be.getVid(), be.getLabel() + ":" + be.getWeight());
+    }
+    return res;
+  }
+
+  /**
+   * Check that a slice is sorted by (label, neighbor label, neighbor)
+   *
+   * @param nbrs Neighbors of the store
+   * @param labels Edge labels of the store
+   * @param start First position of the slice
+   * @param end End of the slice
+   */
+  private void checkSorted(int[] nbrs, int[] labels, int start, int end) {
+    for (int i = start + 1; i < end; ++i) {
+      int prevNbrLabel = store.getLabel(nbrs[i - 1]);
+      int nbrLabel = store.getLabel(nbrs[i]);
+      assertTrue(labels[i - 1] < labels[i] ||
+          (labels[i - 1] == labels[i] && (prevNbrLabel < nbrLabel ||
+          (prevNbrLabel == nbrLabel && nbrs[i - 1] < nbrs[i]))));
+    }
+  }
+
+  /**
+   * Check every vertex of the store against the expected vertices
+   */
+  private void checkVertices() {
+    // The degrees are known before the edges are merged
+    for (int lid = 0; lid < NUM_VERTICES; ++lid) {
+      assertEquals(expected[lid].getOutDegree(),
+          store.getVertex(lid).getOutDegree());
+      assertEquals(expected[lid].getInDegree(),
+          store.getVertex(lid).getInDegree());
+    }
+    store.compact();
+    for (int lid = 0; lid < NUM_VERTICES; ++lid) {
+      BasicVertex vertex = store.getVertex(lid);
+      assertEquals(expected[lid].getId(), vertex.getId());
+      assertEquals(expected[lid].getLabel(), vertex.getLabel());
+      assertEquals(toMap(expected[lid].getOutNeighbors()),
+          toMap(vertex.getOutNeighbors()));
+      assertEquals(toMap(expected[lid].getInNeighbors()),
+          toMap(vertex.getInNeighbors()));
+      assertEquals(expected[lid].getOutDegree(), vertex.getOutDegree());
+      assertEquals(expected[lid].getInDegree(), vertex.getInDegree());
+
+      checkSorted(store.getOutNbrs(), store.getOutLabels(),
+          store.getOutStart(lid), store.getOutEnd(lid));
+      checkSorted(store.getInNbrs(), store.getInLabels(),
+          store.getInStart(lid), store.getInEnd(lid));
+      for (int nbr = 0; nbr < NUM_VERTICES; ++nbr) {
+        assertEquals(expected[lid].containNeighbor(nbr),
+            vertex.containNeighbor(nbr));
+      }
+    }
+  }
+
+  @Test
+  public void testSameEdgesAsBasicVertex() {
+    Random random = new Random(5);
+    for (int round = 0; round < 20; ++round) {
+      for (int i = 0; i < 100; ++i) {
+        int lid = random.nextInt(NUM_VERTICES);
+        // The same neighbor repeats with other labels and weights
+        BasicEdge be = new BasicEdge(random.nextInt(NUM_VERTICES),
+            random.nextInt(NUM_LABELS), random.nextInt(100));
+        if (random.nextBoolean()) {
+          store.getVertex(lid).addOutNeighbor(be);
+          expected[lid].addOutNeighbor(be);
+        } else {
+          store.getVertex(lid).addInNeighbor(be);
+          expected[lid].addInNeighbor(be);
+        }
+      }
+      for (int i = 0; i < 10; ++i) {
+        int lid = random.nextInt(NUM_VERTICES);
+        int nbr = random.nextInt(NUM_VERTICES);
+        store.getVertex(lid).removeEdge(nbr);
+        expected[lid].removeEdge(nbr);
+      }
+      checkVertices();
+    }
+  }
+
+  @Test
+  public void testInitialize() {
+    store.getVertex(3).addOutNeighbor(new BasicEdge(4, 1, 7));
+    store.getVertex(3).addInNeighbor(new BasicEdge(5, 1, 7));
+    store.getVertex(3).addTmpNeighbor(new BasicEdge(6, 0, 1));
+    store.getVertex(3).initialize(77, 2);
+    expected[3].initialize(77, 2);
+    assertEquals(3, store.getLocalId(77));
+    assertFalse(store.hasVertex(1003));
+    assertEquals(77, store.getGlobalId(3));
+    assertTrue(store.getVertex(3).getTmpNeighbors().isEmpty());
+    checkVertices();
+  }
+
+  @Test
+  public void testIteratorCursor() {
+    store.getVertex(0).addOutNeighbor(new BasicEdge(1, 0, 1));
+    store.getVertex(0).addOutNeighbor(new BasicEdge(2, 0, 2));
+    store.compact();
+    Iterator<BasicEdge> it = store.getVertex(0).getOutNeighbors().iterator();
+    BasicEdge first = it.next();
+    assertEquals(1, first.getVid());
+    assertSame(first, it.next());
+    assertEquals(2, first.getVid());
+    assertFalse(it.hasNext());
+  }
+
+  @Test
+  public void testAdjacencyIndex() {
+    Random random = new Random(9);
+    for (int i = 0; i < 300; ++i) {
+      int lid = random.nextInt(NUM_VERTICES);
+      BasicEdge be = new BasicEdge(random.nextInt(NUM_VERTICES),
+          random.nextInt(NUM_LABELS), random.nextInt(100));
+      if (random.nextBoolean()) {
+        store.getVertex(lid).addOutNeighbor(be);
+        expected[lid].addOutNeighbor(be);
+      } else {
+        store.getVertex(lid).addInNeighbor(be);
+        expected[lid].addInNeighbor(be);
+      }
+    }
+    store.compact();
+    checkAdjacencyIndex();
+  }
+
+  /**
+   * Check the ranges of the index of every vertex, in both directions,
+   * against a scan of the expected vertices
+   */
+  private void checkAdjacencyIndex() {
+    for (int lid = 0; lid < NUM_VERTICES; ++lid) {
+      LabelAdjacencyIndex index =
+          LabelAdjacencyIndex.build(store, store.getVertex(lid));
+      assertEquals(expected[lid].getOutDegree() +
+          expected[lid].getInDegree(), index.size());
+      for (EdgeDirection direction :
+          LabelAdjacencyIndex.directions(EdgeDirection.BOTH)) {
+        Iterable<BasicEdge> edges = direction == EdgeDirection.OUTGOING ?
+            expected[lid].getOutNeighbors() : expected[lid].getInNeighbors();
+        for (int elabel = 0; elabel < NUM_LABELS; ++elabel) {
+          for (int vlabel = 0; vlabel < NUM_LABELS; ++vlabel) {
+            Map<Integer, String> matched = Maps.newHashMap();
+            for (BasicEdge be : edges) {
+              if (be.getLabel() == elabel &&
+                  expected[be.getVid()].getLabel() == vlabel) {
+                matched.put(be.getVid(),
+                    be.getLabel() + ":" + be.getWeight());
+              }
+            }
+            int start = index.rangeStart(elabel, vlabel, direction);
+            int end = index.rangeEnd(elabel, vlabel, direction);
+            Map<Integer, String> found = Maps.newHashMap();
+            for (int pos = start; pos < end; ++pos) {
+              found.put(index.getNbr(pos),
+                  elabel + ":" + index.getWeight(pos));
+            }
+            assertEquals(matched, found);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testRelabelResortsSlices() {
+    for (int lid = 0; lid < NUM_VERTICES; ++lid) {
+      for (int nbr = 0; nbr < NUM_VERTICES; nbr += 2) {
+        BasicEdge be = new BasicEdge(nbr, lid % 2, 1 + nbr);
+        store.getVertex(lid).addOutNeighbor(be);
+        expected[lid].addOutNeighbor(be);
+      }
+    }
+    store.compact();
+    // The labels of the neighbors are only known after the first compaction
+    for (int lid = 0; lid < NUM_VERTICES; ++lid) {
+      int label = (lid * 2) % NUM_LABELS;
+      store.getVertex(lid).setLabel(label);
+      expected[lid].setLabel(label);
+    }
+    assertTrue(store.isNeighborOrderStale());
+    try {
+      LabelAdjacencyIndex.build(store, store.getVertex(0));
+      fail("the slices are not sorted by the new labels");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    checkVertices();
+    assertFalse(store.isNeighborOrderStale());
+    checkAdjacencyIndex();
+  }
+
+  @Test
+  public void testReadersDoNotCompact() {
+    store.getVertex(1).addOutNeighbor(new BasicEdge(2, 0, 1));
+    store.getVertex(1).addOutNeighbor(new BasicEdge(3, 0, 1));
+    store.compact();
+    store.getVertex(1).removeEdge(2);
+    assertEquals(1, store.getVertex(1).getOutDegree());
+    assertEquals(1, store.getTotalEdgeCount());
+    try {
+      store.getVertex(1).getOutNeighbors();
+      fail("the removal is not merged");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    try {
+      store.getOutStart(1);
+      fail("the removal is not merged");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    // The other neighborhoods can still be read
+    assertTrue(store.getVertex(0).getOutNeighbors().isEmpty());
+    store.compact();
+    assertEquals(1, store.getOutEnd(1) - store.getOutStart(1));
+    assertEquals(3, store.getOutNbrs()[store.getOutStart(1)]);
+  }
+
+  @Test
+  public void testToStringUncompacted() {
+    store.getVertex(1).addOutNeighbor(new BasicEdge(2, 0, 1));
+    store.compact();
+    store.getVertex(1).addOutNeighbor(new BasicEdge(3, 0, 1));
+    String text = store.getVertex(1).toString();
+    assertTrue(text, text.contains("vid=1001"));
+    assertTrue(text, text.contains("outNbrSize=2 outNbrList=(uncompacted)"));
+    // The in-edges of the vertex did not change
+    assertTrue(text, text.contains("inNbrSize=0 inNBrList=()"));
+    store.dump();
+    store.compact();
+    text = store.getVertex(1).toString();
+    // Vertex 3 has a smaller label than vertex 2
+    assertTrue(text, text.contains("( id=3, w=1, l=0 id=2, w=1, l=0)"));
+  }
+
+  @Test
+  public void testAllVertexView() {
+    Collection<BasicVertex> all = store.getAllVertex();
+    assertSame(all, store.getAllVertex());
+    assertEquals(NUM_VERTICES, all.size());
+    store.createVertex(5000, 0);
+    assertEquals(NUM_VERTICES + 1, all.size());
+    try {
+      all.clear();
+      fail("the view is read-only");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.subgraph.graphextraction;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test that {@link ExplorationPool} explores the same paths with several
+ * threads as with the compute thread only.
+ */
+public class TestExplorationPool {
+  /** Number of vertices */
+  private static final int NUM_VERTICES = 500;
+  /** Semiring of the path weights */
+  private static final PathSemiring SEMIRING = PathSemiring.create("minplus");
+
+  /** Neighbors of every vertex */
+  private int[][] neighbors;
+  /** Weights of the edges, parallel to neighbors */
+  private long[][] weights;
+  /** Configuration of the pool */
+  private Configuration conf;
+
+  @Before
+  public void setUp() {
+    Random random = new Random(11);
+    neighbors = new int[NUM_VERTICES][];
+    weights = new long[NUM_VERTICES][];
+    for (int vid = 0; vid < NUM_VERTICES; ++vid) {
+      // Skewed degrees, which the chunks balance
+      int degree = vid % 50 == 0 ? 200 : random.nextInt(10);
+      neighbors[vid] = new int[degree];
+      weights[vid] = new long[degree];
+      for (int i = 0; i < degree; ++i) {
+        neighbors[vid][i] = random.nextInt(NUM_VERTICES);
+        weights[vid][i] = 1 + random.nextInt(100);
+      }
+    }
+    conf = new Configuration();
+    GiraphConstants.GRAPHOLAP_PATH_EVALUATION_EXPLORATION_THREADS.set(conf, 4);
+  }
+
+  /**
+   * Aggregates the two-hop paths from its start vertices, as an
+   * exploration thread does.
+   */
+  private class PathWorker implements ExplorationPool.ChunkWorker {
+    /** (start, end) of the paths ==> aggregated weight */
+    private final Map<Long, Long> paths = Maps.newHashMap();
+    /** Number of finish calls */
+    private int finished;
+
+    @Override
+    public void run(int from, int to) {
+      for (int u = from; u < to; ++u) {
+        for (int i = 0; i < neighbors[u].length; ++i) {
+          int v = neighbors[u][i];
+          for (int j = 0; j < neighbors[v].length; ++j) {
+            long weight = SEMIRING.times(weights[u][i], weights[v][j]);
+            long key = ((long) u << 32) | neighbors[v][j];
+            Long old = paths.get(key);
+            paths.put(key, old == null ? weight : SEMIRING.plus(old, weight));
+          }
+        }
+      }
+    }
+
+    @Override
+    public void finish() throws IOException {
+      ++finished;
+    }
+  }
+
+  /**
+   * Explore all the vertices and merge the paths of the workers
+   *
+   * @param threads Number of workers
+   * @param chunkSize Vertices per chunk
+   * @return Aggregated paths
+   * @throws IOException
+   */
+  private Map<Long, Long> explore(int threads, int chunkSize)
+    throws IOException {
+    List<PathWorker> workers = Lists.newArrayList();
+    for (int i = 0; i < threads; ++i) {
+      workers.add(new PathWorker());
+    }
+    ExplorationPool.run(conf, NUM_VERTICES, chunkSize, workers);
+    Map<Long, Long> merged = Maps.newHashMap();
+    for (PathWorker worker : workers) {
+      assertEquals(1, worker.finished);
+      for (Map.Entry<Long, Long> entry : worker.paths.entrySet()) {
+        Long old = merged.get(entry.getKey());
+        merged.put(entry.getKey(), old == null ? entry.getValue() :
+            SEMIRING.plus(old, entry.getValue()));
+      }
+    }
+    return merged;
+  }
+
+  @Test
+  public void testSamePathsAsOneThread() throws IOException {
+    Map<Long, Long> expected = explore(1, NUM_VERTICES);
+    assertTrue(expected.size() > 0);
+    for (int threads = 2; threads <= 6; ++threads) {
+      for (int chunkSize : new int[] {1, 7, 64, NUM_VERTICES}) {
+        assertEquals(expected, explore(threads, chunkSize));
+      }
+    }
+  }
+
+  @Test
+  public void testFailure() throws IOException {
+    final IOException failure = new IOException("exploration failure");
+    List<ExplorationPool.ChunkWorker> workers = Lists.newArrayList();
+    workers.add(new PathWorker());
+    workers.add(new PathWorker() {
+      @Override
+      public void finish() throws IOException {
+        throw failure;
+      }
+    });
+    try {
+      ExplorationPool.run(conf, NUM_VERTICES, 1, workers);
+      fail("run should rethrow the failure of a worker");
+    } catch (IOException e) {
+      assertSame(failure, e.getCause());
+    }
+    // The pool is still usable afterwards
+    assertEquals(explore(1, NUM_VERTICES), explore(3, 5));
+  }
+
+  @Test
+  public void testRuntimeFailureOfCaller() throws IOException {
+    final IllegalStateException failure =
+        new IllegalStateException("exploration failure");
+    List<PathWorker> workers = Lists.newArrayList();
+    workers.add(new PathWorker() {
+      @Override
+      public void run(int from, int to) {
+        throw failure;
+      }
+    });
+    for (int i = 1; i < 4; ++i) {
+      workers.add(new PathWorker());
+    }
+    try {
+      ExplorationPool.run(conf, NUM_VERTICES, 1, workers);
+      fail("run should rethrow the failure of the calling thread");
+    } catch (IllegalStateException e) {
+      assertSame(failure, e);
+    }
+    // The helpers are stopped and done before run returns
+    for (int i = 1; i < workers.size(); ++i) {
+      assertEquals(1, workers.get(i).finished);
+    }
+  }
+}
@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.subgraph.graphextraction;
+
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.graph.Vertex;
+import org.apache.hadoop.io.IntWritable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test that {@link GraphStoreSnapshot} saves and loads a {@link CSRGraphStore}
+ * unchanged, and refuses the stores which are not persistent.
+ */
+public class TestGraphStoreSnapshot {
+  /** Number of local vertices */
+  private static final int NUM_LOCAL = 20;
+  /** Number of remote vertices */
+  private static final int NUM_REMOTE = 10;
+  /** Number of edge labels */
+  private static final int NUM_LABELS = 3;
+
+  /** Vertex of the path evaluation */
+  private static class PathVertex extends Vertex<IntWritable, IntWritable,
+      IntWritable, PartialAggregatedPath> {
+    @Override
+    public void compute(Iterable<PartialAggregatedPath> messages)
+      throws IOException {
+    }
+  }
+
+  /** Directory of the snapshot */
+  private File directory;
+  /** Configuration saving to and loading from the directory */
+  private ImmutableClassesGiraphConfiguration conf;
+
+  @Before
+  public void setUp() {
+    directory = Files.createTempDir();
+    GiraphConfiguration giraphConf = new GiraphConfiguration();
+    giraphConf.setVertexClass(PathVertex.class);
+    GiraphConstants.GRAPHOLAP_PATH_EVALUATION_SNAPSHOT_SAVE.set(giraphConf,
+        directory.getAbsolutePath());
+    GiraphConstants.GRAPHOLAP_PATH_EVALUATION_SNAPSHOT_LOAD.set(giraphConf,
+        directory.getAbsolutePath());
+    conf = new ImmutableClassesGiraphConfiguration(giraphConf);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(directory);
+  }
+
+  /**
+   * Empty store
+   *
+   * @return Store
+   */
+  private CSRGraphStore createStore() {
+    CSRGraphStore store = new CSRGraphStore();
+    store.setConf(conf);
+    store.initialize(0, null);
+    return store;
+  }
+
+  /**
+   * Store as after the preprocessing: local vertices sealed by
+   * inititalGraphStore, then remote vertices and edges in both directions.
+   *
+   * @return Store
+   */
+  private CSRGraphStore createPreprocessedStore() {
+    CSRGraphStore store = createStore();
+    for (int i = 0; i < NUM_LOCAL; ++i) {
+      store.createVertex(1000 + i, i % NUM_LABELS);
+    }
+    store.inititalGraphStore();
+    for (int i = 0; i < NUM_REMOTE; ++i) {
+      store.createVertex(5000 + i, i % NUM_LABELS);
+    }
+    Random random = new Random(3);
+    int total = NUM_LOCAL + NUM_REMOTE;
+    for (int i = 0; i < 200; ++i) {
+      BasicEdge be = new BasicEdge(random.nextInt(total),
+          random.nextInt(NUM_LABELS), random.nextInt(100));
+      BasicVertex vertex = store.getVertex(random.nextInt(total));
+      if (random.nextBoolean()) {
+        vertex.addOutNeighbor(be);
+      } else {
+        vertex.addInNeighbor(be);
+      }
+    }
+    // Removed edges are not saved
+    store.getVertex(2).removeEdge(0);
+    store.compact();
+    return store;
+  }
+
+  /**
+   * Edges of a neighborhood by neighbor id
+   *
+   * @param edges Neighborhood
+   * @return neighbor ==> (label, weight)
+   */
+  private static Map<Integer, String> toMap(Iterable<BasicEdge> edges) {
+    Map<Integer, String> res = Maps.newHashMap();
+    for (BasicEdge be : edges) {
+      res.put(be.getVid(), be.getLabel() + ":" + be.getWeight());
+    }
+    return res;
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    CSRGraphStore saved = createPreprocessedStore();
+    GraphStoreSnapshot.save(conf, saved, 0, 1);
+    assertTrue(new File(GraphStoreSnapshot.getPath(
+        directory.getAbsolutePath(), 0).toUri().getPath()).isFile());
+
+    CSRGraphStore loaded = createStore();
+    GraphStoreSnapshot.load(conf, loaded, 0, 1);
+    assertEquals(saved.getVertexCount(), loaded.getVertexCount());
+    assertEquals(NUM_LOCAL, loaded.getLocalVertex().size());
+    assertEquals(saved.getTotalVertexCount(), loaded.getTotalVertexCount());
+    assertEquals(saved.getTotalEdgeCount(), loaded.getTotalEdgeCount());
+    for (int lid = 0; lid < saved.getTotalVertexCount(); ++lid) {
+      BasicVertex expected = saved.getVertex(lid);
+      BasicVertex vertex = loaded.getVertex(lid);
+      assertEquals(expected.getId(), vertex.getId());
+      assertEquals(lid, loaded.getLocalId(vertex.getId()));
+      assertEquals(expected.getLabel(), vertex.getLabel());
+      assertEquals(saved.isRemoteVertex(lid), loaded.isRemoteVertex(lid));
+      assertEquals(toMap(expected.getOutNeighbors()),
+          toMap(vertex.getOutNeighbors()));
+      assertEquals(toMap(expected.getInNeighbors()),
+          toMap(vertex.getInNeighbors()));
+      assertEquals(saved.getOutEnd(lid) - saved.getOutStart(lid),
+          loaded.getOutEnd(lid) - loaded.getOutStart(lid));
+    }
+  }
+
+  @Test
+  public void testWrongPartition() throws IOException {
+    GraphStoreSnapshot.save(conf, createPreprocessedStore(), 0, 1);
+    try {
+      GraphStoreSnapshot.load(conf, createStore(), 0, 2);
+      fail("the snapshot is of 1 partition");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("is partition 0 of 1"));
+    }
+  }
+
+  @Test
+  public void testNotPersistent() throws IOException {
+    GraphStoreSnapshot.save(conf, createPreprocessedStore(), 0, 1);
+    try {
+      GraphStoreSnapshot.load(conf, new ArrayBasedGraphStore(), 0, 1);
+      fail("ArrayBasedGraphStore is not a PersistentGraphStore");
+    } catch (IllegalStateException e) {
+      assertTrue(e.getMessage().contains(
+          ArrayBasedGraphStore.class.getName()));
+      assertTrue(e.getMessage().contains("PersistentGraphStore"));
+    }
+    try {
+      GraphStoreSnapshot.save(conf, new ArrayBasedGraphStore(), 0, 1);
+      fail("ArrayBasedGraphStore is not a PersistentGraphStore");
+    } catch (IllegalStateException e) {
+      assertTrue(e.getMessage().contains("PersistentGraphStore"));
+    }
+  }
+}
@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.subgraph.graphextraction;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.giraph.bsp.CentralizedServiceWorker;
+import org.apache.giraph.comm.WorkerClientRequestProcessor;
+import org.apache.giraph.partition.PartitionOwner;
+import org.apache.giraph.worker.WorkerInfo;
+import org.apache.hadoop.io.IntWritable;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test that the paths sent through {@link PathMessageCombiner} aggregate to
+ * the same weights as the paths sent one by one, for the exact semirings.
+ */
+public class TestPathMessageCombiner {
+  /** Number of destination workers */
+  private static final int NUM_WORKERS = 3;
+  /** Number of target vertices */
+  private static final int NUM_TARGETS = 20;
+
+  /** A partial path sent to a vertex */
+  private static class SentPath {
+    /** Target vertex */
+    private final int target;
+    /** Query id */
+    private final int qid;
+    /** Start vertex */
+    private final int sid;
+    /** End vertex */
+    private final int tid;
+    /** Weight */
+    private final long weight;
+
+    /**
+     * Constructor
+     *
+     * @param target Target vertex
+     * @param qid Query id
+     * @param sid Start vertex
+     * @param tid End vertex
+     * @param weight Weight
+     */
+    SentPath(int target, int qid, int sid, int tid, long weight) {
+      this.target = target;
+      this.qid = qid;
+      this.sid = sid;
+      this.tid = tid;
+      this.weight = weight;
+    }
+  }
+
+  /**
+   * Service worker placing the vertex v on the worker v % NUM_WORKERS
+   *
+   * @return Service worker
+   */
+  private static CentralizedServiceWorker<IntWritable, ?, ?, ?>
+  createServiceWorker() {
+    CentralizedServiceWorker<IntWritable, ?, ?, ?> serviceWorker =
+        Mockito.mock(CentralizedServiceWorker.class);
+    final PartitionOwner[] owners = new PartitionOwner[NUM_WORKERS];
+    for (int i = 0; i < NUM_WORKERS; ++i) {
+      WorkerInfo workerInfo = Mockito.mock(WorkerInfo.class);
+      Mockito.when(workerInfo.getTaskId()).thenReturn(i);
+      owners[i] = Mockito.mock(PartitionOwner.class);
+      Mockito.when(owners[i].getWorkerInfo()).thenReturn(workerInfo);
+    }
+    Mockito.when(serviceWorker.getVertexPartitionOwner(
+        Mockito.any(IntWritable.class))).thenAnswer(
+        new Answer<PartitionOwner>() {
+          @Override
+          public PartitionOwner answer(InvocationOnMock invocation) {
+            IntWritable vid = (IntWritable) invocation.getArguments()[0];
+            return owners[vid.get() % NUM_WORKERS];
+          }
+        });
+    return serviceWorker;
+  }
+
+  /**
+   * Request processor recording the sent paths; the id and the message are
+   * copied, the combiner reuses them.
+   *
+   * @param sent Sent paths
+   * @return Request processor
+   */
+  private static WorkerClientRequestProcessor<IntWritable, ?, ?,
+      PartialAggregatedPath> createProcessor(final List<SentPath> sent) {
+    WorkerClientRequestProcessor<IntWritable, ?, ?, PartialAggregatedPath>
+        processor = Mockito.mock(WorkerClientRequestProcessor.class);
+    Mockito.when(processor.sendMessageRequest(Mockito.any(IntWritable.class),
+        Mockito.any(PartialAggregatedPath.class))).thenAnswer(
+        new Answer<Boolean>() {
+          @Override
+          public Boolean answer(InvocationOnMock invocation) {
+            IntWritable target = (IntWritable) invocation.getArguments()[0];
+            PartialAggregatedPath msg =
+                (PartialAggregatedPath) invocation.getArguments()[1];
+            sent.add(new SentPath(target.get(), msg.getQid(), msg.getSid(),
+                msg.getTid(), msg.getWeight()));
+            return false;
+          }
+        });
+    return processor;
+  }
+
+  /**
+   * Weights of the paths merged as the receiver does, by target and
+   * (qid, sid, tid)
+   *
+   * @param semiring Semiring
+   * @param paths Paths
+   * @return Key ==> weight
+   */
+  private static Map<List<Integer>, Long> aggregate(PathSemiring semiring,
+      List<SentPath> paths) {
+    Map<List<Integer>, Long> res = Maps.newHashMap();
+    for (SentPath path : paths) {
+      List<Integer> key =
+          Lists.newArrayList(path.target, path.qid, path.sid, path.tid);
+      Long weight = res.get(key);
+      res.put(key, weight == null ? path.weight :
+          semiring.plus(weight, path.weight));
+    }
+    return res;
+  }
+
+  /**
+   * Send random paths with and without the combiner
+   *
+   * @param semiring Semiring
+   * @param maxMessageBytes Bytes of a buffer before it is sent
+   * @param random Random
+   */
+  private static void checkSameAggregation(PathSemiring semiring,
+      int maxMessageBytes, Random random) {
+    List<SentPath> uncombined = Lists.newArrayList();
+    for (int i = 0; i < 5000; ++i) {
+      // tid decides the target, as a partial path goes to its end vertex
+      int tid = random.nextInt(NUM_TARGETS);
+      uncombined.add(new SentPath(tid, random.nextInt(3),
+          random.nextInt(10), tid, 1 + random.nextInt(100)));
+    }
+
+    List<SentPath> combined = Lists.newArrayList();
+    WorkerClientRequestProcessor<IntWritable, ?, ?, PartialAggregatedPath>
+        processor = createProcessor(combined);
+    PathMessageCombiner combiner = new PathMessageCombiner(semiring,
+        createServiceWorker(), maxMessageBytes);
+    for (SentPath path : uncombined) {
+      combiner.add(processor, path.target, path.qid, path.sid, path.tid,
+          path.weight);
+    }
+    combiner.flush(processor);
+
+    assertTrue(combined.size() < uncombined.size());
+    assertEquals(aggregate(semiring, uncombined),
+        aggregate(semiring, combined));
+    assertEquals("combined paths: added=" + uncombined.size() + " sent=" +
+        combined.size(), combiner.resetStatistics());
+  }
+
+  @Test
+  public void testSameAggregation() {
+    Random random = new Random(11);
+    // Not sumproduct: the sums of doubles depend on the order of the paths
+    for (String name : new String[] {"count", "minplus", "maxmin"}) {
+      PathSemiring semiring = PathSemiring.create(name);
+      // Buffers sent only by the flush, and sent every few messages
+      checkSameAggregation(semiring, 1 << 20, random);
+      checkSameAggregation(semiring, 24 * 50, random);
+    }
+  }
+}
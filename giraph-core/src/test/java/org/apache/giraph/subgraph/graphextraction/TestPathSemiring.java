@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.subgraph.graphextraction;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.io.VertexOutputFormat;
+import org.apache.giraph.io.formats.IdWithValueTextOutputFormat;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Test the edge values {@link PathSemiring} saves the extracted graph with.
+ */
+public class TestPathSemiring {
+  /** Vertex of the path evaluation */
+  private static class PathVertex extends Vertex<IntWritable, IntWritable,
+      IntWritable, PartialAggregatedPath> {
+    @Override
+    public void compute(Iterable<PartialAggregatedPath> messages)
+      throws IOException {
+    }
+  }
+
+  /** Output format typed with the edge values of the input */
+  private static class IntEdgeOutputFormat extends
+      IdWithValueTextOutputFormat<IntWritable, IntWritable, IntWritable> {
+  }
+
+  /** Output format typed with the weights of the long semirings */
+  private static class LongEdgeOutputFormat extends
+      IdWithValueTextOutputFormat<IntWritable, IntWritable, LongWritable> {
+  }
+
+  /** Output format taking any edge value */
+  private static class WritableEdgeOutputFormat extends
+      IdWithValueTextOutputFormat<IntWritable, IntWritable, Writable> {
+  }
+
+  /**
+   * Check an output format against a semiring
+   *
+   * @param semiring Name of the semiring
+   * @param outputFormatClass Vertex output format
+   */
+  private static void checkOutputFormat(String semiring,
+      Class<? extends VertexOutputFormat> outputFormatClass) {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setVertexClass(PathVertex.class);
+    conf.setVertexOutputFormatClass(outputFormatClass);
+    GiraphConstants.GRAPHOLAP_PATH_EVALUATION_SEMIRING.set(conf, semiring);
+    PathSemiring.checkOutputFormat(
+        new ImmutableClassesGiraphConfiguration(conf));
+  }
+
+  @Test
+  public void testWritableClass() {
+    for (String name : new String[] {"count", "minplus", "maxmin"}) {
+      PathSemiring semiring = PathSemiring.create(name);
+      assertEquals(LongWritable.class, semiring.getWritableClass());
+      assertEquals(LongWritable.class,
+          semiring.toWritable(semiring.one()).getClass());
+    }
+    PathSemiring sumProduct = PathSemiring.create("sumproduct");
+    assertEquals(DoubleWritable.class, sumProduct.getWritableClass());
+    assertEquals(new DoubleWritable(3.0),
+        sumProduct.toWritable(sumProduct.fromEdgeWeight(3)));
+  }
+
+  @Test
+  public void testOutputFormat() {
+    checkOutputFormat("count", LongEdgeOutputFormat.class);
+    checkOutputFormat("sumproduct", WritableEdgeOutputFormat.class);
+    checkOutputFormat("sumproduct", IdWithValueTextOutputFormat.class);
+    try {
+      checkOutputFormat("count", IntEdgeOutputFormat.class);
+      fail("IntWritable edges cannot hold the path counts");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    try {
+      checkOutputFormat("sumproduct", LongEdgeOutputFormat.class);
+      fail("LongWritable edges cannot hold the double weights");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+}
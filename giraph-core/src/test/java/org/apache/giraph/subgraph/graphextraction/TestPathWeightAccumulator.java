@@ -0,0 +1,210 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.subgraph.graphextraction;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.plan.EdgeDirection;
+import org.apache.hadoop.io.IntWritable;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test that the two-hop exploration with {@link PathWeightAccumulator}
+ * aggregates the same paths as the boxed HashMap&lt;Integer, Integer&gt; it
+ * replaced, on the path query 0 -[0]-> 1 -[1]-> 2.
+ */
+public class TestPathWeightAccumulator {
+  /** Number of vertices */
+  private static final int NUM_VERTICES = 90;
+  /** Number of vertex and edge labels */
+  private static final int NUM_LABELS = 3;
+  /** Label of the start vertices */
+  private static final int START_LABEL = 0;
+  /** Label of the middle vertices */
+  private static final int MID_LABEL = 1;
+  /** Label of the end vertices */
+  private static final int END_LABEL = 2;
+
+  /** Vertex of the path evaluation */
+  private static class PathVertex extends Vertex<IntWritable, IntWritable,
+      IntWritable, PartialAggregatedPath> {
+    @Override
+    public void compute(Iterable<PartialAggregatedPath> messages)
+      throws IOException {
+    }
+  }
+
+  /** Store of the graph */
+  private CSRGraphStore store;
+  /** Adjacency index of every vertex, by local id */
+  private LabelAdjacencyIndex[] indexes;
+
+  @Before
+  public void setUp() {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setVertexClass(PathVertex.class);
+    store = new CSRGraphStore();
+    store.setConf(new ImmutableClassesGiraphConfiguration(conf));
+    store.initialize(0, null);
+    for (int i = 0; i < NUM_VERTICES; ++i) {
+      store.createVertex(1000 + i, i % NUM_LABELS);
+    }
+    // Vertex 0 is a hub reaching every middle vertex
+    Set<Long> edges = Sets.newHashSet();
+    for (int nbr = MID_LABEL; nbr < NUM_VERTICES; nbr += NUM_LABELS) {
+      edges.add((long) nbr);
+      store.getVertex(0).addOutNeighbor(new BasicEdge(nbr, 0, 1));
+    }
+    Random random = new Random(13);
+    for (int i = 0; i < 20 * NUM_VERTICES; ++i) {
+      int src = random.nextInt(NUM_VERTICES);
+      int dst = random.nextInt(NUM_VERTICES);
+      if (edges.add((long) src * NUM_VERTICES + dst)) {
+        store.getVertex(src).addOutNeighbor(new BasicEdge(dst,
+            random.nextInt(NUM_LABELS), 1 + random.nextInt(5)));
+      }
+    }
+    store.compact();
+    indexes = new LabelAdjacencyIndex[NUM_VERTICES];
+    for (int lid = 0; lid < NUM_VERTICES; ++lid) {
+      indexes[lid] = LabelAdjacencyIndex.build(store, store.getVertex(lid));
+    }
+  }
+
+  /**
+   * Paths of one start vertex as aggregated before: a new boxed map per
+   * start vertex, read from the vertex neighborhoods
+   *
+   * @param lid Local id of the start vertex
+   * @param twoHops Whether the paths go on to the end vertices
+   * @return End vertex ==> number of paths
+   */
+  private Map<Integer, Integer> boxedPaths(int lid, boolean twoHops) {
+    HashMap<Integer, Integer> aggWeights = new HashMap<Integer, Integer>();
+    for (BasicEdge be : store.getVertex(lid).getOutNeighbors()) {
+      if (be.getLabel() != 0 ||
+          store.getVertex(be.getVid()).getLabel() != MID_LABEL) {
+        continue;
+      }
+      if (!twoHops) {
+        aggWeights.put(be.getVid(), (int) be.getWeight());
+        continue;
+      }
+      for (BasicEdge edge :
+          store.getVertex(be.getVid()).getOutNeighbors()) {
+        if (edge.getLabel() != 1 ||
+            store.getVertex(edge.getVid()).getLabel() != END_LABEL) {
+          continue;
+        }
+        Integer curVal = aggWeights.get(edge.getVid());
+        if (curVal == null) {
+          curVal = 0;
+        }
+        // The edge weights were ints then
+        curVal += (int) be.getWeight() * (int) edge.getWeight();
+        aggWeights.put(edge.getVid(), curVal);
+      }
+    }
+    return aggWeights;
+  }
+
+  /**
+   * Paths of one start vertex as the leaf query aggregates them now
+   *
+   * @param lid Local id of the start vertex
+   * @param twoHops Whether the paths go on to the end vertices
+   * @param semiring Semiring of the weights
+   * @param aggWeights Accumulator, reused by all the start vertices
+   * @return End vertex ==> number of paths
+   */
+  private Map<Integer, Integer> accumulatedPaths(int lid, boolean twoHops,
+      PathSemiring semiring, PathWeightAccumulator aggWeights) {
+    LabelAdjacencyIndex firstNbrs = indexes[lid];
+    int firstEnd = firstNbrs.rangeEnd(0, MID_LABEL, EdgeDirection.OUTGOING);
+    aggWeights.clear();
+    for (int i = firstNbrs.rangeStart(0, MID_LABEL, EdgeDirection.OUTGOING);
+        i < firstEnd; ++i) {
+      long firstWeight = semiring.fromEdgeWeight(firstNbrs.getWeight(i));
+      if (!twoHops) {
+        aggWeights.accumulate(firstNbrs.getNbr(i), firstWeight);
+        continue;
+      }
+      LabelAdjacencyIndex secondNbrs = indexes[firstNbrs.getNbr(i)];
+      int secondEnd =
+          secondNbrs.rangeEnd(1, END_LABEL, EdgeDirection.OUTGOING);
+      for (int j = secondNbrs.rangeStart(1, END_LABEL,
+          EdgeDirection.OUTGOING); j < secondEnd; ++j) {
+        aggWeights.accumulate(secondNbrs.getNbr(j), semiring.times(
+            firstWeight, semiring.fromEdgeWeight(secondNbrs.getWeight(j))));
+      }
+    }
+    Map<Integer, Integer> res = Maps.newHashMap();
+    for (int i = 0; i < aggWeights.size(); ++i) {
+      res.put(aggWeights.keyAt(i), (int) aggWeights.valueAt(i));
+    }
+    // Every end vertex is listed once
+    assertEquals(aggWeights.size(), res.size());
+    return res;
+  }
+
+  /**
+   * Compare the paths of every start vertex
+   *
+   * @param twoHops Whether the paths go on to the end vertices
+   */
+  private void checkSamePaths(boolean twoHops) {
+    PathSemiring semiring = PathSemiring.create("count");
+    // A small table, so the hubs grow it and the next start vertices reuse it
+    PathWeightAccumulator aggWeights = new PathWeightAccumulator(semiring, 4);
+    int largest = 0;
+    for (int lid = 0; lid < NUM_VERTICES; ++lid) {
+      if (store.getVertex(lid).getLabel() != START_LABEL) {
+        continue;
+      }
+      Map<Integer, Integer> expected = boxedPaths(lid, twoHops);
+      assertEquals("start vertex " + lid, expected,
+          accumulatedPaths(lid, twoHops, semiring, aggWeights));
+      largest = Math.max(largest, expected.size());
+    }
+    // The hub grows the table beyond its initial 8 slots
+    assertTrue(largest > 8);
+  }
+
+  @Test
+  public void testOneHopSameAsBoxed() {
+    checkSamePaths(false);
+  }
+
+  @Test
+  public void testTwoHopsSameAsBoxed() {
+    checkSamePaths(true);
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.subgraph.graphextraction;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.graph.Vertex;
+import org.apache.hadoop.io.IntWritable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test that {@link SpillablePathStore} returns the same merged paths in
+ * memory, with a few spilled runs and with more runs than it keeps open.
+ */
+public class TestSpillablePathStore {
+  /** Semiring merging the paths */
+  private static final PathSemiring SEMIRING = PathSemiring.create("count");
+
+  /** Vertex of the path evaluation */
+  private static class PathVertex extends Vertex<IntWritable, IntWritable,
+      IntWritable, PartialAggregatedPath> {
+    @Override
+    public void compute(Iterable<PartialAggregatedPath> messages)
+      throws IOException {
+    }
+  }
+
+  /** Directory of the runs */
+  private File directory;
+
+  @Before
+  public void setUp() {
+    directory = Files.createTempDir();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(directory);
+  }
+
+  /**
+   * Create a store
+   *
+   * @param maxPaths Paths kept in memory
+   * @return Store
+   */
+  private SpillablePathStore createStore(int maxPaths) {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setVertexClass(PathVertex.class);
+    GiraphConstants.MESSAGES_DIRECTORY.set(conf,
+        directory.getAbsolutePath());
+    GiraphConstants.GRAPHOLAP_PATH_EVALUATION_TMP_MAX_PATHS.set(conf,
+        maxPaths);
+    SpillablePathStore store = new SpillablePathStore(SEMIRING,
+        new ImmutableClassesGiraphConfiguration(conf));
+    store.setPartitionId(3);
+    return store;
+  }
+
+  /**
+   * Number of files under the directory of the runs
+   *
+   * @param dir Directory
+   * @return Number of files
+   */
+  private static int countFiles(File dir) {
+    int count = 0;
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        count += file.isDirectory() ? countFiles(file) : 1;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Add random paths to a store, scan it and compare with the merged paths
+   *
+   * @param store Store
+   * @param numPaths Number of paths added
+   * @param numVertices Vertex ids of the paths
+   * @param seed Seed of the paths
+   * @throws IOException
+   */
+  private void checkPaths(SpillablePathStore store, int numPaths,
+      int numVertices, long seed) throws IOException {
+    Random random = new Random(seed);
+    Map<List<Integer>, Long> expected = Maps.newHashMap();
+    for (int i = 0; i < numPaths; ++i) {
+      int qid = random.nextInt(3);
+      int sid = random.nextInt(numVertices);
+      int tid = random.nextInt(numVertices);
+      long weight = 1 + random.nextInt(5);
+      store.add(qid, sid, tid, weight);
+      List<Integer> key = Lists.newArrayList(qid, sid, tid);
+      Long old = expected.get(key);
+      expected.put(key, old == null ? weight : SEMIRING.plus(old, weight));
+    }
+
+    store.startScan();
+    List<Integer> last = null;
+    int scanned = 0;
+    while (store.next()) {
+      List<Integer> key = Lists.newArrayList(store.qid(), store.sid(),
+          store.tid());
+      // Sorted by (qid, sid, tid), each key once
+      if (last != null) {
+        assertTrue(last.get(0) < key.get(0) ||
+            (last.get(0).equals(key.get(0)) && (last.get(1) < key.get(1) ||
+            (last.get(1).equals(key.get(1)) && last.get(2) < key.get(2)))));
+      }
+      assertEquals(expected.get(key), Long.valueOf(store.weight()));
+      last = key;
+      scanned++;
+    }
+    assertEquals(expected.size(), scanned);
+    store.clear();
+    assertEquals(0, countFiles(directory));
+  }
+
+  @Test
+  public void testInMemory() throws IOException {
+    SpillablePathStore store = createStore(100000);
+    checkPaths(store, 20000, 50, 1);
+    assertFalse(store.hasSpilled());
+    assertEquals(0, store.resetSpilledPaths());
+  }
+
+  @Test
+  public void testSpilled() throws IOException {
+    SpillablePathStore store = createStore(500);
+    checkPaths(store, 5000, 40, 2);
+    assertTrue(store.resetSpilledPaths() > 0);
+    // The store is reused after clear
+    checkPaths(store, 3000, 40, 3);
+  }
+
+  @Test
+  public void testManyRuns() throws IOException {
+    // Distinct keys, so every 10 paths spill one run: ~200 runs
+    SpillablePathStore store = createStore(10);
+    Random random = new Random(4);
+    for (int i = 0; i < 2000; ++i) {
+      store.add(0, random.nextInt(1000), random.nextInt(1000), 1);
+      // Merged into one run whenever there are 64 of them
+      assertTrue(countFiles(directory) < 64);
+    }
+    assertTrue(store.hasSpilled());
+    store.clear();
+    checkPaths(store, 2000, 30, 5);
+  }
+}
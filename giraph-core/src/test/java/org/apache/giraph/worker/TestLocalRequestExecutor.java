@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.worker;
+
+import org.apache.giraph.comm.ServerData;
+import org.apache.giraph.comm.requests.WorkerRequest;
+import org.apache.hadoop.io.IntWritable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test {@link LocalRequestExecutor}.
+ */
+public class TestLocalRequestExecutor {
+  /** Executor under test */
+  private LocalRequestExecutor executor;
+
+  /**
+   * Request counting its executions, optionally blocked on a latch.
+   */
+  private static class CountingRequest implements
+      WorkerRequest<IntWritable, IntWritable, IntWritable, IntWritable> {
+    /** Executions of every request */
+    private final AtomicInteger executed;
+    /** Latch to wait on before executing, may be null */
+    private final CountDownLatch gate;
+
+    /**
+     * Constructor
+     *
+     * @param executed Executions of every request
+     * @param gate Latch to wait on before executing, may be null
+     */
+    CountingRequest(AtomicInteger executed, CountDownLatch gate) {
+      this.executed = executed;
+      this.gate = gate;
+    }
+
+    @Override
+    public void doRequest(ServerData<IntWritable, IntWritable, IntWritable,
+        IntWritable> serverData) {
+      if (gate != null) {
+        try {
+          gate.await();
+        } catch (InterruptedException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+      executed.incrementAndGet();
+    }
+  }
+
+  /**
+   * Request throwing the given error.
+   */
+  private static class FailingRequest implements
+      WorkerRequest<IntWritable, IntWritable, IntWritable, IntWritable> {
+    /** Error to throw */
+    private final Error error;
+
+    /**
+     * Constructor
+     *
+     * @param error Error to throw
+     */
+    FailingRequest(Error error) {
+      this.error = error;
+    }
+
+    @Override
+    public void doRequest(ServerData<IntWritable, IntWritable, IntWritable,
+        IntWritable> serverData) {
+      throw error;
+    }
+  }
+
+  @Before
+  public void setUp() {
+    executor = new LocalRequestExecutor(null, 3, 2);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdown();
+  }
+
+  @Test
+  public void testWaitForIdle() throws InterruptedException {
+    final AtomicInteger executed = new AtomicInteger();
+    final CountDownLatch gate = new CountDownLatch(1);
+    executor.execute(0, new CountingRequest(executed, gate));
+
+    final CountDownLatch idle = new CountDownLatch(1);
+    Thread waiter = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        executor.waitForIdle();
+        idle.countDown();
+      }
+    });
+    waiter.start();
+    assertFalse(idle.await(100, TimeUnit.MILLISECONDS));
+    assertEquals(1, executor.getInFlight());
+
+    gate.countDown();
+    assertTrue(idle.await(10, TimeUnit.SECONDS));
+    assertEquals(1, executed.get());
+    assertEquals(0, executor.getInFlight());
+    waiter.join();
+  }
+
+  @Test
+  public void testManyRequests() {
+    AtomicInteger executed = new AtomicInteger();
+    // More requests than the queues hold, so the producer blocks
+    for (int i = 0; i < 1000; ++i) {
+      executor.execute(i % 7 - 1, new CountingRequest(executed, null));
+    }
+    executor.waitForIdle();
+    assertEquals(1000, executed.get());
+    assertEquals(0, executor.getInFlight());
+  }
+
+  @Test
+  public void testFailurePropagation() {
+    AtomicInteger executed = new AtomicInteger();
+    Error error = new AssertionError("local request failure");
+    executor.execute(1, new FailingRequest(error));
+    for (int i = 0; i < 10; ++i) {
+      executor.execute(1, new CountingRequest(executed, null));
+    }
+    try {
+      executor.waitForIdle();
+      fail("waitForIdle should rethrow the failure");
+    } catch (IllegalStateException e) {
+      assertSame(error, e.getCause());
+    }
+    // The thread kept draining its queue
+    assertEquals(10, executed.get());
+
+    // The failure is reported once
+    executor.waitForIdle();
+    executor.execute(1, new CountingRequest(executed, null));
+    executor.waitForIdle();
+    assertEquals(11, executed.get());
+  }
+}
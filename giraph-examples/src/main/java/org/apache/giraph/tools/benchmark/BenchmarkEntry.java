@@ -16,6 +16,7 @@ public class BenchmarkEntry extends GiraphRunner {
 		ConfigurationUtils.addOption("impr", "improved", true, "turn on the improved evaluation method");
 		ConfigurationUtils.addOption("isharing", "isharing", false, "turn on the query sharing feature");
 		ConfigurationUtils.addOption("plan", "plan", true, "set the type of query plan");
+		ConfigurationUtils.addOption("semiring", "semiring", true, "set the path aggregation: count, sumproduct, minplus or maxmin");
 	}
 	
 	 protected  void prepareConfiguration(GiraphConfiguration conf, CommandLine cmd) {
@@ -57,6 +58,10 @@ public class BenchmarkEntry extends GiraphRunner {
 		if(cmd.hasOption("plan")) {
 			GiraphConstants.GRAPHOLAP_PATH_EVALUATION_PLAN.set(conf, cmd.getOptionValue("plan"));
 		}
+		
+		if(cmd.hasOption("semiring")) {
+			GiraphConstants.GRAPHOLAP_PATH_EVALUATION_SEMIRING.set(conf, cmd.getOptionValue("semiring"));
+		}
 	 }
 	 
 	 public static void main(String[] args) throws Exception {
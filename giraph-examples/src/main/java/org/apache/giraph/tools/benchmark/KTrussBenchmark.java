@@ -5,9 +5,11 @@ import org.apache.giraph.GiraphRunner;
 import org.apache.giraph.benchmark.BenchmarkOption;
 import org.apache.giraph.conf.GiraphConfiguration;
 import org.apache.giraph.partition.IdenticalPartitionerFactory;
+import org.apache.giraph.subgraph.CompactTrussGraphStore;
 import org.apache.giraph.subgraph.KTrussDecompositionSubgraph;
 import org.apache.giraph.subgraph.KTrussSubgraphImpr;
 import org.apache.giraph.subgraph.SimpleGraphStore;
+import org.apache.giraph.subgraph.TopTKTrussSubgraph;
 import org.apache.giraph.tools.graphanalytics.peta.ImprovedNormalKTrussVertex;
 import org.apache.giraph.tools.graphanalytics.peta.NormalKTrussVertex;
 import org.apache.giraph.utils.ConfigurationUtils;
@@ -57,9 +59,9 @@ public class KTrussBenchmark extends GiraphRunner {
 			conf.setBoolean("giraph.ktruss.subgraph", true);
 			conf.setInt("giraph.ktruss.subgraph.topt", Integer.valueOf(cmd.getOptionValue("top")));
 			conf.set("giraph.ktruss.subgraph.program", "topt");
-			conf.setPartitionClass(SimpleGraphStore.class);
-//			conf.setMasterComputeClass(TopTKTrussSubgraph.AggregatorsMasterCompute.class);
-			
+			conf.setPartitionClass(CompactTrussGraphStore.class);
+			conf.setMasterComputeClass(TopTKTrussSubgraph.AggregatorsMasterCompute.class);
+
 		}
 		else if("impl".equals(testType)){
 			conf.setBoolean("giraph.ktruss.impl", true);